@@ -0,0 +1,78 @@
+package rs117.hd.data.environments;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares looking up areas through the spatial index in {@link Area#containsPoint} against scanning every AABB of
+ * each area, as was done previously. Each operation checks every tile of a whole scene, either against
+ * {@link Area#OVERWORLD} like when filling gaps in the terrain, or against every area like when matching overlays and
+ * underlays. Run with {@code ./gradlew jmh}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AreaLookupBenchmark {
+	private static final int SCENE_SIZE = 104;
+
+	// Lumbridge, Varrock, Prifddinas and the God Wars Dungeon
+	@Param({ "3170,3170", "3160,3380", "3210,6010", "2830,5280" })
+	public String sceneBase;
+
+	private int baseX;
+	private int baseY;
+	private Area[] areas;
+
+	@Setup
+	public void setup() {
+		String[] coords = sceneBase.split(",");
+		baseX = Integer.parseInt(coords[0]);
+		baseY = Integer.parseInt(coords[1]);
+		areas = Area.values();
+	}
+
+	@Benchmark
+	public int overworldScan() {
+		int count = 0;
+		for (int x = baseX; x < baseX + SCENE_SIZE; x++)
+			for (int y = baseY; y < baseY + SCENE_SIZE; y++)
+				if (Area.OVERWORLD.anyAabbContains(x, y, 0))
+					count++;
+		return count;
+	}
+
+	@Benchmark
+	public int overworldIndex() {
+		int count = 0;
+		for (int x = baseX; x < baseX + SCENE_SIZE; x++)
+			for (int y = baseY; y < baseY + SCENE_SIZE; y++)
+				if (Area.OVERWORLD.containsPoint(x, y, 0))
+					count++;
+		return count;
+	}
+
+	@Benchmark
+	public int allAreasScan() {
+		int count = 0;
+		for (int x = baseX; x < baseX + SCENE_SIZE; x++)
+			for (int y = baseY; y < baseY + SCENE_SIZE; y++)
+				for (Area area : areas)
+					if (area.anyAabbContains(x, y, 0))
+						count++;
+		return count;
+	}
+
+	@Benchmark
+	public int allAreasIndex() {
+		int count = 0;
+		for (int x = baseX; x < baseX + SCENE_SIZE; x++)
+			for (int y = baseY; y < baseY + SCENE_SIZE; y++)
+				for (Area area : areas)
+					if (area.containsPoint(x, y, 0))
+						count++;
+		return count;
+	}
+}
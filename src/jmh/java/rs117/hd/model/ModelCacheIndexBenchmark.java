@@ -0,0 +1,78 @@
+package rs117.hd.model;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the off-heap {@link ModelCacheIndex} against the boxed {@link HashMap} the model cache used previously.
+ * Run with {@code ./gradlew jmh}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelCacheIndexBenchmark {
+	@Param({ "1024", "65536" })
+	public int entryCount;
+
+	private long[] hashes;
+	private HashMap<Long, long[]> map;
+	private ModelCacheIndex index;
+	private int cursor;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(117);
+		hashes = new long[entryCount];
+		map = new HashMap<>();
+		index = new ModelCacheIndex(entryCount);
+		for (int i = 0; i < entryCount; i++) {
+			hashes[i] = random.nextLong();
+			map.put(hashes[i], new long[] { 8L * (i + 1), 48 });
+			index.put(hashes[i], 8L * (i + 1), 48);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		index.destroy();
+	}
+
+	private long nextHash() {
+		cursor = (cursor + 1) % entryCount;
+		return hashes[cursor];
+	}
+
+	@Benchmark
+	public void hashMapGet(Blackhole blackhole) {
+		long[] entry = map.get(nextHash());
+		blackhole.consume(entry[0]);
+	}
+
+	@Benchmark
+	public void indexGet(Blackhole blackhole) {
+		int slot = index.find(nextHash());
+		blackhole.consume(index.getAddress(slot));
+	}
+
+	@Benchmark
+	public void hashMapReplace(Blackhole blackhole) {
+		long hash = nextHash();
+		long[] entry = map.remove(hash);
+		blackhole.consume(map.put(hash, entry));
+	}
+
+	@Benchmark
+	public void indexReplace() {
+		long hash = nextHash();
+		int slot = index.find(hash);
+		long address = index.getAddress(slot);
+		index.remove(hash, address);
+		index.put(hash, address, 48);
+	}
+}
@@ -0,0 +1,67 @@
+package rs117.hd.model;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares the throughput of {@link ModelHasher}'s xxHash64 kernels against the polynomial hashes used previously,
+ * on arrays the size of typical models. See {@link ModelHashCollisions} for a comparison of collision rates.
+ * Run with {@code ./gradlew jmh}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelHashBenchmark {
+	// Vertex or face counts, from small scenery objects up to HdPlugin.MAX_FACE_COUNT
+	@Param({ "64", "512", "2048", "6144" })
+	public int size;
+
+	private int[] vertices;
+	private int[] colors;
+	private short[] textures;
+	private byte[] transparencies;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(117);
+		vertices = SyntheticModelData.vertices(random, size);
+		colors = SyntheticModelData.faceColors(random, size);
+		textures = SyntheticModelData.faceTextures(random, size);
+		transparencies = SyntheticModelData.faceTransparencies(random, size);
+	}
+
+	@Benchmark
+	public long polynomialInts() {
+		return SyntheticModelData.polynomialHash(vertices, vertices.length) * 31 +
+			   SyntheticModelData.polynomialHash(colors, colors.length);
+	}
+
+	@Benchmark
+	public long xxHashInts() {
+		return ModelHasher.fastHash(vertices, vertices.length) * 31 + ModelHasher.fastHash(colors);
+	}
+
+	@Benchmark
+	public long polynomialShorts() {
+		return SyntheticModelData.polynomialHash(textures);
+	}
+
+	@Benchmark
+	public long xxHashShorts() {
+		return ModelHasher.fastShortHash(textures);
+	}
+
+	@Benchmark
+	public long polynomialBytes() {
+		return SyntheticModelData.polynomialHash(transparencies);
+	}
+
+	@Benchmark
+	public long xxHashBytes() {
+		return ModelHasher.fastByteHash(transparencies);
+	}
+}
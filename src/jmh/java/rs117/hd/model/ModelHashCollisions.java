@@ -0,0 +1,86 @@
+package rs117.hd.model;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.ToLongFunction;
+
+/**
+ * Counts hash collisions between distinct near-identical arrays, like those produced by animation frames and recolors,
+ * for {@link ModelHasher}'s xxHash64 kernel and the polynomial hash used previously. Both full 64-bit hashes and hashes
+ * truncated to 24 bits are compared, where the latter shows how evenly hashes spread across hash table buckets.
+ * <p>
+ * Run with {@code java -cp <jmh runtime classpath> rs117.hd.model.ModelHashCollisions [models] [variants]}.
+ */
+public class ModelHashCollisions {
+	private static final int TRUNCATED_BITS = 24;
+
+	public static void main(String[] args) {
+		int modelCount = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int variantCount = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+
+		Random random = new Random(117);
+		Set<IntArray> arrays = new HashSet<>();
+		for (int m = 0; m < modelCount; m++) {
+			int size = 16 + random.nextInt(2048);
+			int[] vertices = SyntheticModelData.vertices(random, size);
+			int[] colors = SyntheticModelData.faceColors(random, size);
+			addAll(arrays, SyntheticModelData.animationFrames(random, vertices, variantCount));
+			addAll(arrays, SyntheticModelData.recolors(random, colors, variantCount));
+		}
+
+		System.out.printf("%,d distinct arrays%n", arrays.size());
+		report("polynomial", arrays, a -> SyntheticModelData.polynomialHash(a, a.length));
+		report("xxHash64", arrays, ModelHasher::fastHash);
+
+		double expected = expectedCollisions(arrays.size(), TRUNCATED_BITS);
+		System.out.printf("Expected %d-bit collisions for an ideal hash: %,.0f%n", TRUNCATED_BITS, expected);
+	}
+
+	private static void addAll(Set<IntArray> set, List<int[]> arrays) {
+		for (int[] array : arrays)
+			set.add(new IntArray(array));
+	}
+
+	private static void report(String name, Set<IntArray> arrays, ToLongFunction<int[]> hash) {
+		Set<Long> full = new HashSet<>();
+		Set<Long> truncated = new HashSet<>();
+		for (IntArray array : arrays) {
+			long h = hash.applyAsLong(array.values);
+			full.add(h);
+			// Use the upper bits of a Fibonacci hash, like ModelCacheIndex does
+			truncated.add((h * 0x9E3779B97F4A7C15L) >>> (64 - TRUNCATED_BITS));
+		}
+		System.out.printf(
+			"%-12s %,d 64-bit collisions, %,d %d-bit collisions%n",
+			name, arrays.size() - full.size(), arrays.size() - truncated.size(), TRUNCATED_BITS
+		);
+	}
+
+	private static double expectedCollisions(int count, int bits) {
+		double buckets = Math.pow(2, bits);
+		return count - buckets * (1 - Math.pow(1 - 1 / buckets, count));
+	}
+
+	private static class IntArray {
+		final int[] values;
+		final int hashCode;
+
+		IntArray(int[] values) {
+			this.values = values;
+			hashCode = Arrays.hashCode(values);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof IntArray && Arrays.equals(values, ((IntArray) other).values);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package rs117.hd.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates arrays resembling the ones {@link ModelHasher} hashes, including families of near-identical arrays like
+ * those produced by animation frames and recolors, which are the hardest case for a weak hash.
+ */
+class SyntheticModelData {
+	private SyntheticModelData() {}
+
+	/**
+	 * Vertex coordinates, mostly within a few tiles of the model's origin.
+	 */
+	static int[] vertices(Random random, int count) {
+		int[] vertices = new int[count];
+		for (int i = 0; i < count; i++)
+			vertices[i] = random.nextInt(1024) - 512;
+		return vertices;
+	}
+
+	/**
+	 * Face indices, where consecutive faces tend to share nearby vertices.
+	 */
+	static int[] faceIndices(Random random, int count) {
+		int[] indices = new int[count];
+		for (int i = 0; i < count; i++)
+			indices[i] = Math.max(0, i / 2 + random.nextInt(8) - 4);
+		return indices;
+	}
+
+	/**
+	 * Packed HSL face colors, with few distinct hues per model.
+	 */
+	static int[] faceColors(Random random, int count) {
+		int hue = random.nextInt(64);
+		int saturation = random.nextInt(8);
+		int[] colors = new int[count];
+		for (int i = 0; i < count; i++)
+			colors[i] = (hue + random.nextInt(3)) << 10 | saturation << 7 | random.nextInt(128);
+		return colors;
+	}
+
+	static short[] faceTextures(Random random, int count) {
+		short[] textures = new short[count];
+		short texture = (short) random.nextInt(100);
+		for (int i = 0; i < count; i++)
+			textures[i] = random.nextInt(4) == 0 ? texture : -1;
+		return textures;
+	}
+
+	static byte[] faceTransparencies(Random random, int count) {
+		byte[] transparencies = new byte[count];
+		for (int i = 0; i < count; i++)
+			transparencies[i] = random.nextInt(8) == 0 ? (byte) random.nextInt(256) : 0;
+		return transparencies;
+	}
+
+	/**
+	 * Generates variations of a vertex array, as an animation would, by moving small groups of vertices by a few units.
+	 */
+	static List<int[]> animationFrames(Random random, int[] base, int frameCount) {
+		List<int[]> frames = new ArrayList<>(frameCount);
+		for (int f = 0; f < frameCount; f++) {
+			int[] frame = base.clone();
+			int groups = 1 + random.nextInt(4);
+			for (int g = 0; g < groups; g++) {
+				int start = random.nextInt(frame.length);
+				int end = Math.min(frame.length, start + 1 + random.nextInt(16));
+				int delta = random.nextInt(17) - 8;
+				for (int i = start; i < end; i++)
+					frame[i] += delta;
+			}
+			frames.add(frame);
+		}
+		return frames;
+	}
+
+	/**
+	 * Generates variations of a color array, as recolors and lightness adjustments would.
+	 */
+	static List<int[]> recolors(Random random, int[] base, int variantCount) {
+		List<int[]> variants = new ArrayList<>(variantCount);
+		for (int v = 0; v < variantCount; v++) {
+			int[] variant = base.clone();
+			int hueShift = random.nextInt(3) - 1;
+			int lightnessShift = random.nextInt(5) - 2;
+			for (int i = 0; i < variant.length; i++)
+				variant[i] += hueShift << 10 | lightnessShift;
+			variants.add(variant);
+		}
+		return variants;
+	}
+
+	/**
+	 * The polynomial hash {@link ModelHasher} used previously, for comparison.
+	 */
+	static long polynomialHash(int[] a, int length) {
+		int i = 0;
+		long r = 1;
+
+		for (; i + 5 < length; i += 6)
+			r = 31L * 31L * 31L * 31L * 31L * 31L * r +
+				31L * 31L * 31L * 31L * 31L * a[i] +
+				31L * 31L * 31L * 31L * a[i + 1] +
+				31L * 31L * 31L * a[i + 2] +
+				31L * 31L * a[i + 3] +
+				31L * a[i + 4] +
+				a[i + 5];
+
+		for (; i < length; i++)
+			r = 31L * r + a[i];
+
+		return r;
+	}
+
+	static int polynomialHash(short[] a) {
+		int i = 0;
+		int r = 1;
+
+		for (; i + 5 < a.length; i += 6)
+			r = 31 * 31 * 31 * 31 * 31 * 31 * r +
+				31 * 31 * 31 * 31 * 31 * a[i] +
+				31 * 31 * 31 * 31 * a[i + 1] +
+				31 * 31 * 31 * a[i + 2] +
+				31 * 31 * a[i + 3] +
+				31 * a[i + 4] +
+				a[i + 5];
+
+		for (; i < a.length; i++)
+			r = 31 * r + a[i];
+
+		return r;
+	}
+
+	static int polynomialHash(byte[] a) {
+		int i = 0;
+		int r = 1;
+
+		for (; i + 5 < a.length; i += 6)
+			r = 31 * 31 * 31 * 31 * 31 * 31 * r +
+				31 * 31 * 31 * 31 * 31 * a[i] +
+				31 * 31 * 31 * 31 * a[i + 1] +
+				31 * 31 * 31 * a[i + 2] +
+				31 * 31 * a[i + 3] +
+				31 * a[i + 4] +
+				a[i + 5];
+
+		for (; i < a.length; i++)
+			r = 31 * r + a[i];
+
+		return r;
+	}
+}
@@ -0,0 +1,101 @@
+package rs117.hd.scene;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+import static net.runelite.api.Constants.EXTENDED_SCENE_SIZE;
+
+/**
+ * Compares {@link ProceduralGenerator#calculateDepthLevels}'s breadth-first search against the sweeps used previously,
+ * on a single plane of water-heavy scenes. Both include the cost of copying the input, since they work in place.
+ * Run with {@code ./gradlew jmh}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UnderwaterDepthBenchmark {
+	private static final int SIZE = EXTENDED_SCENE_SIZE + 1;
+
+	// Open sea with a boat in the middle, like Fishing Trawler, or a coastline with piers, like Port Sarim
+	@Param({ "openSea", "coastline" })
+	public String layout;
+
+	private int[][] water;
+
+	@Setup
+	public void setup() {
+		water = new int[SIZE][SIZE];
+		for (int x = 0; x < EXTENDED_SCENE_SIZE; x++)
+			Arrays.fill(water[x], 1);
+
+		if (layout.equals("openSea")) {
+			for (int x = 80; x < 104; x++)
+				for (int y = 86; y < 98; y++)
+					water[x][y] = 0;
+		} else {
+			for (int x = 0; x < SIZE; x++) {
+				int shore = 70 + (int) (12 * Math.sin(x / 11.));
+				for (int y = shore; y < SIZE; y++)
+					water[x][y] = 0;
+				// piers reaching into the water
+				if (x % 24 < 3)
+					for (int y = shore - 20; y < shore; y++)
+						water[x][y] = 0;
+			}
+		}
+	}
+
+	@Benchmark
+	public int[][] sweeps() {
+		int[][] levels = copy(water);
+		sweepDepthLevels(levels);
+		return levels;
+	}
+
+	@Benchmark
+	public int[][] breadthFirstSearch() {
+		int[][] levels = copy(water);
+		ProceduralGenerator.calculateDepthLevels(levels);
+		return levels;
+	}
+
+	private static int[][] copy(int[][] levels) {
+		int[][] copy = new int[levels.length][];
+		for (int x = 0; x < levels.length; x++)
+			copy[x] = levels[x].clone();
+		return copy;
+	}
+
+	/**
+	 * The algorithm previously used to calculate depth levels, which sweeps the whole grid once per level.
+	 */
+	private static void sweepDepthLevels(int[][] levels) {
+		for (int level = 0; level < ProceduralGenerator.DEPTH_LEVEL_SLOPE.length - 1; level++) {
+			for (int x = 0; x < levels.length; x++) {
+				for (int y = 0; y < levels[x].length; y++) {
+					if (levels[x][y] == 0)
+						continue;
+					if (x == 0 || y == 0 || x == EXTENDED_SCENE_SIZE || y == EXTENDED_SCENE_SIZE) {
+						levels[x][y] = 0;
+						continue;
+					}
+
+					int tileHeight = levels[x][y];
+					if (levels[x - 1][y] < tileHeight)
+						continue;
+					if (x < levels.length - 1 && levels[x + 1][y] < tileHeight)
+						continue;
+					if (levels[x][y - 1] < tileHeight)
+						continue;
+					if (y < levels.length - 1 && levels[x][y + 1] < tileHeight)
+						continue;
+					levels[x][y]++;
+				}
+			}
+		}
+	}
+}
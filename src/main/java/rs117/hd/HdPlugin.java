@@ -41,10 +41,16 @@ import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.nio.ShortBuffer;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
@@ -80,8 +86,8 @@ import rs117.hd.config.ShadowMode;
 import rs117.hd.config.UIScalingMode;
 import rs117.hd.data.WaterType;
 import rs117.hd.data.materials.Material;
+import rs117.hd.model.ModelBatchMap;
 import rs117.hd.model.ModelHasher;
-import rs117.hd.model.ModelOffsets;
 import rs117.hd.model.ModelPusher;
 import rs117.hd.opengl.compute.ComputeMode;
 import rs117.hd.opengl.compute.OpenCLManager;
@@ -94,9 +100,12 @@ import rs117.hd.scene.EnvironmentManager;
 import rs117.hd.scene.LightManager;
 import rs117.hd.scene.ModelOverrideManager;
 import rs117.hd.scene.ProceduralGenerator;
+import rs117.hd.scene.RegionPrefetcher;
 import rs117.hd.scene.SceneContext;
 import rs117.hd.scene.SceneUploader;
+import rs117.hd.scene.TerrainCache;
 import rs117.hd.scene.TextureManager;
+import rs117.hd.scene.lights.LightClusterGrid;
 import rs117.hd.scene.lights.SceneLight;
 import rs117.hd.scene.model_overrides.ObjectType;
 import rs117.hd.utils.ColorUtils;
@@ -148,7 +157,7 @@ public class HdPlugin extends Plugin implements DrawCallbacks {
 
 	public static float BUFFER_GROWTH_MULTIPLIER = 2; // can be less than 2 if trying to conserve memory
 
-	private static final float NEAR_PLANE = 1;
+	public static final float NEAR_PLANE = 1;
 
 	private static final int[] eightIntWrite = new int[8];
 
@@ -188,6 +197,12 @@ public class HdPlugin extends Plugin implements DrawCallbacks {
 	@Inject
 	private SceneUploader sceneUploader;
 
+	@Inject
+	private TerrainCache terrainCache;
+
+	@Inject
+	private RegionPrefetcher regionPrefetcher;
+
 	@Inject
 	private ModelPusher modelPusher;
 
@@ -300,11 +315,22 @@ public class HdPlugin extends Plugin implements DrawCallbacks {
 	private final GLBuffer hUniformBufferWaterTypes = new GLBuffer();
 	private final GLBuffer hUniformBufferLights = new GLBuffer();
 	private ByteBuffer uniformBufferLights;
+	private final GLBuffer hUniformBufferLightClusters = new GLBuffer();
+	private ByteBuffer uniformBufferLightClusters;
+	private final LightClusterGrid lightClusterGrid = new LightClusterGrid();
 
 	@Getter
 	@Nullable
-	private SceneContext sceneContext;
-	private SceneContext nextSceneContext;
+	private volatile SceneContext sceneContext;
+	// scene contexts which have finished loading, waiting to be swapped in on the client thread
+	private final AtomicReference<SceneContext> nextSceneContext = new AtomicReference<>();
+	// incremented for each scene load, so loads which have been superseded can be abandoned
+	private final AtomicInteger sceneLoadGeneration = new AtomicInteger();
+	// scenes are loaded one at a time on a dedicated thread, with the requesting thread waiting for the load to finish
+	private ExecutorService sceneLoadingExecutor;
+	// splits up generating and uploading each scene, or null to do all of it on the scene loading thread
+	@Nullable
+	private ForkJoinPool sceneLoadingPool;
 
 	private int dynamicOffsetVertices;
 	private int dynamicOffsetUvs;
@@ -356,6 +382,7 @@ public class HdPlugin extends Plugin implements DrawCallbacks {
 
 	// Point light uniforms
 	private int uniPointLightsCount;
+	private int uniLightClusterGrid;
 
 	private int uniProjectionMatrix;
 	private int uniLightProjectionMatrix;
@@ -371,6 +398,7 @@ public class HdPlugin extends Plugin implements DrawCallbacks {
 	private int uniBlockMaterials;
 	private int uniBlockWaterTypes;
 	private int uniBlockPointLights;
+	private int uniBlockLightClusters;
 
 	private int[] uniBlockModelSortingCamera;
 
@@ -401,6 +429,7 @@ public class HdPlugin extends Plugin implements DrawCallbacks {
 	public boolean configPreserveVanillaNormals;
 	public ShadowMode configShadowMode;
 	public int configMaxDynamicLights;
+	public boolean configClusteredLighting;
 
 	private boolean lwjglInitialized;
 	private boolean hasLoggedIn;
@@ -411,7 +440,7 @@ public class HdPlugin extends Plugin implements DrawCallbacks {
 	public boolean useLowMemoryMode;
 	public boolean isInChambersOfXeric;
 
-	private final Map<Long, ModelOffsets> frameModelInfoMap = new HashMap<>();
+	private final ModelBatchMap frameModelBatches = new ModelBatchMap();
 
 	@Provides
 	HdPluginConfig provideConfig(ConfigManager configManager) {
@@ -421,6 +450,21 @@ public class HdPlugin extends Plugin implements DrawCallbacks {
 	@Override
 	protected void startUp() {
 		gson = rlGson.newBuilder().setLenient().create();
+		sceneLoadingExecutor = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "117HD scene loader");
+			thread.setDaemon(true);
+			return thread;
+		});
+		// leave a core for the client thread by default, and load scenes serially if set to 1
+		int sceneLoadingThreads = Props.getIntOrDefault(
+			"rlhd.scene-loading-threads",
+			Runtime.getRuntime().availableProcessors() - 1
+		);
+		sceneLoadingPool = sceneLoadingThreads <= 1 ? null : new ForkJoinPool(sceneLoadingThreads, pool -> {
+			ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			thread.setName("117HD scene worker " + thread.getPoolIndex());
+			return thread;
+		}, null, false);
 
 		clientThread.invoke(() -> {
 			try {
@@ -548,6 +592,7 @@ public class HdPlugin extends Plugin implements DrawCallbacks {
 				modelPusher.startUp();
 				modelOverrideManager.startUp();
 				lightManager.startUp();
+				regionPrefetcher.startUp();
 
 				hasLoggedIn = client.getGameState().getState() > GameState.LOGGING_IN.getState();
 				redrawPreviousFrame = false;
@@ -590,7 +635,9 @@ public class HdPlugin extends Plugin implements DrawCallbacks {
 				developerTools.deactivate();
 
 			modelPusher.shutDown();
+			terrainCache.clear();
 			lightManager.shutDown();
+			regionPrefetcher.shutDown();
 			environmentManager.reset();
 
 			if (lwjglInitialized) {
@@ -622,11 +669,14 @@ public class HdPlugin extends Plugin implements DrawCallbacks {
 				sceneContext.destroy();
 			sceneContext = null;
 
-			synchronized (this) {
-				if (nextSceneContext != null)
-					nextSceneContext.destroy();
-				nextSceneContext = null;
-			}
+			// Abandon any scene which is still loading, and discard any which hasn't been swapped in yet
+			sceneLoadGeneration.incrementAndGet();
+			sceneLoadingExecutor.shutdown();
+			if (sceneLoadingPool != null)
+				sceneLoadingPool.shutdown();
+			SceneContext nextSceneContext = this.nextSceneContext.getAndSet(null);
+			if (nextSceneContext != null)
+				nextSceneContext.destroy();
 
 			if (modelPassthroughBuffer != null)
 				modelPassthroughBuffer.destroy();
@@ -728,6 +778,9 @@ public class HdPlugin extends Plugin implements DrawCallbacks {
 			.define("WATER_TYPE_GETTER", () -> generateGetter("WaterType", WaterType.values().length))
 			.define("LIGHT_COUNT", Math.max(1, configMaxDynamicLights))
 			.define("LIGHT_GETTER", () -> generateGetter("PointLight", configMaxDynamicLights))
+			.define("LIGHT_CLUSTERS", configClusteredLighting)
+			.define("LIGHT_CLUSTER_GRID_SIZE", LightClusterGrid.GRID_SIZE)
+			.define("LIGHT_CLUSTER_MAX_INDICES", LightClusterGrid.MAX_INDICES)
 			.define("NORMAL_MAPPING", config.normalMapping())
 			.define("PARALLAX_OCCLUSION_MAPPING", config.parallaxOcclusionMapping())
 			.define("SHADOW_MODE", configShadowMode)
@@ -836,6 +889,8 @@ public class HdPlugin extends Plugin implements DrawCallbacks {
 		uniBlockMaterials = glGetUniformBlockIndex(glSceneProgram, "MaterialUniforms");
 		uniBlockWaterTypes = glGetUniformBlockIndex(glSceneProgram, "WaterTypeUniforms");
 		uniBlockPointLights = glGetUniformBlockIndex(glSceneProgram, "PointLightUniforms");
+		uniBlockLightClusters = glGetUniformBlockIndex(glSceneProgram, "LightClusterUniforms");
+		uniLightClusterGrid = glGetUniformLocation(glSceneProgram, "lightClusterGrid");
 
 		if (computeMode == ComputeMode.OPENGL) {
 			uniBlockModelSortingCamera = new int[glModelSortingComputePrograms.length];
@@ -1041,6 +1096,7 @@ public class HdPlugin extends Plugin implements DrawCallbacks {
 		initGlBuffer(hUniformBufferMaterials, GL_UNIFORM_BUFFER, GL_STATIC_DRAW, CL_MEM_READ_ONLY);
 		initGlBuffer(hUniformBufferWaterTypes, GL_UNIFORM_BUFFER, GL_STATIC_DRAW, CL_MEM_READ_ONLY);
 		initGlBuffer(hUniformBufferLights, GL_UNIFORM_BUFFER, GL_STREAM_DRAW, CL_MEM_READ_ONLY);
+		initGlBuffer(hUniformBufferLightClusters, GL_UNIFORM_BUFFER, GL_STREAM_DRAW, CL_MEM_READ_ONLY);
 
 		initGlBuffer(hStagingBufferVertices, GL_ARRAY_BUFFER, GL_STREAM_DRAW, CL_MEM_READ_ONLY);
 		initGlBuffer(hStagingBufferUvs, GL_ARRAY_BUFFER, GL_STREAM_DRAW, CL_MEM_READ_ONLY);
@@ -1066,6 +1122,7 @@ public class HdPlugin extends Plugin implements DrawCallbacks {
 		destroyGlBuffer(hUniformBufferMaterials);
 		destroyGlBuffer(hUniformBufferWaterTypes);
 		destroyGlBuffer(hUniformBufferLights);
+		destroyGlBuffer(hUniformBufferLightClusters);
 
 		destroyGlBuffer(hStagingBufferVertices);
 		destroyGlBuffer(hStagingBufferUvs);
@@ -1149,6 +1206,12 @@ public class HdPlugin extends Plugin implements DrawCallbacks {
 		// Allowing a buffer size of zero causes Apple M1/M2 to revert to software rendering
 		uniformBufferLights = BufferUtils.createByteBuffer(Math.max(1, configMaxDynamicLights) * 8 * SCALAR_BYTES);
 		updateBuffer(hUniformBufferLights, GL_UNIFORM_BUFFER, uniformBufferLights, GL_STREAM_DRAW, CL_MEM_READ_ONLY);
+
+		if (configClusteredLighting) {
+			// Allocate the whole uniform block up front, since only the light indices in use are written each frame
+			uniformBufferLightClusters = BufferUtils.createByteBuffer(LightClusterGrid.UNIFORM_BUFFER_SIZE);
+			updateBuffer(hUniformBufferLightClusters, GL_UNIFORM_BUFFER, uniformBufferLightClusters, GL_STREAM_DRAW, CL_MEM_READ_ONLY);
+		}
 	}
 
 	private void initAAFbo(int width, int height, int aaSamples)
@@ -1400,9 +1463,9 @@ public class HdPlugin extends Plugin implements DrawCallbacks {
 		if (sceneContext.scene == scene) {
 			// Update lights UBO
 			uniformBufferLights.clear();
-			ArrayList<SceneLight> visibleLights = lightManager.getVisibleLights(configMaxDynamicLights);
-			sceneContext.visibleLightCount = visibleLights.size();
-			for (SceneLight light : visibleLights) {
+			lightManager.selectVisibleLights(sceneContext, configMaxDynamicLights);
+			for (int i = 0; i < sceneContext.visibleLightCount; i++) {
+				SceneLight light = sceneContext.visibleLights[i];
 				uniformBufferLights.putFloat(light.x + sceneContext.cameraShift[0]);
 				uniformBufferLights.putFloat(light.z);
 				uniformBufferLights.putFloat(light.y + sceneContext.cameraShift[1]);
@@ -1421,6 +1484,26 @@ public class HdPlugin extends Plugin implements DrawCallbacks {
 			uniformBufferLights.clear();
 
 			glBindBufferBase(GL_UNIFORM_BUFFER, 3, hUniformBufferLights.glBufferId);
+
+			if (configClusteredLighting) {
+				// Bin the lights into cells around the focal point, which cover everything within the draw distance
+				lightClusterGrid.build(
+					sceneContext.visibleLights,
+					sceneContext.visibleLightCount,
+					sceneContext.cameraFocalPoint[0],
+					sceneContext.cameraFocalPoint[1],
+					getDrawDistance() * LOCAL_TILE_SIZE
+				);
+				uniformBufferLightClusters.clear();
+				lightClusterGrid.write(uniformBufferLightClusters);
+				uniformBufferLightClusters.flip();
+				glBindBuffer(GL_UNIFORM_BUFFER, hUniformBufferLightClusters.glBufferId);
+				glBufferSubData(GL_UNIFORM_BUFFER, 0, uniformBufferLightClusters);
+				glBindBuffer(GL_UNIFORM_BUFFER, 0);
+				uniformBufferLightClusters.clear();
+
+				glBindBufferBase(GL_UNIFORM_BUFFER, 4, hUniformBufferLightClusters.glBufferId);
+			}
 		}
 	}
 
@@ -1970,6 +2053,13 @@ public class HdPlugin extends Plugin implements DrawCallbacks {
 
 			// Lights & lightning
 			glUniform1i(uniPointLightsCount, sceneContext == null ? 0 : sceneContext.visibleLightCount);
+			if (configClusteredLighting) {
+				glUniform3f(uniLightClusterGrid,
+					lightClusterGrid.originX,
+					lightClusterGrid.originY,
+					1f / lightClusterGrid.cellSize
+				);
+			}
 			glUniform1f(uniLightningBrightness, environmentManager.getLightningBrightness());
 
 			glUniform1f(uniSaturation, config.saturation() / 100f);
@@ -2010,6 +2100,8 @@ public class HdPlugin extends Plugin implements DrawCallbacks {
 			glUniformBlockBinding(glSceneProgram, uniBlockMaterials, 1);
 			glUniformBlockBinding(glSceneProgram, uniBlockWaterTypes, 2);
 			glUniformBlockBinding(glSceneProgram, uniBlockPointLights, 3);
+			if (configClusteredLighting)
+				glUniformBlockBinding(glSceneProgram, uniBlockLightClusters, 4);
 			glUniform1f(uniElapsedTime, elapsedTime);
 
 			// We just allow the GL to do face culling. Note this requires the priority renderer
@@ -2057,7 +2149,8 @@ public class HdPlugin extends Plugin implements DrawCallbacks {
 				glBindFramebuffer(GL_READ_FRAMEBUFFER, awtContext.getFramebuffer(false));
 			}
 
-			frameModelInfoMap.clear();
+			frameTimer.setModelBatchingStats(frameModelBatches.getHits(), frameModelBatches.size());
+			frameModelBatches.nextFrame();
 		} else {
 			glClearColor(0, 0, 0, 1f);
 			glClear(GL_COLOR_BUFFER_BIT);
@@ -2201,10 +2294,19 @@ public class HdPlugin extends Plugin implements DrawCallbacks {
 	public void reuploadScene() {
 		assert client.isClientThread() : "Loading a scene is unsafe while the client can modify it";
 		Scene scene = client.getScene();
-		loadScene(scene);
+		if (skipScene != scene && HDUtils.sceneIsTheGauntlet(scene))
+			reloadSceneNextGameTick();
 		if (skipScene == scene)
 			skipScene = null;
-		swapScene(scene);
+
+		// Any scene being loaded by the map loader is left alone, to be swapped in once it's done
+		SceneContext context = loadSceneForSwap(scene);
+		if (context == null) {
+			log.error("No new scene to swap to", new Throwable());
+			stopPlugin();
+			return;
+		}
+		swapSceneContext(scene, context);
 	}
 
 	@Override
@@ -2223,55 +2325,148 @@ public class HdPlugin extends Plugin implements DrawCallbacks {
 		loadSceneInternal(scene);
 	}
 
-	private synchronized void loadSceneInternal(Scene scene) {
-		if (nextSceneContext != null)
-			nextSceneContext.destroy();
-		nextSceneContext = null;
+	/**
+	 * Loads the scene on the scene loading thread, and waits for it to finish, after which it's swapped in by
+	 * {@link #swapScene}. Any scene load which hasn't finished yet is superseded, and will be abandoned before its
+	 * next stage.
+	 */
+	private void loadSceneInternal(Scene scene) {
+		int generation = sceneLoadGeneration.incrementAndGet();
+		SceneContext context = waitForSceneLoad(() -> loadSceneStages(scene, generation, false));
+		if (context == null)
+			return;
 
+		SceneContext unswapped = nextSceneContext.getAndSet(context);
+		if (unswapped != null)
+			unswapped.destroy();
+
+		// The load may have been superseded after the last check, in which case whoever superseded it may already
+		// have discarded the next scene context, so take back the context unless it has been claimed since
+		if (generation != sceneLoadGeneration.get() && nextSceneContext.compareAndSet(context, null)) {
+			log.debug("Abandoned loading a superseded scene");
+			context.destroy();
+		}
+	}
+
+	/**
+	 * Loads the scene on the scene loading thread while the client thread waits, for it to be swapped in right away.
+	 * Since scene contexts are always swapped on the client thread, the current scene context is only in use by the
+	 * client thread, so its buffers can be reused. Such loads neither supersede nor are superseded by other loads.
+	 *
+	 * @return the loaded scene context, or null if loading it failed
+	 */
+	@Nullable
+	private SceneContext loadSceneForSwap(Scene scene) {
+		assert client.isClientThread();
+		int generation = sceneLoadGeneration.get();
+		return waitForSceneLoad(() -> loadSceneStages(scene, generation, true));
+	}
+
+	@Nullable
+	private SceneContext waitForSceneLoad(Callable<SceneContext> load) {
+		try {
+			return sceneLoadingExecutor.submit(load).get();
+		} catch (RejectedExecutionException ex) {
+			log.debug("Skipped loading a scene after the plugin was shut down");
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException ex) {
+			log.error("Error while loading scene:", ex.getCause());
+			stopPlugin();
+		}
+		return null;
+	}
+
+	/**
+	 * @param reuseBuffers whether to take the buffers of the current scene context, which is only safe for loads
+	 *                     that are swapped in right away, so such loads are never abandoned
+	 * @return the loaded scene context, or null if the load was abandoned or failed
+	 */
+	@Nullable
+	private SceneContext loadSceneStages(Scene scene, int generation, boolean reuseBuffers) {
+		if (!reuseBuffers && generation != sceneLoadGeneration.get())
+			return null;
+
+		SceneContext context = null;
 		try {
-			// Because scene contexts are always swapped on the client thread, it is guaranteed to only be
-			// in use by the client thread, meaning we can reuse all of its buffers if we are loading the
-			// next scene also on the client thread
-			boolean reuseBuffers = client.isClientThread();
-			var context = new SceneContext(scene, getExpandedMapLoadingChunks(), reuseBuffers, sceneContext);
+			context = new SceneContext(scene, getExpandedMapLoadingChunks(), reuseBuffers, sceneContext);
 			// noinspection SynchronizationOnLocalVariableOrMethodParameter
 			synchronized (context) {
-				nextSceneContext = context;
-				proceduralGenerator.generateSceneData(context);
+				proceduralGenerator.generateSceneData(context, sceneLoadingPool);
+				if (!reuseBuffers && abandonIfSuperseded(context, generation))
+					return null;
 				environmentManager.loadSceneEnvironments(context);
 				lightManager.loadSceneLights(context);
-				sceneUploader.upload(context);
+				if (!reuseBuffers && abandonIfSuperseded(context, generation))
+					return null;
+				sceneUploader.upload(context, sceneLoadingPool);
+				if (!reuseBuffers && abandonIfSuperseded(context, generation))
+					return null;
 			}
+			regionPrefetcher.logHitRate();
+			return context;
 		} catch (OutOfMemoryError oom) {
+			if (context != null)
+				context.destroy();
 			log.error("Ran out of memory while loading scene (32-bit: {}, low memory mode: {})",
 				HDUtils.is32Bit(), useLowMemoryMode, oom
 			);
 			displayOutOfMemoryMessage();
 			stopPlugin();
+		} catch (RejectedExecutionException ex) {
+			if (context != null)
+				context.destroy();
+			if (generation != sceneLoadGeneration.get()) {
+				// The scene loading pool was shut down along with the plugin
+				log.debug("Abandoned loading a scene after the plugin was shut down");
+				return null;
+			}
+			log.error("Error while loading scene:", ex);
+			stopPlugin();
 		} catch (Throwable ex) {
+			if (context != null)
+				context.destroy();
 			log.error("Error while loading scene:", ex);
 			stopPlugin();
 		}
+		return null;
+	}
+
+	private boolean abandonIfSuperseded(SceneContext context, int generation) {
+		if (generation == sceneLoadGeneration.get())
+			return false;
+
+		log.debug("Abandoned loading a superseded scene");
+		context.destroy();
+		return true;
 	}
 
 	@Override
-	public synchronized void swapScene(Scene scene) {
+	public void swapScene(Scene scene) {
 		if (skipScene == scene) {
 			redrawPreviousFrame = true;
 			return;
 		}
 
-		if (nextSceneContext == null) {
-			if (useLowMemoryMode) {
-				// Load the scene synchronously on the client thread, so we can reuse the old scene context
-				loadSceneInternal(scene);
-			} else {
+		// A loaded scene context for a different scene is left for the swap it was loaded for
+		SceneContext nextSceneContext = this.nextSceneContext.get();
+		if (nextSceneContext == null || nextSceneContext.scene != scene ||
+			!this.nextSceneContext.compareAndSet(nextSceneContext, null)) {
+			if (!useLowMemoryMode)
+				log.debug("Loading the scene while swapping, since it was superseded or never loaded");
+
+			nextSceneContext = loadSceneForSwap(scene);
+			if (nextSceneContext == null) {
 				log.error("No new scene to swap to", new Throwable());
 				stopPlugin();
 				return;
 			}
 		}
 
+		swapSceneContext(scene, nextSceneContext);
+	}
+
+	private void swapSceneContext(Scene scene, SceneContext nextSceneContext) {
 		if (computeMode == ComputeMode.OPENCL) {
 			openCLManager.uploadTileHeights(scene);
 		} else {
@@ -2287,9 +2482,7 @@ public class HdPlugin extends Plugin implements DrawCallbacks {
 			sceneContext.destroy();
 		}
 
-		assert nextSceneContext != null;
 		sceneContext = nextSceneContext;
-		nextSceneContext = null;
 
 		// Gaps need to be filled in swapScene, since map regions aren't updated earlier
 		if (config.fillGapsInTerrain())
@@ -2356,6 +2549,7 @@ public class HdPlugin extends Plugin implements DrawCallbacks {
 		configModelBatching = config.modelBatching();
 		configModelCaching = config.modelCaching();
 		configMaxDynamicLights = config.maxDynamicLights().getValue();
+		configClusteredLighting = config.clusteredLighting();
 		configExpandShadowDraw = config.expandShadowDraw();
 		configUseFasterModelHashing = config.fasterModelHashing();
 		configUndoVanillaShadingInCompute = config.undoVanillaShadingInCompute();
@@ -2383,6 +2577,7 @@ public class HdPlugin extends Plugin implements DrawCallbacks {
 					case KEY_COLOR_BLINDNESS:
 					case KEY_MACOS_INTEL_WORKAROUND:
 					case KEY_MAX_DYNAMIC_LIGHTS:
+					case KEY_CLUSTERED_LIGHTING:
 					case KEY_NORMAL_MAPPING:
 					case KEY_PARALLAX_OCCLUSION_MAPPING:
 					case KEY_UI_SCALING_MODE:
@@ -2431,6 +2626,7 @@ public class HdPlugin extends Plugin implements DrawCallbacks {
 						break;
 					case KEY_MODEL_CACHE_SIZE:
 					case KEY_MODEL_CACHING:
+					case KEY_PERSISTENT_MODEL_CACHE:
 						modelPusher.shutDown();
 						modelPusher.startUp();
 						break;
@@ -2690,23 +2886,23 @@ public class HdPlugin extends Plugin implements DrawCallbacks {
 			// Temporary model (animated or otherwise not a static Model already in the scene buffer)
 			if (enableDetailedTimers)
 				frameTimer.begin(Timer.MODEL_BATCHING);
-			ModelOffsets modelOffsets = null;
+			int batchSlot = -1;
 			long batchHash = 0;
 			if (configModelBatching || configModelCaching) {
 				modelHasher.setModel(model);
 				if (configModelBatching) {
 					batchHash = modelHasher.calculateVertexCacheHash();
-					modelOffsets = frameModelInfoMap.get(batchHash);
+					batchSlot = frameModelBatches.find(batchHash, model.getFaceCount());
 				}
 			}
 			if (enableDetailedTimers)
 				frameTimer.end(Timer.MODEL_BATCHING);
 
-			if (modelOffsets != null && modelOffsets.faceCount == model.getFaceCount()) {
-				faceCount = modelOffsets.faceCount;
-				eightIntWrite[0] = modelOffsets.vertexOffset;
-				eightIntWrite[1] = modelOffsets.uvOffset;
-				eightIntWrite[2] = modelOffsets.faceCount;
+			if (batchSlot != -1) {
+				faceCount = frameModelBatches.getFaceCount(batchSlot);
+				eightIntWrite[0] = frameModelBatches.getVertexOffset(batchSlot);
+				eightIntWrite[1] = frameModelBatches.getUvOffset(batchSlot);
+				eightIntWrite[2] = faceCount;
 			} else {
 				int vertexOffset = dynamicOffsetVertices + sceneContext.getVertexOffset();
 				int uvOffset = dynamicOffsetUvs + sceneContext.getUvOffset();
@@ -2724,7 +2920,7 @@ public class HdPlugin extends Plugin implements DrawCallbacks {
 
 				// add this temporary model to the map for batching purposes
 				if (configModelBatching)
-					frameModelInfoMap.put(batchHash, new ModelOffsets(faceCount, vertexOffset, uvOffset));
+					frameModelBatches.put(batchHash, faceCount, vertexOffset, uvOffset);
 			}
 		}
 
@@ -2919,6 +3115,9 @@ public class HdPlugin extends Plugin implements DrawCallbacks {
 				reuploadScene();
 			--gameTicksUntilSceneReload;
 		}
+
+		modelPusher.checkModelCacheOccupancy();
+		regionPrefetcher.update();
 	}
 
 	private void waitUntilIdle() {
@@ -310,7 +310,8 @@ public interface HdPluginConfig extends Config
 		name = "Dynamic Lights",
 		description =
 			"The maximum number of dynamic lights visible at once.<br>" +
-			"Reducing this may improve performance.",
+			"Reducing this may improve performance.<br>" +
+			"Enabling Clustered Lighting is recommended with more than 100 lights.",
 		position = 1,
 		section = lightingSettings
 	)
@@ -319,12 +320,26 @@ public interface HdPluginConfig extends Config
 		return MaxDynamicLights.SOME;
 	}
 
+	String KEY_CLUSTERED_LIGHTING = "clusteredLighting";
+	@ConfigItem(
+		keyName = KEY_CLUSTERED_LIGHTING,
+		name = "Clustered Lighting",
+		description =
+			"Only process the dynamic lights near each pixel, instead of every visible light.<br>" +
+			"This allows for many more dynamic lights at a similar cost.",
+		position = 2,
+		section = lightingSettings
+	)
+	default boolean clusteredLighting() {
+		return false;
+	}
+
 	String KEY_PROJECTILE_LIGHTS = "projectileLights";
 	@ConfigItem(
 		keyName = KEY_PROJECTILE_LIGHTS,
 		name = "Projectile Lights",
 		description = "Adds dynamic lights to some projectiles.",
-		position = 2,
+		position = 3,
 		section = lightingSettings
 	)
 	default boolean projectileLights() {
@@ -336,7 +351,7 @@ public interface HdPluginConfig extends Config
 		keyName = KEY_NPC_LIGHTS,
 		name = "NPC Lights",
 		description = "Adds dynamic lights to some NPCs.",
-		position = 3,
+		position = 4,
 		section = lightingSettings
 	)
 	default boolean npcLights() {
@@ -348,7 +363,7 @@ public interface HdPluginConfig extends Config
 		keyName = KEY_ATMOSPHERIC_LIGHTING,
 		name = "Atmospheric Lighting",
 		description = "Change environmental lighting based on the current area.",
-		position = 4,
+		position = 5,
 		section = lightingSettings
 	)
 	default boolean atmosphericLighting() {
@@ -364,7 +379,7 @@ public interface HdPluginConfig extends Config
 			"'Off' completely disables shadows.<br>" +
 			"'Fast' enables fast shadows without any texture detail.<br>" +
 			"'Detailed' enables slower shadows with support for texture detail.",
-		position = 5,
+		position = 6,
 		section = lightingSettings
 	)
 	default ShadowMode shadowMode()
@@ -378,7 +393,7 @@ public interface HdPluginConfig extends Config
 		name = "Shadow Transparency",
 		description =
 			"Enables partial support for shadows that take transparency into account.",
-		position = 6,
+		position = 7,
 		section = lightingSettings
 	)
 	default boolean enableShadowTransparency()
@@ -393,7 +408,7 @@ public interface HdPluginConfig extends Config
 		description =
 			"The resolution of the shadow map.<br>" +
 			"Higher resolutions result in higher quality shadows, at the cost of GPU performance.",
-		position = 7,
+		position = 8,
 		section = lightingSettings
 	)
 	default ShadowResolution shadowResolution()
@@ -683,6 +698,18 @@ public interface HdPluginConfig extends Config
 		return 2048;
 	}
 
+	String KEY_PERSISTENT_MODEL_CACHE = "persistentModelCache";
+	@ConfigItem(
+		keyName = KEY_PERSISTENT_MODEL_CACHE,
+		name = "Persistent Cache",
+		description =
+			"Saves cached model data to disk, so it can be reused after restarting the client.<br>" +
+			"Uses up to the cache size or 1 GiB of disk space, whichever is smaller, in RuneLite's cache folder.",
+		position = 4,
+		section = modelCachingSettings
+	)
+	default boolean persistentModelCache() {return false;}
+
 
 	/*====== Miscellaneous settings ======*/
 
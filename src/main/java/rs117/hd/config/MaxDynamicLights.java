@@ -34,7 +34,10 @@ public enum MaxDynamicLights
 	NONE("None", 0),
 	FEW("Few (25)", 25),
 	SOME("Some (50)", 50),
-	MANY("Many (100)", 100);
+	MANY("Many (100)", 100),
+	LOTS("Lots (250)", 250),
+	// the most lights which fit in the 16 KiB guaranteed to be available for the lights uniform block
+	TONS("Tons (500)", 500);
 
 	private final String name;
 	private final int value;
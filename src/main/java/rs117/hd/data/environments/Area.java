@@ -1690,7 +1690,17 @@ public enum Area
 		return new AABB(aabb.minX, aabb.minY, plane, aabb.maxX, aabb.maxY, plane);
 	}
 
+	// built once all areas have been constructed
+	private static final AreaIndex INDEX = new AreaIndex(values());
+
 	public boolean containsPoint(int worldX, int worldY, int plane) {
+		return INDEX.contains(this, worldX, worldY, plane);
+	}
+
+	/**
+	 * Checks every AABB of the area, without going through the spatial index.
+	 */
+	boolean anyAabbContains(int worldX, int worldY, int plane) {
 		for (AABB aabb : this.getAabbs()) {
 			if (aabb.contains(worldX, worldY, plane)) {
 				return true;
@@ -0,0 +1,171 @@
+package rs117.hd.data.environments;
+
+import rs117.hd.utils.AABB;
+
+/**
+ * A spatial index over the AABBs of every {@link Area}, bucketed by the map regions they overlap.
+ * <p>
+ * Each region has a bit mask of the areas overlapping it, and a bit mask of the areas covering all of it, so most
+ * lookups are answered by testing a single bit. Otherwise, the AABBs overlapping each region are packed into flat
+ * arrays, sorted by the ordinal of the area they belong to, so only the area's AABBs within the point's region are
+ * tested, instead of every AABB the area is made up of.
+ */
+class AreaIndex {
+	// region IDs use 8 bits for each axis, with regions being 64 tiles across
+	private static final int REGION_SHIFT = 6;
+	private static final int GRID_SIZE = 256;
+	private static final int WORLD_SIZE = GRID_SIZE << REGION_SHIFT;
+	// AABBs overlapping every region, like the one making up Area.ALL, are stored once in an extra cell
+	private static final int GLOBAL_CELL = GRID_SIZE * GRID_SIZE;
+	private static final int CELL_COUNT = GLOBAL_CELL + 1;
+	private static final int REGION_MASK = (1 << REGION_SHIFT) - 1;
+
+	private interface EntryConsumer {
+		void accept(int cell, int areaOrdinal, AABB aabb);
+	}
+
+	// the entries of each cell lie between cellStart[cell] and cellStart[cell + 1]
+	private final int[] cellStart = new int[CELL_COUNT + 1];
+	private final int[] entryAreas;
+	// minX, minY, minZ, maxX, maxY and maxZ of each entry
+	private final int[] entryBounds;
+	private final boolean[] hasGlobalEntries;
+
+	// each cell with entries has two masks, one for areas overlapping it followed by one for areas covering all of it,
+	// while empty cells share the zeroed masks at index 0
+	private final int maskWords;
+	private final int[] cellMasks = new int[GLOBAL_CELL];
+	private final long[] masks;
+
+	AreaIndex(Area[] areas) {
+		hasGlobalEntries = new boolean[areas.length];
+
+		// count the entries of each cell, so they can be packed into place in a second pass
+		int[] cellCounts = new int[CELL_COUNT];
+		forEachEntry(areas, (cell, areaOrdinal, aabb) -> cellCounts[cell]++);
+		for (int cell = 0; cell < CELL_COUNT; cell++)
+			cellStart[cell + 1] = cellStart[cell] + cellCounts[cell];
+
+		int entryCount = cellStart[CELL_COUNT];
+		entryAreas = new int[entryCount];
+		entryBounds = new int[entryCount * 6];
+
+		maskWords = (areas.length + 63) / 64;
+		int maskCount = 1;
+		for (int cell = 0; cell < GLOBAL_CELL; cell++)
+			if (cellCounts[cell] > 0)
+				cellMasks[cell] = maskCount++;
+		masks = new long[maskCount * maskWords * 2];
+
+		// areas are visited in order, so the entries of each cell end up sorted by ordinal
+		int[] cellCursors = new int[CELL_COUNT];
+		System.arraycopy(cellStart, 0, cellCursors, 0, CELL_COUNT);
+		forEachEntry(areas, (cell, areaOrdinal, aabb) -> {
+			int entry = cellCursors[cell]++;
+			entryAreas[entry] = areaOrdinal;
+			entryBounds[entry * 6] = aabb.minX;
+			entryBounds[entry * 6 + 1] = aabb.minY;
+			entryBounds[entry * 6 + 2] = aabb.minZ;
+			entryBounds[entry * 6 + 3] = aabb.maxX;
+			entryBounds[entry * 6 + 4] = aabb.maxY;
+			entryBounds[entry * 6 + 5] = aabb.maxZ;
+			int word = areaOrdinal >> 6;
+			long bit = 1L << areaOrdinal;
+			if (cell != GLOBAL_CELL) {
+				int mask = cellMasks[cell] * maskWords * 2 + word;
+				masks[mask] |= bit;
+				if (coversCell(aabb, cell))
+					masks[mask + maskWords] |= bit;
+			} else if (coversCell(aabb, 0) && aabb.maxX >= WORLD_SIZE - 1 && aabb.maxY >= WORLD_SIZE - 1) {
+				// AABBs covering the whole grid are marked as covering every cell, including empty ones
+				for (int mask = word; mask < masks.length; mask += maskWords * 2) {
+					masks[mask] |= bit;
+					masks[mask + maskWords] |= bit;
+				}
+			} else {
+				hasGlobalEntries[areaOrdinal] = true;
+			}
+		});
+	}
+
+	private static void forEachEntry(Area[] areas, EntryConsumer consumer) {
+		for (Area area : areas) {
+			for (AABB aabb : area.aabbs) {
+				// AABBs entirely outside the grid can only contain points which aren't looked up in the index
+				if (aabb.maxX < 0 || aabb.maxY < 0 || aabb.minX >= WORLD_SIZE || aabb.minY >= WORLD_SIZE)
+					continue;
+
+				// AABBs are inclusive of their max coordinates, so they can overlap the next region by a single tile
+				int minCellX = Math.max(0, aabb.minX >> REGION_SHIFT);
+				int minCellY = Math.max(0, aabb.minY >> REGION_SHIFT);
+				int maxCellX = Math.min(GRID_SIZE - 1, aabb.maxX >> REGION_SHIFT);
+				int maxCellY = Math.min(GRID_SIZE - 1, aabb.maxY >> REGION_SHIFT);
+
+				if (minCellX == 0 && minCellY == 0 && maxCellX == GRID_SIZE - 1 && maxCellY == GRID_SIZE - 1) {
+					consumer.accept(GLOBAL_CELL, area.ordinal(), aabb);
+					continue;
+				}
+
+				for (int cellX = minCellX; cellX <= maxCellX; cellX++)
+					for (int cellY = minCellY; cellY <= maxCellY; cellY++)
+						consumer.accept(cellX * GRID_SIZE + cellY, area.ordinal(), aabb);
+			}
+		}
+	}
+
+	private static boolean coversCell(AABB aabb, int cell) {
+		int minX = (cell / GRID_SIZE) << REGION_SHIFT;
+		int minY = (cell % GRID_SIZE) << REGION_SHIFT;
+		return
+			aabb.minX <= minX && minX + REGION_MASK <= aabb.maxX &&
+			aabb.minY <= minY && minY + REGION_MASK <= aabb.maxY &&
+			aabb.minZ == Integer.MIN_VALUE && aabb.maxZ == Integer.MAX_VALUE;
+	}
+
+	boolean contains(Area area, int x, int y, int z) {
+		// points outside the grid are rare enough to check the slow way
+		if (x < 0 || y < 0 || x >= WORLD_SIZE || y >= WORLD_SIZE)
+			return area.anyAabbContains(x, y, z);
+
+		int areaOrdinal = area.ordinal();
+		int cell = (x >> REGION_SHIFT) * GRID_SIZE + (y >> REGION_SHIFT);
+		int mask = cellMasks[cell] * maskWords * 2 + (areaOrdinal >> 6);
+		long bit = 1L << areaOrdinal;
+		// most areas don't overlap the region at all, and those covering all of it need no further checks
+		if ((masks[mask] & bit) != 0) {
+			if ((masks[mask + maskWords] & bit) != 0 || cellContains(cell, areaOrdinal, x, y, z))
+				return true;
+		}
+
+		return hasGlobalEntries[areaOrdinal] && cellContains(GLOBAL_CELL, areaOrdinal, x, y, z);
+	}
+
+	private boolean cellContains(int cell, int areaOrdinal, int x, int y, int z) {
+		int end = cellStart[cell + 1];
+		for (int entry = firstEntry(cell, areaOrdinal); entry < end && entryAreas[entry] == areaOrdinal; entry++) {
+			int i = entry * 6;
+			if (entryBounds[i] <= x && x <= entryBounds[i + 3] &&
+				entryBounds[i + 1] <= y && y <= entryBounds[i + 4] &&
+				entryBounds[i + 2] <= z && z <= entryBounds[i + 5])
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the first entry of the cell belonging to the area or any area after it
+	 */
+	private int firstEntry(int cell, int areaOrdinal) {
+		int low = cellStart[cell];
+		int high = cellStart[cell + 1];
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (entryAreas[mid] < areaOrdinal) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+}
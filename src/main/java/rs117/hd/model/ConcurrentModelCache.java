@@ -0,0 +1,119 @@
+package rs117.hd.model;
+
+import javax.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Thread-safe model cache, made up of independent {@link ModelCache} stripes which each guard their own memory with a
+ * lock. Hashes are spread across stripes, so threads pushing different models rarely contend for the same lock.
+ * <p>
+ * Since entries may be relocated or evicted as soon as a stripe's lock is released, cached data is only ever handed
+ * out by copying it into memory owned by the caller.
+ */
+@Slf4j
+public class ConcurrentModelCache {
+	private final ModelCache[] stripes;
+	private final int stripeShift;
+	private volatile boolean destroyed;
+
+	/**
+	 * @param modelCacheSizeMiB the total size of the cache, split evenly between stripes
+	 * @param stripeCount       the number of independently locked stripes, rounded up to a power of two
+	 * @param terminationHook   called if the cache ends up in an unrecoverable state
+	 */
+	public ConcurrentModelCache(int modelCacheSizeMiB, int stripeCount, Runnable terminationHook) {
+		stripeCount = stripeCount <= 1 ? 1 : Integer.highestOneBit(stripeCount - 1) << 1;
+		// Each stripe needs at least a mebibyte to be useful
+		while (stripeCount > 1 && modelCacheSizeMiB / stripeCount < 1)
+			stripeCount >>= 1;
+
+		stripes = new ModelCache[stripeCount];
+		stripeShift = 64 - Integer.numberOfTrailingZeros(stripeCount);
+		log.debug("Splitting model cache of {} MiB into {} stripes", modelCacheSizeMiB, stripeCount);
+
+		try {
+			for (int i = 0; i < stripeCount; i++)
+				stripes[i] = new ModelCache(modelCacheSizeMiB / stripeCount, terminationHook);
+		} catch (Throwable err) {
+			destroy();
+			throw err;
+		}
+	}
+
+	/**
+	 * The default number of stripes, based on the number of available processors.
+	 */
+	public static int defaultStripeCount() {
+		return Math.min(16, Runtime.getRuntime().availableProcessors());
+	}
+
+	public void destroy() {
+		destroyed = true;
+		for (ModelCache stripe : stripes) {
+			if (stripe == null)
+				continue;
+			synchronized (stripe) {
+				stripe.destroy();
+			}
+		}
+	}
+
+	public void clear() {
+		for (ModelCache stripe : stripes) {
+			synchronized (stripe) {
+				if (!destroyed)
+					stripe.clear();
+			}
+		}
+	}
+
+	public void setPersistentCache(@Nullable PersistentModelCache persistentCache) {
+		for (ModelCache stripe : stripes) {
+			synchronized (stripe) {
+				stripe.setPersistentCache(persistentCache);
+			}
+		}
+	}
+
+	/**
+	 * @see ModelCache#checkOccupancy()
+	 */
+	public void checkOccupancy() {
+		for (ModelCache stripe : stripes) {
+			synchronized (stripe) {
+				if (!destroyed)
+					stripe.checkOccupancy();
+			}
+		}
+	}
+
+	private ModelCache getStripe(long hash) {
+		if (stripes.length == 1)
+			return stripes[0];
+		// Mix the hash first, so the choice of stripe isn't correlated with the slots picked by the stripes' indices
+		hash ^= hash >>> 33;
+		hash *= 0xFF51AFD7ED558CCDL;
+		hash ^= hash >>> 33;
+		return stripes[(int) (hash >>> stripeShift)];
+	}
+
+	/**
+	 * @see ModelCache#get(long, long, long)
+	 */
+	public long get(long hash, long dstAddress, long dstCapacity) {
+		ModelCache stripe = getStripe(hash);
+		synchronized (stripe) {
+			return destroyed ? 0 : stripe.get(hash, dstAddress, dstCapacity);
+		}
+	}
+
+	/**
+	 * @see ModelCache#put(long, long, long)
+	 */
+	public boolean put(long hash, long srcAddress, long byteCapacity) {
+		ModelCache stripe = getStripe(hash);
+		synchronized (stripe) {
+			return !destroyed && stripe.put(hash, srcAddress, byteCapacity);
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package rs117.hd.model;
+
+import java.util.Arrays;
+import rs117.hd.utils.HashUtils;
+
+/**
+ * Open-addressing hash table mapping the vertex cache hashes of temporary models drawn during the current frame to the
+ * face count and buffer offsets they were pushed with, so identical models drawn later in the same frame can reuse them.
+ * <p>
+ * Entries are stored in parallel primitive arrays, so lookups and insertions never allocate. Each slot is stamped with
+ * the frame it was written in, and slots stamped with an earlier frame count as empty, which clears the table at the
+ * end of each frame without touching any of its slots.
+ */
+public class ModelBatchMap {
+	private static final int INITIAL_CAPACITY = 1 << 10;
+	private static final float MAX_LOAD_FACTOR = .5f;
+
+	private long[] hashes;
+	private int[] faceCounts;
+	private int[] vertexOffsets;
+	private int[] uvOffsets;
+	private int[] epochs;
+	private int mask;
+	private int shift;
+
+	private int epoch = 1;
+	private int size;
+	private int hits;
+
+	public ModelBatchMap() {
+		allocate(INITIAL_CAPACITY);
+	}
+
+	private void allocate(int capacity) {
+		hashes = new long[capacity];
+		faceCounts = new int[capacity];
+		vertexOffsets = new int[capacity];
+		uvOffsets = new int[capacity];
+		epochs = new int[capacity];
+		mask = capacity - 1;
+		shift = HashUtils.slotShift(capacity);
+	}
+
+	/**
+	 * Empties the table and resets its statistics for the next frame.
+	 */
+	public void nextFrame() {
+		size = 0;
+		hits = 0;
+		if (++epoch == 0) {
+			// the stamps have wrapped around, so stale slots could appear to belong to the new frame
+			Arrays.fill(epochs, 0);
+			epoch = 1;
+		}
+	}
+
+	/**
+	 * @param hash      of the model's vertices
+	 * @param faceCount of the model, which must match to guard against hash collisions
+	 * @return the slot containing the model, or -1 if no matching model was added during the current frame
+	 */
+	public int find(long hash, int faceCount) {
+		int slot = HashUtils.idealSlot(hash, shift);
+		while (epochs[slot] == epoch) {
+			if (hashes[slot] == hash) {
+				if (faceCounts[slot] != faceCount)
+					return -1;
+				hits++;
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	public int getFaceCount(int slot) {
+		return faceCounts[slot];
+	}
+
+	public int getVertexOffset(int slot) {
+		return vertexOffsets[slot];
+	}
+
+	public int getUvOffset(int slot) {
+		return uvOffsets[slot];
+	}
+
+	/**
+	 * Inserts or replaces the entry for the specified hash.
+	 */
+	public void put(long hash, int faceCount, int vertexOffset, int uvOffset) {
+		if (size + 1 > hashes.length * MAX_LOAD_FACTOR)
+			grow();
+
+		int slot = HashUtils.idealSlot(hash, shift);
+		while (epochs[slot] == epoch && hashes[slot] != hash)
+			slot = (slot + 1) & mask;
+
+		if (epochs[slot] != epoch)
+			size++;
+		write(slot, hash, faceCount, vertexOffset, uvOffset);
+	}
+
+	/**
+	 * @return the number of distinct models added during the current frame
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the number of lookups during the current frame which found a model to reuse
+	 */
+	public int getHits() {
+		return hits;
+	}
+
+	private void write(int slot, long hash, int faceCount, int vertexOffset, int uvOffset) {
+		hashes[slot] = hash;
+		faceCounts[slot] = faceCount;
+		vertexOffsets[slot] = vertexOffset;
+		uvOffsets[slot] = uvOffset;
+		epochs[slot] = epoch;
+	}
+
+	private void grow() {
+		long[] oldHashes = hashes;
+		int[] oldFaceCounts = faceCounts;
+		int[] oldVertexOffsets = vertexOffsets;
+		int[] oldUvOffsets = uvOffsets;
+		int[] oldEpochs = epochs;
+		allocate(oldHashes.length << 1);
+
+		for (int i = 0; i < oldHashes.length; i++) {
+			// Only entries from the current frame are carried over
+			if (oldEpochs[i] != epoch)
+				continue;
+
+			int slot = HashUtils.idealSlot(oldHashes[i], shift);
+			while (epochs[slot] == epoch)
+				slot = (slot + 1) & mask;
+			write(slot, oldHashes[i], oldFaceCounts[i], oldVertexOffsets[i], oldUvOffsets[i]);
+		}
+	}}
@@ -1,26 +1,27 @@
 package rs117.hd.model;
 
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
-import java.util.ArrayDeque;
-import java.util.HashMap;
+import java.util.ArrayList;
+import javax.annotation.Nullable;
 import lombok.extern.slf4j.Slf4j;
 import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.system.libc.LibCString;
+import rs117.hd.utils.Props;
 
-import static rs117.hd.utils.HDUtils.GiB;
 import static rs117.hd.utils.HDUtils.MiB;
 
 @Slf4j
 public class ModelCache {
 	private static class Allocation {
+		final int id;
 		long address;
 		long byteCapacity;
 
 		long cursor;
 		long freeBytesAhead;
 
-		Allocation(long byteCapacity) {
+		Allocation(int id, long byteCapacity) {
 			assert byteCapacity > 0;
+			this.id = id;
 			address = MemoryUtil.nmemAllocChecked(byteCapacity);
 			this.byteCapacity = byteCapacity;
 			cursor = 0;
@@ -52,45 +53,144 @@ public class ModelCache {
 		}
 	}
 
-	private static class Buffer {
-		final boolean endMarker;
-		final long hash;
-		final long byteCapacity;
-		final IntBuffer intBuffer;
-		final FloatBuffer floatBuffer;
+	/**
+	 * Primitive FIFO queue of cache entries, in the order they were reserved. End markers are stored with a zero
+	 * address, and represent unused space at the end of an allocation.
+	 */
+	private static class EntryQueue {
+		long[] hashes;
+		long[] addresses;
+		long[] byteCapacities;
+		int[] allocationIds;
+		int head;
+		int size;
+
+		EntryQueue(int initialCapacity) {
+			hashes = new long[initialCapacity];
+			addresses = new long[initialCapacity];
+			byteCapacities = new long[initialCapacity];
+			allocationIds = new int[initialCapacity];
+		}
 
-		public Buffer(long byteCapacity) {
-			endMarker = true;
-			this.hash = 0;
-			this.byteCapacity = byteCapacity;
-			intBuffer = null;
-			floatBuffer = null;
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		void clear() {
+			head = 0;
+			size = 0;
+		}
+
+		void addLast(long hash, long address, long byteCapacity, int allocationId) {
+			if (size == hashes.length)
+				grow();
+			int i = (head + size) % hashes.length;
+			hashes[i] = hash;
+			addresses[i] = address;
+			byteCapacities[i] = byteCapacity;
+			allocationIds[i] = allocationId;
+			size++;
 		}
 
-		public Buffer(long hash, IntBuffer buffer) {
-			endMarker = false;
-			this.hash = hash;
-			byteCapacity = buffer.capacity() * 4L;
-			intBuffer = buffer;
-			floatBuffer = null;
+		/**
+		 * Removes the first entry, which remains readable through {@link #hashes}, {@link #addresses} and
+		 * {@link #byteCapacities} and {@link #allocationIds} at the returned index until the next call to
+		 * {@link #addLast}.
+		 */
+		int pollFirst() {
+			assert size > 0;
+			int i = head;
+			head = (head + 1) % hashes.length;
+			size--;
+			return i;
 		}
 
-		public Buffer(long hash, FloatBuffer buffer) {
-			endMarker = false;
-			this.hash = hash;
-			byteCapacity = buffer.capacity() * 4L;
-			intBuffer = null;
-			floatBuffer = buffer;
+		private void grow() {
+			int capacity = hashes.length * 2;
+			hashes = unwrap(hashes, capacity);
+			addresses = unwrap(addresses, capacity);
+			byteCapacities = unwrap(byteCapacities, capacity);
+			int[] ids = new int[capacity];
+			int firstPart = Math.min(size, allocationIds.length - head);
+			System.arraycopy(allocationIds, head, ids, 0, firstPart);
+			System.arraycopy(allocationIds, 0, ids, firstPart, size - firstPart);
+			allocationIds = ids;
+			head = 0;
+		}
+
+		private long[] unwrap(long[] array, int newCapacity) {
+			long[] result = new long[newCapacity];
+			int firstPart = Math.min(size, array.length - head);
+			System.arraycopy(array, head, result, 0, firstPart);
+			System.arraycopy(array, 0, result, firstPart, size - firstPart);
+			return result;
+		}
+
+		/**
+		 * Removes all entries located in the specified allocation, while preserving the order of the remaining entries.
+		 *
+		 * @return the number of entries which were removed from the index
+		 */
+		int removeAllocation(int allocationId, ModelCacheIndex cache) {
+			int evicted = 0;
+			int kept = 0;
+			for (int k = 0; k < size; k++) {
+				int i = (head + k) % hashes.length;
+				if (allocationIds[i] == allocationId) {
+					if (addresses[i] != 0 && cache.remove(hashes[i], addresses[i]))
+						evicted++;
+					continue;
+				}
+
+				int j = (head + kept++) % hashes.length;
+				hashes[j] = hashes[i];
+				addresses[j] = addresses[i];
+				byteCapacities[j] = byteCapacities[i];
+				allocationIds[j] = allocationIds[i];
+			}
+			size = kept;
+			return evicted;
 		}
 	}
 
+	// Allows comparing the second-chance eviction policy against plain FIFO eviction on the same workload
+	private static final boolean SECOND_CHANCE_EVICTION = !Props.has("rlhd.model-cache-fifo");
+
+	// Memory is committed in chunks of this size as the cache fills up
+	private static final long CHUNK_BYTES = 64 * MiB;
+	// Don't bother committing a final chunk smaller than this
+	private static final long MIN_CHUNK_BYTES = 4 * MiB;
+	// Occupancy is measured as the portion of committed memory used by entries touched within a window of game ticks
+	private static final int OCCUPANCY_WINDOW_TICKS = 100;
+	private static final double LOW_OCCUPANCY_THRESHOLD = .25;
+	// The number of consecutive low occupancy windows before a chunk is released
+	private static final int LOW_OCCUPANCY_WINDOWS_BEFORE_SHRINKING = 3;
+
 	private final Runnable terminationHook;
-	private final HashMap<Long, Buffer> cache = new HashMap<>();
-	private final ArrayDeque<Buffer> buffers = new ArrayDeque<>();
-	private final Allocation[] allocations;
+	private final ModelCacheIndex cache = new ModelCacheIndex(1 << 14);
+	private final EntryQueue entries = new EntryQueue(1 << 14);
+	// Allocations in the order the ring moves through them
+	private final ArrayList<Allocation> allocations = new ArrayList<>();
+	private final long maxByteCapacity;
+	private long committedByteCapacity;
+	private int nextAllocationId;
 	private Allocation currentAllocation;
 	private int currentAllocationIndex;
 
+	private int epoch = 1;
+	private long workingSetBytes;
+	private int ticksUntilOccupancyCheck = OCCUPANCY_WINDOW_TICKS;
+	private int lowOccupancyWindows;
+
+	@Nullable
+	private PersistentModelCache persistentCache;
+
+	private long hits;
+	private long misses;
+	private long persistentHits;
+	private long evictions;
+	private long secondChances;
+
 	public ModelCache(int modelCacheSizeMiB, Runnable terminationHook) {
 		this.terminationHook = terminationHook;
 
@@ -115,46 +215,30 @@ public class ModelCache {
 			log.warn("Unable to check physical memory size: " + e);
 		}
 
-		long byteCapacity = modelCacheSizeMiB * MiB;
+		maxByteCapacity = modelCacheSizeMiB * MiB;
 
-		log.debug("Allocating {} MiB model cache", modelCacheSizeMiB);
+		log.debug("Allocating model cache of up to {} MiB in chunks of {} MiB", modelCacheSizeMiB, CHUNK_BYTES / MiB);
 
-		Allocation[] allocations = new Allocation[1];
+		// Only commit the first chunk up front. The rest are committed once the cache fills up
 		try {
-			// Try allocating the whole size as a single chunk
-			allocations[0] = new Allocation(byteCapacity);
+			currentAllocation = commitChunk();
 		} catch (Throwable err) {
-			log.warn("Unable to allocate {} MiB as a single chunk", modelCacheSizeMiB, err);
-
-			try {
-				// Try allocating in chunks of up to 1 GiB each
-				int numChunks = (int) Math.ceil((double) byteCapacity / GiB);
-				allocations = new Allocation[numChunks];
-				for (int i = 0; i < numChunks; i++) {
-					allocations[i] = new Allocation(Math.min(byteCapacity - i * GiB, GiB));
-				}
-			} catch (Throwable err2) {
-				destroy();
-				log.error("Unable to allocate {} MiB in chunks of up to 1 GiB each", modelCacheSizeMiB, err2);
-				throw err2;
-			}
+			log.error("Unable to allocate the first {} MiB of the model cache", Math.min(CHUNK_BYTES, maxByteCapacity) / MiB, err);
+			throw err;
 		}
-
-		this.allocations = allocations;
-		currentAllocation = allocations[0];
+		allocations.add(currentAllocation);
 	}
 
 	public void destroy() {
-		cache.clear();
-		buffers.clear();
+		logStats();
+		cache.destroy();
+		entries.clear();
 		currentAllocation = null;
 
-		for (int i = 0; i < allocations.length; i++) {
-			if (allocations[i] != null) {
-				allocations[i].destroy();
-				allocations[i] = null;
-			}
-		}
+		for (Allocation allocation : allocations)
+			allocation.destroy();
+		allocations.clear();
+		committedByteCapacity = 0;
 	}
 
 	@Override
@@ -169,30 +253,79 @@ public class ModelCache {
 	}
 
 	public void clear() {
+		logStats();
+		hits = misses = persistentHits = evictions = secondChances = 0;
 		cache.clear();
-		buffers.clear();
+		entries.clear();
 		for (Allocation allocation : allocations) {
-			if (allocation != null) {
-				allocation.cursor = 0;
-				allocation.freeBytesAhead = allocation.byteCapacity;
-			}
+			allocation.cursor = 0;
+			allocation.freeBytesAhead = allocation.byteCapacity;
 		}
 	}
 
-	private Buffer get(long hash) {
-		return cache.get(hash);
+	private Allocation commitChunk() {
+		long byteCapacity = Math.min(CHUNK_BYTES, maxByteCapacity - committedByteCapacity);
+		Allocation allocation = new Allocation(nextAllocationId++, byteCapacity);
+		committedByteCapacity += byteCapacity;
+		return allocation;
 	}
 
 	private void nextAllocation() {
 		currentAllocation.cursor = 0;
 		currentAllocation.freeBytesAhead = 0;
 
+		// Grow the cache if it isn't at its maximum size yet, instead of evicting entries from the next allocation
+		if (maxByteCapacity - committedByteCapacity >= MIN_CHUNK_BYTES) {
+			try {
+				// The new allocation is inserted right after the current one, to keep the ring in eviction order
+				allocations.add(currentAllocationIndex + 1, commitChunk());
+				log.debug("Model cache grew to {} MiB of {} MiB",
+					committedByteCapacity / MiB, maxByteCapacity / MiB);
+			} catch (Throwable err) {
+				log.warn("Unable to grow the model cache beyond {} MiB", committedByteCapacity / MiB, err);
+			}
+		}
+
 		currentAllocationIndex++;
-		currentAllocationIndex %= allocations.length;
-		currentAllocation = allocations[currentAllocationIndex];
+		currentAllocationIndex %= allocations.size();
+		currentAllocation = allocations.get(currentAllocationIndex);
+	}
+
+	/**
+	 * Should be called once per game tick, to release memory after sustained periods of low occupancy.
+	 */
+	public void checkOccupancy() {
+		if (--ticksUntilOccupancyCheck > 0)
+			return;
+		ticksUntilOccupancyCheck = OCCUPANCY_WINDOW_TICKS;
+
+		double occupancy = (double) workingSetBytes / committedByteCapacity;
+		epoch++;
+		workingSetBytes = 0;
+
+		if (occupancy >= LOW_OCCUPANCY_THRESHOLD || allocations.size() <= 1) {
+			lowOccupancyWindows = 0;
+			return;
+		}
+
+		if (++lowOccupancyWindows < LOW_OCCUPANCY_WINDOWS_BEFORE_SHRINKING)
+			return;
+		lowOccupancyWindows = 0;
+
+		// Release the allocation which the ring would have moved on to next, since it contains the oldest entries
+		int index = (currentAllocationIndex + 1) % allocations.size();
+		Allocation allocation = allocations.remove(index);
+		if (index < currentAllocationIndex)
+			currentAllocationIndex--;
+		evictions += entries.removeAllocation(allocation.id, cache);
+		committedByteCapacity -= allocation.byteCapacity;
+		allocation.destroy();
+
+		log.debug("Model cache shrank to {} MiB of {} MiB after sustained low occupancy ({}%)",
+			committedByteCapacity / MiB, maxByteCapacity / MiB, String.format("%.1f", occupancy * 100));
 	}
 
-	private long reserve(long numBytes) {
+	private long allocate(long numBytes) {
 		assert currentAllocation != null : "model cache used after destruction";
 
 		if (currentAllocation.bytesFromEnd() < numBytes) {
@@ -211,40 +344,42 @@ public class ModelCache {
 			// Move the existing regions to the end of the buffer list
 			while (currentAllocation.bytesFromEnd() != currentAllocation.freeBytesAhead) {
 				assert currentAllocation.bytesFromEnd() > currentAllocation.freeBytesAhead;
-				Buffer buffer = buffers.pollFirst();
-				if (buffer == null) {
+				if (entries.isEmpty()) {
 					log.error("No more cache entries left to free, yet the allocation is still in use ({} != {})",
 						currentAllocation.bytesFromEnd(), currentAllocation.freeBytesAhead);
 					terminationHook.run();
 					return 0;
 				}
 
-				if (buffer.endMarker) {
+				int i = entries.pollFirst();
+				long address = entries.addresses[i];
+				long byteCapacity = entries.byteCapacities[i];
+				if (address == 0) {
 					// Shift unused space to the end of the buffer, as detailed above
-					currentAllocation.freeBytesAhead += buffer.byteCapacity;
+					currentAllocation.freeBytesAhead += byteCapacity;
 					assert currentAllocation.cursor + currentAllocation.freeBytesAhead <= currentAllocation.byteCapacity;
 				} else {
 					// Move the buffer to the end of the list, and pretend we've shifted it to the left as detailed above
-					buffers.addLast(buffer);
-					currentAllocation.cursor += buffer.byteCapacity;
+					entries.addLast(entries.hashes[i], address, byteCapacity, entries.allocationIds[i]);
+					currentAllocation.cursor += byteCapacity;
 				}
 			}
 
 			// Consume the remaining free bytes of the allocation
-			buffers.addLast(new Buffer(currentAllocation.freeBytesAhead));
+			entries.addLast(0, 0, currentAllocation.freeBytesAhead, currentAllocation.id);
 			// Advance to the next allocation, or the beginning of the same allocation if there is only one
 			nextAllocation();
 
 			if (currentAllocation.bytesFromEnd() < numBytes) {
 				log.error("Failed to reserve space for {} bytes. Too large to fit in allocation {} of size {}",
-					numBytes, currentAllocationIndex, currentAllocation.byteCapacity);
+					numBytes, currentAllocation.id, currentAllocation.byteCapacity);
 				terminationHook.run();
 				return 0;
 			}
 		}
 
 		while (currentAllocation.freeBytesAhead < numBytes) {
-			if (removeOldestCacheEntry() == null) {
+			if (!removeOldestCacheEntry(numBytes)) {
 				log.error("No more cache entries left to free, yet there aren't enough free bytes ({} < {})",
 					currentAllocation.freeBytesAhead, numBytes);
 				terminationHook.run();
@@ -255,56 +390,163 @@ public class ModelCache {
 		return currentAllocation.reserve(numBytes);
 	}
 
-	private Buffer removeOldestCacheEntry() {
-		Buffer buffer = buffers.pollFirst();
-
-		if (buffer != null) {
-			if (!buffer.endMarker) {
-				cache.remove(buffer.hash, buffer);
-				// Normally, these addresses will be equal, but in case they've been "shifted" as detailed in the
-				// reserve function, the buffer's actual address will be larger than the cursor position
-				assert currentAllocation.address + currentAllocation.cursor + currentAllocation.freeBytesAhead <=
-					MemoryUtil.memAddress0(buffer.intBuffer == null ? buffer.floatBuffer : buffer.intBuffer);
+	/**
+	 * Frees up space ahead of the cursor, by either evicting the oldest entry or, if it has been hit since it was last
+	 * considered for eviction, giving it a second chance by moving it to the cursor and the back of the queue.
+	 *
+	 * @param numBytes the number of bytes the caller is trying to reserve
+	 * @return false if there were no entries left
+	 */
+	private boolean removeOldestCacheEntry(long numBytes) {
+		if (entries.isEmpty())
+			return false;
+
+		int i = entries.pollFirst();
+		long hash = entries.hashes[i];
+		long address = entries.addresses[i];
+		long byteCapacity = entries.byteCapacities[i];
+		if (address != 0) {
+			// Normally, these addresses will be equal, but in case they've been "shifted" as detailed in the
+			// reserve function, the buffer's actual address will be larger than the cursor position
+			long expectedAddress = currentAllocation.address + currentAllocation.cursor + currentAllocation.freeBytesAhead;
+			assert expectedAddress <= address;
+
+			int slot = cache.find(hash);
+			boolean isIndexed = slot != -1 && cache.getAddress(slot) == address;
+			if (
+				SECOND_CHANCE_EVICTION &&
+				isIndexed &&
+				cache.isReferenced(slot) &&
+				expectedAddress == address &&
+				currentAllocation.bytesFromEnd() - byteCapacity >= numBytes
+			) {
+				// Move the entry down to the cursor, which shifts the free space past it
+				currentAllocation.freeBytesAhead += byteCapacity;
+				long newAddress = currentAllocation.reserve(byteCapacity);
+				if (newAddress != address)
+					LibCString.nmemmove(newAddress, address, byteCapacity);
+				cache.setAddress(slot, newAddress);
+				cache.setReferenced(slot, false);
+				entries.addLast(hash, newAddress, byteCapacity, currentAllocation.id);
+				secondChances++;
+				return true;
 			}
 
-			currentAllocation.freeBytesAhead += buffer.byteCapacity;
-			assert currentAllocation.cursor + currentAllocation.freeBytesAhead <= currentAllocation.byteCapacity;
+			if (isIndexed) {
+				cache.remove(hash, address);
+				evictions++;
+			}
 		}
 
-		return buffer;
+		currentAllocation.freeBytesAhead += byteCapacity;
+		assert currentAllocation.cursor + currentAllocation.freeBytesAhead <= currentAllocation.byteCapacity;
+		return true;
+	}
+
+	private void logStats() {
+		long lookups = hits + misses;
+		if (lookups == 0)
+			return;
+		log.debug(
+			"Model cache stats: {} hits, {} misses ({}% hit rate), {} loaded from disk, {} evictions, {} second chances ({} eviction)",
+			hits, misses, String.format("%.1f", 100. * hits / lookups), persistentHits, evictions, secondChances,
+			SECOND_CHANCE_EVICTION ? "second-chance" : "FIFO"
+		);
 	}
 
-	public IntBuffer getIntBuffer(long hash) {
-		Buffer buffer = get(hash);
-		if (buffer == null)
-			return null;
-		return buffer.intBuffer;
+	/**
+	 * Sets an on-disk tier to fault entries in from on cache misses, and to write new entries through to.
+	 */
+	public void setPersistentCache(@Nullable PersistentModelCache persistentCache) {
+		this.persistentCache = persistentCache;
 	}
 
-	public FloatBuffer getFloatBuffer(long hash) {
-		Buffer buffer = get(hash);
-		if (buffer == null)
-			return null;
-		return buffer.floatBuffer;
+	/**
+	 * Looks up cached data without allocating, falling back to the persistent cache if there is one.
+	 *
+	 * @param hash of the cached data
+	 * @return the address of the cached data, or zero if it isn't cached
+	 */
+	public long get(long hash) {
+		int slot = find(hash);
+		return slot == -1 ? 0 : cache.getAddress(slot);
+	}
+
+	/**
+	 * Copies cached data into memory owned by the caller, which remains valid after the entry is evicted.
+	 *
+	 * @param hash        of the cached data
+	 * @param dstAddress  address to copy the data to
+	 * @param dstCapacity number of bytes available at the destination
+	 * @return the number of bytes copied, or zero if the hash isn't cached or doesn't fit in the destination
+	 */
+	public long get(long hash, long dstAddress, long dstCapacity) {
+		int slot = find(hash);
+		if (slot == -1)
+			return 0;
+		long byteCapacity = cache.getByteCapacity(slot);
+		if (byteCapacity > dstCapacity)
+			return 0;
+		MemoryUtil.memCopy(cache.getAddress(slot), dstAddress, byteCapacity);
+		return byteCapacity;
+	}
+
+	private int find(long hash) {
+		int slot = cache.find(hash);
+		if (slot != -1) {
+			hits++;
+			cache.setReferenced(slot, true);
+			if (cache.getEpoch(slot) != epoch) {
+				cache.setEpoch(slot, epoch);
+				workingSetBytes += cache.getByteCapacity(slot);
+			}
+			return slot;
+		}
+
+		misses++;
+		if (persistentCache == null)
+			return -1;
+
+		// The persistent cache may be shared with other model caches
+		synchronized (persistentCache) {
+			int persistentSlot = persistentCache.find(hash);
+			if (persistentSlot == -1)
+				return -1;
+
+			long byteCapacity = persistentCache.getByteCapacity(persistentSlot);
+			long address = allocate(byteCapacity);
+			if (address == 0)
+				return -1;
+			MemoryUtil.memCopy(persistentCache.getAddress(persistentSlot), address, byteCapacity);
+			persistentHits++;
+			return index(hash, address, byteCapacity);
+		}
 	}
 
-	public IntBuffer reserveIntBuffer(long hash, int capacity) {
-		long address = reserve(capacity * 4L);
-		if (address == 0L)
-			return null;
-		Buffer buffer = new Buffer(hash, MemoryUtil.memIntBuffer(address, capacity));
-		cache.put(hash, buffer);
-		buffers.addLast(buffer);
-		return buffer.intBuffer;
+	/**
+	 * Copies data into the cache under the specified hash, evicting the oldest entries as necessary.
+	 *
+	 * @param hash         of the data to cache
+	 * @param srcAddress   address of the data to cache
+	 * @param byteCapacity size of the data in bytes
+	 * @return false if the data couldn't be cached
+	 */
+	public boolean put(long hash, long srcAddress, long byteCapacity) {
+		long address = allocate(byteCapacity);
+		if (address == 0)
+			return false;
+		MemoryUtil.memCopy(srcAddress, address, byteCapacity);
+		index(hash, address, byteCapacity);
+		if (persistentCache != null)
+			persistentCache.put(hash, srcAddress, byteCapacity);
+		return true;
 	}
 
-	public FloatBuffer reserveFloatBuffer(long hash, int capacity) {
-		long address = reserve(capacity * 4L);
-		if (address == 0L)
-			return null;
-		Buffer buffer = new Buffer(hash, MemoryUtil.memFloatBuffer(address, capacity));
-		cache.put(hash, buffer);
-		buffers.addLast(buffer);
-		return buffer.floatBuffer;
+	private int index(long hash, long address, long byteCapacity) {
+		int slot = cache.put(hash, address, byteCapacity);
+		cache.setEpoch(slot, epoch);
+		workingSetBytes += byteCapacity;
+		entries.addLast(hash, address, byteCapacity, currentAllocation.id);
+		return slot;
 	}
 }
@@ -0,0 +1,229 @@
+package rs117.hd.model;
+
+import org.lwjgl.system.MemoryUtil;
+import rs117.hd.utils.HashUtils;
+
+/**
+ * Off-heap open-addressing hash table mapping model hashes to the address and size of their cached data, along with
+ * a reference bit used for second-chance eviction, and the occupancy window the entry was last used in.
+ * Uses linear probing with backward shift deletion, so no tombstones are needed. Empty slots are identified by a
+ * zero address, since cached data can never be located at address zero.
+ */
+public class ModelCacheIndex {
+	private static final int SLOT_BYTES = 32;
+	private static final int HASH_OFFSET = 0;
+	private static final int ADDRESS_OFFSET = 8;
+	private static final int BYTE_CAPACITY_OFFSET = 16;
+	private static final int REFERENCED_OFFSET = 24;
+	private static final int EPOCH_OFFSET = 28;
+	private static final float MAX_LOAD_FACTOR = .5f;
+
+	private final boolean ownsTable;
+	private long table;
+	private int capacity;
+	private int mask;
+	private int shift;
+	private int size;
+
+	public ModelCacheIndex(int initialCapacity) {
+		ownsTable = true;
+		allocate(Math.max(16, Integer.highestOneBit(Math.max(1, initialCapacity - 1)) << 1));
+	}
+
+	/**
+	 * Wraps an index stored in existing memory, such as a memory-mapped file. The index can't grow beyond its
+	 * capacity, and the memory won't be freed when the index is destroyed.
+	 */
+	public ModelCacheIndex(long table, int capacity) {
+		assert Integer.bitCount(capacity) == 1 : "capacity must be a power of two";
+		ownsTable = false;
+		this.table = table;
+		this.capacity = capacity;
+		mask = capacity - 1;
+		shift = HashUtils.slotShift(capacity);
+		for (int slot = 0; slot < capacity; slot++)
+			if (getAddress(slot) != 0)
+				size++;
+	}
+
+	public static long byteSize(int capacity) {
+		return (long) capacity * SLOT_BYTES;
+	}
+
+	private void allocate(int capacity) {
+		assert Integer.bitCount(capacity) == 1 : "capacity must be a power of two";
+		table = MemoryUtil.nmemCallocChecked(capacity, SLOT_BYTES);
+		this.capacity = capacity;
+		mask = capacity - 1;
+		shift = HashUtils.slotShift(capacity);
+		size = 0;
+	}
+
+	public void destroy() {
+		if (table != 0) {
+			if (ownsTable)
+				MemoryUtil.nmemFree(table);
+			table = 0;
+			capacity = 0;
+			size = 0;
+		}
+	}
+
+	public void clear() {
+		MemoryUtil.memSet(table, 0, (long) capacity * SLOT_BYTES);
+		size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isFull() {
+		return size + 1 > capacity * MAX_LOAD_FACTOR;
+	}
+
+	/**
+	 * @param hash of the cached data
+	 * @return the slot containing the hash, or -1 if the hash isn't in the index
+	 */
+	public int find(long hash) {
+		int slot = HashUtils.idealSlot(hash, shift);
+		while (true) {
+			long slotAddress = slotAddress(slot);
+			if (MemoryUtil.memGetLong(slotAddress + ADDRESS_OFFSET) == 0)
+				return -1;
+			if (MemoryUtil.memGetLong(slotAddress + HASH_OFFSET) == hash)
+				return slot;
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	public long getAddress(int slot) {
+		return MemoryUtil.memGetLong(slotAddress(slot) + ADDRESS_OFFSET);
+	}
+
+	public long getByteCapacity(int slot) {
+		return MemoryUtil.memGetLong(slotAddress(slot) + BYTE_CAPACITY_OFFSET);
+	}
+
+	void setAddress(int slot, long address) {
+		assert address != 0;
+		MemoryUtil.memPutLong(slotAddress(slot) + ADDRESS_OFFSET, address);
+	}
+
+	boolean isReferenced(int slot) {
+		return MemoryUtil.memGetInt(slotAddress(slot) + REFERENCED_OFFSET) != 0;
+	}
+
+	void setReferenced(int slot, boolean referenced) {
+		MemoryUtil.memPutInt(slotAddress(slot) + REFERENCED_OFFSET, referenced ? 1 : 0);
+	}
+
+	/**
+	 * @return the occupancy window in which the entry was last used
+	 */
+	int getEpoch(int slot) {
+		return MemoryUtil.memGetInt(slotAddress(slot) + EPOCH_OFFSET);
+	}
+
+	void setEpoch(int slot, int epoch) {
+		MemoryUtil.memPutInt(slotAddress(slot) + EPOCH_OFFSET, epoch);
+	}
+
+	/**
+	 * Inserts or replaces the entry for the specified hash.
+	 *
+	 * @return the slot containing the entry
+	 * @throws IllegalStateException if the index is stored in existing memory and is full
+	 */
+	public int put(long hash, long address, long byteCapacity) {
+		assert address != 0;
+		if (isFull()) {
+			if (!ownsTable)
+				throw new IllegalStateException("External index is full");
+			grow();
+		}
+
+		int slot = HashUtils.idealSlot(hash, shift);
+		while (true) {
+			long slotAddress = slotAddress(slot);
+			if (MemoryUtil.memGetLong(slotAddress + ADDRESS_OFFSET) == 0) {
+				size++;
+				break;
+			}
+			if (MemoryUtil.memGetLong(slotAddress + HASH_OFFSET) == hash)
+				break;
+			slot = (slot + 1) & mask;
+		}
+
+		long slotAddress = slotAddress(slot);
+		MemoryUtil.memPutLong(slotAddress + HASH_OFFSET, hash);
+		MemoryUtil.memPutLong(slotAddress + ADDRESS_OFFSET, address);
+		MemoryUtil.memPutLong(slotAddress + BYTE_CAPACITY_OFFSET, byteCapacity);
+		MemoryUtil.memPutInt(slotAddress + REFERENCED_OFFSET, 0);
+		MemoryUtil.memPutInt(slotAddress + EPOCH_OFFSET, 0);
+		return slot;
+	}
+
+	/**
+	 * Removes the entry for the specified hash, but only if it still points to the specified address. The same hash
+	 * may since have been reserved again at a different address, in which case the newer entry is left untouched.
+	 *
+	 * @return true if an entry was removed
+	 */
+	public boolean remove(long hash, long address) {
+		int slot = find(hash);
+		if (slot == -1 || getAddress(slot) != address)
+			return false;
+		removeAt(slot);
+		return true;
+	}
+
+	private void removeAt(int hole) {
+		// Shift subsequent entries in the same probe sequence back into the hole, so lookups never stop early
+		int slot = hole;
+		while (true) {
+			slot = (slot + 1) & mask;
+			long slotAddress = slotAddress(slot);
+			if (MemoryUtil.memGetLong(slotAddress + ADDRESS_OFFSET) == 0)
+				break;
+
+			int ideal = HashUtils.idealSlot(MemoryUtil.memGetLong(slotAddress + HASH_OFFSET), shift);
+			// Leave the entry in place if its ideal slot lies cyclically within (hole, slot]
+			boolean reachable = hole <= slot ? hole < ideal && ideal <= slot : hole < ideal || ideal <= slot;
+			if (reachable)
+				continue;
+
+			MemoryUtil.memCopy(slotAddress, slotAddress(hole), SLOT_BYTES);
+			hole = slot;
+		}
+
+		MemoryUtil.memSet(slotAddress(hole), 0, SLOT_BYTES);
+		size--;
+	}
+
+	private void grow() {
+		long oldTable = table;
+		int oldCapacity = capacity;
+		allocate(oldCapacity << 1);
+
+		for (int i = 0; i < oldCapacity; i++) {
+			long oldSlotAddress = oldTable + (long) i * SLOT_BYTES;
+			if (MemoryUtil.memGetLong(oldSlotAddress + ADDRESS_OFFSET) == 0)
+				continue;
+
+			// Hashes are unique, so the entry can be copied into the first free slot as-is
+			int slot = HashUtils.idealSlot(MemoryUtil.memGetLong(oldSlotAddress + HASH_OFFSET), shift);
+			while (getAddress(slot) != 0)
+				slot = (slot + 1) & mask;
+			MemoryUtil.memCopy(oldSlotAddress, slotAddress(slot), SLOT_BYTES);
+			size++;
+		}
+
+		MemoryUtil.nmemFree(oldTable);
+	}
+
+	private long slotAddress(int slot) {
+		return table + (long) slot * SLOT_BYTES;
+	}
+}
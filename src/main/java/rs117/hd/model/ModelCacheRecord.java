@@ -0,0 +1,290 @@
+package rs117.hd.model;
+
+import org.lwjgl.system.MemoryUtil;
+
+import static rs117.hd.model.ModelPusher.DATUM_PER_FACE;
+
+/**
+ * Encodes pushed vertex, normal and UV data for a model into a single compact record for the {@link ModelCache}, and
+ * decodes it straight back into staging buffers.
+ * <p>
+ * Layout: an 8-byte header containing the face count and record flags, followed by each face's data interleaved:
+ * <pre>
+ * byte   face flags
+ * 3x     vertex position, as 3 shorts if {@link #SHORT_VERTICES}, otherwise 3 ints
+ * 3x     int color
+ * 3x     vertex normal if {@link #FACE_HAS_NORMALS}, as 3 shorts if {@link #SHORT_NORMALS}, otherwise 4 floats
+ * 3x     vertex UVW if {@link #FACE_HAS_UVS}, as 3 half floats if {@link #HALF_UVS}, otherwise 4 floats
+ * int    material data if {@link #FACE_HAS_UVS} and {@link #HALF_UVS}
+ * </pre>
+ * The compact encodings are only used if every value in the model can be represented exactly, so decoding
+ * reproduces the pushed data as-is.
+ */
+final class ModelCacheRecord {
+	private static final int HEADER_BYTES = 8;
+
+	// Record flags
+	private static final int HAS_UVS = 1;
+	private static final int SHORT_VERTICES = 1 << 1;
+	private static final int SHORT_NORMALS = 1 << 2;
+	private static final int HALF_UVS = 1 << 3;
+
+	// Face flags
+	private static final int FACE_HAS_NORMALS = 1;
+	private static final int FACE_HAS_UVS = 1 << 1;
+
+	// Forces undo vanilla shading in compute to not use flat normals, see ModelPusher#getNormalDataForFace
+	private static final float NORMAL_TERRAIN_DATA = 0x800000;
+
+	private ModelCacheRecord() {}
+
+	/**
+	 * @return the maximum number of bytes a record for the specified number of faces may take up
+	 */
+	static long maxByteSize(int faceCount) {
+		return HEADER_BYTES + (long) faceCount * (1 + DATUM_PER_FACE * 4 * 3);
+	}
+
+	static int getFaceCount(long record) {
+		return MemoryUtil.memGetInt(record);
+	}
+
+	static boolean hasUvs(long record) {
+		return (MemoryUtil.memGetInt(record + 4) & HAS_UVS) != 0;
+	}
+
+	/**
+	 * Encodes staged model data into a record.
+	 *
+	 * @param dst       address to write the record to, with room for at least {@link #maxByteSize} bytes
+	 * @param vertices  address of the model's staged vertex data
+	 * @param normals   address of the model's staged normal data
+	 * @param uvs       address of the model's staged UV data, or zero if the model has no UVs
+	 * @param faceCount number of faces in the model
+	 * @return the size of the encoded record in bytes
+	 */
+	static long encode(long dst, long vertices, long normals, long uvs, int faceCount) {
+		int flags = uvs == 0 ? 0 : HAS_UVS;
+		if (canUseShortVertices(vertices, faceCount))
+			flags |= SHORT_VERTICES;
+		if (canUseShortNormals(normals, faceCount))
+			flags |= SHORT_NORMALS;
+		if (uvs != 0 && canUseHalfUvs(uvs, faceCount))
+			flags |= HALF_UVS;
+
+		MemoryUtil.memPutInt(dst, faceCount);
+		MemoryUtil.memPutInt(dst + 4, flags);
+		long p = dst + HEADER_BYTES;
+
+		for (int face = 0; face < faceCount; face++) {
+			long v = vertices + face * DATUM_PER_FACE * 4L;
+			long n = normals + face * DATUM_PER_FACE * 4L;
+			long uv = uvs + face * DATUM_PER_FACE * 4L;
+
+			int faceFlags = 0;
+			if (!isZero(n))
+				faceFlags |= FACE_HAS_NORMALS;
+			if (uvs != 0 && !isZero(uv))
+				faceFlags |= FACE_HAS_UVS;
+			MemoryUtil.memPutByte(p++, (byte) faceFlags);
+
+			for (int i = 0; i < 3; i++) {
+				long vertex = v + i * 16L;
+				if ((flags & SHORT_VERTICES) != 0) {
+					for (int j = 0; j < 3; j++, p += 2)
+						MemoryUtil.memPutShort(p, (short) MemoryUtil.memGetInt(vertex + j * 4L));
+				} else {
+					for (int j = 0; j < 3; j++, p += 4)
+						MemoryUtil.memPutInt(p, MemoryUtil.memGetInt(vertex + j * 4L));
+				}
+			}
+			for (int i = 0; i < 3; i++, p += 4)
+				MemoryUtil.memPutInt(p, MemoryUtil.memGetInt(v + i * 16L + 12));
+
+			if ((faceFlags & FACE_HAS_NORMALS) != 0) {
+				if ((flags & SHORT_NORMALS) != 0) {
+					for (int i = 0; i < 3; i++)
+						for (int j = 0; j < 3; j++, p += 2)
+							MemoryUtil.memPutShort(p, (short) MemoryUtil.memGetFloat(n + i * 16L + j * 4L));
+				} else {
+					MemoryUtil.memCopy(n, p, DATUM_PER_FACE * 4L);
+					p += DATUM_PER_FACE * 4L;
+				}
+			}
+
+			if ((faceFlags & FACE_HAS_UVS) != 0) {
+				if ((flags & HALF_UVS) != 0) {
+					for (int i = 0; i < 3; i++)
+						for (int j = 0; j < 3; j++, p += 2)
+							MemoryUtil.memPutShort(p, floatToHalf(MemoryUtil.memGetFloat(uv + i * 16L + j * 4L)));
+					MemoryUtil.memPutInt(p, (int) MemoryUtil.memGetFloat(uv + 12));
+					p += 4;
+				} else {
+					MemoryUtil.memCopy(uv, p, DATUM_PER_FACE * 4L);
+					p += DATUM_PER_FACE * 4L;
+				}
+			}
+		}
+
+		return p - dst;
+	}
+
+	/**
+	 * Decodes a record into staging buffers.
+	 *
+	 * @param record   address of the record
+	 * @param vertices address to write vertex data to
+	 * @param normals  address to write normal data to
+	 * @param uvs      address to write UV data to, if the record has UVs
+	 */
+	static void decode(long record, long vertices, long normals, long uvs) {
+		int faceCount = getFaceCount(record);
+		int flags = MemoryUtil.memGetInt(record + 4);
+		long p = record + HEADER_BYTES;
+
+		for (int face = 0; face < faceCount; face++) {
+			long v = vertices + face * DATUM_PER_FACE * 4L;
+			long n = normals + face * DATUM_PER_FACE * 4L;
+			long uv = uvs + face * DATUM_PER_FACE * 4L;
+
+			int faceFlags = MemoryUtil.memGetByte(p++);
+
+			for (int i = 0; i < 3; i++) {
+				long vertex = v + i * 16L;
+				if ((flags & SHORT_VERTICES) != 0) {
+					for (int j = 0; j < 3; j++, p += 2)
+						MemoryUtil.memPutInt(vertex + j * 4L, MemoryUtil.memGetShort(p));
+				} else {
+					for (int j = 0; j < 3; j++, p += 4)
+						MemoryUtil.memPutInt(vertex + j * 4L, MemoryUtil.memGetInt(p));
+				}
+			}
+			for (int i = 0; i < 3; i++, p += 4)
+				MemoryUtil.memPutInt(v + i * 16L + 12, MemoryUtil.memGetInt(p));
+
+			if ((faceFlags & FACE_HAS_NORMALS) == 0) {
+				MemoryUtil.memSet(n, 0, DATUM_PER_FACE * 4L);
+			} else if ((flags & SHORT_NORMALS) != 0) {
+				for (int i = 0; i < 3; i++) {
+					long normal = n + i * 16L;
+					for (int j = 0; j < 3; j++, p += 2)
+						MemoryUtil.memPutFloat(normal + j * 4L, MemoryUtil.memGetShort(p));
+					MemoryUtil.memPutFloat(normal + 12, NORMAL_TERRAIN_DATA);
+				}
+			} else {
+				MemoryUtil.memCopy(p, n, DATUM_PER_FACE * 4L);
+				p += DATUM_PER_FACE * 4L;
+			}
+
+			if ((flags & HAS_UVS) == 0)
+				continue;
+
+			if ((faceFlags & FACE_HAS_UVS) == 0) {
+				MemoryUtil.memSet(uv, 0, DATUM_PER_FACE * 4L);
+			} else if ((flags & HALF_UVS) != 0) {
+				for (int i = 0; i < 3; i++)
+					for (int j = 0; j < 3; j++, p += 2)
+						MemoryUtil.memPutFloat(uv + i * 16L + j * 4L, halfToFloat(MemoryUtil.memGetShort(p)));
+				float materialData = MemoryUtil.memGetInt(p);
+				p += 4;
+				for (int i = 0; i < 3; i++)
+					MemoryUtil.memPutFloat(uv + i * 16L + 12, materialData);
+			} else {
+				MemoryUtil.memCopy(p, uv, DATUM_PER_FACE * 4L);
+				p += DATUM_PER_FACE * 4L;
+			}
+		}
+	}
+
+	private static boolean isZero(long face) {
+		for (int i = 0; i < DATUM_PER_FACE; i++)
+			if (MemoryUtil.memGetInt(face + i * 4L) != 0)
+				return false;
+		return true;
+	}
+
+	private static boolean canUseShortVertices(long vertices, int faceCount) {
+		for (int i = 0; i < faceCount * 3; i++) {
+			long vertex = vertices + i * 16L;
+			for (int j = 0; j < 3; j++) {
+				int value = MemoryUtil.memGetInt(vertex + j * 4L);
+				if (value != (short) value)
+					return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean canUseShortNormals(long normals, int faceCount) {
+		for (int face = 0; face < faceCount; face++) {
+			long n = normals + face * DATUM_PER_FACE * 4L;
+			if (isZero(n))
+				continue;
+			for (int i = 0; i < 3; i++) {
+				long normal = n + i * 16L;
+				if (MemoryUtil.memGetFloat(normal + 12) != NORMAL_TERRAIN_DATA)
+					return false;
+				for (int j = 0; j < 3; j++) {
+					float value = MemoryUtil.memGetFloat(normal + j * 4L);
+					if (value != (short) value)
+						return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private static boolean canUseHalfUvs(long uvs, int faceCount) {
+		for (int face = 0; face < faceCount; face++) {
+			long uv = uvs + face * DATUM_PER_FACE * 4L;
+			if (isZero(uv))
+				continue;
+			float materialData = MemoryUtil.memGetFloat(uv + 12);
+			if (materialData != (int) materialData)
+				return false;
+			for (int i = 0; i < 3; i++) {
+				long vertex = uv + i * 16L;
+				if (MemoryUtil.memGetFloat(vertex + 12) != materialData)
+					return false;
+				for (int j = 0; j < 3; j++) {
+					float value = MemoryUtil.memGetFloat(vertex + j * 4L);
+					if (halfToFloat(floatToHalf(value)) != value)
+						return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Converts a float to a half float by truncation, which is only lossless for values representable as half floats.
+	 */
+	static short floatToHalf(float value) {
+		int bits = Float.floatToRawIntBits(value);
+		int sign = bits >>> 16 & 0x8000;
+		int exponent = (bits >>> 23 & 0xFF) - 127 + 15;
+		int mantissa = bits & 0x7FFFFF;
+		if (exponent >= 0x1F)
+			return (short) (sign | 0x7C00);
+		if (exponent <= 0) {
+			if (exponent < -10)
+				return (short) sign;
+			// Subnormal half float
+			return (short) (sign | (mantissa | 0x800000) >> (14 - exponent));
+		}
+		return (short) (sign | exponent << 10 | mantissa >> 13);
+	}
+
+	static float halfToFloat(short half) {
+		int sign = (half & 0x8000) << 16;
+		int exponent = half >>> 10 & 0x1F;
+		int mantissa = half & 0x3FF;
+		if (exponent == 0) {
+			float subnormal = mantissa / (float) (1 << 24);
+			return sign == 0 ? subnormal : -subnormal;
+		}
+		if (exponent == 0x1F)
+			return Float.intBitsToFloat(sign | 0x7F800000 | mantissa << 13);
+		return Float.intBitsToFloat(sign | (exponent - 15 + 127) << 23 | mantissa << 13);
+	}
+}
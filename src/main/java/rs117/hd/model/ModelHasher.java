@@ -1,5 +1,6 @@
 package rs117.hd.model;
 
+import java.util.WeakHashMap;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import lombok.NonNull;
@@ -13,37 +14,87 @@ public class ModelHasher {
 	@Inject
 	private HdPlugin plugin;
 
-	private Model model;
-	private int faceCount;
-	private long faceColorsOneHash;
-	private long faceColorsTwoHash;
-	private long faceColorsThreeHash;
-	private long faceTransparenciesHash;
-	private long faceTexturesHash;
-	private long xVerticesHash;
-	private long yVerticesHash;
-	private long zVerticesHash;
-	private long faceIndicesOneHash;
-	private long faceIndicesTwoHash;
-	private long faceIndicesThreeHash;
-	private long textureTrianglesHash;
+	// Face arrays are never modified once the client has created a model, so their hashes can be remembered by identity.
+	// Vertices and face transparencies on the other hand are rewritten in place when animating shared models.
+	private static final int MAX_MEMOIZED_ARRAYS = 1 << 14;
+
+	private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+	private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+	private static final long PRIME64_3 = 0x165667B19E3779F9L;
+	private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+	private static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+
+	/**
+	 * Hashes of the model most recently passed to {@link #setModel} on each thread
+	 */
+	private static class State {
+		Model model;
+		int faceCount;
+		long faceColorsOneHash;
+		long faceColorsTwoHash;
+		long faceColorsThreeHash;
+		long faceTransparenciesHash;
+		long faceTexturesHash;
+		long xVerticesHash;
+		long yVerticesHash;
+		long zVerticesHash;
+		long faceIndicesOneHash;
+		long faceIndicesTwoHash;
+		long faceIndicesThreeHash;
+		long textureTrianglesHash;
+
+		// Arrays have identity-based equality, so this effectively maps array instances to their hashes
+		final WeakHashMap<Object, Long> arrayHashes = new WeakHashMap<>();
+
+		long memoizedHash(int[] a) {
+			if (a == null)
+				return 0;
+			Long hash = arrayHashes.get(a);
+			if (hash == null) {
+				hash = fastHash(a);
+				memoize(a, hash);
+			}
+			return hash;
+		}
+
+		long memoizedHash(short[] a) {
+			if (a == null)
+				return 0;
+			Long hash = arrayHashes.get(a);
+			if (hash == null) {
+				hash = fastShortHash(a);
+				memoize(a, hash);
+			}
+			return hash;
+		}
+
+		private void memoize(Object array, long hash) {
+			// Bound the size in case the garbage collector doesn't get around to clearing out unused arrays
+			if (arrayHashes.size() >= MAX_MEMOIZED_ARRAYS)
+				arrayHashes.clear();
+			arrayHashes.put(array, hash);
+		}
+	}
+
+	private final ThreadLocal<State> state = ThreadLocal.withInitial(State::new);
 
 	public void setModel(Model model) {
-		this.model = model;
-		faceCount = model.getFaceCount();
+		State s = state.get();
+		s.model = model;
+		s.faceCount = model.getFaceCount();
 		if (plugin.configUseFasterModelHashing) {
-			faceColorsOneHash = fastHash(model.getFaceColors1());
-			faceColorsTwoHash = 0;
-			faceColorsThreeHash = 0;
-			faceTransparenciesHash = fastByteHash(model.getFaceTransparencies());
-			faceTexturesHash = fastShortHash(model.getFaceTextures());
-			xVerticesHash = fastHash(model.getVerticesX(), model.getVerticesCount());
-			yVerticesHash = fastHash(model.getVerticesY(), model.getVerticesCount());
-			zVerticesHash = fastHash(model.getVerticesZ(), model.getVerticesCount());
-			faceIndicesOneHash = fastHash(model.getFaceIndices1());
-			faceIndicesTwoHash = 0;
-			faceIndicesThreeHash = 0;
-			textureTrianglesHash = 0;
+			s.faceColorsOneHash = s.memoizedHash(model.getFaceColors1());
+			s.faceColorsTwoHash = 0;
+			s.faceColorsThreeHash = 0;
+			s.faceTransparenciesHash = fastByteHash(model.getFaceTransparencies());
+			s.faceTexturesHash = s.memoizedHash(model.getFaceTextures());
+			s.xVerticesHash = fastHash(model.getVerticesX(), model.getVerticesCount());
+			s.yVerticesHash = fastHash(model.getVerticesY(), model.getVerticesCount());
+			s.zVerticesHash = fastHash(model.getVerticesZ(), model.getVerticesCount());
+			s.faceIndicesOneHash = s.memoizedHash(model.getFaceIndices1());
+			s.faceIndicesTwoHash = 0;
+			s.faceIndicesThreeHash = 0;
+			s.textureTrianglesHash = 0;
 			final byte[] textureFaces = model.getTextureFaces();
 			if (textureFaces != null) {
 				boolean hasVanillaTexturedFaces = false;
@@ -79,21 +130,21 @@ public class ModelHasher {
 						h = h * 31L + vertexY[texC];
 						h = h * 31L + vertexZ[texC];
 					}
-					textureTrianglesHash = h;
+					s.textureTrianglesHash = h;
 				}
 			}
 		} else {
-			faceColorsOneHash = fastHash(model.getFaceColors1());
-			faceColorsTwoHash = fastHash(model.getFaceColors2());
-			faceColorsThreeHash = fastHash(model.getFaceColors3());
-			faceTransparenciesHash = fastByteHash(model.getFaceTransparencies());
-			faceTexturesHash = fastShortHash(model.getFaceTextures());
-			xVerticesHash = fastHash(model.getVerticesX(), model.getVerticesCount());
-			yVerticesHash = fastHash(model.getVerticesY(), model.getVerticesCount());
-			zVerticesHash = fastHash(model.getVerticesZ(), model.getVerticesCount());
-			faceIndicesOneHash = fastHash(model.getFaceIndices1());
-			faceIndicesTwoHash = fastHash(model.getFaceIndices2());
-			faceIndicesThreeHash = fastHash(model.getFaceIndices3());
+			s.faceColorsOneHash = s.memoizedHash(model.getFaceColors1());
+			s.faceColorsTwoHash = s.memoizedHash(model.getFaceColors2());
+			s.faceColorsThreeHash = s.memoizedHash(model.getFaceColors3());
+			s.faceTransparenciesHash = fastByteHash(model.getFaceTransparencies());
+			s.faceTexturesHash = s.memoizedHash(model.getFaceTextures());
+			s.xVerticesHash = fastHash(model.getVerticesX(), model.getVerticesCount());
+			s.yVerticesHash = fastHash(model.getVerticesY(), model.getVerticesCount());
+			s.zVerticesHash = fastHash(model.getVerticesZ(), model.getVerticesCount());
+			s.faceIndicesOneHash = s.memoizedHash(model.getFaceIndices1());
+			s.faceIndicesTwoHash = s.memoizedHash(model.getFaceIndices2());
+			s.faceIndicesThreeHash = s.memoizedHash(model.getFaceIndices3());
 			final byte[] textureFaces = model.getTextureFaces();
 			if (textureFaces != null) {
 				boolean hasVanillaTexturedFaces = false;
@@ -129,187 +180,240 @@ public class ModelHasher {
 						h = h * 31L + vertexY[texC];
 						h = h * 31L + vertexZ[texC];
 					}
-					textureTrianglesHash = h;
+					s.textureTrianglesHash = h;
 				}
 			}
 		}
 	}
 
 	public long calculateVertexCacheHash() {
-		long h = faceCount;
-		h = h * 31L + faceColorsOneHash;
-		h = h * 31L + faceColorsTwoHash;
-		h = h * 31L + faceColorsThreeHash;
-		h = h * 31L + faceTransparenciesHash;
-		h = h * 31L + faceTexturesHash;
-		h = h * 31L + xVerticesHash;
-		h = h * 31L + yVerticesHash;
-		h = h * 31L + zVerticesHash;
-		h = h * 31L + faceIndicesOneHash;
-		h = h * 31L + faceIndicesTwoHash;
-		h = h * 31L + faceIndicesThreeHash;
-		h = h * 31L + textureTrianglesHash;
-		h = h * 31L + model.getOverrideAmount();
-		h = h * 31L + model.getOverrideHue();
-		h = h * 31L + model.getOverrideSaturation();
-		h = h * 31L + model.getOverrideLuminance();
+		State s = state.get();
+		long h = s.faceCount;
+		h = h * 31L + s.faceColorsOneHash;
+		h = h * 31L + s.faceColorsTwoHash;
+		h = h * 31L + s.faceColorsThreeHash;
+		h = h * 31L + s.faceTransparenciesHash;
+		h = h * 31L + s.faceTexturesHash;
+		h = h * 31L + s.xVerticesHash;
+		h = h * 31L + s.yVerticesHash;
+		h = h * 31L + s.zVerticesHash;
+		h = h * 31L + s.faceIndicesOneHash;
+		h = h * 31L + s.faceIndicesTwoHash;
+		h = h * 31L + s.faceIndicesThreeHash;
+		h = h * 31L + s.textureTrianglesHash;
+		h = h * 31L + s.model.getOverrideAmount();
+		h = h * 31L + s.model.getOverrideHue();
+		h = h * 31L + s.model.getOverrideSaturation();
+		h = h * 31L + s.model.getOverrideLuminance();
 		return h;
 	}
 
 	public long calculateNormalCacheHash() {
-		long h = faceCount;
-		h = h * 31L + faceIndicesOneHash;
-		h = h * 31L + faceIndicesTwoHash;
-		h = h * 31L + faceIndicesThreeHash;
-		h = h * 31L + fastHash(model.getVertexNormalsX());
-		h = h * 31L + fastHash(model.getVertexNormalsY());
-		h = h * 31L + fastHash(model.getVertexNormalsZ());
+		State s = state.get();
+		long h = s.faceCount;
+		h = h * 31L + s.faceIndicesOneHash;
+		h = h * 31L + s.faceIndicesTwoHash;
+		h = h * 31L + s.faceIndicesThreeHash;
+		h = h * 31L + fastHash(s.model.getVertexNormalsX());
+		h = h * 31L + fastHash(s.model.getVertexNormalsY());
+		h = h * 31L + fastHash(s.model.getVertexNormalsZ());
 		return h;
 	}
 
 	public long calculateUvCacheHash(int orientation, @NonNull ModelOverride modelOverride) {
-		long h = faceCount;
-		h = h * 31L + (modelOverride.uvType == UvType.VANILLA ? textureTrianglesHash : 0);
+		State s = state.get();
+		long h = s.faceCount;
+		h = h * 31L + (modelOverride.uvType == UvType.VANILLA ? s.textureTrianglesHash : 0);
 		h = h * 31L + (modelOverride.uvType.orientationDependent ? orientation : 0);
-		h = h * 31L + modelOverride.hashCode();
-		h = h * 31L + faceTexturesHash;
+		h = h * 31L + modelOverride.getCacheHash();
+		h = h * 31L + s.faceTexturesHash;
 		return h;
 	}
 
+	/**
+	 * Hashes the whole array, see {@link #fastHash(int[], int)}.
+	 */
 	public static long fastHash(int[] a) {
-		if (a == null)
-			return 0;
-
-		int i = 0;
-		long r = 1;
-		int length = a.length;
-
-		for (; i + 5 < length; i += 6)
-			r = 31L * 31L * 31L * 31L * 31L * 31L * r +
-				31L * 31L * 31L * 31L * 31L * a[i] +
-				31L * 31L * 31L * 31L * a[i + 1] +
-				31L * 31L * 31L * a[i + 2] +
-				31L * 31L * a[i + 3] +
-				31L * a[i + 4] +
-				a[i + 5];
-
-		for (; i < length; i++)
-			r = 31L * r + a[i];
-
-		return r;
+		return a == null ? 0 : fastHash(a, a.length);
 	}
 
+	/**
+	 * Hashes the first {@code length} ints of the array with xxHash64, treating each pair of ints as one 64-bit lane.
+	 * Four independent accumulators are updated per iteration, which lets the CPU overlap their multiplications,
+	 * unlike a single polynomial hash where every step depends on the previous one.
+	 */
 	public static long fastHash(int[] a, int length) {
 		if (a == null)
 			return 0;
 
 		int i = 0;
-		long r = 1;
-
-		for (; i + 5 < length; i += 6)
-			r = 31L * 31L * 31L * 31L * 31L * 31L * r +
-				31L * 31L * 31L * 31L * 31L * a[i] +
-				31L * 31L * 31L * 31L * a[i + 1] +
-				31L * 31L * 31L * a[i + 2] +
-				31L * 31L * a[i + 3] +
-				31L * a[i + 4] +
-				a[i + 5];
-
-		for (; i < length; i++)
-			r = 31L * r + a[i];
+		long h;
+		if (length >= 8) {
+			long v1 = PRIME64_1 + PRIME64_2;
+			long v2 = PRIME64_2;
+			long v3 = 0;
+			long v4 = -PRIME64_1;
+			for (; i + 7 < length; i += 8) {
+				v1 = round(v1, lane(a, i));
+				v2 = round(v2, lane(a, i + 2));
+				v3 = round(v3, lane(a, i + 4));
+				v4 = round(v4, lane(a, i + 6));
+			}
+			h = merge(v1, v2, v3, v4);
+		} else {
+			h = PRIME64_5;
+		}
 
-		return r;
+		h += length * 4L;
+		for (; i + 1 < length; i += 2)
+			h = mix64(h, lane(a, i));
+		if (i < length)
+			h = mix32(h, a[i]);
+		return avalanche(h);
 	}
 
-	public static int fastIntHash(int[] a, int actualLength) {
+	/**
+	 * Hashes the array with xxHash64, treating each group of four shorts as one 64-bit lane. The result is the same as
+	 * hashing the shorts as little-endian bytes.
+	 */
+	public static long fastShortHash(short[] a) {
 		if (a == null)
 			return 0;
 
-		int i = 0;
-		int r = 1;
 		int length = a.length;
-		if (actualLength != -1)
-			length = actualLength;
-
-		for (; i + 5 < length; i += 6)
-			r = 31 * 31 * 31 * 31 * 31 * 31 * r +
-				31 * 31 * 31 * 31 * 31 * a[i] +
-				31 * 31 * 31 * 31 * a[i + 1] +
-				31 * 31 * 31 * a[i + 2] +
-				31 * 31 * a[i + 3] +
-				31 * a[i + 4] +
-				a[i + 5];
-
-		for (; i < length; i++)
-			r = 31 * r + a[i];
+		int i = 0;
+		long h;
+		if (length >= 16) {
+			long v1 = PRIME64_1 + PRIME64_2;
+			long v2 = PRIME64_2;
+			long v3 = 0;
+			long v4 = -PRIME64_1;
+			for (; i + 15 < length; i += 16) {
+				v1 = round(v1, lane(a, i));
+				v2 = round(v2, lane(a, i + 4));
+				v3 = round(v3, lane(a, i + 8));
+				v4 = round(v4, lane(a, i + 12));
+			}
+			h = merge(v1, v2, v3, v4);
+		} else {
+			h = PRIME64_5;
+		}
 
-		return r;
+		h += length * 2L;
+		for (; i + 3 < length; i += 4)
+			h = mix64(h, lane(a, i));
+		if (i + 1 < length) {
+			h = mix32(h, (a[i] & 0xFFFF) | a[i + 1] << 16);
+			i += 2;
+		}
+		if (i < length) {
+			h = mix8(h, a[i]);
+			h = mix8(h, a[i] >> 8);
+		}
+		return avalanche(h);
 	}
 
-	public static int fastByteHash(byte[] a) {
+	/**
+	 * Hashes the array with xxHash64, treating each group of eight bytes as one 64-bit lane.
+	 */
+	public static long fastByteHash(byte[] a) {
 		if (a == null)
 			return 0;
 
+		int length = a.length;
 		int i = 0;
-		int r = 1;
-
-		for (; i + 5 < a.length; i += 6)
-			r = 31 * 31 * 31 * 31 * 31 * 31 * r
-				+ 31 * 31 * 31 * 31 * 31 * a[i]
-				+ 31 * 31 * 31 * 31 * a[i + 1]
-				+ 31 * 31 * 31 * a[i + 2]
-				+ 31 * 31 * a[i + 3]
-				+ 31 * a[i + 4]
-				+ a[i + 5];
-
-		for (; i < a.length; i++) {
-			r = 31 * r + a[i];
+		long h;
+		if (length >= 32) {
+			long v1 = PRIME64_1 + PRIME64_2;
+			long v2 = PRIME64_2;
+			long v3 = 0;
+			long v4 = -PRIME64_1;
+			for (; i + 31 < length; i += 32) {
+				v1 = round(v1, lane(a, i));
+				v2 = round(v2, lane(a, i + 8));
+				v3 = round(v3, lane(a, i + 16));
+				v4 = round(v4, lane(a, i + 24));
+			}
+			h = merge(v1, v2, v3, v4);
+		} else {
+			h = PRIME64_5;
 		}
 
-		return r;
+		h += length;
+		for (; i + 7 < length; i += 8)
+			h = mix64(h, lane(a, i));
+		if (i + 3 < length) {
+			h = mix32(h, (a[i] & 0xFF) | (a[i + 1] & 0xFF) << 8 | (a[i + 2] & 0xFF) << 16 | a[i + 3] << 24);
+			i += 4;
+		}
+		for (; i < length; i++)
+			h = mix8(h, a[i]);
+		return avalanche(h);
 	}
 
-    public static int fastShortHash(short[] a) {
-		if (a == null)
-			return 0;
+	private static long lane(int[] a, int i) {
+		return (a[i] & 0xFFFFFFFFL) | (long) a[i + 1] << 32;
+	}
 
-		int i = 0;
-		int r = 1;
+	private static long lane(short[] a, int i) {
+		return
+			(a[i] & 0xFFFFL) |
+			(a[i + 1] & 0xFFFFL) << 16 |
+			(a[i + 2] & 0xFFFFL) << 32 |
+			(long) a[i + 3] << 48;
+	}
 
-		for (; i + 5 < a.length; i += 6)
-			r = 31 * 31 * 31 * 31 * 31 * 31 * r +
-				31 * 31 * 31 * 31 * 31 * a[i] +
-				31 * 31 * 31 * 31 * a[i + 1] +
-				31 * 31 * 31 * a[i + 2] +
-				31 * 31 * a[i + 3] +
-				31 * a[i + 4] +
-				a[i + 5];
+	private static long lane(byte[] a, int i) {
+		return
+			(a[i] & 0xFFL) |
+			(a[i + 1] & 0xFFL) << 8 |
+			(a[i + 2] & 0xFFL) << 16 |
+			(a[i + 3] & 0xFFL) << 24 |
+			(a[i + 4] & 0xFFL) << 32 |
+			(a[i + 5] & 0xFFL) << 40 |
+			(a[i + 6] & 0xFFL) << 48 |
+			(long) a[i + 7] << 56;
+	}
 
-		for (; i < a.length; i++)
-			r = 31 * r + a[i];
+	private static long round(long acc, long input) {
+		acc += input * PRIME64_2;
+		acc = Long.rotateLeft(acc, 31);
+		return acc * PRIME64_1;
+	}
 
-		return r;
+	private static long mergeRound(long acc, long value) {
+		acc ^= round(0, value);
+		return acc * PRIME64_1 + PRIME64_4;
 	}
 
-    public static int fastFloatHash(float[] a) {
-		if (a == null)
-			return 0;
+	private static long merge(long v1, long v2, long v3, long v4) {
+		long h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+		h = mergeRound(h, v1);
+		h = mergeRound(h, v2);
+		h = mergeRound(h, v3);
+		return mergeRound(h, v4);
+	}
 
-		int i = 0;
-		int r = 1;
+	private static long mix64(long h, long lane) {
+		h ^= round(0, lane);
+		return Long.rotateLeft(h, 27) * PRIME64_1 + PRIME64_4;
+	}
 
-		for (; i + 5 < a.length; i += 6)
-			r = 31 * 31 * 31 * 31 * 31 * 31 * r +
-				31 * 31 * 31 * 31 * 31 * Float.floatToIntBits(a[i]) +
-				31 * 31 * 31 * 31 * Float.floatToIntBits(a[i + 1]) +
-				31 * 31 * 31 * Float.floatToIntBits(a[i + 2]) +
-				31 * 31 * Float.floatToIntBits(a[i + 3]) +
-				31 * Float.floatToIntBits(a[i + 4]) +
-				Float.floatToIntBits(a[i + 5]);
+	private static long mix32(long h, int value) {
+		h ^= (value & 0xFFFFFFFFL) * PRIME64_1;
+		return Long.rotateLeft(h, 23) * PRIME64_2 + PRIME64_3;
+	}
 
-		for (; i < a.length; i++)
-			r = 31 * r + Float.floatToIntBits(a[i]);
+	private static long mix8(long h, int value) {
+		h ^= (value & 0xFF) * PRIME64_5;
+		return Long.rotateLeft(h, 11) * PRIME64_1;
+	}
 
-		return r;
+	private static long avalanche(long h) {
+		h ^= h >>> 33;
+		h *= PRIME64_2;
+		h ^= h >>> 29;
+		h *= PRIME64_3;
+		return h ^ h >>> 32;
 	}
 }
@@ -1,10 +0,0 @@
-package rs117.hd.model;
-
-import lombok.RequiredArgsConstructor;
-
-@RequiredArgsConstructor
-public class ModelOffsets {
-	public final int faceCount;
-	public final int vertexOffset;
-	public final int uvOffset;
-}
@@ -1,8 +1,8 @@
 package rs117.hd.model;
 
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
-import java.util.Arrays;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Objects;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
@@ -14,6 +14,8 @@ import net.runelite.api.kit.*;
 import net.runelite.client.RuneLite;
 import net.runelite.client.callback.ClientThread;
 import net.runelite.client.util.LinkBrowser;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.system.MemoryUtil;
 import rs117.hd.HdPlugin;
 import rs117.hd.HdPluginConfig;
 import rs117.hd.data.WaterType;
@@ -27,6 +29,7 @@ import rs117.hd.scene.ModelOverrideManager;
 import rs117.hd.scene.ProceduralGenerator;
 import rs117.hd.scene.SceneContext;
 import rs117.hd.scene.SceneUploader;
+import rs117.hd.scene.TerrainMaterials;
 import rs117.hd.scene.TextureManager;
 import rs117.hd.scene.model_overrides.InheritTileColorType;
 import rs117.hd.scene.model_overrides.ModelOverride;
@@ -37,6 +40,9 @@ import rs117.hd.utils.ModelHash;
 import rs117.hd.utils.PopupUtils;
 
 import static rs117.hd.HdPlugin.MAX_FACE_COUNT;
+import static rs117.hd.HdPlugin.NORMAL_SIZE;
+import static rs117.hd.HdPlugin.UV_SIZE;
+import static rs117.hd.HdPlugin.VERTEX_SIZE;
 import static rs117.hd.utils.HDUtils.LIGHT_DIR_MODEL;
 
 /**
@@ -80,8 +86,6 @@ public class ModelPusher {
 	// the minimum amount by which each color will be lightened
 	private static final int BASE_LIGHTEN = 10;
 
-	private static final int[] ZEROED_INTS = new int[12];
-
 	private static final int[] MAX_BRIGHTNESS_LOOKUP_TABLE = new int[8];
 
 	static {
@@ -89,7 +93,79 @@ public class ModelPusher {
 			MAX_BRIGHTNESS_LOOKUP_TABLE[i] = (int) (127 - 72 * Math.pow(i / 7f, .05));
 	}
 
-	private ModelCache modelCache;
+	private static final String PERSISTENT_MODEL_CACHE_FILE = "117hd-model-cache.bin";
+	private static final long PLUGIN_BUILD_HASH = calculatePluginBuildHash();
+
+	/**
+	 * Scratch space for pushing a single model, kept per thread so models can be pushed from multiple threads at once
+	 */
+	private static class PushScratch {
+		final float[] faceData = new float[DATUM_PER_FACE];
+		final int[] colorHsl = new int[3];
+		final int[] tzHaarRecolored = new int[10];
+		ByteBuffer recordBuffer;
+		long recordAddress;
+
+		// Model arrays, fetched once per model instead of once per face
+		int[] faceColors1;
+		int[] faceColors2;
+		int[] faceColors3;
+		int[] faceIndices1;
+		int[] faceIndices2;
+		int[] faceIndices3;
+		int[] verticesX;
+		int[] verticesY;
+		int[] verticesZ;
+		int[] vertexNormalsX;
+		int[] vertexNormalsY;
+		int[] vertexNormalsZ;
+		short[] faceTextures;
+		byte[] faceTransparencies;
+		byte[] facePriorities;
+
+		void hoist(Model model) {
+			faceColors1 = model.getFaceColors1();
+			faceColors2 = model.getFaceColors2();
+			faceColors3 = model.getFaceColors3();
+			faceIndices1 = model.getFaceIndices1();
+			faceIndices2 = model.getFaceIndices2();
+			faceIndices3 = model.getFaceIndices3();
+			verticesX = model.getVerticesX();
+			verticesY = model.getVerticesY();
+			verticesZ = model.getVerticesZ();
+			vertexNormalsX = model.getVertexNormalsX();
+			vertexNormalsY = model.getVertexNormalsY();
+			vertexNormalsZ = model.getVertexNormalsZ();
+			faceTextures = model.getFaceTextures();
+			faceTransparencies = model.getFaceTransparencies();
+			facePriorities = model.getFaceRenderPriorities();
+		}
+
+		void release() {
+			// Avoid keeping the model's arrays alive
+			faceColors1 = faceColors2 = faceColors3 = null;
+			faceIndices1 = faceIndices2 = faceIndices3 = null;
+			verticesX = verticesY = verticesZ = null;
+			vertexNormalsX = vertexNormalsY = vertexNormalsZ = null;
+			faceTextures = null;
+			faceTransparencies = null;
+			facePriorities = null;
+		}
+
+		long getRecordAddress() {
+			// Only allocate space for model cache records on threads which push cached models
+			if (recordBuffer == null) {
+				recordBuffer = BufferUtils.createByteBuffer((int) ModelCacheRecord.maxByteSize(MAX_FACE_COUNT));
+				recordAddress = MemoryUtil.memAddress(recordBuffer);
+			}
+			return recordAddress;
+		}
+	}
+
+	private static final ThreadLocal<PushScratch> SCRATCH = ThreadLocal.withInitial(PushScratch::new);
+
+	private volatile ConcurrentModelCache modelCache;
+	private PersistentModelCache persistentModelCache;
 
 	public void startUp() {
 		if (Material.values().length - 1 >= MAX_MATERIAL_COUNT) {
@@ -100,10 +176,12 @@ public class ModelPusher {
 		if (config.modelCaching() && !plugin.useLowMemoryMode) {
 			final int size = config.modelCacheSizeMiB();
 			try {
-				modelCache = new ModelCache(size, () -> {
-					shutDown();
-					plugin.stopPlugin();
-				});
+				// The cache may fail while pushing from a different thread, in which case shutting down is deferred
+				modelCache = new ConcurrentModelCache(size, ConcurrentModelCache.defaultStripeCount(), () ->
+					clientThread.invoke(() -> {
+						shutDown();
+						plugin.stopPlugin();
+					}));
 			} catch (Throwable err) {
 				log.error("Error while initializing model cache. Stopping the plugin...", err);
 
@@ -152,25 +230,123 @@ public class ModelPusher {
 				// Allow the model pusher to be used until the plugin has cleanly shut down
 				clientThread.invoke(plugin::stopPlugin);
 			}
+
+			updatePersistentModelCache();
 		}
 	}
 
+	/**
+	 * Gives the model cache a chance to release memory it hasn't needed for a while. Should be called once per game tick.
+	 */
+	public void checkModelCacheOccupancy() {
+		if (modelCache != null)
+			modelCache.checkOccupancy();
+	}
+
 	public void shutDown() {
-		if (modelCache != null) {
+		ConcurrentModelCache modelCache = this.modelCache;
+		this.modelCache = null;
+		if (modelCache != null)
 			modelCache.destroy();
-			modelCache = null;
+
+		if (persistentModelCache != null) {
+			persistentModelCache.destroy();
+			persistentModelCache = null;
 		}
 	}
 
 	public void clearModelCache() {
 		if (modelCache != null) {
 			modelCache.clear();
+			updatePersistentModelCache();
 		}
 	}
 
+	/**
+	 * Opens the persistent model cache if enabled, or discards its contents if they have gone stale. The persistent
+	 * cache is detached until material indices are known, since they're part of its fingerprint.
+	 */
+	private void updatePersistentModelCache() {
+		if (modelCache == null || !config.persistentModelCache())
+			return;
+
+		long fingerprint = calculatePersistentCacheFingerprint();
+		if (fingerprint == 0) {
+			modelCache.setPersistentCache(null);
+			return;
+		}
+
+		if (persistentModelCache == null) {
+			try {
+				persistentModelCache = new PersistentModelCache(
+					RuneLite.CACHE_DIR.toPath().resolve(PERSISTENT_MODEL_CACHE_FILE),
+					config.modelCacheSizeMiB(),
+					fingerprint
+				);
+			} catch (PersistentModelCache.LockedException ex) {
+				log.info("{}. Continuing without it...", ex.getMessage());
+				return;
+			} catch (Throwable err) {
+				log.warn("Unable to open the persistent model cache. Continuing without it...", err);
+				return;
+			}
+		} else {
+			persistentModelCache.validate(fingerprint);
+		}
+
+		modelCache.setPersistentCache(persistentModelCache);
+	}
+
+	/**
+	 * Calculates a fingerprint of everything besides model hashes which affects pushed model data.
+	 *
+	 * @return the fingerprint, or zero if material indices haven't been determined yet
+	 */
+	long calculatePersistentCacheFingerprint() {
+		long materialIndexHash = textureManager.getMaterialIndexHash();
+		if (materialIndexHash == 0)
+			return 0;
+
+		long h = PersistentModelCache.FORMAT_VERSION;
+		h = h * 31L + materialIndexHash;
+		for (Material material : Material.values())
+			h = h * 31L + material.name().hashCode();
+		h = h * 31L + (plugin.configModelTextures ? 1 : 0);
+		h = h * 31L + (plugin.configTzhaarHD ? 1 : 0);
+		h = h * 31L + (plugin.configHideFakeShadows ? 1 : 0);
+		h = h * 31L + (plugin.configLegacyGreyColors ? 1 : 0);
+		h = h * 31L + (plugin.configUseFasterModelHashing ? 1 : 0);
+		h = h * 31L + (plugin.configUndoVanillaShadingInCompute ? 1 : 0);
+		h = h * 31L + (plugin.configPreserveVanillaNormals ? 1 : 0);
+		h = h * 31L + DATUM_PER_FACE;
+		h = h * 31L + modelOverrideManager.getOverridesHash();
+		h = h * 31L + PLUGIN_BUILD_HASH;
+		return h == 0 ? 1 : h;
+	}
+
+	/**
+	 * Identifies the build of the plugin through the file it was loaded from, since updating the plugin replaces the
+	 * file, and the code which pushes model data may have changed along with it.
+	 */
+	private static long calculatePluginBuildHash() {
+		long h = Objects.hashCode(HdPlugin.class.getPackage().getImplementationVersion());
+		try {
+			File codeSource = new File(HdPlugin.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+			h = h * 31L + codeSource.getAbsolutePath().hashCode();
+			h = h * 31L + codeSource.lastModified();
+			h = h * 31L + codeSource.length();
+		} catch (Exception ex) {
+			log.debug("Unable to locate the plugin's code source", ex);
+		}
+		return h;
+	}
+
 	/**
 	 * Pushes model data to staging buffers in the provided {@link SceneContext}, and writes the pushed number of
 	 * vertices and UVs to {@link SceneContext#modelPusherResults}.
+	 * <p>
+	 * This may be called from any thread, as long as no other thread is pushing to the same {@link SceneContext}, and
+	 * the model's hashes have been calculated on the calling thread through {@link ModelHasher#setModel}.
 	 *
 	 * @param sceneContext   object for the scene to push model data for
 	 * @param tile           that the model is associated with, if any
@@ -189,35 +365,17 @@ public class ModelPusher {
 		int preOrientation,
 		boolean shouldCache
 	) {
+		final ConcurrentModelCache modelCache = this.modelCache;
 		if (modelCache == null) {
 			shouldCache = false;
 		}
+		final PushScratch scratch = SCRATCH.get();
 
-		final int faceCount = Math.min(model.getFaceCount(), MAX_FACE_COUNT);
+		final int faceCount = getPushedFaceCount(model);
 		final int bufferSize = faceCount * DATUM_PER_FACE;
-		int texturedFaceCount = 0;
 
 		ModelOverride modelOverride = modelOverrideManager.getOverride(hash);
-		boolean useMaterialOverrides = plugin.configModelTextures || modelOverride.forceOverride;
-		final short[] faceTextures = model.getFaceTextures();
-		final byte[] textureFaces = model.getTextureFaces();
-		boolean isVanillaTextured = faceTextures != null;
-		boolean isVanillaUVMapped =
-			isVanillaTextured && // Vanilla UV mapped models don't always have sensible UVs for untextured faces
-			model.getTexIndices1() != null &&
-			model.getTexIndices2() != null &&
-			model.getTexIndices3() != null &&
-			model.getTextureFaces() != null;
-		Material baseMaterial = Material.NONE;
-		Material textureMaterial = Material.NONE;
-		if (useMaterialOverrides) {
-			baseMaterial = modelOverride.baseMaterial;
-			textureMaterial = modelOverride.textureMaterial;
-		}
-		boolean skipUVs =
-			!isVanillaTextured &&
-			baseMaterial == Material.NONE &&
-			packMaterialData(Material.NONE, -1, modelOverride, UvType.GEOMETRY, false) == 0;
+		boolean skipUVs = shouldSkipUvs(model, modelOverride);
 
 		// ensure capacity upfront
 		sceneContext.stagingBufferVertices.ensureCapacity(bufferSize);
@@ -226,197 +384,278 @@ public class ModelPusher {
 			sceneContext.stagingBufferUvs.ensureCapacity(bufferSize);
 		}
 
-		boolean foundCachedVertexData = false;
-		boolean foundCachedNormalData = false;
-		boolean foundCachedUvData = skipUVs;
-		long vertexHash = 0;
-		long normalHash = 0;
-		long uvHash = 0;
+		final int vertexStart = sceneContext.stagingBufferVertices.position();
+		final int normalStart = sceneContext.stagingBufferNormals.position();
+		final int uvStart = sceneContext.stagingBufferUvs.position();
 
+		long recordHash = 0;
 		if (shouldCache) {
-			assert client.isClientThread() : "Model caching isn't thread-safe";
-
-			vertexHash = modelHasher.calculateVertexCacheHash();
-			IntBuffer vertexData = this.modelCache.getIntBuffer(vertexHash);
-			foundCachedVertexData = vertexData != null && vertexData.remaining() == bufferSize;
-			if (foundCachedVertexData) {
-				sceneContext.stagingBufferVertices.put(vertexData);
-				vertexData.rewind();
-			}
-
-			normalHash = modelHasher.calculateNormalCacheHash();
-			FloatBuffer normalData = this.modelCache.getFloatBuffer(normalHash);
-			foundCachedNormalData = normalData != null && normalData.remaining() == bufferSize;
-			if (foundCachedNormalData) {
-				sceneContext.stagingBufferNormals.put(normalData);
-				normalData.rewind();
-			}
-
-			if (!foundCachedUvData) {
-				uvHash = modelHasher.calculateUvCacheHash(preOrientation, modelOverride);
-				FloatBuffer uvData = this.modelCache.getFloatBuffer(uvHash);
-				foundCachedUvData = uvData != null && uvData.remaining() == bufferSize;
-				if (foundCachedUvData) {
-					texturedFaceCount = faceCount;
-					sceneContext.stagingBufferUvs.put(uvData);
-					uvData.rewind();
-				}
-			}
+			recordHash = modelHasher.calculateVertexCacheHash();
+			recordHash = recordHash * 31L + modelHasher.calculateNormalCacheHash();
+			recordHash = recordHash * 31L + (skipUVs ? 0 : modelHasher.calculateUvCacheHash(preOrientation, modelOverride));
+
+			long record = scratch.getRecordAddress();
+			if (
+				modelCache.get(recordHash, record, scratch.recordBuffer.capacity()) != 0 &&
+				ModelCacheRecord.getFaceCount(record) == faceCount &&
+				ModelCacheRecord.hasUvs(record) == !skipUVs
+			) {
+				ModelCacheRecord.decode(
+					record,
+					sceneContext.stagingBufferVertices.getAddress(vertexStart),
+					sceneContext.stagingBufferNormals.getAddress(normalStart),
+					skipUVs ? 0 : sceneContext.stagingBufferUvs.getAddress(uvStart)
+				);
+				sceneContext.stagingBufferVertices.skip(bufferSize);
+				sceneContext.stagingBufferNormals.skip(bufferSize);
+				if (!skipUVs)
+					sceneContext.stagingBufferUvs.skip(bufferSize);
 
-			if (foundCachedVertexData && foundCachedNormalData && foundCachedUvData) {
 				sceneContext.modelPusherResults[0] = faceCount;
-				sceneContext.modelPusherResults[1] = texturedFaceCount;
+				sceneContext.modelPusherResults[1] = skipUVs ? 0 : faceCount;
 				return;
 			}
 		}
 
-		IntBuffer fullVertexData = null;
-		FloatBuffer fullNormalData = null;
-		FloatBuffer fullUvData = null;
+		pushModelData(
+			scratch,
+			sceneContext,
+			tile,
+			hash,
+			model,
+			modelOverride,
+			objectType,
+			preOrientation,
+			faceCount,
+			sceneContext.stagingBufferVertices.getAddress(vertexStart),
+			sceneContext.stagingBufferNormals.getAddress(normalStart),
+			skipUVs ? 0 : sceneContext.stagingBufferUvs.getAddress(uvStart)
+		);
+		sceneContext.stagingBufferVertices.skip(bufferSize);
+		sceneContext.stagingBufferNormals.skip(bufferSize);
+		if (!skipUVs)
+			sceneContext.stagingBufferUvs.skip(bufferSize);
 
-		boolean shouldCacheVertexData = false;
-		boolean shouldCacheNormalData = false;
-		boolean shouldCacheUvData = false;
 		if (shouldCache) {
-			shouldCacheVertexData = !foundCachedVertexData;
-			shouldCacheNormalData = !foundCachedNormalData;
-			shouldCacheUvData = !foundCachedUvData;
-
-			if (shouldCacheVertexData) {
-				fullVertexData = this.modelCache.reserveIntBuffer(vertexHash, bufferSize);
-				if (fullVertexData == null) {
-					log.error("failed to reserve vertex buffer");
-					shouldCacheVertexData = false;
-				}
-			}
+			long record = scratch.getRecordAddress();
+			long recordBytes = ModelCacheRecord.encode(
+				record,
+				sceneContext.stagingBufferVertices.getAddress(vertexStart),
+				sceneContext.stagingBufferNormals.getAddress(normalStart),
+				skipUVs ? 0 : sceneContext.stagingBufferUvs.getAddress(uvStart),
+				faceCount
+			);
+			if (!modelCache.put(recordHash, record, recordBytes))
+				log.error("failed to cache model record");
+		}
 
-			if (shouldCacheNormalData) {
-				fullNormalData = this.modelCache.reserveFloatBuffer(normalHash, bufferSize);
-				if (fullNormalData == null) {
-					log.error("failed to reserve normal buffer");
-					shouldCacheNormalData = false;
-				}
-			}
+		sceneContext.modelPusherResults[0] = faceCount;
+		sceneContext.modelPusherResults[1] = skipUVs ? 0 : faceCount;
+	}
 
-			if (shouldCacheUvData) {
-				fullUvData = this.modelCache.reserveFloatBuffer(uvHash, bufferSize);
-				if (fullUvData == null) {
-					log.error("failed to reserve uv buffer");
-					shouldCacheUvData = false;
-				}
-			}
-		}
+	/**
+	 * Pushes model data into space which has already been reserved in the staging buffers of the provided
+	 * {@link SceneContext}, sized according to {@link #getPushedFaceCount} and {@link #pushesUvs}.
+	 * <p>
+	 * Unlike {@link #pushModel}, this neither moves the positions of the staging buffers nor writes to
+	 * {@link SceneContext#modelPusherResults}, so any number of threads may push to the same {@link SceneContext} at
+	 * once, as long as their reserved ranges don't overlap. The staging buffers must not be resized meanwhile.
+	 *
+	 * @param vertexOffset the number of vertices preceding the reserved range of vertices and normals
+	 * @param uvOffset     the number of UVs preceding the reserved range of UVs, ignored if the model has no UVs
+	 */
+	public void pushReservedModel(
+		SceneContext sceneContext,
+		@Nullable Tile tile,
+		long hash,
+		Model model,
+		ObjectType objectType,
+		int preOrientation,
+		int vertexOffset,
+		int uvOffset
+	) {
+		ModelOverride modelOverride = modelOverrideManager.getOverride(hash);
+		pushModelData(
+			SCRATCH.get(),
+			sceneContext,
+			tile,
+			hash,
+			model,
+			modelOverride,
+			objectType,
+			preOrientation,
+			getPushedFaceCount(model),
+			sceneContext.stagingBufferVertices.getAddress(vertexOffset * VERTEX_SIZE),
+			sceneContext.stagingBufferNormals.getAddress(vertexOffset * NORMAL_SIZE),
+			shouldSkipUvs(model, modelOverride) ? 0 : sceneContext.stagingBufferUvs.getAddress(uvOffset * UV_SIZE)
+		);
+	}
 
-		if (!foundCachedVertexData) {
-			if (plugin.enableDetailedTimers)
-				frameTimer.begin(Timer.MODEL_PUSHING_VERTEX);
+	/**
+	 * @return the number of faces {@link #pushModel} pushes for the model, each of which consists of three vertices
+	 */
+	public static int getPushedFaceCount(Model model) {
+		return Math.min(model.getFaceCount(), MAX_FACE_COUNT);
+	}
 
-			for (int face = 0; face < faceCount; face++) {
-				int[] data = getFaceVertices(sceneContext, tile, hash, model, modelOverride, objectType, face);
-				sceneContext.stagingBufferVertices.put(data);
-				if (shouldCacheVertexData)
-					fullVertexData.put(data);
-			}
+	/**
+	 * @return whether {@link #pushModel} pushes UVs for the model, in which case there's one UV per pushed vertex
+	 */
+	public boolean pushesUvs(long hash, Model model) {
+		return !shouldSkipUvs(model, modelOverrideManager.getOverride(hash));
+	}
 
-			if (plugin.enableDetailedTimers)
-				frameTimer.end(Timer.MODEL_PUSHING_VERTEX);
-		}
+	private boolean shouldSkipUvs(Model model, @NonNull ModelOverride modelOverride) {
+		Material baseMaterial = Material.NONE;
+		if (plugin.configModelTextures || modelOverride.forceOverride)
+			baseMaterial = modelOverride.baseMaterial;
+		return
+			model.getFaceTextures() == null &&
+			baseMaterial == Material.NONE &&
+			packMaterialData(Material.NONE, -1, modelOverride, UvType.GEOMETRY, false) == 0;
+	}
 
-		if (!foundCachedNormalData) {
-			if (plugin.enableDetailedTimers)
-				frameTimer.begin(Timer.MODEL_PUSHING_NORMAL);
+	/**
+	 * Writes vertices, normals and optionally UVs for the model to the specified addresses.
+	 *
+	 * @param uvAddress where to write UVs, or zero to skip them
+	 */
+	private void pushModelData(
+		PushScratch scratch,
+		SceneContext sceneContext,
+		@Nullable Tile tile,
+		long hash,
+		Model model,
+		@NonNull ModelOverride modelOverride,
+		ObjectType objectType,
+		int preOrientation,
+		int faceCount,
+		long vertexAddress,
+		long normalAddress,
+		long uvAddress
+	) {
+		// The frame timer can only be used from the client thread
+		final boolean detailedTimers = plugin.enableDetailedTimers && client.isClientThread();
 
-			for (int face = 0; face < faceCount; face++) {
-				getNormalDataForFace(sceneContext, model, modelOverride, face);
-				sceneContext.stagingBufferNormals.put(sceneContext.modelFaceNormals);
-				if (shouldCacheNormalData)
-					fullNormalData.put(sceneContext.modelFaceNormals);
-			}
+		scratch.hoist(model);
 
-			if (plugin.enableDetailedTimers)
-				frameTimer.end(Timer.MODEL_PUSHING_NORMAL);
-		}
+		if (detailedTimers)
+			frameTimer.begin(Timer.MODEL_PUSHING_VERTEX);
 
-		if (!foundCachedUvData) {
-			if (plugin.enableDetailedTimers)
-				frameTimer.begin(Timer.MODEL_PUSHING_UV);
+		pushVertices(scratch, vertexAddress, sceneContext, tile, hash, model, modelOverride, objectType, faceCount);
 
-			for (int face = 0; face < faceCount; face++) {
-				Material material = baseMaterial;
-				short textureId = isVanillaTextured ? faceTextures[face] : -1;
-				if (textureId != -1) {
-					material = textureMaterial;
-					if (material == Material.NONE)
-						material = Material.fromVanillaTexture(textureId);
-				}
-				UvType uvType = modelOverride.uvType;
-				if (uvType == UvType.VANILLA || (textureId != -1 && modelOverride.retainVanillaUvs))
-					uvType = isVanillaUVMapped && textureFaces[face] != -1 ? UvType.VANILLA : UvType.GEOMETRY;
+		if (detailedTimers) {
+			frameTimer.end(Timer.MODEL_PUSHING_VERTEX);
+			frameTimer.begin(Timer.MODEL_PUSHING_NORMAL);
+		}
 
-				int materialData = packMaterialData(material, textureId, modelOverride, uvType, false);
+		pushNormals(scratch, normalAddress, modelOverride, faceCount);
 
-				final float[] uvData = sceneContext.modelFaceNormals;
-				if (materialData == 0) {
-					Arrays.fill(uvData, 0);
-				} else {
-					modelOverride.fillUvsForFace(uvData, model, preOrientation, uvType, face);
-					uvData[3] = uvData[7] = uvData[11] = materialData;
-				}
+		if (detailedTimers)
+			frameTimer.end(Timer.MODEL_PUSHING_NORMAL);
 
-				sceneContext.stagingBufferUvs.put(uvData);
-				if (shouldCacheUvData)
-					fullUvData.put(uvData);
+		if (uvAddress != 0) {
+			if (detailedTimers)
+				frameTimer.begin(Timer.MODEL_PUSHING_UV);
 
-				++texturedFaceCount;
-			}
+			pushUvs(scratch, uvAddress, model, modelOverride, preOrientation, faceCount);
 
-			if (plugin.enableDetailedTimers)
+			if (detailedTimers)
 				frameTimer.end(Timer.MODEL_PUSHING_UV);
 		}
 
-		if (shouldCacheVertexData)
-			fullVertexData.flip();
-		if (shouldCacheNormalData)
-			fullNormalData.flip();
-		if (shouldCacheUvData)
-			fullUvData.flip();
+		scratch.release();
+	}
 
-		sceneContext.modelPusherResults[0] = faceCount;
-		sceneContext.modelPusherResults[1] = texturedFaceCount;
+	private void pushUvs(
+		PushScratch scratch,
+		long address,
+		Model model,
+		@NonNull ModelOverride modelOverride,
+		int preOrientation,
+		int faceCount
+	) {
+		final short[] faceTextures = scratch.faceTextures;
+		final byte[] textureFaces = model.getTextureFaces();
+		boolean isVanillaTextured = faceTextures != null;
+		boolean isVanillaUVMapped =
+			isVanillaTextured && // Vanilla UV mapped models don't always have sensible UVs for untextured faces
+			model.getTexIndices1() != null &&
+			model.getTexIndices2() != null &&
+			model.getTexIndices3() != null &&
+			textureFaces != null;
+		Material baseMaterial = Material.NONE;
+		Material textureMaterial = Material.NONE;
+		if (plugin.configModelTextures || modelOverride.forceOverride) {
+			baseMaterial = modelOverride.baseMaterial;
+			textureMaterial = modelOverride.textureMaterial;
+		}
+
+		final float[] uvData = scratch.faceData;
+		for (int face = 0; face < faceCount; face++, address += DATUM_PER_FACE * 4L) {
+			Material material = baseMaterial;
+			short textureId = isVanillaTextured ? faceTextures[face] : -1;
+			if (textureId != -1) {
+				material = textureMaterial;
+				if (material == Material.NONE)
+					material = Material.fromVanillaTexture(textureId);
+			}
+			UvType uvType = modelOverride.uvType;
+			if (uvType == UvType.VANILLA || (textureId != -1 && modelOverride.retainVanillaUvs))
+				uvType = isVanillaUVMapped && textureFaces[face] != -1 ? UvType.VANILLA : UvType.GEOMETRY;
+
+			int materialData = packMaterialData(material, textureId, modelOverride, uvType, false);
+			if (materialData == 0) {
+				MemoryUtil.memSet(address, 0, DATUM_PER_FACE * 4L);
+				continue;
+			}
+
+			modelOverride.fillUvsForFace(uvData, model, preOrientation, uvType, face);
+			uvData[3] = uvData[7] = uvData[11] = materialData;
+			for (int i = 0; i < DATUM_PER_FACE; i++)
+				MemoryUtil.memPutFloat(address + i * 4L, uvData[i]);
+		}
 	}
 
-	private void getNormalDataForFace(SceneContext sceneContext, Model model, @NonNull ModelOverride modelOverride, int face) {
+	private void pushNormals(PushScratch scratch, long address, @NonNull ModelOverride modelOverride, int faceCount) {
 		assert SceneUploader.packTerrainData(false, 0, WaterType.NONE, 0) == 0;
-		if (modelOverride.flatNormals || !plugin.configPreserveVanillaNormals && model.getFaceColors3()[face] == -1) {
-			Arrays.fill(sceneContext.modelFaceNormals, 0);
+		final int[] xVertexNormals = scratch.vertexNormalsX;
+		final int[] yVertexNormals = scratch.vertexNormalsY;
+		final int[] zVertexNormals = scratch.vertexNormalsZ;
+		if (modelOverride.flatNormals || xVertexNormals == null || yVertexNormals == null || zVertexNormals == null) {
+			MemoryUtil.memSet(address, 0, faceCount * DATUM_PER_FACE * 4L);
 			return;
 		}
 
-		final int triA = model.getFaceIndices1()[face];
-		final int triB = model.getFaceIndices2()[face];
-		final int triC = model.getFaceIndices3()[face];
-		final int[] xVertexNormals = model.getVertexNormalsX();
-		final int[] yVertexNormals = model.getVertexNormalsY();
-		final int[] zVertexNormals = model.getVertexNormalsZ();
+		final int[] faceColors3 = scratch.faceColors3;
+		final int[] faceIndices1 = scratch.faceIndices1;
+		final int[] faceIndices2 = scratch.faceIndices2;
+		final int[] faceIndices3 = scratch.faceIndices3;
+		final boolean preserveVanillaNormals = plugin.configPreserveVanillaNormals;
+		final float terrainData = 0x800000; // Force undo vanilla shading in compute to not use flat normals
+
+		for (int face = 0; face < faceCount; face++, address += DATUM_PER_FACE * 4L) {
+			if (!preserveVanillaNormals && faceColors3[face] == -1) {
+				MemoryUtil.memSet(address, 0, DATUM_PER_FACE * 4L);
+				continue;
+			}
 
-		if (xVertexNormals == null || yVertexNormals == null || zVertexNormals == null) {
-			Arrays.fill(sceneContext.modelFaceNormals, 0);
-			return;
+			final int triA = faceIndices1[face];
+			final int triB = faceIndices2[face];
+			final int triC = faceIndices3[face];
+			MemoryUtil.memPutFloat(address, xVertexNormals[triA]);
+			MemoryUtil.memPutFloat(address + 4, yVertexNormals[triA]);
+			MemoryUtil.memPutFloat(address + 8, zVertexNormals[triA]);
+			MemoryUtil.memPutFloat(address + 12, terrainData);
+			MemoryUtil.memPutFloat(address + 16, xVertexNormals[triB]);
+			MemoryUtil.memPutFloat(address + 20, yVertexNormals[triB]);
+			MemoryUtil.memPutFloat(address + 24, zVertexNormals[triB]);
+			MemoryUtil.memPutFloat(address + 28, terrainData);
+			MemoryUtil.memPutFloat(address + 32, xVertexNormals[triC]);
+			MemoryUtil.memPutFloat(address + 36, yVertexNormals[triC]);
+			MemoryUtil.memPutFloat(address + 40, zVertexNormals[triC]);
+			MemoryUtil.memPutFloat(address + 44, terrainData);
 		}
-
-		float terrainData = 0x800000; // Force undo vanilla shading in compute to not use flat normals
-		sceneContext.modelFaceNormals[0] = xVertexNormals[triA];
-		sceneContext.modelFaceNormals[1] = yVertexNormals[triA];
-		sceneContext.modelFaceNormals[2] = zVertexNormals[triA];
-		sceneContext.modelFaceNormals[3] = terrainData;
-		sceneContext.modelFaceNormals[4] = xVertexNormals[triB];
-		sceneContext.modelFaceNormals[5] = yVertexNormals[triB];
-		sceneContext.modelFaceNormals[6] = zVertexNormals[triB];
-		sceneContext.modelFaceNormals[7] = terrainData;
-		sceneContext.modelFaceNormals[8] = xVertexNormals[triC];
-		sceneContext.modelFaceNormals[9] = yVertexNormals[triC];
-		sceneContext.modelFaceNormals[10] = zVertexNormals[triC];
-		sceneContext.modelFaceNormals[11] = terrainData;
 	}
 
 	public int packMaterialData(
@@ -441,64 +680,166 @@ public class ModelPusher {
 		return materialData;
 	}
 
-	private boolean isBakedGroundShading(Model model, int face) {
-		final byte[] faceTransparencies = model.getFaceTransparencies();
+	private static boolean isBakedGroundShading(PushScratch scratch, int face) {
+		final byte[] faceTransparencies = scratch.faceTransparencies;
 		if (faceTransparencies == null || (faceTransparencies[face] & 0xFF) <= 100)
 			return false;
 
-		final short[] faceTextures = model.getFaceTextures();
+		final short[] faceTextures = scratch.faceTextures;
 		if (faceTextures != null && faceTextures[face] != -1)
 			return false;
 
-		final int[] yVertices = model.getVerticesY();
-		int heightA = yVertices[model.getFaceIndices1()[face]];
+		final int[] yVertices = scratch.verticesY;
+		int heightA = yVertices[scratch.faceIndices1[face]];
 		if (heightA < -8)
 			return false;
 
-		int heightB = yVertices[model.getFaceIndices2()[face]];
-		int heightC = yVertices[model.getFaceIndices3()[face]];
+		int heightB = yVertices[scratch.faceIndices2[face]];
+		int heightC = yVertices[scratch.faceIndices3[face]];
 		return heightA == heightB && heightA == heightC;
 	}
 
-	@SuppressWarnings({ "ReassignedVariable", "ManualMinMaxCalculation" })
-	private int[] getFaceVertices(
+	/**
+	 * Determines the color untextured faces should inherit from the tile, which is the same for every face of the model.
+	 *
+	 * @return the packed HSL color to inherit, or -1 if the model shouldn't inherit any color
+	 */
+	private int getInheritedTileColor(PushScratch scratch, SceneContext sceneContext, Tile tile, @NonNull ModelOverride modelOverride) {
+		if (modelOverride.inheritTileColorType == InheritTileColorType.NONE)
+			return -1;
+
+		final TerrainMaterials materials = sceneContext.terrainMaterials;
+		SceneTileModel tileModel = tile.getSceneTileModel();
+		SceneTilePaint tilePaint = tile.getSceneTilePaint();
+		if (tilePaint == null && tileModel == null)
+			return -1;
+
+		final int[] hsl = scratch.colorHsl;
+
+		// No point in inheriting tilepaint color if the ground tile does not have a color, for example above a cave wall
+		if (tilePaint != null && tilePaint.getTexture() == -1 && tilePaint.getRBG() != 0 && tilePaint.getNeColor() != 12345678) {
+			final int seColor = tilePaint.getSeColor();
+			final int nwColor = tilePaint.getNwColor();
+			final int neColor = tilePaint.getNeColor();
+
+			// pull any corner color as either one should be OK
+			hsl[0] = neColor >> 10 & 0x3F;
+			// average saturation and lightness
+			hsl[1] = ((neColor >> 7 & 0x7) + (seColor >> 7 & 0x7) + (nwColor >> 7 & 0x7) + (neColor >> 7 & 0x7)) / 4;
+			hsl[2] = ((neColor & 0x7F) + (seColor & 0x7F) + (nwColor & 0x7F) + (neColor & 0x7F)) / 4;
+
+			Overlay overlay = materials.getOverlay(tile);
+			if (overlay != Overlay.NONE) {
+				overlay.modifyColor(hsl);
+			} else {
+				Underlay underlay = materials.getUnderlay(tile);
+				underlay.modifyColor(hsl);
+			}
+
+			return HDUtils.colorHSLToInt(hsl);
+		}
+
+		if (tileModel != null && tileModel.getTriangleTextureId() == null) {
+			int faceColorIndex = -1;
+			for (int i = 0; i < tileModel.getTriangleColorA().length; i++) {
+				boolean isOverlayFace = ProceduralGenerator.isOverlayFace(tile, i);
+				// Use underlay if the tile does not have an overlay, useful for rocks in cave corners.
+				if (modelOverride.inheritTileColorType == InheritTileColorType.UNDERLAY || tileModel.getModelOverlay() == 0) {
+					// pulling the color from UNDERLAY is more desirable for green grass tiles
+					// OVERLAY pulls in path color which is not desirable for grass next to paths
+					if (!isOverlayFace) {
+						faceColorIndex = i;
+						break;
+					}
+				} else if (modelOverride.inheritTileColorType == InheritTileColorType.OVERLAY) {
+					if (isOverlayFace) {
+						// OVERLAY used in dirt/path/house tile color blend better with rubbles/rocks
+						faceColorIndex = i;
+						break;
+					}
+				}
+			}
+
+			if (faceColorIndex != -1) {
+				int color = tileModel.getTriangleColorA()[faceColorIndex];
+				if (color != 12345678) {
+					hsl[0] = color >> 10 & 0x3F;
+					hsl[1] = color >> 7 & 0x7;
+					hsl[2] = color & 0x7F;
+
+					Underlay underlay = materials.getUnderlay(tile);
+					underlay.modifyColor(hsl);
+
+					return HDUtils.colorHSLToInt(hsl);
+				}
+			}
+		}
+
+		return -1;
+	}
+
+	private void pushVertices(
+		PushScratch scratch,
+		long address,
 		SceneContext sceneContext,
-		Tile tile,
+		@Nullable Tile tile,
 		long hash,
 		Model model,
 		@NonNull ModelOverride modelOverride,
 		ObjectType objectType,
-		int face
+		int faceCount
 	) {
-		if (model.getFaceColors3()[face] == -2)
-			return ZEROED_INTS; // Hide the face
+		final int inheritedTileColor = tile == null ? -1 : getInheritedTileColor(scratch, sceneContext, tile, modelOverride);
 
-		// Hide fake shadows or lighting that is often baked into models by making the fake shadow transparent
-		if (plugin.configHideFakeShadows && isBakedGroundShading(model, face)) {
-			if (modelOverride.removeBakedLighting)
-				return ZEROED_INTS; // Hide the face
-
-			if (ModelHash.getType(hash) == ModelHash.TYPE_PLAYER) {
+		boolean hideBakedShadows = false;
+		if (plugin.configHideFakeShadows) {
+			hideBakedShadows = modelOverride.removeBakedLighting;
+			if (!hideBakedShadows && ModelHash.getType(hash) == ModelHash.TYPE_PLAYER) {
 				int index = ModelHash.getIdOrIndex(hash);
 				Player[] players = client.getCachedPlayers();
 				Player player = index >= 0 && index < players.length ? players[index] : null;
-				if (player != null && player.getPlayerComposition().getEquipmentId(KitType.WEAPON) == ItemID.MAGIC_CARPET)
-					return ZEROED_INTS; // Hide the face
+				hideBakedShadows =
+					player != null && player.getPlayerComposition().getEquipmentId(KitType.WEAPON) == ItemID.MAGIC_CARPET;
+			}
+		}
+
+		for (int face = 0; face < faceCount; face++, address += DATUM_PER_FACE * 4L) {
+			if (
+				scratch.faceColors3[face] == -2 || // Hide the face
+				// Hide fake shadows or lighting that is often baked into models by making the fake shadow transparent
+				hideBakedShadows && isBakedGroundShading(scratch, face)
+			) {
+				MemoryUtil.memSet(address, 0, DATUM_PER_FACE * 4L);
+				continue;
 			}
+
+			writeFaceVertices(scratch, address, tile, model, modelOverride, objectType, face, inheritedTileColor);
 		}
+	}
 
-		int color1 = model.getFaceColors1()[face];
-		int color2 = model.getFaceColors2()[face];
-		int color3 = model.getFaceColors3()[face];
-		final int triA = model.getFaceIndices1()[face];
-		final int triB = model.getFaceIndices2()[face];
-		final int triC = model.getFaceIndices3()[face];
-		final int[] xVertices = model.getVerticesX();
-		final int[] yVertices = model.getVerticesY();
-		final int[] zVertices = model.getVerticesZ();
-		final short[] faceTextures = model.getFaceTextures();
-		final byte[] faceTransparencies = model.getFaceTransparencies();
-		final byte[] facePriorities = model.getFaceRenderPriorities();
+	@SuppressWarnings({ "ReassignedVariable", "ManualMinMaxCalculation" })
+	private void writeFaceVertices(
+		PushScratch scratch,
+		long address,
+		@Nullable Tile tile,
+		Model model,
+		@NonNull ModelOverride modelOverride,
+		ObjectType objectType,
+		int face,
+		int inheritedTileColor
+	) {
+		int color1 = scratch.faceColors1[face];
+		int color2 = scratch.faceColors2[face];
+		int color3 = scratch.faceColors3[face];
+		final int triA = scratch.faceIndices1[face];
+		final int triB = scratch.faceIndices2[face];
+		final int triC = scratch.faceIndices3[face];
+		final int[] xVertices = scratch.verticesX;
+		final int[] yVertices = scratch.verticesY;
+		final int[] zVertices = scratch.verticesZ;
+		final short[] faceTextures = scratch.faceTextures;
+		final byte[] faceTransparencies = scratch.faceTransparencies;
+		final byte[] facePriorities = scratch.facePriorities;
 		boolean isTextured = faceTextures != null && faceTextures[face] != -1;
 
 		if (color3 == -1)
@@ -543,15 +884,15 @@ public class ModelPusher {
 									 (color3L < IGNORE_LOW_LIGHTNESS ? 0 : (color3L - IGNORE_LOW_LIGHTNESS) * LIGHTNESS_MULTIPLIER);
 
 				float nx, ny, nz, lightDotNormal;
-				final int[] xVertexNormals = model.getVertexNormalsX();
-				final int[] yVertexNormals = model.getVertexNormalsY();
-				final int[] zVertexNormals = model.getVertexNormalsZ();
+				final int[] xVertexNormals = scratch.vertexNormalsX;
+				final int[] yVertexNormals = scratch.vertexNormalsY;
+				final int[] zVertexNormals = scratch.vertexNormalsZ;
 				if (
 					modelOverride.flatNormals ||
 					xVertexNormals == null ||
 					yVertexNormals == null ||
 					zVertexNormals == null ||
-					!plugin.configPreserveVanillaNormals && model.getFaceColors3()[face] == -1
+					!plugin.configPreserveVanillaNormals && scratch.faceColors3[face] == -1
 				) {
 					float ax = xVertices[triA];
 					float ay = yVertices[triA];
@@ -630,90 +971,16 @@ public class ModelPusher {
 			}
 
 			if (tile != null) {
-				if (modelOverride.inheritTileColorType != InheritTileColorType.NONE) {
-					final Scene scene = sceneContext.scene;
-					SceneTileModel tileModel = tile.getSceneTileModel();
-					SceneTilePaint tilePaint = tile.getSceneTilePaint();
-
-					if (tilePaint != null || tileModel != null) {
-						int[] tileColorHSL;
-
-						// No point in inheriting tilepaint color if the ground tile does not have a color, for example above a cave wall
-						if (tilePaint != null && tilePaint.getTexture() == -1 && tilePaint.getRBG() != 0
-							&& tilePaint.getNeColor() != 12345678) {
-							// pull any corner color as either one should be OK
-							tileColorHSL = HDUtils.colorIntToHSL(tilePaint.getNeColor());
-
-							// average saturation and lightness
-							tileColorHSL[1] =
-								(
-									tileColorHSL[1] +
-									HDUtils.colorIntToHSL(tilePaint.getSeColor())[1] +
-									HDUtils.colorIntToHSL(tilePaint.getNwColor())[1] +
-									HDUtils.colorIntToHSL(tilePaint.getNeColor())[1]
-								) / 4;
-
-							tileColorHSL[2] =
-								(
-									tileColorHSL[2] +
-									HDUtils.colorIntToHSL(tilePaint.getSeColor())[2] +
-									HDUtils.colorIntToHSL(tilePaint.getNwColor())[2] +
-									HDUtils.colorIntToHSL(tilePaint.getNeColor())[2]
-								) / 4;
-
-							Overlay overlay = Overlay.getOverlay(scene, tile, plugin);
-							if (overlay != Overlay.NONE) {
-								overlay.modifyColor(tileColorHSL);
-							} else {
-								Underlay underlay = Underlay.getUnderlay(scene, tile, plugin);
-								underlay.modifyColor(tileColorHSL);
-							}
-
-							color1H = color2H = color3H = tileColorHSL[0];
-							color1S = color2S = color3S = tileColorHSL[1];
-							color1L = color2L = color3L = tileColorHSL[2];
-
-						} else if (tileModel != null && tileModel.getTriangleTextureId() == null) {
-							int faceColorIndex = -1;
-							for (int i = 0; i < tileModel.getTriangleColorA().length; i++) {
-								boolean isOverlayFace = ProceduralGenerator.isOverlayFace(tile, i);
-								// Use underlay if the tile does not have an overlay, useful for rocks in cave corners.
-								if (modelOverride.inheritTileColorType == InheritTileColorType.UNDERLAY
-									|| tileModel.getModelOverlay() == 0) {
-									// pulling the color from UNDERLAY is more desirable for green grass tiles
-									// OVERLAY pulls in path color which is not desirable for grass next to paths
-									if (!isOverlayFace) {
-										faceColorIndex = i;
-										break;
-									}
-								} else if (modelOverride.inheritTileColorType == InheritTileColorType.OVERLAY) {
-									if (isOverlayFace) {
-										// OVERLAY used in dirt/path/house tile color blend better with rubbles/rocks
-										faceColorIndex = i;
-										break;
-									}
-								}
-							}
-
-							if (faceColorIndex != -1) {
-								int color = tileModel.getTriangleColorA()[faceColorIndex];
-								if (color != 12345678) {
-									tileColorHSL = HDUtils.colorIntToHSL(color);
-
-									Underlay underlay = Underlay.getUnderlay(scene, tile, plugin);
-									underlay.modifyColor(tileColorHSL);
-
-									color1H = color2H = color3H = tileColorHSL[0];
-									color1S = color2S = color3S = tileColorHSL[1];
-									color1L = color2L = color3L = tileColorHSL[2];
-								}
-							}
-						}
-					}
+				if (inheritedTileColor != -1) {
+					color1H = color2H = color3H = inheritedTileColor >> 10 & 0x3F;
+					color1S = color2S = color3S = inheritedTileColor >> 7 & 0x7;
+					color1L = color2L = color3L = inheritedTileColor & 0x7F;
 				}
 
 				if (plugin.configTzhaarHD && modelOverride.tzHaarRecolorType != TzHaarRecolorType.NONE) {
-					int[][] tzHaarRecolored = ProceduralGenerator.recolorTzHaar(
+					final int[] tzHaarRecolored = scratch.tzHaarRecolored;
+					ProceduralGenerator.recolorTzHaar(
+						tzHaarRecolored,
 						modelOverride,
 						model,
 						face,
@@ -726,16 +993,16 @@ public class ModelPusher {
 						color3S,
 						color3L
 					);
-					color1H = tzHaarRecolored[0][0];
-					color1S = tzHaarRecolored[0][1];
-					color1L = tzHaarRecolored[0][2];
-					color2H = tzHaarRecolored[1][0];
-					color2S = tzHaarRecolored[1][1];
-					color2L = tzHaarRecolored[1][2];
-					color3H = tzHaarRecolored[2][0];
-					color3S = tzHaarRecolored[2][1];
-					color3L = tzHaarRecolored[2][2];
-					packedAlphaPriority = tzHaarRecolored[3][0];
+					color1H = tzHaarRecolored[0];
+					color1S = tzHaarRecolored[1];
+					color1L = tzHaarRecolored[2];
+					color2H = tzHaarRecolored[3];
+					color2S = tzHaarRecolored[4];
+					color2L = tzHaarRecolored[5];
+					color3H = tzHaarRecolored[6];
+					color3S = tzHaarRecolored[7];
+					color3L = tzHaarRecolored[8];
+					packedAlphaPriority = tzHaarRecolored[9];
 				}
 			}
 
@@ -756,23 +1023,17 @@ public class ModelPusher {
 			}
 		}
 
-		color1 = packedAlphaPriority | color1H << 10 | color1S << 7 | color1L;
-		color2 = packedAlphaPriority | color2H << 10 | color2S << 7 | color2L;
-		color3 = packedAlphaPriority | color3H << 10 | color3S << 7 | color3L;
-
-		int[] data = sceneContext.modelFaceVertices;
-		data[0] = xVertices[triA];
-		data[1] = yVertices[triA];
-		data[2] = zVertices[triA];
-		data[3] = color1;
-		data[4] = xVertices[triB];
-		data[5] = yVertices[triB];
-		data[6] = zVertices[triB];
-		data[7] = color2;
-		data[8] = xVertices[triC];
-		data[9] = yVertices[triC];
-		data[10] = zVertices[triC];
-		data[11] = color3;
-		return data;
+		MemoryUtil.memPutInt(address, xVertices[triA]);
+		MemoryUtil.memPutInt(address + 4, yVertices[triA]);
+		MemoryUtil.memPutInt(address + 8, zVertices[triA]);
+		MemoryUtil.memPutInt(address + 12, packedAlphaPriority | color1H << 10 | color1S << 7 | color1L);
+		MemoryUtil.memPutInt(address + 16, xVertices[triB]);
+		MemoryUtil.memPutInt(address + 20, yVertices[triB]);
+		MemoryUtil.memPutInt(address + 24, zVertices[triB]);
+		MemoryUtil.memPutInt(address + 28, packedAlphaPriority | color2H << 10 | color2S << 7 | color2L);
+		MemoryUtil.memPutInt(address + 32, xVertices[triC]);
+		MemoryUtil.memPutInt(address + 36, yVertices[triC]);
+		MemoryUtil.memPutInt(address + 40, zVertices[triC]);
+		MemoryUtil.memPutInt(address + 44, packedAlphaPriority | color3H << 10 | color3S << 7 | color3L);
 	}
 }
@@ -0,0 +1,200 @@
+package rs117.hd.model;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import lombok.extern.slf4j.Slf4j;
+import org.lwjgl.system.MemoryUtil;
+
+import static rs117.hd.utils.HDUtils.KiB;
+import static rs117.hd.utils.HDUtils.MiB;
+
+/**
+ * Memory-mapped, on-disk tier for the {@link ModelCache}, which lets cached model data survive client restarts.
+ * <p>
+ * The file consists of a header, a fixed-size {@link ModelCacheIndex} and a data region which is filled front to
+ * back. Index entries store offsets relative to the start of the file, since the mapping's address changes between
+ * runs. Once either the index or the data region is full, the whole file is reset and starts filling up again.
+ * <p>
+ * The header contains a format version and a fingerprint of everything that affects pushed model data, such as
+ * config options and material indices. A mismatch for either causes the stale data to be discarded.
+ * <p>
+ * The file is locked while open, so clients sharing the same cache directory don't write to it simultaneously.
+ */
+@Slf4j
+public class PersistentModelCache {
+	public static final int FORMAT_VERSION = 4;
+
+	private static final long MAGIC = 0x3131374844_4D444CL; // "117HDMDL"
+	private static final int HEADER_BYTES = 64;
+	private static final int MAGIC_OFFSET = 0;
+	private static final int VERSION_OFFSET = 8;
+	private static final int INDEX_CAPACITY_OFFSET = 12;
+	private static final int FINGERPRINT_OFFSET = 16;
+	private static final int DATA_CURSOR_OFFSET = 24;
+	private static final int FILE_SIZE_OFFSET = 32;
+
+	// Roughly the size of an average cached model record, used to balance index capacity against the data region
+	private static final long EXPECTED_ENTRY_BYTES = 2 * KiB;
+
+	/**
+	 * Thrown when the cache file is already in use by another client.
+	 */
+	public static class LockedException extends IOException {
+		public LockedException(Path path) {
+			super("The persistent model cache is in use by another client: " + path);
+		}
+	}
+
+	private final FileChannel channel;
+	private final MappedByteBuffer mappedBuffer;
+	private final long address;
+	private final long fileSize;
+	private final int indexCapacity;
+	private final long dataStart;
+	private ModelCacheIndex index;
+
+	/**
+	 * Opens or creates the cache file, discarding any existing data which doesn't match the expected format.
+	 *
+	 * @param path        of the cache file
+	 * @param sizeMiB     size of the file in mebibytes, limited to 1 GiB since a single mapping can't exceed 2 GiB
+	 * @param fingerprint of the current plugin state, see {@link ModelPusher#calculatePersistentCacheFingerprint()}
+	 */
+	public PersistentModelCache(Path path, int sizeMiB, long fingerprint) throws IOException {
+		fileSize = Math.min(sizeMiB, 1024) * MiB;
+		int capacity = Integer.highestOneBit((int) (fileSize / EXPECTED_ENTRY_BYTES));
+		indexCapacity = Math.max(1024, capacity);
+		dataStart = HEADER_BYTES + ModelCacheIndex.byteSize(indexCapacity);
+
+		Files.createDirectories(path.getParent());
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			// Other clients may share the same cache directory, so only one of them can use the file at a time. The lock
+			// is released once the channel is closed
+			FileLock lock;
+			try {
+				lock = channel.tryLock();
+			} catch (OverlappingFileLockException ex) {
+				lock = null;
+			}
+			if (lock == null)
+				throw new LockedException(path);
+
+			if (channel.size() != fileSize) {
+				channel.truncate(0);
+				channel.truncate(fileSize);
+			}
+			mappedBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+		} catch (IOException ex) {
+			channel.close();
+			throw ex;
+		}
+		address = MemoryUtil.memAddress(mappedBuffer);
+
+		if (isHeaderValid(fingerprint)) {
+			index = new ModelCacheIndex(address + HEADER_BYTES, indexCapacity);
+			log.debug("Loaded persistent model cache with {} entries ({} MiB used) from {}",
+				index.size(), getDataCursor() / MiB, path);
+		} else {
+			reset(fingerprint);
+			log.debug("Created new persistent model cache at {}", path);
+		}
+	}
+
+	public synchronized void destroy() {
+		try {
+			mappedBuffer.force();
+			channel.close();
+		} catch (IOException ex) {
+			log.warn("Failed to close persistent model cache", ex);
+		}
+		index = null;
+	}
+
+	private boolean isHeaderValid(long fingerprint) {
+		return
+			MemoryUtil.memGetLong(address + MAGIC_OFFSET) == MAGIC &&
+			MemoryUtil.memGetInt(address + VERSION_OFFSET) == FORMAT_VERSION &&
+			MemoryUtil.memGetInt(address + INDEX_CAPACITY_OFFSET) == indexCapacity &&
+			MemoryUtil.memGetLong(address + FINGERPRINT_OFFSET) == fingerprint &&
+			MemoryUtil.memGetLong(address + FILE_SIZE_OFFSET) == fileSize &&
+			getDataCursor() >= dataStart &&
+			getDataCursor() <= fileSize;
+	}
+
+	/**
+	 * Discards all cached data if the fingerprint no longer matches.
+	 */
+	public synchronized void validate(long fingerprint) {
+		if (MemoryUtil.memGetLong(address + FINGERPRINT_OFFSET) != fingerprint) {
+			log.debug("Persistent model cache fingerprint changed. Discarding stale data...");
+			reset(fingerprint);
+		}
+	}
+
+	private void reset(long fingerprint) {
+		// Invalidate the magic first, so a partially reset file is never considered valid
+		MemoryUtil.memPutLong(address + MAGIC_OFFSET, 0);
+		MemoryUtil.memSet(address + HEADER_BYTES, 0, ModelCacheIndex.byteSize(indexCapacity));
+		MemoryUtil.memPutInt(address + VERSION_OFFSET, FORMAT_VERSION);
+		MemoryUtil.memPutInt(address + INDEX_CAPACITY_OFFSET, indexCapacity);
+		MemoryUtil.memPutLong(address + FINGERPRINT_OFFSET, fingerprint);
+		MemoryUtil.memPutLong(address + FILE_SIZE_OFFSET, fileSize);
+		setDataCursor(dataStart);
+		MemoryUtil.memPutLong(address + MAGIC_OFFSET, MAGIC);
+		index = new ModelCacheIndex(address + HEADER_BYTES, indexCapacity);
+	}
+
+	private long getDataCursor() {
+		return MemoryUtil.memGetLong(address + DATA_CURSOR_OFFSET);
+	}
+
+	private void setDataCursor(long cursor) {
+		MemoryUtil.memPutLong(address + DATA_CURSOR_OFFSET, cursor);
+	}
+
+	/**
+	 * @param hash of the cached data
+	 * @return the slot containing the hash, or -1 if the hash isn't cached
+	 */
+	public int find(long hash) {
+		return index.find(hash);
+	}
+
+	/**
+	 * @return the address of the cached data within the mapped file
+	 */
+	public long getAddress(int slot) {
+		return address + index.getAddress(slot);
+	}
+
+	public long getByteCapacity(int slot) {
+		return index.getByteCapacity(slot);
+	}
+
+	/**
+	 * Copies data into the file, resetting the file if it's full.
+	 */
+	public synchronized void put(long hash, long srcAddress, long byteCapacity) {
+		if (byteCapacity > fileSize - dataStart)
+			return;
+
+		long cursor = getDataCursor();
+		if (index.isFull() || cursor + byteCapacity > fileSize) {
+			log.debug("Persistent model cache is full. Starting over...");
+			reset(MemoryUtil.memGetLong(address + FINGERPRINT_OFFSET));
+			cursor = dataStart;
+		}
+
+		// Write the data before indexing it, so an interrupted write never leaves a valid index entry behind
+		MemoryUtil.memCopy(srcAddress, address + cursor, byteCapacity);
+		setDataCursor(cursor + byteCapacity);
+		index.put(hash, cursor, byteCapacity);
+	}
+}
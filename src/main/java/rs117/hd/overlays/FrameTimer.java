@@ -24,6 +24,8 @@ public class FrameTimer {
 
 	private boolean isInactive = true;
 	private long cumulativeError = 0;
+	private int batchedModels;
+	private int uniqueBatchedModels;
 
 	private void initialize() {
 		clientThread.invokeLater(() -> {
@@ -72,6 +74,20 @@ public class FrameTimer {
 	private void reset() {
 		Arrays.fill(timings, 0);
 		Arrays.fill(activeTimers, false);
+		batchedModels = 0;
+		uniqueBatchedModels = 0;
+	}
+
+	/**
+	 * Records how many temporary models drawn during the current frame reused the geometry of an identical model
+	 * drawn earlier in the frame, and how many distinct models were pushed.
+	 */
+	public void setModelBatchingStats(int batchedModels, int uniqueBatchedModels) {
+		if (isInactive)
+			return;
+
+		this.batchedModels = batchedModels;
+		this.uniqueBatchedModels = uniqueBatchedModels;
 	}
 
 	public void begin(Timer timer) {
@@ -129,7 +145,7 @@ public class FrameTimer {
 			}
 		}
 
-		var frameTimings = new FrameTimings(frameEnd, timings);
+		var frameTimings = new FrameTimings(frameEnd, timings, batchedModels, uniqueBatchedModels);
 		for (var listener : listeners)
 			listener.onFrameCompletion(frameTimings);
 
@@ -5,9 +5,13 @@ import java.util.Arrays;
 public class FrameTimings {
 	final long frameTimestamp;
 	final long[] timers;
+	final int batchedModels;
+	final int uniqueBatchedModels;
 
-	public FrameTimings(long frameTimestamp, long[] timers) {
+	public FrameTimings(long frameTimestamp, long[] timers, int batchedModels, int uniqueBatchedModels) {
 		this.frameTimestamp = frameTimestamp;
 		this.timers = Arrays.copyOf(timers, timers.length);
+		this.batchedModels = batchedModels;
+		this.uniqueBatchedModels = uniqueBatchedModels;
 	}
 }
@@ -84,6 +84,8 @@ public class FrameTimingsOverlay extends OverlayPanel implements FrameTimer.List
 				.rightFont(FontManager.getRunescapeBoldFont())
 				.right(String.format("%.1f FPS", 1 / (Math.max(cpuTime, gpuTime) / 1e9)))
 				.build());
+
+			addModelBatchingStats();
 		}
 
 		return super.render(g);
@@ -104,6 +106,23 @@ public class FrameTimingsOverlay extends OverlayPanel implements FrameTimer.List
 		return timers;
 	}
 
+	private void addModelBatchingStats() {
+		long batchedModels = 0;
+		long uniqueBatchedModels = 0;
+		for (var frame : frames) {
+			batchedModels += frame.batchedModels;
+			uniqueBatchedModels += frame.uniqueBatchedModels;
+		}
+
+		if (batchedModels + uniqueBatchedModels == 0)
+			return;
+
+		panelComponent.getChildren().add(LineComponent.builder()
+			.left("Batched Models:")
+			.right(String.format("%d / %d unique", batchedModels / frames.size(), uniqueBatchedModels / frames.size()))
+			.build());
+	}
+
 	private void addTiming(Timer timer, long[] timings) {
 		addTiming(timer.name, timings[timer.ordinal()], false);
 	}
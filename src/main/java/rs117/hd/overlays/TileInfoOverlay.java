@@ -177,12 +177,14 @@ public class TileInfoOverlay extends net.runelite.client.ui.overlay.Overlay {
 		}
 
 		Scene scene = client.getScene();
+		// use the materials resolved for the scene being rendered, unless a different scene is still loading
+		boolean isResolved = sceneContext != null && sceneContext.scene == scene && sceneContext.terrainMaterials != null;
 		short overlayId = scene.getOverlayIds()[plane][tileExX][tileExY];
-		Overlay overlay = Overlay.getOverlay(scene, tile, plugin);
+		Overlay overlay = isResolved ? sceneContext.terrainMaterials.getOverlay(tile) : Overlay.getOverlay(scene, tile, plugin);
 		lines.add(String.format("Overlay: %s (%d)", overlay.name(), overlayId));
 
 		short underlayId = scene.getUnderlayIds()[plane][tileExX][tileExY];
-		Underlay underlay = Underlay.getUnderlay(scene, tile, plugin);
+		Underlay underlay = isResolved ? sceneContext.terrainMaterials.getUnderlay(tile) : Underlay.getUnderlay(scene, tile, plugin);
 		lines.add(String.format("Underlay: %s (%d)", underlay.name(), underlayId));
 
 		Color polyColor = Color.LIGHT_GRAY;
@@ -35,7 +35,6 @@ import rs117.hd.HdPluginConfig;
 import rs117.hd.config.DefaultSkyColor;
 import rs117.hd.data.environments.Area;
 import rs117.hd.data.environments.Environment;
-import rs117.hd.utils.AABB;
 import rs117.hd.utils.HDUtils;
 
 import static rs117.hd.utils.HDUtils.clamp;
@@ -55,6 +54,9 @@ public class EnvironmentManager {
 	@Inject
 	private HdPluginConfig config;
 
+	@Inject
+	private RegionPrefetcher regionPrefetcher;
+
 	private Environment currentEnvironment = Environment.NONE;
 
 	// transition time
@@ -325,33 +327,25 @@ public class EnvironmentManager {
 	 */
 	public void loadSceneEnvironments(SceneContext sceneContext)
 	{
-		// loop through all Areas, check Rects of each Area. if any
-		// coordinates overlap scene coordinates, add them to a list.
-		// then loop through all Environments, checking to see if any
-		// of their Areas match any of the ones in the current scene.
-		// if so, add them to a list.
+		// look up the environments with Areas overlapping each region of the scene,
+		// which are usually prefetched before the scene loads, and add them to a
+		// list in the order they're declared.
 
 		log.debug("Adding environments for scene with regions: {}", sceneContext.regionIds);
 
-		AABB[] regions = sceneContext.regionIds.stream()
-			.map(AABB::new)
-			.toArray(AABB[]::new);
+		Environment[] environments = Environment.values();
+		boolean[] inScene = new boolean[environments.length];
+		for (int regionId : sceneContext.regionIds)
+			for (Environment environment : regionPrefetcher.getRegion(regionId).environments)
+				inScene[environment.ordinal()] = true;
 
 		sceneContext.environments.clear();
-		outer:
-		for (Environment environment : Environment.values())
+		for (Environment environment : environments)
 		{
-			for (AABB region : regions)
+			if (inScene[environment.ordinal()])
 			{
-				for (AABB aabb : environment.getArea().getAabbs())
-				{
-					if (region.intersects(aabb))
-					{
-						log.debug("Added environment: {}", environment);
-						sceneContext.environments.add(environment);
-						continue outer;
-					}
-				}
+				log.debug("Added environment: {}", environment);
+				sceneContext.environments.add(environment);
 			}
 		}
 	}
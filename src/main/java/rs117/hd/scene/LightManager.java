@@ -25,15 +25,15 @@
  */
 package rs117.hd.scene;
 
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.ListMultimap;
+import com.google.common.base.Stopwatch;
 import com.google.gson.Gson;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Optional;
-import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import lombok.extern.slf4j.Slf4j;
@@ -51,6 +51,7 @@ import rs117.hd.HdPluginConfig;
 import rs117.hd.config.MaxDynamicLights;
 import rs117.hd.scene.lights.Alignment;
 import rs117.hd.scene.lights.Light;
+import rs117.hd.scene.lights.LightTable;
 import rs117.hd.scene.lights.LightType;
 import rs117.hd.scene.lights.SceneLight;
 import rs117.hd.utils.ColorUtils;
@@ -93,19 +94,47 @@ public class LightManager {
 	@Inject
 	private EntityHiderPlugin entityHiderPlugin;
 
-	public final ArrayList<SceneLight> WORLD_LIGHTS = new ArrayList<>();
-	public final ListMultimap<Integer, Light> NPC_LIGHTS = ArrayListMultimap.create();
-	public final ListMultimap<Integer, Light> OBJECT_LIGHTS = ArrayListMultimap.create();
-	public final ListMultimap<Integer, Light> PROJECTILE_LIGHTS = ArrayListMultimap.create();
-	public final ListMultimap<Integer, Light> GRAPHICS_OBJECT_LIGHTS = ArrayListMultimap.create();
+	@Inject
+	private RegionPrefetcher regionPrefetcher;
+
+	// replaced rather than modified when lights are reloaded, since regions are built from it on other threads
+	public volatile List<SceneLight> WORLD_LIGHTS = Collections.emptyList();
+	public final LightTable NPC_LIGHTS = new LightTable();
+	public final LightTable OBJECT_LIGHTS = new LightTable();
+	public final LightTable PROJECTILE_LIGHTS = new LightTable();
+	public final LightTable GRAPHICS_OBJECT_LIGHTS = new LightTable();
 
-	long lastFrameTime = -1;
 	boolean configChanged = false;
 
 	private EntityHiderConfig entityHiderConfig;
 
 	static final float TWO_PI = (float) (2 * Math.PI);
 
+	// Lights farther away than this from the camera's focal point are animated once per client tick, instead of every frame
+	private static final int PER_FRAME_ANIMATION_DISTANCE_SQUARED = 24 * LOCAL_TILE_SIZE * 24 * LOCAL_TILE_SIZE;
+	private static final int CLIENT_TICK_MS = 20;
+
+	// reused for evaluating flickering of all lights in a batch
+	private SceneLight[] flickerLights = new SceneLight[0];
+	private float[] flickerTimes = new float[0];
+
+	// Lights are bucketed into a uniform grid each frame, so only cells close to the camera's focal point need to be
+	// searched for the closest visible lights. Lights outside the grid are kept in an extra cell which is always searched.
+	private static final int GRID_CELL_SIZE = 8 * LOCAL_TILE_SIZE;
+	private static final int GRID_SIZE = (EXTENDED_SCENE_SIZE * LOCAL_TILE_SIZE + GRID_CELL_SIZE - 1) / GRID_CELL_SIZE;
+	private static final int GRID_ORIGIN = -SceneUploader.SCENE_OFFSET * LOCAL_TILE_SIZE;
+	private static final int GRID_OUTSIDE_CELL = GRID_SIZE * GRID_SIZE;
+
+	// the lights of each cell lie between gridCellStart[cell] and gridCellStart[cell + 1] in gridLights,
+	// with an extra element for counting lights offset by one cell while building the grid
+	private final int[] gridCellStart = new int[GRID_OUTSIDE_CELL + 3];
+	private int[] gridLightCells = new int[0];
+	private SceneLight[] gridLights = new SceneLight[0];
+
+	// camera rotation and view frustum side planes in camera space, as (horizontal, vertical, depth) normals
+	private float yawSin, yawCos, pitchSin, pitchCos;
+	private final float[] frustumPlanes = new float[12];
+
 	public void loadConfig(Gson gson, ResourcePath path) {
 		try {
 			Light[] lights;
@@ -120,7 +149,7 @@ public class LightManager {
 				return;
 			}
 
-			WORLD_LIGHTS.clear();
+			ArrayList<SceneLight> worldLights = new ArrayList<>();
 			NPC_LIGHTS.clear();
 			OBJECT_LIGHTS.clear();
 			PROJECTILE_LIGHTS.clear();
@@ -137,7 +166,7 @@ public class LightManager {
 				if (lightDef.worldX != null && lightDef.worldY != null) {
 					SceneLight light = new SceneLight(lightDef);
 					light.worldPoint = new WorldPoint(lightDef.worldX, lightDef.worldY, lightDef.plane);
-					WORLD_LIGHTS.add(light);
+					worldLights.add(light);
 				}
 				lightDef.npcIds.forEach(id -> NPC_LIGHTS.put(id, lightDef));
 				lightDef.objectIds.forEach(id -> OBJECT_LIGHTS.put(id, lightDef));
@@ -145,7 +174,9 @@ public class LightManager {
 				lightDef.graphicsObjectIds.forEach(id -> GRAPHICS_OBJECT_LIGHTS.put(id, lightDef));
 			}
 
+			WORLD_LIGHTS = Collections.unmodifiableList(worldLights);
 			log.debug("Loaded {} lights", lights.length);
+			regionPrefetcher.clear();
 			configChanged = true;
 		} catch (Exception ex) {
 			log.error("Failed to parse light configuration", ex);
@@ -177,9 +208,12 @@ public class LightManager {
 			client.getNpcs().forEach(npc -> addNpcLights(sceneContext, npc));
 		}
 
-		long frameTime = System.currentTimeMillis() - lastFrameTime;
+		long currentTime = System.currentTimeMillis();
 		Tile[][][] tiles = sceneContext.scene.getExtendedTiles();
 		int[][][] tileHeights = sceneContext.scene.getTileHeights();
+		int maxDistanceSquared = plugin.getDrawDistance() * LOCAL_TILE_SIZE;
+		maxDistanceSquared *= maxDistanceSquared;
+		int flickerCount = 0;
 
 		Iterator<SceneLight> lightIterator = sceneContext.lights.iterator();
 		while (lightIterator.hasNext()) {
@@ -277,35 +311,54 @@ public class LightManager {
 				}
 			}
 
-			if (light.type == LightType.FLICKER)
-			{
-				long repeatMs = 60000;
-				int offset = light.randomOffset;
-				float t = TWO_PI * ((System.currentTimeMillis() + offset) % repeatMs) / repeatMs;
+			// Calculate the distance between the player and the light to determine which
+			// lights to display based on the 'max dynamic lights' config option
+			int distX = sceneContext.cameraFocalPoint[0] - light.x;
+			int distY = sceneContext.cameraFocalPoint[1] - light.y;
+			light.distanceSquared = distX * distX + distY * distY + light.z * light.z;
 
-				float flicker = (float) (
-					pow(cos(11 * t), 2) +
-						pow(cos(17 * t), 4) +
-						pow(cos(23 * t), 6) +
-						pow(cos(31 * t), 2) +
-						pow(cos(71 * t), 2) / 3 +
-						pow(cos(151 * t), 2) / 7
-				) / 4.335f;
+			// Lights beyond the draw distance can't be selected, so they're left as they are until they come
+			// back into range, at which point their animations catch up on the time which has passed
+			if (light.distanceSquared > maxDistanceSquared)
+				continue;
+
+			// The floor flags of lights which don't move are determined once, when they're added to the scene
+			if (light.projectile != null || light.npc != null || light.graphicsObject != null)
+				updateFloorFlags(tiles, light);
 
-				float maxFlicker = 1f + (light.range / 100f);
-				float minFlicker = 1f - (light.range / 100f);
+			boolean isFadingIn = light.currentFadeIn < light.fadeInDuration;
+			if (light.type == LightType.STATIC && !isFadingIn && light.lastUpdateTime != 0)
+				continue;
 
-				flicker = minFlicker + (maxFlicker - minFlicker) * flicker;
+			// Animate distant lights once per client tick, instead of every frame
+			long elapsedTime = 0;
+			if (light.lastUpdateTime != 0) {
+				elapsedTime = currentTime - light.lastUpdateTime;
+				if (light.distanceSquared > PER_FRAME_ANIMATION_DISTANCE_SQUARED && elapsedTime < CLIENT_TICK_MS)
+					continue;
+			}
+			light.lastUpdateTime = currentTime;
+			if (isFadingIn)
+				light.currentFadeIn += elapsedTime;
 
-				light.currentStrength = light.strength * flicker;
-				light.currentSize = (int) (light.radius * flicker * 1.5f);
+			if (light.type == LightType.FLICKER)
+			{
+				// Flickering only depends on the current time, so it's evaluated for all lights at once below
+				if (flickerCount == flickerLights.length) {
+					flickerLights = Arrays.copyOf(flickerLights, flickerCount * 2 + 16);
+					flickerTimes = Arrays.copyOf(flickerTimes, flickerLights.length);
+				}
+				long repeatMs = 60000;
+				flickerLights[flickerCount] = light;
+				flickerTimes[flickerCount++] = TWO_PI * ((currentTime + light.randomOffset) % repeatMs) / repeatMs;
+				continue;
 			}
 			else if (light.type == LightType.PULSE)
 			{
 				float duration = light.duration / 1000f;
 				float range = light.range / 100f;
 				float fullRange = range * 2f;
-				float change = (frameTime / 1000f) / duration;
+				float change = (elapsedTime / 1000f) / duration;
 //				change = change % 1.0f;
 
 				light.currentAnimation += change % 1.0f;
@@ -336,43 +389,66 @@ public class LightManager {
 				light.currentSize = light.radius;
 				light.currentColor = light.color;
 			}
-			// Apply fade-in
-			if (light.fadeInDuration > 0) {
-				light.currentStrength *= Math.min((float) light.currentFadeIn / (float) light.fadeInDuration, 1.0f);
+			applyFadeIn(light);
+		}
 
-				light.currentFadeIn += frameTime;
-			}
+		// Evaluate flickering in a single pass over the times of each light, and apply the results afterwards
+		for (int i = 0; i < flickerCount; i++) {
+			float t = flickerTimes[i];
+			flickerTimes[i] = (float) (
+				pow(cos(11 * t), 2) +
+					pow(cos(17 * t), 4) +
+					pow(cos(23 * t), 6) +
+					pow(cos(31 * t), 2) +
+					pow(cos(71 * t), 2) / 3 +
+					pow(cos(151 * t), 2) / 7
+			) / 4.335f;
+		}
 
-			// Calculate the distance between the player and the light to determine which
-			// lights to display based on the 'max dynamic lights' config option
-			int distX = sceneContext.cameraFocalPoint[0] - light.x;
-			int distY = sceneContext.cameraFocalPoint[1] - light.y;
-			light.distanceSquared = distX * distX + distY * distY + light.z * light.z;
+		for (int i = 0; i < flickerCount; i++) {
+			SceneLight light = flickerLights[i];
+			flickerLights[i] = null;
 
-			int tileX = (int) Math.floor(light.x / 128f) + SceneUploader.SCENE_OFFSET;
-			int tileY = (int) Math.floor(light.y / 128f) + SceneUploader.SCENE_OFFSET;
+			float maxFlicker = 1f + (light.range / 100f);
+			float minFlicker = 1f - (light.range / 100f);
 
-			light.belowFloor = false;
-			light.aboveFloor = false;
+			float flicker = minFlicker + (maxFlicker - minFlicker) * flickerTimes[i];
 
-			if (tileX < EXTENDED_SCENE_SIZE && tileY < EXTENDED_SCENE_SIZE && tileX >= 0 && tileY >= 0 && light.plane >= 0) {
-				Tile aboveTile = light.plane < 3 ? tiles[light.plane + 1][tileX][tileY] : null;
+			light.currentStrength = light.strength * flicker;
+			light.currentSize = (int) (light.radius * flicker * 1.5f);
+			applyFadeIn(light);
+		}
+	}
 
-				if (aboveTile != null && (aboveTile.getSceneTilePaint() != null || aboveTile.getSceneTileModel() != null)) {
-					light.belowFloor = true;
-				}
+	private static void applyFadeIn(SceneLight light) {
+		if (light.fadeInDuration > 0)
+			light.currentStrength *= Math.min((float) light.currentFadeIn / (float) light.fadeInDuration, 1.0f);
+	}
 
-				Tile lightTile = tiles[light.plane][tileX][tileY];
+	/**
+	 * Determines whether the light is below a floor on the plane above it, and whether it's above a floor on its own
+	 * plane, which is used to prevent light from leaking through floors.
+	 */
+	private static void updateFloorFlags(Tile[][][] tiles, SceneLight light) {
+		int tileX = (int) Math.floor(light.x / 128f) + SceneUploader.SCENE_OFFSET;
+		int tileY = (int) Math.floor(light.y / 128f) + SceneUploader.SCENE_OFFSET;
 
-				if (lightTile != null && (lightTile.getSceneTilePaint() != null || lightTile.getSceneTileModel() != null)) {
-					light.aboveFloor = true;
-				}
+		light.belowFloor = false;
+		light.aboveFloor = false;
+
+		if (tileX < EXTENDED_SCENE_SIZE && tileY < EXTENDED_SCENE_SIZE && tileX >= 0 && tileY >= 0 && light.plane >= 0) {
+			Tile aboveTile = light.plane < 3 ? tiles[light.plane + 1][tileX][tileY] : null;
+
+			if (aboveTile != null && (aboveTile.getSceneTilePaint() != null || aboveTile.getSceneTileModel() != null)) {
+				light.belowFloor = true;
 			}
-		}
 
-		sceneContext.lights.sort(Comparator.comparingInt(light -> light.distanceSquared));
+			Tile lightTile = tiles[light.plane][tileX][tileY];
 
-		lastFrameTime = System.currentTimeMillis();
+			if (lightTile != null && (lightTile.getSceneTilePaint() != null || lightTile.getSceneTileModel() != null)) {
+				light.aboveFloor = true;
+			}
+		}
 	}
 
 	private boolean npcLightVisible(NPC npc) {
@@ -416,16 +492,18 @@ public class LightManager {
 
 	public void loadSceneLights(SceneContext sceneContext)
 	{
+		Stopwatch stopwatch = Stopwatch.createStarted();
 		sceneContext.lights.clear();
+		sceneContext.objectLightHashes.clear();
 		sceneContext.projectiles.clear();
 
-		for (SceneLight light : WORLD_LIGHTS)
+		for (int regionId : sceneContext.regionIds)
 		{
-			assert light.worldPoint != null;
-			if (sceneContext.regionIds.contains(light.worldPoint.getRegionID()))
+			for (SceneLight light : regionPrefetcher.getRegion(regionId).worldLights)
 			{
 				sceneContext.lights.add(light);
 				updateWorldLightPosition(sceneContext, light);
+				updateFloorFlags(sceneContext.scene.getExtendedTiles(), light);
 			}
 		}
 
@@ -472,41 +550,203 @@ public class LightManager {
 				}
 			}
 		}
+
+		log.debug("Scene light loading time: {}, lights: {}", stopwatch, sceneContext.lights.size());
 	}
 
-	public ArrayList<SceneLight> getVisibleLights(int maxLights) {
-		SceneContext sceneContext = plugin.getSceneContext();
-		ArrayList<SceneLight> visibleLights = new ArrayList<>();
+	/**
+	 * Selects up to {@code maxLights} of the visible lights closest to the camera's focal point into
+	 * {@link SceneContext#visibleLights}, ordered from nearest to farthest, without sorting every light in the scene.
+	 * Must be called after {@link #update} for the current frame.
+	 */
+	public void selectVisibleLights(SceneContext sceneContext, int maxLights) {
+		if (sceneContext.visibleLights.length != maxLights)
+			sceneContext.visibleLights = new SceneLight[maxLights];
+		sceneContext.visibleLightCount = 0;
+		if (maxLights == 0)
+			return;
 
-		if (sceneContext == null)
-			return visibleLights;
+		buildLightGrid(sceneContext.lights);
+		updateFrustum(sceneContext);
 
 		int maxDistanceSquared = plugin.getDrawDistance() * LOCAL_TILE_SIZE;
 		maxDistanceSquared *= maxDistanceSquared;
 
-		for (SceneLight light : sceneContext.lights) {
-			if (light.distanceSquared > maxDistanceSquared)
-				break;
+		int focalX = sceneContext.cameraFocalPoint[0] - GRID_ORIGIN;
+		int focalY = sceneContext.cameraFocalPoint[1] - GRID_ORIGIN;
+		int focalCellX = HDUtils.clamp(Math.floorDiv(focalX, GRID_CELL_SIZE), 0, GRID_SIZE - 1);
+		int focalCellY = HDUtils.clamp(Math.floorDiv(focalY, GRID_CELL_SIZE), 0, GRID_SIZE - 1);
+		int plane = client.getPlane();
 
-			if (!light.visible)
+		searchLightGridCell(sceneContext, GRID_OUTSIDE_CELL, maxLights, maxDistanceSquared, plane);
+
+		// search rings of cells around the focal point, until no cell in the next ring can contain a closer light
+		for (int ring = 0; ring < GRID_SIZE; ring++) {
+			int minDistance = Math.min(
+				Math.min((focalCellX + ring) * GRID_CELL_SIZE - focalX, focalX - (focalCellX - ring + 1) * GRID_CELL_SIZE),
+				Math.min((focalCellY + ring) * GRID_CELL_SIZE - focalY, focalY - (focalCellY - ring + 1) * GRID_CELL_SIZE)
+			);
+			if (ring > 0 && minDistance > 0) {
+				long minDistanceSquared = (long) minDistance * minDistance;
+				if (minDistanceSquared > maxDistanceSquared)
+					break;
+				if (sceneContext.visibleLightCount == maxLights &&
+					minDistanceSquared > sceneContext.visibleLights[0].distanceSquared)
+					break;
+			}
+
+			for (int cellX = focalCellX - ring; cellX <= focalCellX + ring; cellX++) {
+				if (cellX < 0 || cellX >= GRID_SIZE)
+					continue;
+				boolean isRingEdge = cellX == focalCellX - ring || cellX == focalCellX + ring;
+				int step = isRingEdge ? 1 : Math.max(1, ring * 2);
+				for (int cellY = focalCellY - ring; cellY <= focalCellY + ring; cellY += step) {
+					if (cellY >= 0 && cellY < GRID_SIZE)
+						searchLightGridCell(sceneContext, cellX * GRID_SIZE + cellY, maxLights, maxDistanceSquared, plane);
+				}
+			}
+		}
+
+		// the selected lights form a max-heap by distance, which is sorted in place from nearest to farthest
+		SceneLight[] heap = sceneContext.visibleLights;
+		for (int size = sceneContext.visibleLightCount - 1; size > 0; size--) {
+			SceneLight farthest = heap[0];
+			heap[0] = heap[size];
+			heap[size] = farthest;
+			siftDown(heap, 0, size);
+		}
+	}
+
+	private void buildLightGrid(ArrayList<SceneLight> lights) {
+		int lightCount = lights.size();
+		if (gridLights.length < lightCount) {
+			gridLights = new SceneLight[lightCount * 2];
+			gridLightCells = new int[lightCount * 2];
+		}
+
+		Arrays.fill(gridCellStart, 0);
+		for (int i = 0; i < lightCount; i++) {
+			SceneLight light = lights.get(i);
+			int cellX = Math.floorDiv(light.x - GRID_ORIGIN, GRID_CELL_SIZE);
+			int cellY = Math.floorDiv(light.y - GRID_ORIGIN, GRID_CELL_SIZE);
+			int cell = cellX < 0 || cellY < 0 || cellX >= GRID_SIZE || cellY >= GRID_SIZE ?
+				GRID_OUTSIDE_CELL : cellX * GRID_SIZE + cellY;
+			gridLightCells[i] = cell;
+			gridCellStart[cell + 2]++;
+		}
+
+		// offset by one, so cell starts can be used as cursors while filling in the lights
+		for (int cell = 2; cell < gridCellStart.length; cell++)
+			gridCellStart[cell] += gridCellStart[cell - 1];
+		for (int i = 0; i < lightCount; i++)
+			gridLights[gridCellStart[gridLightCells[i] + 1]++] = lights.get(i);
+		// clear references to lights which are no longer in the scene
+		Arrays.fill(gridLights, lightCount, gridLights.length, null);
+	}
+
+	private void updateFrustum(SceneContext sceneContext) {
+		yawSin = SINE[sceneContext.cameraOrientation[0]] / 65536f;
+		yawCos = COSINE[sceneContext.cameraOrientation[0]] / 65536f;
+		pitchSin = SINE[sceneContext.cameraOrientation[1]] / 65536f;
+		pitchCos = COSINE[sceneContext.cameraOrientation[1]] / 65536f;
+
+		// points are on screen when clipNegativeMid <= coordinate * zoom / depth <= clipMid
+		int zoom = client.get3dZoom();
+		setFrustumPlane(0, zoom, 0, -client.getRasterizer3D_clipMidX2());
+		setFrustumPlane(1, -zoom, 0, client.getRasterizer3D_clipNegativeMidX());
+		setFrustumPlane(2, 0, zoom, -client.getRasterizer3D_clipMidY2());
+		setFrustumPlane(3, 0, -zoom, client.getRasterizer3D_clipNegativeMidY());
+	}
+
+	private void setFrustumPlane(int plane, float horizontal, float vertical, float depth) {
+		float length = (float) Math.sqrt(horizontal * horizontal + vertical * vertical + depth * depth);
+		frustumPlanes[plane * 3] = horizontal / length;
+		frustumPlanes[plane * 3 + 1] = vertical / length;
+		frustumPlanes[plane * 3 + 2] = depth / length;
+	}
+
+	/**
+	 * @return whether any part of the scene within the light's radius may be on screen
+	 */
+	private boolean isInFrustum(SceneContext sceneContext, SceneLight light) {
+		float x = light.x - sceneContext.cameraPosition[0];
+		float y = light.z - sceneContext.cameraPosition[1];
+		float z = light.y - sceneContext.cameraPosition[2];
+		float radius = light.currentSize;
+
+		// rotate into camera space the same way as the client
+		float forward = yawCos * z - yawSin * x;
+		float depth = pitchSin * y + pitchCos * forward;
+		if (depth + radius <= HdPlugin.NEAR_PLANE)
+			return false;
+		float horizontal = z * yawSin + yawCos * x;
+		float vertical = pitchCos * y - forward * pitchSin;
+
+		for (int i = 0; i < frustumPlanes.length; i += 3) {
+			float distance = frustumPlanes[i] * horizontal + frustumPlanes[i + 1] * vertical + frustumPlanes[i + 2] * depth;
+			if (distance > radius)
+				return false;
+		}
+		return true;
+	}
+
+	private void searchLightGridCell(SceneContext sceneContext, int cell, int maxLights, int maxDistanceSquared, int plane) {
+		SceneLight[] heap = sceneContext.visibleLights;
+		for (int i = gridCellStart[cell]; i < gridCellStart[cell + 1]; i++) {
+			SceneLight light = gridLights[i];
+			if (light.distanceSquared > maxDistanceSquared || !light.visible)
+				continue;
+
+			int count = sceneContext.visibleLightCount;
+			if (count == maxLights && light.distanceSquared >= heap[0].distanceSquared)
 				continue;
 
 			if (!light.visibleFromOtherPlanes) {
 				// Hide certain lights on planes lower than the player to prevent light 'leaking' through the floor
-				if (light.plane < client.getPlane() && light.belowFloor)
+				if (light.plane < plane && light.belowFloor)
 					continue;
 				// Hide any light that is above the current plane and is above a solid floor
-				if (light.plane > client.getPlane() && light.aboveFloor)
+				if (light.plane > plane && light.aboveFloor)
 					continue;
 			}
 
-			visibleLights.add(light);
+			if (!isInFrustum(sceneContext, light))
+				continue;
 
-			if (visibleLights.size() >= maxLights)
-				break;
+			if (count < maxLights) {
+				// sift the light up into the max-heap
+				int child = count;
+				while (child > 0) {
+					int parent = (child - 1) >> 1;
+					if (heap[parent].distanceSquared >= light.distanceSquared)
+						break;
+					heap[child] = heap[parent];
+					child = parent;
+				}
+				heap[child] = light;
+				sceneContext.visibleLightCount++;
+			} else {
+				// replace the farthest selected light
+				heap[0] = light;
+				siftDown(heap, 0, count);
+			}
 		}
+	}
 
-		return visibleLights;
+	private static void siftDown(SceneLight[] heap, int parent, int size) {
+		SceneLight light = heap[parent];
+		while (true) {
+			int child = parent * 2 + 1;
+			if (child >= size)
+				break;
+			if (child + 1 < size && heap[child + 1].distanceSquared > heap[child].distanceSquared)
+				child++;
+			if (heap[child].distanceSquared <= light.distanceSquared)
+				break;
+			heap[parent] = heap[child];
+			parent = child;
+		}
+		heap[parent] = light;
 	}
 
 	@Subscribe
@@ -590,10 +830,7 @@ public class LightManager {
 				continue;
 
 			// prevent duplicate lights being spawned for the same object
-			int hash = tileObjectHash(tileObject);
-			boolean isDuplicate = sceneContext.lights.stream()
-				.anyMatch(light -> light.object == tileObject || hash == tileObjectHash(light.object));
-			if (isDuplicate)
+			if (!sceneContext.objectLightHashes.add(tileObjectHash(tileObject)))
 				continue;
 
 			int localPlane = tileObject.getPlane();
@@ -657,6 +894,7 @@ public class LightManager {
 			light.y = lightY;
 			light.z = (int) tileHeight - light.height - 1;
 			light.object = tileObject;
+			updateFloorFlags(sceneContext.scene.getExtendedTiles(), light);
 
 			sceneContext.lights.add(light);
 		}
@@ -669,11 +907,13 @@ public class LightManager {
 			return;
 
 		LocalPoint localLocation = tileObject.getLocalLocation();
-		sceneContext.lights.removeIf(light ->
+		boolean removed = sceneContext.lights.removeIf(light ->
 			light.object == tileObject &&
 			light.x == localLocation.getX() &&
 			light.y == localLocation.getY() &&
 			light.plane == tileObject.getPlane());
+		if (removed)
+			sceneContext.objectLightHashes.remove(tileObjectHash(tileObject));
 	}
 
 	@Subscribe
@@ -696,11 +936,8 @@ public class LightManager {
 		}
 	}
 
-	private int tileObjectHash(@Nullable TileObject tileObject)
+	private int tileObjectHash(TileObject tileObject)
 	{
-		if (tileObject == null)
-			return 0;
-
 		LocalPoint local = tileObject.getLocalLocation();
 		int hash = local.getX();
 		hash = hash * 31 + local.getY();
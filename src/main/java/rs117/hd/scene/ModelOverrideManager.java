@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.util.HashMap;
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import lombok.Getter;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import net.runelite.api.*;
@@ -40,13 +41,21 @@ public class ModelOverrideManager {
     private final HashMap<Long, ModelOverride> modelOverrides = new HashMap<>();
     private final HashMap<Long, AABB[]> modelsToHide = new HashMap<>();
 
+    /**
+     * A hash of the loaded model overrides, which affect pushed model data.
+     */
+    @Getter
+    private volatile long overridesHash;
+
     public void startUp() {
         MODEL_OVERRIDES_PATH.watch((path, first) -> {
 			modelOverrides.clear();
 			modelsToHide.clear();
+			overridesHash = 0;
 
 			try {
-				ModelOverride[] entries = path.loadJson(plugin.getGson(), ModelOverride[].class);
+				String json = path.loadString();
+				ModelOverride[] entries = plugin.getGson().fromJson(json, ModelOverride[].class);
 				if (entries == null)
 					throw new IOException("Empty or invalid: " + path);
 				for (ModelOverride override : entries) {
@@ -57,6 +66,7 @@ public class ModelOverrideManager {
 						addEntry(ModelHash.packUuid(objectId, ModelHash.TYPE_OBJECT), override);
 				}
 
+				overridesHash = json.hashCode() == 0 ? 1 : json.hashCode();
 				log.debug("Loaded {} model overrides", modelOverrides.size());
 			} catch (IOException ex) {
 				log.error("Failed to load model overrides:", ex);
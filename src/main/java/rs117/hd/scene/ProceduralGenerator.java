@@ -25,9 +25,14 @@
 package rs117.hd.scene;
 
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import net.runelite.api.*;
 import net.runelite.api.coords.*;
@@ -49,6 +54,13 @@ public class ProceduralGenerator {
 	public static final int[] DEPTH_LEVEL_SLOPE = new int[] { 150, 300, 470, 610, 700, 750, 820, 920, 1080, 1300, 1350, 1380 };
 
 	private static final int VERTICES_PER_FACE = 3;
+	// shifts local coordinates of vertices in the extended scene into the positive range of 15 bits, excluding zero
+	private static final int VERTEX_KEY_OFFSET = SceneUploader.SCENE_OFFSET * Perspective.LOCAL_TILE_SIZE + 1;
+	private static final float[] ZERO_NORMAL = { 0, 0, 0 };
+	// the width and height in tiles of blocks which scene data is generated for in parallel
+	private static final int TILE_BLOCK_SIZE = 16;
+	private static final TileBlock[] WHOLE_SCENE = { new TileBlock(0, 0, EXTENDED_SCENE_SIZE, EXTENDED_SCENE_SIZE) };
+	private static final TileBlock[] SCENE_BLOCKS = splitScene();
 	private static final boolean[][] TILE_OVERLAY_TRIS = new boolean[][]
 		{
 			/*  0 */ { true, true, true, true }, // Used by tilemodels of varying tri counts?
@@ -68,69 +80,179 @@ public class ProceduralGenerator {
 	@Inject
 	private HdPlugin plugin;
 
-	public void generateSceneData(SceneContext sceneContext)
+	/**
+	 * Generates terrain data for the scene in phases, each of which depends on the results of the previous ones.
+	 * Apart from indexing vertices, each phase is split into blocks of tiles which are processed in parallel.
+	 * Resolving tile materials doesn't depend on the vertex index, so it's done on the pool while indexing vertices.
+	 * Since data for each vertex is only written by the block which owns it, in the same order as if the whole scene
+	 * were processed at once, the result is identical regardless of parallelism.
+	 *
+	 * @param pool to process blocks on, or null to process the whole scene on the calling thread
+	 */
+	public void generateSceneData(SceneContext sceneContext, @Nullable ForkJoinPool pool)
 	{
 		long timerTotal = System.currentTimeMillis();
-		long timerCalculateTerrainNormals, timerGenerateTerrainData, timerGenerateUnderwaterTerrain;
+		long timerIndexVertices, timerResolveTileMaterials, timerCalculateTerrainNormals, timerGenerateTerrainData,
+			timerGenerateUnderwaterTerrain;
+
+		TileBlock[] blocks = pool == null ? WHOLE_SCENE : SCENE_BLOCKS;
+		TerrainMaterials materials = new TerrainMaterials();
+		IntConsumer resolveTileMaterials = i -> resolveTileMaterials(sceneContext, materials, blocks[i]);
 
 		long startTime = System.currentTimeMillis();
-		generateUnderwaterTerrain(sceneContext);
+		ForkJoinTask<?> resolvingTileMaterials = pool == null ? null :
+			pool.submit(new ForEach(resolveTileMaterials, 0, blocks.length));
+		indexVertices(sceneContext);
+		timerIndexVertices = (int)(System.currentTimeMillis() - startTime);
+		if (resolvingTileMaterials == null) {
+			forEach(null, blocks.length, resolveTileMaterials);
+		} else {
+			resolvingTileMaterials.join();
+		}
+		sceneContext.terrainMaterials = materials;
+		timerResolveTileMaterials = (int)(System.currentTimeMillis() - startTime);
+		startTime = System.currentTimeMillis();
+		generateUnderwaterTerrain(sceneContext, pool, blocks);
 		timerGenerateUnderwaterTerrain = (int)(System.currentTimeMillis() - startTime);
 		startTime = System.currentTimeMillis();
-		calculateTerrainNormals(sceneContext);
+		calculateTerrainNormals(sceneContext, pool);
 		timerCalculateTerrainNormals = (int)(System.currentTimeMillis() - startTime);
 		startTime = System.currentTimeMillis();
-		generateTerrainData(sceneContext);
+		forEach(pool, blocks.length, i -> generateTerrainData(sceneContext, blocks[i]));
 		timerGenerateTerrainData = (int)(System.currentTimeMillis() - startTime);
 
-		log.debug("procedural data generation took {}ms to complete", (System.currentTimeMillis() - timerTotal));
+		log.debug(
+			"procedural data generation took {}ms to complete ({} blocks, parallelism {})",
+			(System.currentTimeMillis() - timerTotal),
+			blocks.length,
+			pool == null ? 1 : pool.getParallelism()
+		);
+		log.debug("-- indexVertices: {}ms ({} vertices)", timerIndexVertices, sceneContext.vertexData.size());
+		log.debug("-- resolveTileMaterials: {}ms (overlapping indexVertices)", timerResolveTileMaterials);
 		log.debug("-- calculateTerrainNormals: {}ms", timerCalculateTerrainNormals);
 		log.debug("-- generateTerrainData: {}ms", timerGenerateTerrainData);
 		log.debug("-- generateUnderwaterTerrain: {}ms", timerGenerateUnderwaterTerrain);
 	}
 
 	/**
-	 * Iterates through all Tiles in a given Scene, producing color and
-	 * material data for each vertex of each Tile. Then adds the resulting
-	 * data to appropriate HashMaps.
+	 * Assigns an index to each vertex of every Tile in a given Scene, so that
+	 * data can be stored per vertex in the dense arrays of {@link TerrainVertexData}.
+	 */
+	private void indexVertices(SceneContext sceneContext)
+	{
+		TerrainVertexData vertexData = new TerrainVertexData();
+		TileVertexCursor vertices = new TileVertexCursor();
+		Scene scene = sceneContext.scene;
+		Tile[][][] tiles = scene.getExtendedTiles();
+		for (int z = 0; z < MAX_Z; ++z) {
+			for (int x = 0; x < EXTENDED_SCENE_SIZE; ++x) {
+				for (int y = 0; y < EXTENDED_SCENE_SIZE; ++y) {
+					Tile tile = tiles[z][x][y];
+					if (tile == null)
+						continue;
+
+					if (tile.getBridge() != null)
+						indexTileVertices(scene, vertexData, vertices, tile.getBridge());
+					indexTileVertices(scene, vertexData, vertices, tile);
+				}
+			}
+		}
+		vertexData.allocate();
+		sceneContext.vertexData = vertexData;
+	}
+
+	private static void indexTileVertices(Scene scene, TerrainVertexData vertexData, TileVertexCursor vertices, Tile tile)
+	{
+		// Tile corners are used for tile paint, and also for normals of tiles without a tile model
+		vertices.tile(scene, tile);
+		for (int vertex = 0; vertex < vertices.count(); vertex++)
+			vertexData.add(vertices.key(vertex));
+
+		SceneTileModel sceneTileModel = tile.getSceneTileModel();
+		if (sceneTileModel != null) {
+			int faceCount = sceneTileModel.getFaceX().length;
+			for (int face = 0; face < faceCount; face++) {
+				vertices.face(tile, face);
+				for (int vertex = 0; vertex < vertices.count(); vertex++)
+					vertexData.add(vertices.key(vertex));
+			}
+		}
+	}
+
+	/**
+	 * Resolves the overlay, underlay, ground material and water type of each tile in the block, including bridges.
 	 */
-	private void generateTerrainData(SceneContext sceneContext)
+	private void resolveTileMaterials(SceneContext sceneContext, TerrainMaterials materials, TileBlock block)
 	{
-		sceneContext.vertexTerrainColor = new HashMap<>();
-		// used for overriding potentially undesirable vertex colors
-		// for example, colors that aren't supposed to be visible
-		sceneContext.highPriorityColor = new HashMap<>();
-		sceneContext.vertexTerrainTexture = new HashMap<>();
-		// for faces without an overlay is set to true
-		sceneContext.vertexIsUnderlay = new HashMap<>();
-		// for faces with an overlay is set to true
-		// the result of these maps can be used to determine the vertices
-		// between underlays and overlays for custom blending
-		sceneContext.vertexIsOverlay = new HashMap<>();
+		Scene scene = sceneContext.scene;
+		Tile[][][] tiles = scene.getExtendedTiles();
+		for (int z = 0; z < MAX_Z; ++z) {
+			for (int x = block.minX; x < block.maxX; ++x) {
+				for (int y = block.minY; y < block.maxY; ++y) {
+					Tile tile = tiles[z][x][y];
+					if (tile == null)
+						continue;
+
+					if (tile.getBridge() != null)
+						resolveTileMaterials(scene, materials, tile.getBridge());
+					resolveTileMaterials(scene, materials, tile);
+				}
+			}
+		}
+	}
 
+	private void resolveTileMaterials(Scene scene, TerrainMaterials materials, Tile tile)
+	{
+		Overlay overlay = Overlay.getOverlay(scene, tile, plugin);
+		Underlay underlay = Underlay.getUnderlay(scene, tile, plugin);
+		WaterType waterType = overlay != Overlay.NONE ? overlay.waterType : underlay.waterType;
+		materials.set(tile, overlay, underlay, getSeasonalWaterType(waterType));
+	}
+
+	/**
+	 * Iterates through all Tiles sharing vertices with the block, producing color and
+	 * material data for each vertex owned by the block. Then adds the resulting
+	 * data to the scene's vertex data.
+	 */
+	private void generateTerrainData(SceneContext sceneContext, TileBlock block)
+	{
+		// Vertex colors and textures are marked as high priority to avoid them being overridden by potentially
+		// undesirable vertex colors, for example colors that aren't supposed to be visible. Vertices of faces without
+		// an overlay are marked as underlays, and vertices of faces with an overlay are marked as overlays, which can
+		// be used to determine the vertices between underlays and overlays for custom blending.
+		TileVertexCursor vertices = new TileVertexCursor();
+		TileScratch scratch = new TileScratch();
 		Tile[][][] tiles = sceneContext.scene.getExtendedTiles();
 		for (int z = 0; z < MAX_Z; ++z) {
-			for (int x = 0; x < EXTENDED_SCENE_SIZE; ++x)
-				for (int y = 0; y < EXTENDED_SCENE_SIZE; ++y)
+			for (int x = block.visitMinX; x < block.maxX; ++x)
+				for (int y = block.visitMinY; y < block.maxY; ++y)
 					if (tiles[z][x][y] != null)
-						generateDataForTile(sceneContext, tiles[z][x][y]);
+						generateDataForTile(sceneContext, block, vertices, scratch, tiles[z][x][y]);
 
-			for (int x = 0; x < EXTENDED_SCENE_SIZE; ++x)
-				for (int y = 0; y < EXTENDED_SCENE_SIZE; ++y)
+			for (int x = block.visitMinX; x < block.maxX; ++x)
+				for (int y = block.visitMinY; y < block.maxY; ++y)
 					if (tiles[z][x][y] != null && tiles[z][x][y].getBridge() != null)
-						generateDataForTile(sceneContext, tiles[z][x][y].getBridge());
+						generateDataForTile(sceneContext, block, vertices, scratch, tiles[z][x][y].getBridge());
 		}
 	}
 
 	/**
 	 * Produces color and material data for the vertices of the provided Tile.
-	 * Then adds the resulting data to appropriate HashMaps.
+	 * Then adds the resulting data to the scene's vertex data.
 	 *
 	 * @param sceneContext that the tile is associated with
+	 * @param block        to generate data for vertices of
+	 * @param vertices     cursor to read the tile's vertices with
+	 * @param scratch      arrays to hold the tile's vertex data, owned by the block's task
 	 * @param tile         to generate terrain data for
 	 */
-	private void generateDataForTile(SceneContext sceneContext, Tile tile)
-	{
+	private void generateDataForTile(
+		SceneContext sceneContext,
+		TileBlock block,
+		TileVertexCursor vertices,
+		TileScratch scratch,
+		Tile tile
+	) {
 		int faceCount;
 		if (tile.getSceneTilePaint() != null) {
 			faceCount = 2;
@@ -140,22 +262,27 @@ public class ProceduralGenerator {
 			return;
 		}
 
-		int[] vertexHashes = new int[faceCount * VERTICES_PER_FACE];
-		int[] vertexColors = new int[faceCount * VERTICES_PER_FACE];
-		Overlay[] vertexOverlays = new Overlay[faceCount * VERTICES_PER_FACE];
-		Underlay[] vertexUnderlays = new Underlay[faceCount * VERTICES_PER_FACE];
-		boolean[] vertexDefaultColor = new boolean[faceCount * VERTICES_PER_FACE];
+		final TerrainVertexData vertexData = sceneContext.vertexData;
+		final int vertexCount = faceCount * VERTICES_PER_FACE;
+		scratch.reset(vertexCount);
+		final int[] vertexHashes = scratch.vertexHashes;
+		final int[] vertexColors = scratch.vertexColors;
+		final Overlay[] vertexOverlays = scratch.vertexOverlays;
+		final Underlay[] vertexUnderlays = scratch.vertexUnderlays;
+		final boolean[] vertexDefaultColor = scratch.vertexDefaultColor;
+		final float[] vertexNormal = scratch.vertexNormal;
 
 		int tileExX = tile.getSceneLocation().getX() + SceneUploader.SCENE_OFFSET;
 		int tileExY = tile.getSceneLocation().getY() + SceneUploader.SCENE_OFFSET;
 		WorldPoint worldPos = sceneContext.localToWorld(tile.getLocalLocation(), tile.getRenderLevel());
 
 		Scene scene = sceneContext.scene;
+		TerrainMaterials materials = sceneContext.terrainMaterials;
 		if (tile.getSceneTilePaint() != null) {
 			// tile paint
 
-			Overlay overlay = Overlay.getOverlay(scene, tile, plugin);
-			Underlay underlay = Underlay.getUnderlay(scene, tile, plugin);
+			Overlay overlay = materials.getOverlay(tile);
+			Underlay underlay = materials.getUnderlay(tile);
 
 			if (overlay.waterType != WaterType.NONE || underlay.waterType != WaterType.NONE) {
 				// skip water tiles
@@ -167,7 +294,9 @@ public class ProceduralGenerator {
 			int nwColor = tile.getSceneTilePaint().getNwColor();
 			int neColor = tile.getSceneTilePaint().getNeColor();
 
-			vertexHashes = tileVertexKeys(scene, tile);
+			vertices.tile(scene, tile);
+			for (int vertex = 0; vertex < vertices.count(); vertex++)
+				vertexHashes[vertex] = vertices.key(vertex);
 
 			if (tileExX >= EXTENDED_SCENE_SIZE - 2 && tileExY >= EXTENDED_SCENE_SIZE - 2) {
 				// reduce the black scene edges by assigning surrounding colors
@@ -189,7 +318,7 @@ public class ProceduralGenerator {
 
 			vertexOverlays[0] = vertexOverlays[1] = vertexOverlays[2] = vertexOverlays[3] = overlay;
 			vertexUnderlays[0] = vertexUnderlays[1] = vertexUnderlays[2] = vertexUnderlays[3] = underlay;
-			if (useDefaultColor(scene, tile))
+			if (useDefaultColor(sceneContext, tile))
 			{
 				vertexDefaultColor[0] = vertexDefaultColor[1] = vertexDefaultColor[2] = vertexDefaultColor[3] = true;
 			}
@@ -206,9 +335,7 @@ public class ProceduralGenerator {
 
 			for (int face = 0; face < faceCount; face++)
 			{
-				int[] faceColors = new int[]{faceColorsA[face], faceColorsB[face], faceColorsC[face]};
-
-				int[] vertexKeys = faceVertexKeys(tile, face);
+				vertices.face(tile, face);
 
 				for (int vertex = 0; vertex < VERTICES_PER_FACE; vertex++)
 				{
@@ -216,9 +343,9 @@ public class ProceduralGenerator {
 					Overlay overlay = Overlay.NONE;
 					if (isOverlay)
 					{
-						overlay = Overlay.getOverlay(scene, tile, plugin);
+						overlay = materials.getOverlay(tile);
 					}
-					Underlay underlay =  Underlay.getUnderlay(scene, tile, plugin);
+					Underlay underlay = materials.getUnderlay(tile);
 
 					if (overlay.waterType != WaterType.NONE || underlay.waterType != WaterType.NONE)
 					{
@@ -226,15 +353,15 @@ public class ProceduralGenerator {
 						continue;
 					}
 
-					vertexHashes[face * VERTICES_PER_FACE + vertex] = vertexKeys[vertex];
+					vertexHashes[face * VERTICES_PER_FACE + vertex] = vertices.key(vertex);
 
-					int color = faceColors[vertex];
+					int color = vertex == 0 ? faceColorsA[face] : vertex == 1 ? faceColorsB[face] : faceColorsC[face];
 					vertexColors[face * VERTICES_PER_FACE + vertex] = color;
 
 					vertexOverlays[face * VERTICES_PER_FACE + vertex] = overlay;
 					vertexUnderlays[face * VERTICES_PER_FACE + vertex] = underlay;
 
-					if (isOverlay && useDefaultColor(scene, tile))
+					if (isOverlay && useDefaultColor(sceneContext, tile))
 					{
 						vertexDefaultColor[face * VERTICES_PER_FACE + vertex] = true;
 					}
@@ -242,9 +369,9 @@ public class ProceduralGenerator {
 			}
 		}
 
-		for (int vertex = 0; vertex < vertexHashes.length; vertex++)
+		for (int vertex = 0; vertex < vertexCount; vertex++)
 		{
-			if (vertexHashes[vertex] == 0)
+			if (vertexHashes[vertex] == 0 || !block.ownsVertex(vertexHashes[vertex]))
 			{
 				continue;
 			}
@@ -258,7 +385,7 @@ public class ProceduralGenerator {
 			// Near-solid-black tiles that are used in some places under wall objects
 			boolean lowPriorityColor = vertexColors[vertex] <= 2;
 
-			int[] colorHSL = HDUtils.colorIntToHSL(vertexColors[vertex]);
+			int[] colorHSL = HDUtils.colorIntToHSL(vertexColors[vertex], scratch.colorHSL);
 
 			float lightenMultiplier = 1.5f;
 			int lightenBase = 15;
@@ -267,7 +394,8 @@ public class ProceduralGenerator {
 			int darkenBase = 0;
 			int darkenAdd = 0;
 
-			float[] vNormals = sceneContext.vertexTerrainNormals.getOrDefault(vertexHashes[vertex], new float[] { 0, 0, 0 });
+			int vertexIndex = vertexData.indexOf(vertexHashes[vertex]);
+			float[] vNormals = sceneContext.terrainNormals.getNormal(vertexHashes[vertex], vertexNormal, ZERO_NORMAL);
 
 			float dot = HDUtils.dotLightDirectionTile(vNormals[0], vNormals[1], vNormals[2]);
 			int lighten = (int) (Math.max((colorHSL[2] - lightenAdd), 0) * lightenMultiplier) + lightenBase;
@@ -296,35 +424,29 @@ public class ProceduralGenerator {
 
 			// mark the vertex as either an overlay or underlay.
 			// this is used to determine how to blend between vertex colors
-			if (isOverlay)
-			{
-				sceneContext.vertexIsOverlay.put(vertexHashes[vertex], true);
-			}
-			else
-			{
-				sceneContext.vertexIsUnderlay.put(vertexHashes[vertex], true);
-			}
+			vertexData.setFlags(vertexIndex, isOverlay ? TerrainVertexData.IS_OVERLAY : TerrainVertexData.IS_UNDERLAY);
 
-			// add color and texture to hashmap
-			if ((!lowPriorityColor || !sceneContext.highPriorityColor.containsKey(vertexHashes[vertex])) && !vertexDefaultColor[vertex])
+			// add color and texture to the vertex data
+			boolean hasHighPriorityColor = vertexData.hasFlags(vertexIndex, TerrainVertexData.HIGH_PRIORITY_COLOR);
+			if ((!lowPriorityColor || !hasHighPriorityColor) && !vertexDefaultColor[vertex])
 			{
 				if (vertexOverlays[vertex] != Overlay.NONE ||
-					!sceneContext.vertexTerrainColor.containsKey(vertexHashes[vertex]) ||
-					!sceneContext.highPriorityColor.containsKey(vertexHashes[vertex]))
+					!vertexData.hasColor(vertexIndex) ||
+					!hasHighPriorityColor)
 				{
-					sceneContext.vertexTerrainColor.put(vertexHashes[vertex], vertexColors[vertex]);
+					vertexData.setColor(vertexIndex, vertexColors[vertex]);
 				}
 
 				if (vertexOverlays[vertex] != Overlay.NONE ||
-					!sceneContext.vertexTerrainTexture.containsKey(vertexHashes[vertex]) ||
-					!sceneContext.highPriorityColor.containsKey(vertexHashes[vertex]))
+					!vertexData.hasTexture(vertexIndex) ||
+					!hasHighPriorityColor)
 				{
-					sceneContext.vertexTerrainTexture.put(vertexHashes[vertex], material);
+					vertexData.setTexture(vertexIndex, material);
 				}
 
 				if (!lowPriorityColor)
 				{
-					sceneContext.highPriorityColor.put(vertexHashes[vertex], true);
+					vertexData.setFlags(vertexIndex, TerrainVertexData.HIGH_PRIORITY_COLOR);
 				}
 			}
 		}
@@ -333,23 +455,15 @@ public class ProceduralGenerator {
 	/**
 	 * Generates underwater terrain data by iterating through all Tiles in a given
 	 * Scene, increasing the depth of each tile based on its distance from the shore.
-	 * Then stores the resulting data in a HashMap.
+	 * Then stores the resulting data in the scene's vertex data.
 	 */
-	private void generateUnderwaterTerrain(SceneContext sceneContext)
+	private void generateUnderwaterTerrain(SceneContext sceneContext, @Nullable ForkJoinPool pool, TileBlock[] blocks)
 	{
 		// true if a tile contains at least 1 face which qualifies as water
 		sceneContext.tileIsWater = new boolean[MAX_Z][EXTENDED_SCENE_SIZE][EXTENDED_SCENE_SIZE];
-		// true if a vertex is part of a face which qualifies as water; non-existent if not
-		sceneContext.vertexIsWater = new HashMap<>();
-		// true if a vertex is part of a face which qualifies as land; non-existent if not
-		// tiles along the shoreline will be true for both vertexIsWater and vertexIsLand
-		sceneContext.vertexIsLand = new HashMap<>();
 		// if true, the tile will be skipped when the scene is drawn
 		// this is due to certain edge cases with water on the same X/Y on different planes
 		sceneContext.skipTile = new boolean[MAX_Z][EXTENDED_SCENE_SIZE][EXTENDED_SCENE_SIZE];
-		// the height adjustment for each vertex, to be applied to the vertex'
-		// real height to create the underwater terrain
-		sceneContext.vertexUnderwaterDepth = new HashMap<>();
 		// the basic 'levels' of underwater terrain, used to sink terrain based on its distance
 		// from the shore, then used to produce the world-space height offset
 		// 0 = land
@@ -368,69 +482,112 @@ public class ProceduralGenerator {
 			}
 		}
 
+		// figure out which vertices are water and assign some data
+		forEach(pool, blocks.length, i -> findWaterTiles(sceneContext, blocks[i]));
+		forEach(pool, blocks.length, i -> markWaterVertices(sceneContext, blocks[i]));
+		// planes don't affect each other's depth levels
+		forEach(pool, MAX_Z, z -> sinkUnderwaterTerrain(sceneContext.underwaterDepthLevels[z], underwaterDepths[z]));
+		forEach(pool, blocks.length, i -> storeUnderwaterDepths(sceneContext, underwaterDepths, blocks[i]));
+	}
+
+	/**
+	 * Determines which tiles in the block contain water, and which should be skipped because of water on a plane
+	 * below them.
+	 */
+	private void findWaterTiles(SceneContext sceneContext, TileBlock block)
+	{
 		Scene scene = sceneContext.scene;
 		Tile[][][] tiles = scene.getExtendedTiles();
 
-		// figure out which vertices are water and assign some data
 		for (int z = 0; z < MAX_Z; ++z) {
-			for (int x = 0; x < EXTENDED_SCENE_SIZE; ++x) {
-				for (int y = 0; y < EXTENDED_SCENE_SIZE; ++y) {
-					if (tiles[z][x][y] == null) {
-						sceneContext.underwaterDepthLevels[z][x][y] = 0;
-						sceneContext.underwaterDepthLevels[z][x + 1][y] = 0;
-						sceneContext.underwaterDepthLevels[z][x][y + 1] = 0;
-						sceneContext.underwaterDepthLevels[z][x + 1][y + 1] = 0;
+			for (int x = block.minX; x < block.maxX; ++x) {
+				for (int y = block.minY; y < block.maxY; ++y) {
+					Tile tile = tiles[z][x][y];
+					if (tile == null)
 						continue;
-					}
 
-					Tile tile = tiles[z][x][y];
 					if (tile.getBridge() != null) {
 						tile = tile.getBridge();
 					}
-					if (tile.getSceneTilePaint() != null) {
-						int[] vertexKeys = tileVertexKeys(scene, tile);
 
-						if (tileWaterType(scene, tile, tile.getSceneTilePaint()) == WaterType.NONE) {
-							for (int vertexKey : vertexKeys) {
-								if (tile.getSceneTilePaint().getNeColor() != 12345678) {
-									sceneContext.vertexIsLand.put(vertexKey, true);
-								}
+					boolean tileIncludesWater = false;
+					if (tile.getSceneTilePaint() != null) {
+						tileIncludesWater = tileWaterType(sceneContext, tile, tile.getSceneTilePaint()) != WaterType.NONE;
+					} else if (tile.getSceneTileModel() != null) {
+						SceneTileModel sceneTileModel = tile.getSceneTileModel();
+						int faceCount = sceneTileModel.getFaceX().length;
+						for (int face = 0; face < faceCount; face++) {
+							if (faceWaterType(sceneContext, tile, face, sceneTileModel) != WaterType.NONE) {
+								tileIncludesWater = true;
+								break;
 							}
+						}
+					}
 
-							sceneContext.underwaterDepthLevels[z][x][y] = 0;
-							sceneContext.underwaterDepthLevels[z][x + 1][y] = 0;
-							sceneContext.underwaterDepthLevels[z][x][y + 1] = 0;
-							sceneContext.underwaterDepthLevels[z][x + 1][y + 1] = 0;
-						} else {
-							// Stop tiles on the same X,Y coordinates on different planes from
-							// each generating water. Prevents undesirable results in certain places.
-							if (z > 0) {
-								boolean continueLoop = false;
+					if (!tileIncludesWater)
+						continue;
+
+					// Stop tiles on the same X,Y coordinates on different planes from
+					// each generating water. Prevents undesirable results in certain places.
+					for (int checkZ = 0; checkZ < z; ++checkZ) {
+						if (sceneContext.tileIsWater[checkZ][x][y]) {
+							sceneContext.skipTile[z][x][y] = true;
+							break;
+						}
+					}
 
-								for (int checkZ = 0; checkZ < z; ++checkZ) {
-									if (sceneContext.tileIsWater[checkZ][x][y]) {
-										sceneContext.underwaterDepthLevels[z][x][y] = 0;
-										sceneContext.underwaterDepthLevels[z][x + 1][y] = 0;
-										sceneContext.underwaterDepthLevels[z][x][y + 1] = 0;
-										sceneContext.underwaterDepthLevels[z][x + 1][y + 1] = 0;
+					sceneContext.tileIsWater[z][x][y] = !sceneContext.skipTile[z][x][y];
+				}
+			}
+		}
+	}
 
-										sceneContext.skipTile[z][x][y] = true;
+	/**
+	 * Flags the vertices owned by the block as water or land, and sets the depth level of vertices
+	 * which aren't water to 0.
+	 */
+	private void markWaterVertices(SceneContext sceneContext, TileBlock block)
+	{
+		// vertices which are part of a face which qualifies as water are flagged IS_WATER,
+		// and vertices which are part of a face which qualifies as land are flagged IS_LAND
+		// tiles along the shoreline will have both flags
+		final TerrainVertexData vertexData = sceneContext.vertexData;
+		TileVertexCursor vertices = new TileVertexCursor();
+		Scene scene = sceneContext.scene;
+		Tile[][][] tiles = scene.getExtendedTiles();
 
-										continueLoop = true;
+		for (int z = 0; z < MAX_Z; ++z) {
+			final int[][] depthLevels = sceneContext.underwaterDepthLevels[z];
 
-										break;
-									}
-								}
+			for (int x = block.visitMinX; x < block.maxX; ++x) {
+				for (int y = block.visitMinY; y < block.maxY; ++y) {
+					Tile tile = tiles[z][x][y];
+					if (tile == null || sceneContext.skipTile[z][x][y]) {
+						clearDepthLevels(depthLevels, block, x, y);
+						continue;
+					}
 
-								if (continueLoop)
-									continue;
-							}
+					if (tile.getBridge() != null) {
+						tile = tile.getBridge();
+					}
+					if (tile.getSceneTilePaint() != null) {
+						vertices.tile(scene, tile);
 
-							sceneContext.tileIsWater[z][x][y] = true;
+						if (!sceneContext.tileIsWater[z][x][y]) {
+							for (int vertex = 0; vertex < vertices.count(); vertex++) {
+								int vertexKey = vertices.key(vertex);
+								if (tile.getSceneTilePaint().getNeColor() != 12345678 && block.ownsVertex(vertexKey)) {
+									vertexData.setFlags(vertexData.indexOf(vertexKey), TerrainVertexData.IS_LAND);
+								}
+							}
 
-							for (int vertexKey : vertexKeys)
+							clearDepthLevels(depthLevels, block, x, y);
+						} else {
+							for (int vertex = 0; vertex < vertices.count(); vertex++)
 							{
-								sceneContext.vertexIsWater.put(vertexKey, true);
+								int vertexKey = vertices.key(vertex);
+								if (block.ownsVertex(vertexKey))
+									vertexData.setFlags(vertexData.indexOf(vertexKey), TerrainVertexData.IS_WATER);
 							}
 						}
 					}
@@ -440,176 +597,190 @@ public class ProceduralGenerator {
 
 						int faceCount = sceneTileModel.getFaceX().length;
 
-						// Stop tiles on the same X,Y coordinates on different planes from
-						// each generating water. Prevents undesirable results in certain places.
-						if (z > 0)
-						{
-							boolean tileIncludesWater = false;
-
-							for (int face = 0; face < faceCount; face++)
-							{
-								if (faceWaterType(scene, tile, face, sceneTileModel) != WaterType.NONE)
-								{
-									tileIncludesWater = true;
-									break;
-								}
-							}
-
-							if (tileIncludesWater)
-							{
-								boolean continueLoop = false;
-
-								for (int checkZ = 0; checkZ < z; ++checkZ)
-								{
-									if (sceneContext.tileIsWater[checkZ][x][y])
-									{
-										sceneContext.underwaterDepthLevels[z][x][y] = 0;
-										sceneContext.underwaterDepthLevels[z][x+1][y] = 0;
-										sceneContext.underwaterDepthLevels[z][x][y+1] = 0;
-										sceneContext.underwaterDepthLevels[z][x+1][y+1] = 0;
-
-										sceneContext.skipTile[z][x][y] = true;
-
-										continueLoop = true;
-
-										break;
-									}
-								}
-
-								if (continueLoop)
-									continue;
-							}
-						}
-
 						for (int face = 0; face < faceCount; face++)
 						{
-							int[][] vertices = faceVertices(tile, face);
-							int[] vertexKeys = faceVertexKeys(tile, face);
+							vertices.face(tile, face);
 
-							if (faceWaterType(scene, tile, face, sceneTileModel) == WaterType.NONE)
+							if (faceWaterType(sceneContext, tile, face, sceneTileModel) == WaterType.NONE)
 							{
 								for (int vertex = 0; vertex < VERTICES_PER_FACE; vertex++)
 								{
+									if (!block.ownsVertex(vertices.key(vertex)))
+										continue;
+
 									if (sceneTileModel.getTriangleColorA()[face] != 12345678)
-									{sceneContext.
-										vertexIsLand.put(vertexKeys[vertex], true);
+									{
+										vertexData.setFlags(vertexData.indexOf(vertices.key(vertex)), TerrainVertexData.IS_LAND);
 									}
 
-									if (vertices[vertex][0] % Perspective.LOCAL_TILE_SIZE == 0 &&
-										vertices[vertex][1] % Perspective.LOCAL_TILE_SIZE == 0
+									if (vertices.x(vertex) % Perspective.LOCAL_TILE_SIZE == 0 &&
+										vertices.y(vertex) % Perspective.LOCAL_TILE_SIZE == 0
 									) {
-										int vX = vertices[vertex][0] / Perspective.LOCAL_TILE_SIZE + SceneUploader.SCENE_OFFSET;
-										int vY = vertices[vertex][1] / Perspective.LOCAL_TILE_SIZE + SceneUploader.SCENE_OFFSET;
+										int vX = vertices.x(vertex) / Perspective.LOCAL_TILE_SIZE + SceneUploader.SCENE_OFFSET;
+										int vY = vertices.y(vertex) / Perspective.LOCAL_TILE_SIZE + SceneUploader.SCENE_OFFSET;
 
-										sceneContext.underwaterDepthLevels[z][vX][vY] = 0;
+										depthLevels[vX][vY] = 0;
 									}
 								}
 							}
 							else
 							{
-								sceneContext.tileIsWater[z][x][y] = true;
-
 								for (int vertex = 0; vertex < VERTICES_PER_FACE; vertex++)
 								{
-									sceneContext.vertexIsWater.put(vertexKeys[vertex], true);
+									if (block.ownsVertex(vertices.key(vertex)))
+										vertexData.setFlags(vertexData.indexOf(vertices.key(vertex)), TerrainVertexData.IS_WATER);
 								}
 							}
 						}
 					}
 					else
 					{
-						sceneContext.underwaterDepthLevels[z][x][y] = 0;
-						sceneContext.underwaterDepthLevels[z][x+1][y] = 0;
-						sceneContext.underwaterDepthLevels[z][x][y+1] = 0;
-						sceneContext.underwaterDepthLevels[z][x+1][y+1] = 0;
+						clearDepthLevels(depthLevels, block, x, y);
 					}
 				}
 			}
 		}
+	}
+
+	/**
+	 * Sets the depth levels of the corners of a tile to 0, for the corners owned by the block.
+	 */
+	private static void clearDepthLevels(int[][] depthLevels, TileBlock block, int tileExX, int tileExY)
+	{
+		for (int x = tileExX; x <= tileExX + 1; x++)
+			for (int y = tileExY; y <= tileExY + 1; y++)
+				if (block.ownsVertex(x, y))
+					depthLevels[x][y] = 0;
+	}
+
+	/**
+	 * Sinks terrain on a single plane further from the shore by desired levels, then converts
+	 * the depth levels to world-space height offsets.
+	 *
+	 * @param depthLevels      of each vertex on the plane's tile grid, where 0 is land and 1 is water
+	 * @param underwaterDepths to write the height offset of each vertex to
+	 */
+	private static void sinkUnderwaterTerrain(int[][] depthLevels, int[][] underwaterDepths)
+	{
+		calculateDepthLevels(depthLevels);
 
-		// Sink terrain further from shore by desired levels.
-		for (int level = 0; level < DEPTH_LEVEL_SLOPE.length - 1; level++)
+		// Adjust the height levels to world coordinate offsets and add to an array.
+		for (int x = 0; x < depthLevels.length; x++)
 		{
-			for (int z = 0; z < MAX_Z; ++z)
+			for (int y = 0; y < depthLevels[x].length; y++)
 			{
-				for (int x = 0; x < sceneContext.underwaterDepthLevels[z].length; x++)
+				if (depthLevels[x][y] == 0)
 				{
-					for (int y = 0; y < sceneContext.underwaterDepthLevels[z][x].length; y++)
-					{
-						if (sceneContext.underwaterDepthLevels[z][x][y] == 0)
-						{
-							// Skip the tile if it isn't water.
-							continue;
-						}
-						// If it's on the edge of the scene, reset the depth so
-						// it creates a 'wall' to prevent fog from passing through.
-						// Not incredibly effective, but better than nothing.
-						if (x == 0 || y == 0 || x == EXTENDED_SCENE_SIZE || y == EXTENDED_SCENE_SIZE) {
-							sceneContext.underwaterDepthLevels[z][x][y] = 0;
-							continue;
-						}
+					continue;
+				}
+				int maxRange = DEPTH_LEVEL_SLOPE[depthLevels[x][y] - 1];
+				int minRange = (int) (DEPTH_LEVEL_SLOPE[depthLevels[x][y] - 1] * 0.1f);
+				// Range from noise-generated terrain is 10-60.
+				// Translate the result from range 0-1.
+//				float noiseOffset = (HeightCalc.calculate(baseX + x + 0xe3b7b, baseY + y + 0x87cce) - 10) / 50f;
+				float noiseOffset = 0.5f;
+				// limit range of variation
+				float minOffset = 0.25f;
+				float maxOffset = 0.75f;
+				noiseOffset = HDUtils.lerp(minOffset, maxOffset, noiseOffset);
+				// apply offset to vertex height range
+				int heightOffset = (int) HDUtils.lerp(minRange, maxRange, noiseOffset);
+				underwaterDepths[x][y] = heightOffset;
+			}
+		}
+	}
 
-						int tileHeight = sceneContext.underwaterDepthLevels[z][x][y];
-						if (sceneContext.underwaterDepthLevels[z][x - 1][y] < tileHeight)
-						{
-							// West
-							continue;
-						}
-						if (x < sceneContext.underwaterDepthLevels[z].length - 1 && sceneContext.underwaterDepthLevels[z][x + 1][y] < tileHeight)
-						{
-							// East
-							continue;
-						}
-						if (sceneContext.underwaterDepthLevels[z][x][y - 1] < tileHeight)
-						{
-							// South
-							continue;
-						}
-						if (y < sceneContext.underwaterDepthLevels[z].length - 1 && sceneContext.underwaterDepthLevels[z][x][y + 1] < tileHeight)
-						{
-							// North
-							continue;
-						}
-						// At this point, it's surrounded only by other depth-adjusted vertices.
-						sceneContext.underwaterDepthLevels[z][x][y]++;
-					}
+	/**
+	 * Sinks water further from the shore by one level per tile, up to the number of levels in
+	 * {@link #DEPTH_LEVEL_SLOPE}, using a breadth-first search outwards from the shore.
+	 * Water on the edges of the scene is turned into land, to create a 'wall' to prevent fog from passing through.
+	 *
+	 * @param depthLevels of each vertex on a square tile grid, where 0 is land and anything else is water
+	 */
+	public static void calculateDepthLevels(int[][] depthLevels)
+	{
+		final int size = depthLevels.length;
+		final int maxLevel = DEPTH_LEVEL_SLOPE.length;
+		final int unvisited = Integer.MAX_VALUE;
+		final int[] queue = new int[size * size];
+		int head = 0;
+		int tail = 0;
+
+		// Start from land, and from water along the south and west edges of the scene
+		for (int x = 0; x < size; x++) {
+			for (int y = 0; y < size; y++) {
+				if (depthLevels[x][y] == 0 || x == 0 || y == 0) {
+					depthLevels[x][y] = 0;
+					queue[tail++] = x * size + y;
+				} else {
+					depthLevels[x][y] = unvisited;
 				}
 			}
 		}
 
-		// Adjust the height levels to world coordinate offsets and add to an array.
-		for (int z = 0; z < MAX_Z; ++z)
-		{
-			for (int x = 0; x < sceneContext.underwaterDepthLevels[z].length; x++)
-			{
-				for (int y = 0; y < sceneContext.underwaterDepthLevels[z][x].length; y++)
-				{
-					if (sceneContext.underwaterDepthLevels[z][x][y] == 0)
-					{
-						continue;
-					}
-					int maxRange = DEPTH_LEVEL_SLOPE[sceneContext.underwaterDepthLevels[z][x][y] - 1];
-					int minRange = (int) (DEPTH_LEVEL_SLOPE[sceneContext.underwaterDepthLevels[z][x][y] - 1] * 0.1f);
-					// Range from noise-generated terrain is 10-60.
-					// Translate the result from range 0-1.
-//					float noiseOffset = (HeightCalc.calculate(baseX + x + 0xe3b7b, baseY + y + 0x87cce) - 10) / 50f;
-					float noiseOffset = 0.5f;
-					// limit range of variation
-					float minOffset = 0.25f;
-					float maxOffset = 0.75f;
-					noiseOffset = HDUtils.lerp(minOffset, maxOffset, noiseOffset);
-					// apply offset to vertex height range
-					int heightOffset = (int) HDUtils.lerp(minRange, maxRange, noiseOffset);
-					underwaterDepths[z][x][y] = heightOffset;
+		// Water along the north and east edges of the scene has historically only been turned into land
+		// after the first level was sunk, so it counts as one level away from the shore
+		for (int x = 0; x < size; x++) {
+			for (int y = 0; y < size; y++) {
+				if ((x == size - 1 || y == size - 1) && depthLevels[x][y] == unvisited) {
+					depthLevels[x][y] = 1;
+					queue[tail++] = x * size + y;
+				}
+			}
+		}
+
+		// Since the queue is ordered by level, each vertex is reached first from its nearest shore
+		while (head < tail) {
+			int i = queue[head++];
+			int x = i / size;
+			int y = i % size;
+			int level = depthLevels[x][y] + 1;
+			if (level >= maxLevel)
+				continue; // vertices which are never reached end up at the max level
+
+			if (x > 0 && depthLevels[x - 1][y] == unvisited) {
+				depthLevels[x - 1][y] = level;
+				queue[tail++] = i - size;
+			}
+			if (x < size - 1 && depthLevels[x + 1][y] == unvisited) {
+				depthLevels[x + 1][y] = level;
+				queue[tail++] = i + size;
+			}
+			if (y > 0 && depthLevels[x][y - 1] == unvisited) {
+				depthLevels[x][y - 1] = level;
+				queue[tail++] = i - 1;
+			}
+			if (y < size - 1 && depthLevels[x][y + 1] == unvisited) {
+				depthLevels[x][y + 1] = level;
+				queue[tail++] = i + 1;
+			}
+		}
+
+		for (int x = 0; x < size; x++) {
+			for (int y = 0; y < size; y++) {
+				if (x == 0 || y == 0 || x == size - 1 || y == size - 1) {
+					depthLevels[x][y] = 0;
+				} else {
+					depthLevels[x][y] = Math.min(depthLevels[x][y], maxLevel);
 				}
 			}
 		}
+	}
+
+	/**
+	 * Stores the height offsets of vertices owned by the block in the vertex data, and calculates
+	 * interpolated height offsets for non-corner vertices.
+	 */
+	private void storeUnderwaterDepths(SceneContext sceneContext, int[][][] underwaterDepths, TileBlock block)
+	{
+		final TerrainVertexData vertexData = sceneContext.vertexData;
+		TileVertexCursor vertices = new TileVertexCursor();
+		Scene scene = sceneContext.scene;
+		Tile[][][] tiles = scene.getExtendedTiles();
 
-		// Store the height offsets in a hashmap and calculate interpolated
-		// height offsets for non-corner vertices.
 		for (int z = 0; z < MAX_Z; ++z) {
-			for (int x = 0; x < EXTENDED_SCENE_SIZE; ++x) {
-				for (int y = 0; y < EXTENDED_SCENE_SIZE; ++y) {
+			for (int x = block.visitMinX; x < block.maxX; ++x) {
+				for (int y = block.visitMinY; y < block.maxY; ++y) {
 					if (!sceneContext.tileIsWater[z][x][y]) {
 						continue;
 					}
@@ -623,17 +794,17 @@ public class ProceduralGenerator {
 						tile = tile.getBridge();
 					}
 					if (tile.getSceneTilePaint() != null) {
-						int[] vertexKeys = tileVertexKeys(scene, tile);
-
-						int swVertexKey = vertexKeys[0];
-						int seVertexKey = vertexKeys[1];
-						int nwVertexKey = vertexKeys[2];
-						int neVertexKey = vertexKeys[3];
-
-						sceneContext.vertexUnderwaterDepth.put(swVertexKey, underwaterDepths[z][x][y]);
-						sceneContext.vertexUnderwaterDepth.put(seVertexKey, underwaterDepths[z][x + 1][y]);
-						sceneContext.vertexUnderwaterDepth.put(nwVertexKey, underwaterDepths[z][x][y + 1]);
-						sceneContext.vertexUnderwaterDepth.put(neVertexKey, underwaterDepths[z][x + 1][y + 1]);
+						vertices.tile(scene, tile);
+
+						// vertices are in SW, SE, NW, NE order
+						for (int vertex = 0; vertex < vertices.count(); vertex++) {
+							if (block.ownsVertex(vertices.key(vertex))) {
+								vertexData.setUnderwaterDepth(
+									vertexData.indexOf(vertices.key(vertex)),
+									underwaterDepths[z][x + (vertex & 1)][y + (vertex >> 1)]
+								);
+							}
+						}
 					}
 					else if (tile.getSceneTileModel() != null)
 					{
@@ -643,21 +814,23 @@ public class ProceduralGenerator {
 
 						for (int face = 0; face < faceCount; face++)
 						{
-							int[][] vertices = faceVertices(tile, face);
-							int[] vertexKeys = faceVertexKeys(tile, face);
+							vertices.face(tile, face);
 
 							for (int vertex = 0; vertex < VERTICES_PER_FACE; vertex++)
 							{
-								if (vertices[vertex][0] % Perspective.LOCAL_TILE_SIZE == 0 &&
-									vertices[vertex][1] % Perspective.LOCAL_TILE_SIZE == 0
+								if (!block.ownsVertex(vertices.key(vertex)))
+									continue;
+
+								if (vertices.x(vertex) % Perspective.LOCAL_TILE_SIZE == 0 &&
+									vertices.y(vertex) % Perspective.LOCAL_TILE_SIZE == 0
 								) {
 									// The vertex is at the corner of the tile;
 									// simply use the offset in the tile grid array.
 
-									int vX = vertices[vertex][0] / Perspective.LOCAL_TILE_SIZE + SceneUploader.SCENE_OFFSET;
-									int vY = vertices[vertex][1] / Perspective.LOCAL_TILE_SIZE + SceneUploader.SCENE_OFFSET;
+									int vX = vertices.x(vertex) / Perspective.LOCAL_TILE_SIZE + SceneUploader.SCENE_OFFSET;
+									int vY = vertices.y(vertex) / Perspective.LOCAL_TILE_SIZE + SceneUploader.SCENE_OFFSET;
 
-									sceneContext.vertexUnderwaterDepth.put(vertexKeys[vertex], underwaterDepths[z][vX][vY]);
+									vertexData.setUnderwaterDepth(vertexData.indexOf(vertices.key(vertex)), underwaterDepths[z][vX][vY]);
 								}
 								else
 								{
@@ -667,8 +840,8 @@ public class ProceduralGenerator {
 
 									int tileX = x - SceneUploader.SCENE_OFFSET;
 									int tileY = y - SceneUploader.SCENE_OFFSET;
-									int localVertexX = vertices[vertex][0] - (tileX * Perspective.LOCAL_TILE_SIZE);
-									int localVertexY = vertices[vertex][1] - (tileY * Perspective.LOCAL_TILE_SIZE);
+									int localVertexX = vertices.x(vertex) - (tileX * Perspective.LOCAL_TILE_SIZE);
+									int localVertexY = vertices.y(vertex) - (tileY * Perspective.LOCAL_TILE_SIZE);
 									float lerpX = (float) localVertexX / (float) Perspective.LOCAL_TILE_SIZE;
 									float lerpY = (float) localVertexY / (float) Perspective.LOCAL_TILE_SIZE;
 									float northHeightOffset = HDUtils.lerp(
@@ -679,8 +852,9 @@ public class ProceduralGenerator {
 									float southHeightOffset = HDUtils.lerp(underwaterDepths[z][x][y], underwaterDepths[z][x + 1][y], lerpX);
 									int heightOffset = (int) HDUtils.lerp(southHeightOffset, northHeightOffset, lerpY);
 
-									if (!sceneContext.vertexIsLand.containsKey(vertexKeys[vertex])) {
-										sceneContext.vertexUnderwaterDepth.put(vertexKeys[vertex], heightOffset);
+									int vertexIndex = vertexData.indexOf(vertices.key(vertex));
+									if (!vertexData.hasFlags(vertexIndex, TerrainVertexData.IS_LAND)) {
+										vertexData.setUnderwaterDepth(vertexIndex, heightOffset);
 									}
 								}
 							}
@@ -692,24 +866,74 @@ public class ProceduralGenerator {
 	}
 
 	/**
-	 * Iterates through all Tiles in a given Scene, calculating vertex normals
-	 * for each one, then stores resulting normal data in a HashMap.
+	 * Calculates smooth normals for every vertex of the scene's terrain, by summing the normals of all faces sharing
+	 * each vertex. Normals of Tile Paint tiles are calculated from finite differences on the height field, while the
+	 * irregular faces of Tile Model tiles are handled one at a time. Requires the scene's vertex data, including
+	 * underwater depths.
+	 *
+	 * @param pool to process blocks on, or null to process the whole scene on the calling thread
 	 */
-	private void calculateTerrainNormals(SceneContext sceneContext)
+	public static void calculateTerrainNormals(SceneContext sceneContext, @Nullable ForkJoinPool pool)
 	{
-		sceneContext.vertexTerrainNormals = new HashMap<>();
+		TileBlock[] blocks = pool == null ? WHOLE_SCENE : SCENE_BLOCKS;
+		TerrainNormals normals = new TerrainNormals(sceneContext.vertexData);
+		// the height of each vertex on the tile grid, including its underwater depth
+		int[][][] heightField = new int[MAX_Z][EXTENDED_SCENE_SIZE + 1][EXTENDED_SCENE_SIZE + 1];
+
+		forEach(pool, blocks.length, i -> sampleHeightField(sceneContext, heightField, blocks[i]));
+		forEach(pool, blocks.length, i -> calculateTerrainNormals(sceneContext, normals, heightField, blocks[i]));
+		sceneContext.terrainNormals = normals;
+	}
 
-		for (Tile[][] plane : sceneContext.scene.getExtendedTiles()) {
-			for (Tile[] column : plane) {
-				for (Tile tile : column) {
+	/**
+	 * Fills in the heights of vertices owned by the block, offset by their underwater depth.
+	 */
+	private static void sampleHeightField(SceneContext sceneContext, int[][][] heightField, TileBlock block)
+	{
+		final TerrainVertexData vertexData = sceneContext.vertexData;
+		final int[][][] tileHeights = sceneContext.scene.getTileHeights();
+
+		for (int z = 0; z < MAX_Z; ++z) {
+			for (int x = block.minX; x <= block.maxX; ++x) {
+				for (int y = block.minY; y <= block.maxY; ++y) {
+					if (!block.ownsVertex(x, y))
+						continue;
+
+					int vertex = vertexData.indexOf(vertexKey(
+						z,
+						(x - SceneUploader.SCENE_OFFSET) * Perspective.LOCAL_TILE_SIZE,
+						(y - SceneUploader.SCENE_OFFSET) * Perspective.LOCAL_TILE_SIZE
+					));
+					heightField[z][x][y] = tileHeights[z][x][y] + vertexData.getUnderwaterDepth(vertex);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Iterates through all Tiles sharing vertices with the block, accumulating the normals of their faces
+	 * for each vertex owned by the block.
+	 */
+	private static void calculateTerrainNormals(
+		SceneContext sceneContext,
+		TerrainNormals normals,
+		int[][][] heightField,
+		TileBlock block
+	) {
+		TileVertexCursor vertices = new TileVertexCursor();
+		Tile[][][] tiles = sceneContext.scene.getExtendedTiles();
+		for (int z = 0; z < MAX_Z; ++z) {
+			for (int x = block.visitMinX; x < block.maxX; ++x) {
+				for (int y = block.visitMinY; y < block.maxY; ++y) {
+					Tile tile = tiles[z][x][y];
 					if (tile != null) {
 						boolean isBridge = false;
 
 						if (tile.getBridge() != null) {
-							calculateNormalsForTile(sceneContext, tile.getBridge(), false);
+							calculateNormalsForTile(sceneContext, normals, heightField, block, vertices, x, y, tile.getBridge(), false);
 							isBridge = true;
 						}
-						calculateNormalsForTile(sceneContext, tile, isBridge);
+						calculateNormalsForTile(sceneContext, normals, heightField, block, vertices, x, y, tile, isBridge);
 					}
 				}
 			}
@@ -717,93 +941,113 @@ public class ProceduralGenerator {
 	}
 
 	/**
-	 * Calculates vertex normals for a given Tile,
-	 * then stores resulting normal data in a HashMap.
+	 * Calculates the normals of a given Tile's faces,
+	 * then adds them to the normals of the vertices owned by the block.
 	 *
 	 * @param sceneContext that the tile is associated with
+	 * @param normals      to add the tile's normals to
+	 * @param heightField  heights of vertices on the tile grid, including underwater depths
+	 * @param block        to calculate normals for vertices of
+	 * @param vertices     cursor to read the tile's vertices with
+	 * @param tileExX      extended scene X coordinate of the tile
+	 * @param tileExY      extended scene Y coordinate of the tile
 	 * @param tile         to calculate normals for
 	 * @param isBridge     whether the tile is a bridge tile, i.e. tile above
 	 */
-	private void calculateNormalsForTile(SceneContext sceneContext, Tile tile, boolean isBridge)
-	{
-		// Make array of tile's tris with vertices
-		int[][][] faceVertices; // Array of tile's tri vertices
-		int[][] faceVertexKeys;
-
-		if (tile.getSceneTileModel() != null)
+	private static void calculateNormalsForTile(
+		SceneContext sceneContext,
+		TerrainNormals normals,
+		int[][][] heightField,
+		TileBlock block,
+		TileVertexCursor vertices,
+		int tileExX,
+		int tileExY,
+		Tile tile,
+		boolean isBridge
+	) {
+		SceneTileModel tileModel = tile.getSceneTileModel();
+		if (tileModel != null)
 		{
-			// Tile model
-			SceneTileModel tileModel = tile.getSceneTileModel();
-			faceVertices = new int[tileModel.getFaceX().length][VERTICES_PER_FACE][3];
-			faceVertexKeys = new int[tileModel.getFaceX().length][VERTICES_PER_FACE];
-
-			for (int face = 0; face < tileModel.getFaceX().length; face++)
+			// Vertices B and C are swapped, for winding consistent with the tile paint faces below
+			int faceCount = tileModel.getFaceX().length;
+			for (int face = 0; face < faceCount; face++)
 			{
-				int[][] vertices = faceVertices(tile, face);
-
-				faceVertices[face][0] = new int[]{vertices[0][0], vertices[0][1], vertices[0][2]};
-				faceVertices[face][2] = new int[]{vertices[1][0], vertices[1][1], vertices[1][2]};
-				faceVertices[face][1] = new int[]{vertices[2][0], vertices[2][1], vertices[2][2]};
-
-				int[] vertexKeys = faceVertexKeys(tile, face);
-				faceVertexKeys[face][0] = vertexKeys[0];
-				faceVertexKeys[face][2] = vertexKeys[1];
-				faceVertexKeys[face][1] = vertexKeys[2];
+				vertices.face(tile, face);
+				addFaceNormal(sceneContext.vertexData, normals, block, vertices, 0, 2, 1, isBridge);
 			}
-		}
-		else
-		{
-			faceVertices = new int[2][VERTICES_PER_FACE][3];
-			faceVertexKeys = new int[VERTICES_PER_FACE][3];
-			int[][] vertices = tileVertices(sceneContext.scene, tile);
-			faceVertices[0] = new int[][]{vertices[3], vertices[1], vertices[2]};
-			faceVertices[1] = new int[][]{vertices[0], vertices[2], vertices[1]};
-
-			int[] vertexKeys = tileVertexKeys(sceneContext.scene, tile);
-			faceVertexKeys[0] = new int[]{vertexKeys[3], vertexKeys[1], vertexKeys[2]};
-			faceVertexKeys[1] = new int[]{vertexKeys[0], vertexKeys[2], vertexKeys[1]};
+			return;
 		}
 
-		// Loop through tris to calculate and accumulate normals
-		for (int face = 0; face < faceVertices.length; face++)
-		{
-			// XYZ
-			int[] vertexHeights = new int[]{faceVertices[face][0][2], faceVertices[face][1][2], faceVertices[face][2][2]};
-			if (!isBridge)
-			{
-				vertexHeights[0] += sceneContext.vertexUnderwaterDepth.getOrDefault(faceVertexKeys[face][0], 0);
-				vertexHeights[1] += sceneContext.vertexUnderwaterDepth.getOrDefault(faceVertexKeys[face][1], 0);
-				vertexHeights[2] += sceneContext.vertexUnderwaterDepth.getOrDefault(faceVertexKeys[face][2], 0);
-			}
-
-			float[] vertexNormals = HDUtils.calculateSurfaceNormals(
-				new float[] {
-					faceVertices[face][0][0],
-					faceVertices[face][0][1],
-					vertexHeights[0]
-				},
-				new float[] {
-					faceVertices[face][1][0],
-					faceVertices[face][1][1],
-					vertexHeights[1]
-				},
-				new float[] {
-					faceVertices[face][2][0],
-					faceVertices[face][2][1],
-					vertexHeights[2]
-				}
-			);
+		// The tile is split into NE, SE, NW and SW, NW, SE triangles. With both lying flat on the grid,
+		// their normals follow directly from the height differences along the tile's edges.
+		int plane = tile.getRenderLevel();
+		int[][] heights = isBridge ? sceneContext.scene.getTileHeights()[plane] : heightField[plane];
+		int swHeight = heights[tileExX][tileExY];
+		int seHeight = heights[tileExX + 1][tileExY];
+		int nwHeight = heights[tileExX][tileExY + 1];
+		int neHeight = heights[tileExX + 1][tileExY + 1];
+
+		final float size = Perspective.LOCAL_TILE_SIZE;
+		float neX = size * (neHeight - nwHeight);
+		float neY = size * (neHeight - seHeight);
+		float swX = size * (seHeight - swHeight);
+		float swY = size * (nwHeight - swHeight);
+		float z = -size * size;
+
+		if (block.ownsVertex(tileExX, tileExY))
+			normals.addGridNormal(plane, tileExX, tileExY, swX, swY, z);
+		if (block.ownsVertex(tileExX + 1, tileExY))
+			normals.addGridNormal(plane, tileExX + 1, tileExY, neX + swX, neY + swY, z * 2);
+		if (block.ownsVertex(tileExX, tileExY + 1))
+			normals.addGridNormal(plane, tileExX, tileExY + 1, neX + swX, neY + swY, z * 2);
+		if (block.ownsVertex(tileExX + 1, tileExY + 1))
+			normals.addGridNormal(plane, tileExX + 1, tileExY + 1, neX, neY, z);
+	}
 
-			for (int vertex = 0; vertex < VERTICES_PER_FACE; vertex++)
-			{
-				int vertexKey = faceVertexKeys[face][vertex];
-				// accumulate normals to hashmap
-				sceneContext.vertexTerrainNormals.merge(vertexKey, vertexNormals, (a, b) -> HDUtils.add(a, a, b));
-			}
+	/**
+	 * Calculates the normal of the triangle formed by three of the cursor's vertices, then adds it
+	 * to each of the vertices owned by the block.
+	 */
+	private static void addFaceNormal(
+		TerrainVertexData vertexData,
+		TerrainNormals normals,
+		TileBlock block,
+		TileVertexCursor vertices,
+		int a,
+		int b,
+		int c,
+		boolean isBridge
+	) {
+		int heightA = vertices.height(a);
+		int heightB = vertices.height(b);
+		int heightC = vertices.height(c);
+		if (!isBridge)
+		{
+			heightA += vertexData.getUnderwaterDepth(vertexData.indexOf(vertices.key(a)));
+			heightB += vertexData.getUnderwaterDepth(vertexData.indexOf(vertices.key(b)));
+			heightC += vertexData.getUnderwaterDepth(vertexData.indexOf(vertices.key(c)));
 		}
+
+		// (B - A) x (C - A)
+		float abX = (float) vertices.x(b) - vertices.x(a);
+		float abY = (float) vertices.y(b) - vertices.y(a);
+		float abZ = (float) heightB - heightA;
+		float acX = (float) vertices.x(c) - vertices.x(a);
+		float acY = (float) vertices.y(c) - vertices.y(a);
+		float acZ = (float) heightC - heightA;
+		float normalX = abY * acZ - abZ * acY;
+		float normalY = abZ * acX - abX * acZ;
+		float normalZ = abX * acY - abY * acX;
+
+		if (block.ownsVertex(vertices.key(a)))
+			normals.addNormal(vertices.key(a), normalX, normalY, normalZ);
+		if (block.ownsVertex(vertices.key(b)))
+			normals.addNormal(vertices.key(b), normalX, normalY, normalZ);
+		if (block.ownsVertex(vertices.key(c)))
+			normals.addNormal(vertices.key(c), normalX, normalY, normalZ);
 	}
 
-	boolean useDefaultColor(Scene scene, Tile tile)
+	boolean useDefaultColor(SceneContext sceneContext, Tile tile)
 	{
 		if ((tile.getSceneTilePaint() != null && tile.getSceneTilePaint().getTexture() >= 0) ||
 			(tile.getSceneTileModel() != null && tile.getSceneTileModel().getTriangleTextureId() != null))
@@ -812,12 +1056,12 @@ public class ProceduralGenerator {
 			return true;
 		}
 
-		Overlay overlay = Overlay.getOverlay(scene, tile, plugin);
+		Overlay overlay = sceneContext.terrainMaterials.getOverlay(tile);
 		if (overlay != Overlay.NONE)
 		{
 			return !overlay.blended;
 		}
-		Underlay underlay = Underlay.getUnderlay(scene, tile, plugin);
+		Underlay underlay = sceneContext.terrainMaterials.getUnderlay(tile);
 		if (underlay != Underlay.NONE)
 		{
 			return !underlay.blended;
@@ -833,49 +1077,40 @@ public class ProceduralGenerator {
 	/**
 	 * Returns the WaterType of the provided SceneTilePaint Tile.
 	 *
-	 * @param scene that the tile is from
-	 * @param tile  to determine the WaterType of
+	 * @param sceneContext that the tile is associated with
+	 * @param tile         to determine the WaterType of
 	 * @return the WaterType of the specified Tile
 	 */
-	WaterType tileWaterType(Scene scene, Tile tile, SceneTilePaint sceneTilePaint)
+	WaterType tileWaterType(SceneContext sceneContext, Tile tile, SceneTilePaint sceneTilePaint)
 	{
 		if (sceneTilePaint == null)
 			return WaterType.NONE;
 
-		WaterType waterType;
-		Overlay overlay = Overlay.getOverlay(scene, tile, plugin);
-		if (overlay != Overlay.NONE) {
-			waterType = overlay.waterType;
-		} else {
-			Underlay underlay = Underlay.getUnderlay(scene, tile, plugin);
-			waterType = underlay.waterType;
-		}
-
-		return getSeasonalWaterType(waterType);
+		return sceneContext.terrainMaterials.getWaterType(tile);
 	}
 
 	/**
 	 * Returns the WaterType of the provided SceneTileModel Tile's specified face.
 	 *
-	 * @param scene that the tile is from
-	 * @param tile  that the tile model is for
-	 * @param face  the index of the specified face
+	 * @param sceneContext that the tile is associated with
+	 * @param tile         that the tile model is for
+	 * @param face         the index of the specified face
 	 * @return the WaterType of the specified face on the tile model
 	 */
-	WaterType faceWaterType(Scene scene, Tile tile, int face, SceneTileModel sceneTileModel)
+	WaterType faceWaterType(SceneContext sceneContext, Tile tile, int face, SceneTileModel sceneTileModel)
 	{
 		WaterType waterType = WaterType.NONE;
 
 		if (sceneTileModel != null)
 		{
-			Overlay overlay = Overlay.getOverlay(scene, tile, plugin);
+			Overlay overlay = sceneContext.terrainMaterials.getOverlay(tile);
 			if (isOverlayFace(tile, face) && overlay != Overlay.NONE)
 			{
 				waterType = overlay.waterType;
 			}
 			else
 			{
-				Underlay underlay = Underlay.getUnderlay(scene, tile, plugin);
+				Underlay underlay = sceneContext.terrainMaterials.getUnderlay(tile);
 				waterType = underlay.waterType;
 			}
 		}
@@ -906,121 +1141,25 @@ public class ProceduralGenerator {
 		return getTileOverlayTris(tileShapeIndex)[face];
 	}
 
-	private static int[][] tileVertices(Scene scene, Tile tile) {
-		int tileX = tile.getSceneLocation().getX();
-		int tileY = tile.getSceneLocation().getY();
-		int tileExX = tileX + SceneUploader.SCENE_OFFSET;
-		int tileExY = tileY + SceneUploader.SCENE_OFFSET;
-		int tileZ = tile.getRenderLevel();
-		int[][][] tileHeights = scene.getTileHeights();
-
-		int[] swVertex = new int[] {
-			tileX * Perspective.LOCAL_TILE_SIZE,
-			tileY * Perspective.LOCAL_TILE_SIZE,
-			tileHeights[tileZ][tileExX][tileExY]
-		};
-		int[] seVertex = new int[] {
-			(tileX + 1) * Perspective.LOCAL_TILE_SIZE,
-			tileY * Perspective.LOCAL_TILE_SIZE,
-			tileHeights[tileZ][tileExX + 1][tileExY]
-		};
-		int[] nwVertex = new int[] {
-			tileX * Perspective.LOCAL_TILE_SIZE,
-			(tileY + 1) * Perspective.LOCAL_TILE_SIZE,
-			tileHeights[tileZ][tileExX][tileExY + 1]
-		};
-		int[] neVertex = new int[] {
-			(tileX + 1) * Perspective.LOCAL_TILE_SIZE,
-			(tileY + 1) * Perspective.LOCAL_TILE_SIZE,
-			tileHeights[tileZ][tileExX + 1][tileExY + 1]
-		};
-
-		return new int[][] { swVertex, seVertex, nwVertex, neVertex };
-	}
-
-	private static int[][] faceVertices(Tile tile, int face)
-	{
-		SceneTileModel sceneTileModel = tile.getSceneTileModel();
-
-		final int[] faceA = sceneTileModel.getFaceX();
-		final int[] faceB = sceneTileModel.getFaceY();
-		final int[] faceC = sceneTileModel.getFaceZ();
-
-		final int[] vertexX = sceneTileModel.getVertexX();
-		final int[] vertexY = sceneTileModel.getVertexY();
-		final int[] vertexZ = sceneTileModel.getVertexZ();
-
-		int vertexFacesA = faceA[face];
-		int vertexFacesB = faceB[face];
-		int vertexFacesC = faceC[face];
-
-		// scene X
-		int sceneVertexXA = vertexX[vertexFacesA];
-		int sceneVertexXB = vertexX[vertexFacesB];
-		int sceneVertexXC = vertexX[vertexFacesC];
-		// scene Y
-		int sceneVertexZA = vertexZ[vertexFacesA];
-		int sceneVertexZB = vertexZ[vertexFacesB];
-		int sceneVertexZC = vertexZ[vertexFacesC];
-		// scene Z - heights
-		int sceneVertexYA = vertexY[vertexFacesA];
-		int sceneVertexYB = vertexY[vertexFacesB];
-		int sceneVertexYC = vertexY[vertexFacesC];
-
-		int[] vertexA = new int[] { sceneVertexXA, sceneVertexZA, sceneVertexYA };
-		int[] vertexB = new int[] { sceneVertexXB, sceneVertexZB, sceneVertexYB };
-		int[] vertexC = new int[] { sceneVertexXC, sceneVertexZC, sceneVertexYC };
-
-		return new int[][] { vertexA, vertexB, vertexC };
-	}
-
-	public static int[][] faceLocalVertices(Tile tile, int face) {
-		if (tile.getSceneTileModel() == null)
-			return new int[0][0];
-
-		int x = tile.getSceneLocation().getX();
-		int y = tile.getSceneLocation().getY();
-		int baseX = x * Perspective.LOCAL_TILE_SIZE;
-		int baseY = y * Perspective.LOCAL_TILE_SIZE;
-
-		int[][] vertices = faceVertices(tile, face);
-		for (int[] vertex : vertices) {
-			vertex[0] -= baseX;
-			vertex[1] -= baseY;
-		}
-		return vertices;
-	}
-
 	/**
-	 * Gets the vertex keys of a Tile Paint tile for use in retrieving data from hashmaps.
+	 * Packs the plane and local coordinates of a vertex into a key, which is unique within a scene and never zero.
+	 * Height is not part of the key, so all tiles on a plane sharing a vertex position share its data.
 	 *
-	 * @param scene that the tile is from
-	 * @param tile  to get the vertex keys of
-	 * @return Vertex keys in following order: SW, SE, NW, NE
+	 * @param plane  the render level of the vertex' tile
+	 * @param localX local X coordinate of the vertex
+	 * @param localY local Y coordinate of the vertex
+	 * @return a key for use with {@link TerrainVertexData}
 	 */
-	public static int[] tileVertexKeys(Scene scene, Tile tile)
-	{
-		int[][] tileVertices = tileVertices(scene, tile);
-		int[] vertexHashes = new int[tileVertices.length];
-
-		for (int vertex = 0; vertex < tileVertices.length; ++vertex)
-			vertexHashes[vertex] = HDUtils.vertexHash(tileVertices[vertex]);
-
-		return vertexHashes;
-	}
-
-	public static int[] faceVertexKeys(Tile tile, int face)
+	public static int vertexKey(int plane, int localX, int localY)
 	{
-		int[][] faceVertices = faceVertices(tile, face);
-		int[] vertexHashes = new int[faceVertices.length];
-
-		for (int vertex = 0; vertex < faceVertices.length; ++vertex)
-			vertexHashes[vertex] = HDUtils.vertexHash(faceVertices[vertex]);
-
-		return vertexHashes;
+		localX += VERTEX_KEY_OFFSET;
+		localY += VERTEX_KEY_OFFSET;
+		assert plane >= 0 && plane < MAX_Z : plane;
+		assert localX > 0 && localX < 1 << 15 : localX;
+		assert localY > 0 && localY < 1 << 15 : localY;
+		return plane << 30 | localX << 15 | localY;
 	}
 
-	private static final int[][] tzHaarRecolored = new int[4][3];
 	// used when calculating the gradient to apply to the walls of TzHaar
 	// to emulate the style from 2008 HD rework
 	private static final int[] gradientBaseColor = new int[]{3, 4, 26};
@@ -1028,7 +1167,12 @@ public class ProceduralGenerator {
 	private static final int gradientBottom = 200;
 	private static final int gradientTop = -200;
 
-	public static int[][] recolorTzHaar(
+	/**
+	 * Writes the recolored HSL components of each of the face's three vertices to {@code out}, followed by the packed
+	 * alpha and priority.
+	 */
+	public static void recolorTzHaar(
+		int[] out,
 		ModelOverride modelOverride,
 		Model model,
 		int face,
@@ -1097,17 +1241,150 @@ public class ProceduralGenerator {
 			color3L += 1;
 		}
 
-		tzHaarRecolored[0][0] = color1H;
-		tzHaarRecolored[0][1] = color1S;
-		tzHaarRecolored[0][2] = color1L;
-		tzHaarRecolored[1][0] = color2H;
-		tzHaarRecolored[1][1] = color2S;
-		tzHaarRecolored[1][2] = color2L;
-		tzHaarRecolored[2][0] = color3H;
-		tzHaarRecolored[2][1] = color3S;
-		tzHaarRecolored[2][2] = color3L;
-		tzHaarRecolored[3][0] = packedAlphaPriority;
-
-		return tzHaarRecolored;
+		out[0] = color1H;
+		out[1] = color1S;
+		out[2] = color1L;
+		out[3] = color2H;
+		out[4] = color2S;
+		out[5] = color2L;
+		out[6] = color3H;
+		out[7] = color3S;
+		out[8] = color3L;
+		out[9] = packedAlphaPriority;
+	}
+
+	private static TileBlock[] splitScene()
+	{
+		int blocksPerSide = (EXTENDED_SCENE_SIZE + TILE_BLOCK_SIZE - 1) / TILE_BLOCK_SIZE;
+		TileBlock[] blocks = new TileBlock[blocksPerSide * blocksPerSide];
+		for (int i = 0; i < blocksPerSide; i++) {
+			for (int j = 0; j < blocksPerSide; j++) {
+				int x = i * TILE_BLOCK_SIZE;
+				int y = j * TILE_BLOCK_SIZE;
+				blocks[i * blocksPerSide + j] = new TileBlock(
+					x,
+					y,
+					Math.min(x + TILE_BLOCK_SIZE, EXTENDED_SCENE_SIZE),
+					Math.min(y + TILE_BLOCK_SIZE, EXTENDED_SCENE_SIZE)
+				);
+			}
+		}
+		return blocks;
+	}
+
+	/**
+	 * Runs the action for each index, in parallel if a pool is specified. Returns once all of them are done.
+	 */
+	private static void forEach(@Nullable ForkJoinPool pool, int count, IntConsumer action)
+	{
+		if (pool == null) {
+			for (int i = 0; i < count; i++)
+				action.accept(i);
+		} else {
+			pool.invoke(new ForEach(action, 0, count));
+		}
+	}
+
+	/**
+	 * A block of tiles on all planes, in extended scene coordinates. Each vertex on the tile grid is owned by
+	 * a single block, which is the only one writing data for it. Vertices on the south and west edges of a block
+	 * are shared with tiles outside of it, so blocks also visit the row and column of tiles before them.
+	 */
+	private static class TileBlock
+	{
+		final int minX;
+		final int minY;
+		final int maxX;
+		final int maxY;
+		final int visitMinX;
+		final int visitMinY;
+
+		TileBlock(int minX, int minY, int maxX, int maxY)
+		{
+			this.minX = minX;
+			this.minY = minY;
+			this.maxX = maxX;
+			this.maxY = maxY;
+			visitMinX = Math.max(0, minX - 1);
+			visitMinY = Math.max(0, minY - 1);
+		}
+
+		/**
+		 * @param vertexExX extended scene X coordinate of a vertex on the tile grid
+		 * @param vertexExY extended scene Y coordinate of a vertex on the tile grid
+		 * @return whether the vertex is owned by this block
+		 */
+		boolean ownsVertex(int vertexExX, int vertexExY)
+		{
+			// vertices along the north and east edges of the scene belong to the last blocks
+			return
+				vertexExX >= minX && (vertexExX < maxX || maxX == EXTENDED_SCENE_SIZE) &&
+				vertexExY >= minY && (vertexExY < maxY || maxY == EXTENDED_SCENE_SIZE);
+		}
+
+		/**
+		 * @param vertexKey from {@link ProceduralGenerator#vertexKey}
+		 * @return whether the vertex is owned by this block
+		 */
+		boolean ownsVertex(int vertexKey)
+		{
+			// undo the offset applied in vertexKey, then round down to the tile the vertex is in
+			int x = ((vertexKey >> 15 & 0x7FFF) - 1) / Perspective.LOCAL_TILE_SIZE;
+			int y = ((vertexKey & 0x7FFF) - 1) / Perspective.LOCAL_TILE_SIZE;
+			return ownsVertex(x, y);
+		}
+	}
+
+	/**
+	 * Arrays reused for the vertices of each tile in a block, which grow to fit the tile with the most faces.
+	 */
+	private static class TileScratch
+	{
+		int[] vertexHashes = new int[0];
+		int[] vertexColors = new int[0];
+		Overlay[] vertexOverlays = new Overlay[0];
+		Underlay[] vertexUnderlays = new Underlay[0];
+		boolean[] vertexDefaultColor = new boolean[0];
+		final float[] vertexNormal = new float[3];
+		final int[] colorHSL = new int[3];
+
+		/**
+		 * Makes room for the specified number of vertices, and clears the hashes and default color flags, since
+		 * vertices of skipped faces are left unset. The rest is only read for vertices with a hash.
+		 */
+		void reset(int vertexCount)
+		{
+			if (vertexHashes.length < vertexCount) {
+				vertexHashes = new int[vertexCount];
+				vertexColors = new int[vertexCount];
+				vertexOverlays = new Overlay[vertexCount];
+				vertexUnderlays = new Underlay[vertexCount];
+				vertexDefaultColor = new boolean[vertexCount];
+				return;
+			}
+
+			Arrays.fill(vertexHashes, 0, vertexCount, 0);
+			Arrays.fill(vertexDefaultColor, 0, vertexCount, false);
+		}
+	}
+
+	@RequiredArgsConstructor
+	private static class ForEach extends RecursiveAction
+	{
+		private final IntConsumer action;
+		private final int start;
+		private final int end;
+
+		@Override
+		protected void compute()
+		{
+			if (end - start > 1) {
+				int mid = (start + end) >>> 1;
+				invokeAll(new ForEach(action, start, mid), new ForEach(action, mid, end));
+				return;
+			}
+
+			action.accept(start);
+		}
 	}
 }
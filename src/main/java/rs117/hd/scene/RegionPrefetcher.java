@@ -0,0 +1,233 @@
+package rs117.hd.scene;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import lombok.extern.slf4j.Slf4j;
+import net.runelite.api.*;
+import net.runelite.api.coords.*;
+import rs117.hd.data.environments.Environment;
+import rs117.hd.scene.lights.SceneLight;
+import rs117.hd.utils.AABB;
+
+import static net.runelite.api.Constants.*;
+
+/**
+ * Builds the parts of a scene which only depend on the map regions it covers, ahead of the scene being loaded.
+ * <p>
+ * The client loads a new scene centered on the player's chunk once the player comes within 16 tiles of the edge of
+ * the current scene. From the player's heading, the regions of the next scene are predicted each game tick, and the
+ * environments and world lights of any regions which aren't cached yet are prepared on a low priority thread. Scene
+ * loads look up regions through the same cache, building any regions which weren't prefetched on demand.
+ */
+@Slf4j
+@Singleton
+public class RegionPrefetcher {
+	// the client loads a new scene when the player is this close to the edge of the current scene
+	private static final int SCENE_EDGE_DISTANCE = 16;
+	// the new scene is based this many chunks south-west of the player's chunk
+	private static final int SCENE_CENTER_CHUNKS = 6;
+	// how far ahead to predict the player's position, which is about 6 seconds
+	private static final int LOOKAHEAD_TICKS = 10;
+	private static final int MAX_CACHED_REGIONS = 128;
+
+	@Inject
+	private Client client;
+
+	@Inject
+	private LightManager lightManager;
+
+	/**
+	 * Environments whose areas overlap the region, and world lights within it.
+	 */
+	static class Region {
+		final Environment[] environments;
+		final SceneLight[] worldLights;
+
+		private Region(Environment[] environments, SceneLight[] worldLights) {
+			this.environments = environments;
+			this.worldLights = worldLights;
+		}
+	}
+
+	// ordered from least to most recently used
+	private final LinkedHashMap<Integer, Region> regions = new LinkedHashMap<>(64, .75f, true);
+	// regions queued or being built on the prefetcher thread
+	private final HashSet<Integer> pendingRegions = new HashSet<>();
+	// incremented whenever the cache is cleared, so regions built from outdated lights are never cached
+	private int generation;
+
+	private ExecutorService executor;
+
+	private int lastWorldX = -1;
+	private int lastWorldY = -1;
+	private int hits;
+	private int misses;
+
+	public void startUp() {
+		executor = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "117HD region prefetcher");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		});
+	}
+
+	public void shutDown() {
+		if (executor != null)
+			executor.shutdownNow();
+		executor = null;
+		lastWorldX = lastWorldY = -1;
+		synchronized (this) {
+			pendingRegions.clear();
+		}
+		clear();
+	}
+
+	/**
+	 * Predicts the next scene from the player's movement since the last game tick, and starts building the regions it
+	 * covers in the background. Must be called on the client thread.
+	 */
+	public void update() {
+		Player player = client.getLocalPlayer();
+		if (executor == null || client.getGameState() != GameState.LOGGED_IN || client.isInInstancedRegion() || player == null) {
+			lastWorldX = lastWorldY = -1;
+			return;
+		}
+
+		WorldPoint worldPoint = player.getWorldLocation();
+		int dx = worldPoint.getX() - lastWorldX;
+		int dy = worldPoint.getY() - lastWorldY;
+		boolean hasHeading = lastWorldX != -1 && (dx != 0 || dy != 0) && Math.abs(dx) <= 2 && Math.abs(dy) <= 2;
+		lastWorldX = worldPoint.getX();
+		lastWorldY = worldPoint.getY();
+		if (!hasHeading)
+			return;
+
+		LocalPoint localPoint = player.getLocalLocation();
+		int sceneX = localPoint.getSceneX() + dx * LOOKAHEAD_TICKS;
+		int sceneY = localPoint.getSceneY() + dy * LOOKAHEAD_TICKS;
+		if (sceneX >= SCENE_EDGE_DISTANCE && sceneX < SCENE_SIZE - SCENE_EDGE_DISTANCE &&
+			sceneY >= SCENE_EDGE_DISTANCE && sceneY < SCENE_SIZE - SCENE_EDGE_DISTANCE)
+			return;
+
+		// regions are listed the same way as HDUtils.getSceneRegionIds
+		int baseX = ((worldPoint.getX() + dx * LOOKAHEAD_TICKS >> 3) - SCENE_CENTER_CHUNKS) << 3;
+		int baseY = ((worldPoint.getY() + dy * LOOKAHEAD_TICKS >> 3) - SCENE_CENTER_CHUNKS) << 3;
+		ArrayList<Integer> missing = new ArrayList<>();
+		synchronized (this) {
+			for (int x = 0; x < SCENE_SIZE; x += REGION_SIZE) {
+				for (int y = 0; y < SCENE_SIZE; y += REGION_SIZE) {
+					int regionId = (baseX + x >> 6) << 8 | baseY + y >> 6;
+					if (!regions.containsKey(regionId) && pendingRegions.add(regionId))
+						missing.add(regionId);
+				}
+			}
+		}
+
+		for (int regionId : missing)
+			executor.execute(() -> prefetch(regionId));
+	}
+
+	private void prefetch(int regionId) {
+		try {
+			int buildGeneration;
+			synchronized (this) {
+				if (regions.containsKey(regionId))
+					return;
+				buildGeneration = generation;
+			}
+
+			Region region = build(regionId);
+			synchronized (this) {
+				put(regionId, region, buildGeneration);
+			}
+		} finally {
+			synchronized (this) {
+				pendingRegions.remove(regionId);
+			}
+		}
+	}
+
+	/**
+	 * @return the environments and world lights of the region, which are built on demand unless already cached
+	 */
+	Region getRegion(int regionId) {
+		int buildGeneration;
+		synchronized (this) {
+			Region region = regions.get(regionId);
+			if (region != null) {
+				hits++;
+				return region;
+			}
+			misses++;
+			buildGeneration = generation;
+		}
+
+		// build without holding the lock, so the client thread is never stalled by scene loads
+		Region region = build(regionId);
+		synchronized (this) {
+			put(regionId, region, buildGeneration);
+		}
+		return region;
+	}
+
+	/**
+	 * Logs how many region lookups were answered from the cache since the last time this was called.
+	 */
+	public synchronized void logHitRate() {
+		if (hits + misses > 0)
+			log.debug("Region cache: {} of {} regions were cached, {} regions cached in total", hits, hits + misses, regions.size());
+		hits = misses = 0;
+	}
+
+	/**
+	 * Discards all cached regions, which must be done whenever environments or world lights change.
+	 */
+	public synchronized void clear() {
+		regions.clear();
+		generation++;
+	}
+
+	private void put(int regionId, Region region, int buildGeneration) {
+		// the region may have been built from lights which were replaced while it was being built
+		if (buildGeneration != generation)
+			return;
+
+		regions.put(regionId, region);
+		Iterator<Map.Entry<Integer, Region>> iterator = regions.entrySet().iterator();
+		while (regions.size() > MAX_CACHED_REGIONS) {
+			iterator.next();
+			iterator.remove();
+		}
+	}
+
+	private Region build(int regionId) {
+		AABB regionAabb = new AABB(regionId);
+		ArrayList<Environment> environments = new ArrayList<>();
+		outer:
+		for (Environment environment : Environment.values()) {
+			for (AABB aabb : environment.getArea().getAabbs()) {
+				if (regionAabb.intersects(aabb)) {
+					environments.add(environment);
+					continue outer;
+				}
+			}
+		}
+
+		ArrayList<SceneLight> worldLights = new ArrayList<>();
+		for (SceneLight light : lightManager.WORLD_LIGHTS) {
+			assert light.worldPoint != null;
+			if (light.worldPoint.getRegionID() == regionId)
+				worldLights.add(light);
+		}
+
+		return new Region(environments.toArray(new Environment[0]), worldLights.toArray(new SceneLight[0]));
+	}
+}
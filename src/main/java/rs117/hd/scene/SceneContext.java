@@ -2,16 +2,13 @@ package rs117.hd.scene;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Objects;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 import net.runelite.api.*;
 import net.runelite.api.coords.*;
 import rs117.hd.data.environments.Environment;
-import rs117.hd.data.materials.Material;
 import rs117.hd.scene.lights.SceneLight;
 import rs117.hd.utils.HDUtils;
 import rs117.hd.utils.buffer.GpuFloatBuffer;
@@ -42,58 +39,66 @@ public class SceneContext {
 	public int uniqueModels;
 
 	// terrain data
-	public Map<Integer, Integer> vertexTerrainColor;
-	public Map<Integer, Material> vertexTerrainTexture;
-	public Map<Integer, float[]> vertexTerrainNormals;
-	// used for overriding potentially low quality vertex colors
-	public HashMap<Integer, Boolean> highPriorityColor;
+	public TerrainVertexData vertexData;
+	public TerrainNormals terrainNormals;
+	public TerrainMaterials terrainMaterials;
 
 	// water-related data
 	public boolean[][][] tileIsWater;
-	public Map<Integer, Boolean> vertexIsWater;
-	public Map<Integer, Boolean> vertexIsLand;
-	public Map<Integer, Boolean> vertexIsOverlay;
-	public Map<Integer, Boolean> vertexIsUnderlay;
 	public boolean[][][] skipTile;
-	public Map<Integer, Integer> vertexUnderwaterDepth;
 	public int[][][] underwaterDepthLevels;
 
+	// the closest visible lights, selected each frame, from nearest to farthest
+	public SceneLight[] visibleLights = new SceneLight[0];
 	public int visibleLightCount = 0;
 	public final ArrayList<SceneLight> lights = new ArrayList<>();
+	// hashes of objects with a light in the scene, since each object may only have one
+	public final HashSet<Integer> objectLightHashes = new HashSet<>();
 	public final HashSet<Projectile> projectiles = new HashSet<>();
 
 	public final ArrayList<Environment> environments = new ArrayList<>();
 
-	// model pusher arrays, to avoid simultaneous usage from different threads
-	public final int[] modelFaceVertices = new int[12];
-	public final float[] modelFaceNormals = new float[12];
+	// model pusher results, to avoid simultaneous usage from different threads
 	public final int[] modelPusherResults = new int[2];
 
+	// reused while uploading tiles, which happens on a single thread
+	public final TileVertexCursor tileVertexCursor = new TileVertexCursor();
+
 	public SceneContext(Scene scene, int expandedMapLoadingChunks, boolean reuseBuffers, @Nullable SceneContext previous) {
 		this.scene = scene;
 		this.regionIds = HDUtils.getSceneRegionIds(scene);
 		this.expandedMapLoadingChunks = expandedMapLoadingChunks;
 
-		if (previous == null) {
+		if (previous != null) {
+			// The previous scene context may be destroyed on the client thread while this one is being loaded
+			// noinspection SynchronizationOnLocalVariableOrMethodParameter
+			synchronized (previous) {
+				if (previous.staticUnorderedModelBuffer == null) {
+					// Its buffers have already been destroyed or reused
+				} else if (reuseBuffers) {
+					// Avoid reallocating buffers whenever possible
+					staticUnorderedModelBuffer = previous.staticUnorderedModelBuffer.clear();
+					stagingBufferVertices = previous.stagingBufferVertices.clear();
+					stagingBufferUvs = previous.stagingBufferUvs.clear();
+					stagingBufferNormals = previous.stagingBufferNormals.clear();
+					previous.staticUnorderedModelBuffer = null;
+					previous.stagingBufferVertices = null;
+					previous.stagingBufferUvs = null;
+					previous.stagingBufferNormals = null;
+				} else {
+					staticUnorderedModelBuffer = new GpuIntBuffer(previous.staticUnorderedModelBuffer.capacity());
+					stagingBufferVertices = new GpuIntBuffer(previous.stagingBufferVertices.capacity());
+					stagingBufferUvs = new GpuFloatBuffer(previous.stagingBufferUvs.capacity());
+					stagingBufferNormals = new GpuFloatBuffer(previous.stagingBufferNormals.capacity());
+				}
+			}
+		}
+
+		if (staticUnorderedModelBuffer == null) {
 			staticUnorderedModelBuffer = new GpuIntBuffer();
 			stagingBufferVertices = new GpuIntBuffer();
 			stagingBufferUvs = new GpuFloatBuffer();
 			stagingBufferNormals = new GpuFloatBuffer();
-		} else if (reuseBuffers) {
-			// Avoid reallocating buffers whenever possible
-			staticUnorderedModelBuffer = previous.staticUnorderedModelBuffer.clear();
-			stagingBufferVertices = previous.stagingBufferVertices.clear();
-			stagingBufferUvs = previous.stagingBufferUvs.clear();
-			stagingBufferNormals = previous.stagingBufferNormals.clear();
-			previous.staticUnorderedModelBuffer = null;
-			previous.stagingBufferVertices = null;
-			previous.stagingBufferUvs = null;
-			previous.stagingBufferNormals = null;
-		} else {
-			staticUnorderedModelBuffer = new GpuIntBuffer(previous.staticUnorderedModelBuffer.capacity());
-			stagingBufferVertices = new GpuIntBuffer(previous.stagingBufferVertices.capacity());
-			stagingBufferUvs = new GpuFloatBuffer(previous.stagingBufferUvs.capacity());
-			stagingBufferNormals = new GpuFloatBuffer(previous.stagingBufferNormals.capacity());
 		}
 	}
 
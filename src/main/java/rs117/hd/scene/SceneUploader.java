@@ -26,9 +26,13 @@
 package rs117.hd.scene;
 
 import com.google.common.base.Stopwatch;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import net.runelite.api.*;
 import rs117.hd.HdPlugin;
@@ -59,6 +63,8 @@ class SceneUploader {
 	public static final int SCENE_OFFSET = (Constants.EXTENDED_SCENE_SIZE - Constants.SCENE_SIZE) / 2; // offset for sxy -> msxy
 
 	private static final float[] UP_NORMAL = { 0, -1, 0 };
+	// Reserved models are split into batches spanning at least this many vertices, before being pushed in parallel
+	private static final int MIN_VERTICES_PER_BATCH = 32768;
 
 	@Inject
 	private Client client;
@@ -75,17 +81,35 @@ class SceneUploader {
 	@Inject
 	private ModelPusher modelPusher;
 
-	public void upload(SceneContext sceneContext) {
+	@Inject
+	private TerrainCache terrainCache;
+
+	/**
+	 * Uploads the scene in two passes. The first pass walks every tile in order, uploading terrain and reserving space
+	 * for each unique model, after which the second pass pushes all models into their reserved space in parallel.
+	 * The result is identical to uploading everything in a single pass. Terrain is replayed from the
+	 * {@link TerrainCache} for chunks which haven't changed since they were last uploaded.
+	 *
+	 * @param pool to push models on, or null to push them on the calling thread in a single pass
+	 */
+	public void upload(SceneContext sceneContext, @Nullable ForkJoinPool pool) {
 		Stopwatch stopwatch = Stopwatch.createStarted();
 
+		TerrainCache.Chunk[] terrainChunks = terrainCache.begin(sceneContext);
+		ArrayList<ReservedModel> reservedModels = pool == null ? null : new ArrayList<>();
 		for (int z = 0; z < Constants.MAX_Z; ++z) {
 			for (int x = 0; x < Constants.EXTENDED_SCENE_SIZE; ++x) {
 				for (int y = 0; y < Constants.EXTENDED_SCENE_SIZE; ++y) {
 					Tile tile = sceneContext.scene.getExtendedTiles()[z][x][y];
-					upload(sceneContext, tile, x, y, z);
+					TerrainCache.Chunk terrainChunk = terrainChunks == null ? null : terrainChunks[TerrainCache.chunkIndex(x, y)];
+					upload(sceneContext, tile, x, y, z, terrainChunk, reservedModels);
 				}
 			}
 		}
+		terrainCache.finish(terrainChunks);
+
+		if (reservedModels != null && !reservedModels.isEmpty())
+			pool.invoke(new PushReservedModels(sceneContext, reservedModels, 0, reservedModels.size()));
 
 		stopwatch.stop();
 		log.debug(
@@ -182,7 +206,15 @@ class SceneUploader {
 		}
 	}
 
-	private void uploadModel(SceneContext sceneContext, Tile tile, long hash, Model model, int orientation, ObjectType objectType) {
+	private void uploadModel(
+		SceneContext sceneContext,
+		Tile tile,
+		long hash,
+		Model model,
+		int orientation,
+		ObjectType objectType,
+		@Nullable ArrayList<ReservedModel> reservedModels
+	) {
 		// deduplicate hillskewed models
 		if (model.getUnskewedModel() != null)
 			model = model.getUnskewedModel();
@@ -192,17 +224,43 @@ class SceneUploader {
 
 		// pack a bit into bufferoffset that we can use later to hide
 		// some low-importance objects based on Level of Detail setting
-		model.setBufferOffset(sceneContext.getVertexOffset());
-		model.setUvBufferOffset(sceneContext.getUvOffset());
-		modelPusher.pushModel(sceneContext, tile, hash, model, objectType, orientation, false);
-		if (sceneContext.modelPusherResults[1] == 0)
-			model.setUvBufferOffset(-1);
+		int vertexOffset = sceneContext.getVertexOffset();
+		int uvOffset = sceneContext.getUvOffset();
+		model.setBufferOffset(vertexOffset);
+		model.setUvBufferOffset(uvOffset);
+		if (reservedModels == null) {
+			modelPusher.pushModel(sceneContext, tile, hash, model, objectType, orientation, false);
+			if (sceneContext.modelPusherResults[1] == 0)
+				model.setUvBufferOffset(-1);
+		} else {
+			// Reserve exactly as much space as pushing the model would take, and push it later
+			int bufferSize = ModelPusher.getPushedFaceCount(model) * ModelPusher.DATUM_PER_FACE;
+			sceneContext.stagingBufferVertices.ensureCapacity(bufferSize);
+			sceneContext.stagingBufferVertices.skip(bufferSize);
+			sceneContext.stagingBufferNormals.ensureCapacity(bufferSize);
+			sceneContext.stagingBufferNormals.skip(bufferSize);
+			if (modelPusher.pushesUvs(hash, model)) {
+				sceneContext.stagingBufferUvs.ensureCapacity(bufferSize);
+				sceneContext.stagingBufferUvs.skip(bufferSize);
+			} else {
+				model.setUvBufferOffset(-1);
+			}
+			reservedModels.add(new ReservedModel(tile, hash, model, orientation, objectType, vertexOffset, uvOffset));
+		}
 
 		model.setSceneId(sceneContext.id);
 		++sceneContext.uniqueModels;
 	}
 
-	private void upload(SceneContext sceneContext, @Nullable Tile tile, int tileExX, int tileExY, int tileZ) {
+	private void upload(
+		SceneContext sceneContext,
+		@Nullable Tile tile,
+		int tileExX,
+		int tileExY,
+		int tileZ,
+		@Nullable TerrainCache.Chunk terrainChunk,
+		@Nullable ArrayList<ReservedModel> reservedModels
+	) {
 		int tileX = tileExX - SCENE_OFFSET;
 		int tileY = tileExY - SCENE_OFFSET;
 		int renderLevel = tileZ;
@@ -212,7 +270,7 @@ class SceneUploader {
 		if (tile != null) {
 			Tile bridge = tile.getBridge();
 			if (bridge != null)
-				upload(sceneContext, bridge, tileExX, tileExY, tileZ);
+				upload(sceneContext, bridge, tileExX, tileExY, tileZ, terrainChunk, reservedModels);
 
 			renderLevel = tile.getRenderLevel();
 			SceneTilePaint sceneTilePaint = tile.getSceneTilePaint();
@@ -221,7 +279,17 @@ class SceneUploader {
 				// Set offsets before pushing new data
 				int vertexOffset = sceneContext.getVertexOffset();
 				int uvOffset = sceneContext.getUvOffset();
-				int[] uploadedTilePaintData = upload(sceneContext, tile, sceneTilePaint);
+				int[] uploadedTilePaintData;
+				if (terrainChunk != null && terrainChunk.isCached()) {
+					uploadedTilePaintData = terrainChunk.replay(sceneContext);
+				} else {
+					int vertexStart = sceneContext.stagingBufferVertices.position();
+					int normalStart = sceneContext.stagingBufferNormals.position();
+					int uvStart = sceneContext.stagingBufferUvs.position();
+					uploadedTilePaintData = upload(sceneContext, tile, sceneTilePaint);
+					if (terrainChunk != null)
+						terrainChunk.record(sceneContext, vertexStart, normalStart, uvStart, uploadedTilePaintData);
+				}
 
 				int vertexCount = uploadedTilePaintData[0];
 				int uvCount = uploadedTilePaintData[1];
@@ -267,7 +335,17 @@ class SceneUploader {
 				// Set offsets before pushing new data
 				sceneTileModel.setBufferOffset(sceneContext.getVertexOffset());
 				sceneTileModel.setUvBufferOffset(sceneContext.getUvOffset());
-				int[] uploadedTileModelData = upload(sceneContext, tile, sceneTileModel);
+				int[] uploadedTileModelData;
+				if (terrainChunk != null && terrainChunk.isCached()) {
+					uploadedTileModelData = terrainChunk.replay(sceneContext);
+				} else {
+					int vertexStart = sceneContext.stagingBufferVertices.position();
+					int normalStart = sceneContext.stagingBufferNormals.position();
+					int uvStart = sceneContext.stagingBufferUvs.position();
+					uploadedTileModelData = upload(sceneContext, tile, sceneTileModel);
+					if (terrainChunk != null)
+						terrainChunk.record(sceneContext, vertexStart, normalStart, uvStart, uploadedTileModelData);
+				}
 
 				final int bufferLength = uploadedTileModelData[0];
 				final int uvBufferLength = uploadedTileModelData[1];
@@ -287,7 +365,8 @@ class SceneUploader {
 				if (renderable1 instanceof Model) {
 					uploadModel(sceneContext, tile, wallObject.getHash(), (Model) renderable1,
 						HDUtils.convertWallObjectOrientation(wallObject.getOrientationA()),
-						ObjectType.WALL_OBJECT
+						ObjectType.WALL_OBJECT,
+						reservedModels
 					);
 				}
 
@@ -295,7 +374,8 @@ class SceneUploader {
 				if (renderable2 instanceof Model) {
 					uploadModel(sceneContext, tile, wallObject.getHash(), (Model) renderable2,
 						HDUtils.convertWallObjectOrientation(wallObject.getOrientationB()),
-						ObjectType.WALL_OBJECT
+						ObjectType.WALL_OBJECT,
+						reservedModels
 					);
 				}
 			}
@@ -306,7 +386,8 @@ class SceneUploader {
 				if (renderable instanceof Model) {
 					uploadModel(sceneContext, tile, groundObject.getHash(), (Model) renderable,
 						HDUtils.getBakedOrientation(groundObject.getConfig()),
-						ObjectType.GROUND_OBJECT
+						ObjectType.GROUND_OBJECT,
+						reservedModels
 					);
 				}
 			}
@@ -317,7 +398,8 @@ class SceneUploader {
 				if (renderable instanceof Model) {
 					uploadModel(sceneContext, tile, decorativeObject.getHash(), (Model) renderable,
 						HDUtils.getBakedOrientation(decorativeObject.getConfig()),
-						ObjectType.DECORATIVE_OBJECT
+						ObjectType.DECORATIVE_OBJECT,
+						reservedModels
 					);
 				}
 
@@ -325,7 +407,8 @@ class SceneUploader {
 				if (renderable2 instanceof Model) {
 					uploadModel(sceneContext, tile, decorativeObject.getHash(), (Model) renderable2,
 						HDUtils.getBakedOrientation(decorativeObject.getConfig()),
-						ObjectType.DECORATIVE_OBJECT
+						ObjectType.DECORATIVE_OBJECT,
+						reservedModels
 					);
 				}
 			}
@@ -339,7 +422,7 @@ class SceneUploader {
 				Renderable renderable = gameObject.getRenderable();
 				if (renderable instanceof Model) {
 					uploadModel(sceneContext, tile, gameObject.getHash(), (Model) gameObject.getRenderable(),
-						HDUtils.getBakedOrientation(gameObject.getConfig()), ObjectType.GAME_OBJECT
+						HDUtils.getBakedOrientation(gameObject.getConfig()), ObjectType.GAME_OBJECT, reservedModels
 					);
 				}
 			}
@@ -400,11 +483,12 @@ class SceneUploader {
 		int localNeVertexX = localX + LOCAL_TILE_SIZE;
 		int localNeVertexY = localY + LOCAL_TILE_SIZE;
 
-		int[] vertexKeys = ProceduralGenerator.tileVertexKeys(scene, tile);
-		int swVertexKey = vertexKeys[0];
-		int seVertexKey = vertexKeys[1];
-		int nwVertexKey = vertexKeys[2];
-		int neVertexKey = vertexKeys[3];
+		final TerrainVertexData vertexData = sceneContext.vertexData;
+		final TileVertexCursor vertices = sceneContext.tileVertexCursor.tile(scene, tile);
+		int swVertex = vertexData.indexOf(vertices.key(0));
+		int seVertex = vertexData.indexOf(vertices.key(1));
+		int nwVertex = vertexData.indexOf(vertices.key(2));
+		int neVertex = vertexData.indexOf(vertices.key(3));
 
 		// Ignore certain tiles that aren't supposed to be visible,
 		// but which we can still make a height-adjusted version of for underwater
@@ -432,38 +516,38 @@ class SceneUploader {
 			float[] neNormals = UP_NORMAL;
 			float[] nwNormals = UP_NORMAL;
 
-			WaterType waterType = proceduralGenerator.tileWaterType(scene, tile, sceneTilePaint);
+			WaterType waterType = proceduralGenerator.tileWaterType(sceneContext, tile, sceneTilePaint);
 			if (waterType == WaterType.NONE) {
 				swMaterial = Material.fromVanillaTexture(tileTexture);
 				seMaterial = Material.fromVanillaTexture(tileTexture);
 				neMaterial = Material.fromVanillaTexture(tileTexture);
 				nwMaterial = Material.fromVanillaTexture(tileTexture);
 
-				swNormals = sceneContext.vertexTerrainNormals.getOrDefault(swVertexKey, swNormals);
-				seNormals = sceneContext.vertexTerrainNormals.getOrDefault(seVertexKey, seNormals);
-				neNormals = sceneContext.vertexTerrainNormals.getOrDefault(neVertexKey, neNormals);
-				nwNormals = sceneContext.vertexTerrainNormals.getOrDefault(nwVertexKey, nwNormals);
+				swNormals = vertices.normal(0, sceneContext.terrainNormals, swNormals);
+				seNormals = vertices.normal(1, sceneContext.terrainNormals, seNormals);
+				neNormals = vertices.normal(3, sceneContext.terrainNormals, neNormals);
+				nwNormals = vertices.normal(2, sceneContext.terrainNormals, nwNormals);
 
-				if (plugin.configGroundBlending && !proceduralGenerator.useDefaultColor(scene, tile) && sceneTilePaint.getTexture() == -1) {
-					// get the vertices' colors and textures from hashmaps
+				if (plugin.configGroundBlending && !proceduralGenerator.useDefaultColor(sceneContext, tile) && sceneTilePaint.getTexture() == -1) {
+					// get the vertices' colors and textures from the vertex data
 
-					swColor = sceneContext.vertexTerrainColor.getOrDefault(swVertexKey, swColor);
-					seColor = sceneContext.vertexTerrainColor.getOrDefault(seVertexKey, seColor);
-					neColor = sceneContext.vertexTerrainColor.getOrDefault(neVertexKey, neColor);
-					nwColor = sceneContext.vertexTerrainColor.getOrDefault(nwVertexKey, nwColor);
+					swColor = vertexData.getColor(swVertex, swColor);
+					seColor = vertexData.getColor(seVertex, seColor);
+					neColor = vertexData.getColor(neVertex, neColor);
+					nwColor = vertexData.getColor(nwVertex, nwColor);
 
 					if (plugin.configGroundTextures) {
-						swMaterial = sceneContext.vertexTerrainTexture.getOrDefault(swVertexKey, swMaterial);
-						seMaterial = sceneContext.vertexTerrainTexture.getOrDefault(seVertexKey, seMaterial);
-						neMaterial = sceneContext.vertexTerrainTexture.getOrDefault(neVertexKey, neMaterial);
-						nwMaterial = sceneContext.vertexTerrainTexture.getOrDefault(nwVertexKey, nwMaterial);
+						swMaterial = vertexData.getTexture(swVertex, swMaterial);
+						seMaterial = vertexData.getTexture(seVertex, seMaterial);
+						neMaterial = vertexData.getTexture(neVertex, neMaterial);
+						nwMaterial = vertexData.getTexture(nwVertex, nwMaterial);
 					}
 				}
 				else if (plugin.configGroundTextures && !shouldSkipTile(baseX + tileX, baseY + tileY))
 				{
 					GroundMaterial groundMaterial;
 
-					Overlay overlay = Overlay.getOverlay(scene, tile, plugin);
+					Overlay overlay = sceneContext.terrainMaterials.getOverlay(tile);
 					if (overlay != Overlay.NONE)
 					{
 						groundMaterial = overlay.groundMaterial;
@@ -475,7 +559,7 @@ class SceneUploader {
 					}
 					else
 					{
-						Underlay underlay = Underlay.getUnderlay(scene, tile, plugin);
+						Underlay underlay = sceneContext.terrainMaterials.getUnderlay(tile);
 						groundMaterial = underlay.groundMaterial;
 
 						swColor = HDUtils.colorHSLToInt(underlay.modifyColor(HDUtils.colorIntToHSL(swColor)));
@@ -491,7 +575,7 @@ class SceneUploader {
 				}
 				else if (plugin.configWinterTheme)
 				{
-					Overlay overlay = Overlay.getOverlay(scene, tile, plugin);
+					Overlay overlay = sceneContext.terrainMaterials.getOverlay(tile);
 					if (overlay != Overlay.NONE)
 					{
 						swColor = HDUtils.colorHSLToInt(overlay.modifyColor(HDUtils.colorIntToHSL(swColor)));
@@ -501,7 +585,7 @@ class SceneUploader {
 					}
 					else
 					{
-						Underlay underlay = Underlay.getUnderlay(scene, tile, plugin);
+						Underlay underlay = sceneContext.terrainMaterials.getUnderlay(tile);
 						swColor = HDUtils.colorHSLToInt(underlay.modifyColor(HDUtils.colorIntToHSL(swColor)));
 						seColor = HDUtils.colorHSLToInt(underlay.modifyColor(HDUtils.colorIntToHSL(seColor)));
 						nwColor = HDUtils.colorHSLToInt(underlay.modifyColor(HDUtils.colorIntToHSL(nwColor)));
@@ -515,23 +599,23 @@ class SceneUploader {
 
 				swColor = seColor = nwColor = neColor = 127;
 
-				if (sceneContext.vertexIsWater.containsKey(swVertexKey) && sceneContext.vertexIsLand.containsKey(swVertexKey))
+				if (vertexData.hasFlags(swVertex, TerrainVertexData.IS_WATER | TerrainVertexData.IS_LAND))
 					swColor = 0;
-				if (sceneContext.vertexIsWater.containsKey(seVertexKey) && sceneContext.vertexIsLand.containsKey(seVertexKey))
+				if (vertexData.hasFlags(seVertex, TerrainVertexData.IS_WATER | TerrainVertexData.IS_LAND))
 					seColor = 0;
-				if (sceneContext.vertexIsWater.containsKey(nwVertexKey) && sceneContext.vertexIsLand.containsKey(nwVertexKey))
+				if (vertexData.hasFlags(nwVertex, TerrainVertexData.IS_WATER | TerrainVertexData.IS_LAND))
 					nwColor = 0;
-				if (sceneContext.vertexIsWater.containsKey(neVertexKey) && sceneContext.vertexIsLand.containsKey(neVertexKey))
+				if (vertexData.hasFlags(neVertex, TerrainVertexData.IS_WATER | TerrainVertexData.IS_LAND))
 					neColor = 0;
 			}
 
-			if (sceneContext.vertexIsOverlay.containsKey(neVertexKey) && sceneContext.vertexIsUnderlay.containsKey(neVertexKey))
+			if (vertexData.hasFlags(neVertex, TerrainVertexData.IS_OVERLAY | TerrainVertexData.IS_UNDERLAY))
 				neVertexIsOverlay = true;
-			if (sceneContext.vertexIsOverlay.containsKey(nwVertexKey) && sceneContext.vertexIsUnderlay.containsKey(nwVertexKey))
+			if (vertexData.hasFlags(nwVertex, TerrainVertexData.IS_OVERLAY | TerrainVertexData.IS_UNDERLAY))
 				nwVertexIsOverlay = true;
-			if (sceneContext.vertexIsOverlay.containsKey(seVertexKey) && sceneContext.vertexIsUnderlay.containsKey(seVertexKey))
+			if (vertexData.hasFlags(seVertex, TerrainVertexData.IS_OVERLAY | TerrainVertexData.IS_UNDERLAY))
 				seVertexIsOverlay = true;
-			if (sceneContext.vertexIsOverlay.containsKey(swVertexKey) && sceneContext.vertexIsUnderlay.containsKey(swVertexKey))
+			if (vertexData.hasFlags(swVertex, TerrainVertexData.IS_OVERLAY | TerrainVertexData.IS_UNDERLAY))
 				swVertexIsOverlay = true;
 
 
@@ -622,11 +706,12 @@ class SceneUploader {
 		int localNeVertexX = LOCAL_TILE_SIZE;
 		int localNeVertexY = LOCAL_TILE_SIZE;
 
-		int[] vertexKeys = ProceduralGenerator.tileVertexKeys(scene, tile);
-		int swVertexKey = vertexKeys[0];
-		int seVertexKey = vertexKeys[1];
-		int nwVertexKey = vertexKeys[2];
-		int neVertexKey = vertexKeys[3];
+		final TerrainVertexData vertexData = sceneContext.vertexData;
+		final TileVertexCursor vertices = sceneContext.tileVertexCursor.tile(scene, tile);
+		int swVertex = vertexData.indexOf(vertices.key(0));
+		int seVertex = vertexData.indexOf(vertices.key(1));
+		int nwVertex = vertexData.indexOf(vertices.key(2));
+		int neVertex = vertexData.indexOf(vertices.key(3));
 
 		if (sceneContext.tileIsWater[tileZ][tileExX][tileExY]) {
 			// underwater terrain
@@ -638,15 +723,15 @@ class SceneUploader {
 			int neColor = 6676;
 			int nwColor = 6676;
 
-			int swDepth = sceneContext.vertexUnderwaterDepth.getOrDefault(swVertexKey, 0);
-			int seDepth = sceneContext.vertexUnderwaterDepth.getOrDefault(seVertexKey, 0);
-			int nwDepth = sceneContext.vertexUnderwaterDepth.getOrDefault(nwVertexKey, 0);
-			int neDepth = sceneContext.vertexUnderwaterDepth.getOrDefault(neVertexKey, 0);
+			int swDepth = vertexData.getUnderwaterDepth(swVertex);
+			int seDepth = vertexData.getUnderwaterDepth(seVertex);
+			int nwDepth = vertexData.getUnderwaterDepth(nwVertex);
+			int neDepth = vertexData.getUnderwaterDepth(neVertex);
 
-			float[] swNormals = sceneContext.vertexTerrainNormals.getOrDefault(swVertexKey, UP_NORMAL);
-			float[] seNormals = sceneContext.vertexTerrainNormals.getOrDefault(seVertexKey, UP_NORMAL);
-			float[] nwNormals = sceneContext.vertexTerrainNormals.getOrDefault(nwVertexKey, UP_NORMAL);
-			float[] neNormals = sceneContext.vertexTerrainNormals.getOrDefault(neVertexKey, UP_NORMAL);
+			float[] swNormals = vertices.normal(0, sceneContext.terrainNormals, UP_NORMAL);
+			float[] seNormals = vertices.normal(1, sceneContext.terrainNormals, UP_NORMAL);
+			float[] nwNormals = vertices.normal(2, sceneContext.terrainNormals, UP_NORMAL);
+			float[] neNormals = vertices.normal(3, sceneContext.terrainNormals, UP_NORMAL);
 
 			Material swMaterial = Material.NONE;
 			Material seMaterial = Material.NONE;
@@ -663,7 +748,7 @@ class SceneUploader {
 				neMaterial = groundMaterial.getRandomMaterial(tileZ, baseX + tileX + 1, baseY + tileY + 1);
 			}
 
-			WaterType waterType = proceduralGenerator.tileWaterType(scene, tile, sceneTilePaint);
+			WaterType waterType = proceduralGenerator.tileWaterType(sceneContext, tile, sceneTilePaint);
 
 			int swTerrainData = packTerrainData(true, Math.max(1, swDepth), waterType, tileZ);
 			int seTerrainData = packTerrainData(true, Math.max(1, seDepth), waterType, tileZ);
@@ -759,22 +844,31 @@ class SceneUploader {
 
 		final int[] faceTextures = sceneTileModel.getTriangleTextureId();
 
+		final TerrainVertexData vertexData = sceneContext.vertexData;
+		final TileVertexCursor vertices = sceneContext.tileVertexCursor;
 		final int faceCount = sceneTileModel.getFaceX().length;
 
 		int baseX = scene.getBaseX();
 		int baseY = scene.getBaseY();
+		int tileLocalX = tileX * LOCAL_TILE_SIZE;
+		int tileLocalY = tileY * LOCAL_TILE_SIZE;
 
 		for (int face = 0; face < faceCount; ++face) {
 			int colorA = faceColorA[face];
 			int colorB = faceColorB[face];
 			int colorC = faceColorC[face];
 
-			int[][] localVertices = ProceduralGenerator.faceLocalVertices(tile, face);
+			vertices.face(tile, face);
+			int localVertexXA = vertices.x(0) - tileLocalX;
+			int localVertexYA = vertices.y(0) - tileLocalY;
+			int localVertexXB = vertices.x(1) - tileLocalX;
+			int localVertexYB = vertices.y(1) - tileLocalY;
+			int localVertexXC = vertices.x(2) - tileLocalX;
+			int localVertexYC = vertices.y(2) - tileLocalY;
 
-			int[] vertexKeys = ProceduralGenerator.faceVertexKeys(tile, face);
-			int vertexKeyA = vertexKeys[0];
-			int vertexKeyB = vertexKeys[1];
-			int vertexKeyC = vertexKeys[2];
+			int vertexA = vertexData.indexOf(vertices.key(0));
+			int vertexB = vertexData.indexOf(vertices.key(1));
+			int vertexC = vertexData.indexOf(vertices.key(2));
 
 			boolean vertexAIsOverlay = false;
 			boolean vertexBIsOverlay = false;
@@ -800,7 +894,7 @@ class SceneUploader {
 				if (isHidden)
 					continue;
 
-				waterType = proceduralGenerator.faceWaterType(scene, tile, face, sceneTileModel);
+				waterType = proceduralGenerator.faceWaterType(sceneContext, tile, face, sceneTileModel);
 				if (waterType == WaterType.NONE) {
 					if (faceTextures != null) {
 						textureIndex = faceTextures[face];
@@ -809,24 +903,24 @@ class SceneUploader {
 						materialC = Material.fromVanillaTexture(textureIndex);
 					}
 
-					normalsA = sceneContext.vertexTerrainNormals.getOrDefault(vertexKeyA, normalsA);
-					normalsB = sceneContext.vertexTerrainNormals.getOrDefault(vertexKeyB, normalsB);
-					normalsC = sceneContext.vertexTerrainNormals.getOrDefault(vertexKeyC, normalsC);
+					normalsA = vertices.normal(0, sceneContext.terrainNormals, normalsA);
+					normalsB = vertices.normal(1, sceneContext.terrainNormals, normalsB);
+					normalsC = vertices.normal(2, sceneContext.terrainNormals, normalsC);
 
 					if (plugin.configGroundBlending &&
-						!(ProceduralGenerator.isOverlayFace(tile, face) && proceduralGenerator.useDefaultColor(scene, tile)) &&
+						!(ProceduralGenerator.isOverlayFace(tile, face) && proceduralGenerator.useDefaultColor(sceneContext, tile)) &&
 						materialA == Material.NONE
 					) {
-						// get the vertices' colors and textures from hashmaps
+						// get the vertices' colors and textures from the vertex data
 
-						colorA = sceneContext.vertexTerrainColor.getOrDefault(vertexKeyA, colorA);
-						colorB = sceneContext.vertexTerrainColor.getOrDefault(vertexKeyB, colorB);
-						colorC = sceneContext.vertexTerrainColor.getOrDefault(vertexKeyC, colorC);
+						colorA = vertexData.getColor(vertexA, colorA);
+						colorB = vertexData.getColor(vertexB, colorB);
+						colorC = vertexData.getColor(vertexC, colorC);
 
 						if (plugin.configGroundTextures) {
-							materialA = sceneContext.vertexTerrainTexture.getOrDefault(vertexKeyA, materialA);
-							materialB = sceneContext.vertexTerrainTexture.getOrDefault(vertexKeyB, materialB);
-							materialC = sceneContext.vertexTerrainTexture.getOrDefault(vertexKeyC, materialC);
+							materialA = vertexData.getTexture(vertexA, materialA);
+							materialB = vertexData.getTexture(vertexB, materialB);
+							materialC = vertexData.getTexture(vertexC, materialC);
 						}
 					} else if (plugin.configGroundTextures) {
 						// ground textures without blending
@@ -834,14 +928,14 @@ class SceneUploader {
 						GroundMaterial groundMaterial;
 
 						if (ProceduralGenerator.isOverlayFace(tile, face)) {
-							Overlay overlay = Overlay.getOverlay(scene, tile, plugin);
+							Overlay overlay = sceneContext.terrainMaterials.getOverlay(tile);
 							groundMaterial = overlay.groundMaterial;
 
 							colorA = HDUtils.colorHSLToInt(overlay.modifyColor(HDUtils.colorIntToHSL(colorA)));
 							colorB = HDUtils.colorHSLToInt(overlay.modifyColor(HDUtils.colorIntToHSL(colorB)));
 							colorC = HDUtils.colorHSLToInt(overlay.modifyColor(HDUtils.colorIntToHSL(colorC)));
 						} else {
-							Underlay underlay = Underlay.getUnderlay(scene, tile, plugin);
+							Underlay underlay = sceneContext.terrainMaterials.getUnderlay(tile);
 							groundMaterial = underlay.groundMaterial;
 
 							colorA = HDUtils.colorHSLToInt(underlay.modifyColor(HDUtils.colorIntToHSL(colorA)));
@@ -851,28 +945,28 @@ class SceneUploader {
 
 						materialA = groundMaterial.getRandomMaterial(
 							tileZ,
-							baseX + tileX + (int) Math.floor((float) localVertices[0][0] / LOCAL_TILE_SIZE),
-							baseY + tileY + (int) Math.floor((float) localVertices[0][1] / LOCAL_TILE_SIZE)
+							baseX + tileX + (int) Math.floor((float) localVertexXA / LOCAL_TILE_SIZE),
+							baseY + tileY + (int) Math.floor((float) localVertexYA / LOCAL_TILE_SIZE)
 						);
 						materialB = groundMaterial.getRandomMaterial(
 							tileZ,
-							baseX + tileX + (int) Math.floor((float) localVertices[1][0] / LOCAL_TILE_SIZE),
-							baseY + tileY + (int) Math.floor((float) localVertices[1][1] / LOCAL_TILE_SIZE)
+							baseX + tileX + (int) Math.floor((float) localVertexXB / LOCAL_TILE_SIZE),
+							baseY + tileY + (int) Math.floor((float) localVertexYB / LOCAL_TILE_SIZE)
 						);
 						materialC = groundMaterial.getRandomMaterial(
 							tileZ,
-							baseX + tileX + (int) Math.floor((float) localVertices[2][0] / LOCAL_TILE_SIZE),
-							baseY + tileY + (int) Math.floor((float) localVertices[2][1] / LOCAL_TILE_SIZE)
+							baseX + tileX + (int) Math.floor((float) localVertexXC / LOCAL_TILE_SIZE),
+							baseY + tileY + (int) Math.floor((float) localVertexYC / LOCAL_TILE_SIZE)
 						);
 					} else if (plugin.configWinterTheme) {
 						if (ProceduralGenerator.isOverlayFace(tile, face)) {
-							Overlay overlay = Overlay.getOverlay(scene, tile, plugin);
+							Overlay overlay = sceneContext.terrainMaterials.getOverlay(tile);
 
 							colorA = HDUtils.colorHSLToInt(overlay.modifyColor(HDUtils.colorIntToHSL(colorA)));
 							colorB = HDUtils.colorHSLToInt(overlay.modifyColor(HDUtils.colorIntToHSL(colorB)));
 							colorC = HDUtils.colorHSLToInt(overlay.modifyColor(HDUtils.colorIntToHSL(colorC)));
 						} else {
-							Underlay underlay = Underlay.getUnderlay(scene, tile, plugin);
+							Underlay underlay = sceneContext.terrainMaterials.getUnderlay(tile);
 
 							colorA = HDUtils.colorHSLToInt(underlay.modifyColor(HDUtils.colorIntToHSL(colorA)));
 							colorB = HDUtils.colorHSLToInt(underlay.modifyColor(HDUtils.colorIntToHSL(colorB)));
@@ -882,19 +976,19 @@ class SceneUploader {
 				} else {
 					// set colors for the shoreline to create a foam effect in the water shader
 					colorA = colorB = colorC = 127;
-					if (sceneContext.vertexIsWater.containsKey(vertexKeyA) && sceneContext.vertexIsLand.containsKey(vertexKeyA))
+					if (vertexData.hasFlags(vertexA, TerrainVertexData.IS_WATER | TerrainVertexData.IS_LAND))
 						colorA = 0;
-					if (sceneContext.vertexIsWater.containsKey(vertexKeyB) && sceneContext.vertexIsLand.containsKey(vertexKeyB))
+					if (vertexData.hasFlags(vertexB, TerrainVertexData.IS_WATER | TerrainVertexData.IS_LAND))
 						colorB = 0;
-					if (sceneContext.vertexIsWater.containsKey(vertexKeyC) && sceneContext.vertexIsLand.containsKey(vertexKeyC))
+					if (vertexData.hasFlags(vertexC, TerrainVertexData.IS_WATER | TerrainVertexData.IS_LAND))
 						colorC = 0;
 				}
 
-				if (sceneContext.vertexIsOverlay.containsKey(vertexKeyA) && sceneContext.vertexIsUnderlay.containsKey(vertexKeyA))
+				if (vertexData.hasFlags(vertexA, TerrainVertexData.IS_OVERLAY | TerrainVertexData.IS_UNDERLAY))
 					vertexAIsOverlay = true;
-				if (sceneContext.vertexIsOverlay.containsKey(vertexKeyB) && sceneContext.vertexIsUnderlay.containsKey(vertexKeyB))
+				if (vertexData.hasFlags(vertexB, TerrainVertexData.IS_OVERLAY | TerrainVertexData.IS_UNDERLAY))
 					vertexBIsOverlay = true;
-				if (sceneContext.vertexIsOverlay.containsKey(vertexKeyC) && sceneContext.vertexIsUnderlay.containsKey(vertexKeyC))
+				if (vertexData.hasFlags(vertexC, TerrainVertexData.IS_OVERLAY | TerrainVertexData.IS_UNDERLAY))
 					vertexCIsOverlay = true;
 			}
 
@@ -908,9 +1002,9 @@ class SceneUploader {
 			sceneContext.stagingBufferNormals.put(normalsC[0], normalsC[2], normalsC[1], cTerrainData);
 
 			sceneContext.stagingBufferVertices.ensureCapacity(12);
-			sceneContext.stagingBufferVertices.put(localVertices[0][0], localVertices[0][2], localVertices[0][1], colorA);
-			sceneContext.stagingBufferVertices.put(localVertices[1][0], localVertices[1][2], localVertices[1][1], colorB);
-			sceneContext.stagingBufferVertices.put(localVertices[2][0], localVertices[2][2], localVertices[2][1], colorC);
+			sceneContext.stagingBufferVertices.put(localVertexXA, vertices.height(0), localVertexYA, colorA);
+			sceneContext.stagingBufferVertices.put(localVertexXB, vertices.height(1), localVertexYB, colorB);
+			sceneContext.stagingBufferVertices.put(localVertexXC, vertices.height(2), localVertexYC, colorC);
 
 			bufferLength += 3;
 
@@ -922,9 +1016,9 @@ class SceneUploader {
 				materialC, textureIndex, ModelOverride.NONE, UvType.GEOMETRY, vertexCIsOverlay);
 
 			sceneContext.stagingBufferUvs.ensureCapacity(12);
-			sceneContext.stagingBufferUvs.put(1 - localVertices[0][0] / 128f, 1 - localVertices[0][1] / 128f, 0, packedMaterialDataA);
-			sceneContext.stagingBufferUvs.put(1 - localVertices[1][0] / 128f, 1 - localVertices[1][1] / 128f, 0, packedMaterialDataB);
-			sceneContext.stagingBufferUvs.put(1 - localVertices[2][0] / 128f, 1 - localVertices[2][1] / 128f, 0, packedMaterialDataC);
+			sceneContext.stagingBufferUvs.put(1 - localVertexXA / 128f, 1 - localVertexYA / 128f, 0, packedMaterialDataA);
+			sceneContext.stagingBufferUvs.put(1 - localVertexXB / 128f, 1 - localVertexYB / 128f, 0, packedMaterialDataB);
+			sceneContext.stagingBufferUvs.put(1 - localVertexXC / 128f, 1 - localVertexYC / 128f, 0, packedMaterialDataC);
 
 			uvBufferLength += 3;
 		}
@@ -951,9 +1045,13 @@ class SceneUploader {
 
 		final int[] faceColorA = sceneTileModel.getTriangleColorA();
 		final int faceCount = sceneTileModel.getFaceX().length;
+		final TerrainVertexData vertexData = sceneContext.vertexData;
+		final TileVertexCursor vertices = sceneContext.tileVertexCursor;
 
 		int baseX = scene.getBaseX();
 		int baseY = scene.getBaseY();
+		int tileLocalX = tileX * LOCAL_TILE_SIZE;
+		int tileLocalY = tileY * LOCAL_TILE_SIZE;
 
 		if (baseX >= 2816 && baseX <= 2970 && baseY <= 5375 && baseY >= 5220) {
 			// fix for God Wars Dungeon's water rendering over zamorak bridge
@@ -972,42 +1070,47 @@ class SceneUploader {
 				if (faceColorA[face] == 12345678)
 					continue;
 
-				int[][] localVertices = ProceduralGenerator.faceLocalVertices(tile, face);
+				vertices.face(tile, face);
+				int localVertexXA = vertices.x(0) - tileLocalX;
+				int localVertexYA = vertices.y(0) - tileLocalY;
+				int localVertexXB = vertices.x(1) - tileLocalX;
+				int localVertexYB = vertices.y(1) - tileLocalY;
+				int localVertexXC = vertices.x(2) - tileLocalX;
+				int localVertexYC = vertices.y(2) - tileLocalY;
 
 				Material materialA = Material.NONE;
 				Material materialB = Material.NONE;
 				Material materialC = Material.NONE;
 
-				int[] vertexKeys = ProceduralGenerator.faceVertexKeys(tile, face);
-				int vertexKeyA = vertexKeys[0];
-				int vertexKeyB = vertexKeys[1];
-				int vertexKeyC = vertexKeys[2];
+				int vertexA = vertexData.indexOf(vertices.key(0));
+				int vertexB = vertexData.indexOf(vertices.key(1));
+				int vertexC = vertexData.indexOf(vertices.key(2));
 
-				int depthA = sceneContext.vertexUnderwaterDepth.getOrDefault(vertexKeyA, 0);
-				int depthB = sceneContext.vertexUnderwaterDepth.getOrDefault(vertexKeyB, 0);
-				int depthC = sceneContext.vertexUnderwaterDepth.getOrDefault(vertexKeyC, 0);
+				int depthA = vertexData.getUnderwaterDepth(vertexA);
+				int depthB = vertexData.getUnderwaterDepth(vertexB);
+				int depthC = vertexData.getUnderwaterDepth(vertexC);
 
 				if (plugin.configGroundTextures) {
 					GroundMaterial groundMaterial = GroundMaterial.UNDERWATER_GENERIC;
 
-					int tileVertexX = Math.round((float) localVertices[0][0] / (float) LOCAL_TILE_SIZE) + tileX + baseX;
-					int tileVertexY = Math.round((float) localVertices[0][1] / (float) LOCAL_TILE_SIZE) + tileY + baseY;
+					int tileVertexX = Math.round((float) localVertexXA / (float) LOCAL_TILE_SIZE) + tileX + baseX;
+					int tileVertexY = Math.round((float) localVertexYA / (float) LOCAL_TILE_SIZE) + tileY + baseY;
 					materialA = groundMaterial.getRandomMaterial(tileZ, tileVertexX, tileVertexY);
 
-					tileVertexX = Math.round((float) localVertices[1][0] / (float) LOCAL_TILE_SIZE) + tileX + baseX;
-					tileVertexY = Math.round((float) localVertices[1][1] / (float) LOCAL_TILE_SIZE) + tileY + baseY;
+					tileVertexX = Math.round((float) localVertexXB / (float) LOCAL_TILE_SIZE) + tileX + baseX;
+					tileVertexY = Math.round((float) localVertexYB / (float) LOCAL_TILE_SIZE) + tileY + baseY;
 					materialB = groundMaterial.getRandomMaterial(tileZ, tileVertexX, tileVertexY);
 
-					tileVertexX = Math.round((float) localVertices[2][0] / (float) LOCAL_TILE_SIZE) + tileX + baseX;
-					tileVertexY = Math.round((float) localVertices[2][1] / (float) LOCAL_TILE_SIZE) + tileY + baseY;
+					tileVertexX = Math.round((float) localVertexXC / (float) LOCAL_TILE_SIZE) + tileX + baseX;
+					tileVertexY = Math.round((float) localVertexYC / (float) LOCAL_TILE_SIZE) + tileY + baseY;
 					materialC = groundMaterial.getRandomMaterial(tileZ, tileVertexX, tileVertexY);
 				}
 
-				float[] normalsA = sceneContext.vertexTerrainNormals.getOrDefault(vertexKeyA, UP_NORMAL);
-				float[] normalsB = sceneContext.vertexTerrainNormals.getOrDefault(vertexKeyB, UP_NORMAL);
-				float[] normalsC = sceneContext.vertexTerrainNormals.getOrDefault(vertexKeyC, UP_NORMAL);
+				float[] normalsA = vertices.normal(0, sceneContext.terrainNormals, UP_NORMAL);
+				float[] normalsB = vertices.normal(1, sceneContext.terrainNormals, UP_NORMAL);
+				float[] normalsC = vertices.normal(2, sceneContext.terrainNormals, UP_NORMAL);
 
-				WaterType waterType = proceduralGenerator.faceWaterType(scene, tile, face, sceneTileModel);
+				WaterType waterType = proceduralGenerator.faceWaterType(sceneContext, tile, face, sceneTileModel);
 
 				int aTerrainData = packTerrainData(true, Math.max(1, depthA), waterType, tileZ);
 				int bTerrainData = packTerrainData(true, Math.max(1, depthB), waterType, tileZ);
@@ -1019,9 +1122,9 @@ class SceneUploader {
 				sceneContext.stagingBufferNormals.put(normalsC[0], normalsC[2], normalsC[1], cTerrainData);
 
 				sceneContext.stagingBufferVertices.ensureCapacity(12);
-				sceneContext.stagingBufferVertices.put(localVertices[0][0], localVertices[0][2] + depthA, localVertices[0][1], colorA);
-				sceneContext.stagingBufferVertices.put(localVertices[1][0], localVertices[1][2] + depthB, localVertices[1][1], colorB);
-				sceneContext.stagingBufferVertices.put(localVertices[2][0], localVertices[2][2] + depthC, localVertices[2][1], colorC);
+				sceneContext.stagingBufferVertices.put(localVertexXA, vertices.height(0) + depthA, localVertexYA, colorA);
+				sceneContext.stagingBufferVertices.put(localVertexXB, vertices.height(1) + depthB, localVertexYB, colorB);
+				sceneContext.stagingBufferVertices.put(localVertexXC, vertices.height(2) + depthC, localVertexYC, colorC);
 
 				bufferLength += 3;
 
@@ -1033,9 +1136,9 @@ class SceneUploader {
 					materialC, -1, ModelOverride.NONE, UvType.GEOMETRY, false);
 
 				sceneContext.stagingBufferUvs.ensureCapacity(12);
-				sceneContext.stagingBufferUvs.put(1 - localVertices[0][0] / 128f, 1 - localVertices[0][1] / 128f, 0, packedMaterialDataA);
-				sceneContext.stagingBufferUvs.put(1 - localVertices[1][0] / 128f, 1 - localVertices[1][1] / 128f, 0, packedMaterialDataB);
-				sceneContext.stagingBufferUvs.put(1 - localVertices[2][0] / 128f, 1 - localVertices[2][1] / 128f, 0, packedMaterialDataC);
+				sceneContext.stagingBufferUvs.put(1 - localVertexXA / 128f, 1 - localVertexYA / 128f, 0, packedMaterialDataA);
+				sceneContext.stagingBufferUvs.put(1 - localVertexXB / 128f, 1 - localVertexYB / 128f, 0, packedMaterialDataB);
+				sceneContext.stagingBufferUvs.put(1 - localVertexXC / 128f, 1 - localVertexYC / 128f, 0, packedMaterialDataC);
 
 				uvBufferLength += 3;
 			}
@@ -1103,4 +1206,54 @@ class SceneUploader {
 		assert (terrainData & ~0xFFFFFF) == 0 : "Only the lower 24 bits are usable, since we pass this into shaders as a float";
 		return terrainData;
 	}
+
+	/**
+	 * A model which has space reserved for it in the staging buffers, but is yet to be pushed.
+	 */
+	@RequiredArgsConstructor
+	private static class ReservedModel {
+		final Tile tile;
+		final long hash;
+		final Model model;
+		final int orientation;
+		final ObjectType objectType;
+		final int vertexOffset;
+		final int uvOffset;
+	}
+
+	@RequiredArgsConstructor
+	private class PushReservedModels extends RecursiveAction {
+		private final SceneContext sceneContext;
+		private final ArrayList<ReservedModel> reservedModels;
+		private final int start;
+		private final int end;
+
+		@Override
+		protected void compute() {
+			// Approximate the amount of work by the number of vertices between the first and last model
+			int vertexCount = reservedModels.get(end - 1).vertexOffset - reservedModels.get(start).vertexOffset;
+			if (end - start > 1 && vertexCount > MIN_VERTICES_PER_BATCH) {
+				int mid = (start + end) >>> 1;
+				invokeAll(
+					new PushReservedModels(sceneContext, reservedModels, start, mid),
+					new PushReservedModels(sceneContext, reservedModels, mid, end)
+				);
+				return;
+			}
+
+			for (int i = start; i < end; i++) {
+				ReservedModel m = reservedModels.get(i);
+				modelPusher.pushReservedModel(
+					sceneContext,
+					m.tile,
+					m.hash,
+					m.model,
+					m.objectType,
+					m.orientation,
+					m.vertexOffset,
+					m.uvOffset
+				);
+			}
+		}
+	}
 }
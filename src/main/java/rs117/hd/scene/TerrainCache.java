@@ -0,0 +1,392 @@
+package rs117.hd.scene;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import lombok.extern.slf4j.Slf4j;
+import net.runelite.api.*;
+import rs117.hd.HdPlugin;
+import rs117.hd.data.materials.Material;
+
+import static net.runelite.api.Constants.*;
+import static net.runelite.api.Perspective.LOCAL_TILE_SIZE;
+import static rs117.hd.scene.SceneUploader.SCENE_OFFSET;
+
+/**
+ * A least-recently-used cache of the terrain geometry uploaded for each map chunk, so loading a scene which overlaps
+ * previously loaded scenes only has to upload terrain for the chunks it hasn't seen before.
+ * <p>
+ * Scene bases are always aligned to chunks, so unlike map regions, chunks are never split between the edge of a scene
+ * and the next scene. Uploaded terrain is relative to each tile, but it depends on procedurally generated data from
+ * neighbouring tiles, so each chunk is stored along with a fingerprint of everything its upload reads, and is only
+ * reused by scenes where the fingerprint matches. The cache is only used from the thread loading scenes.
+ */
+@Slf4j
+@Singleton
+public class TerrainCache {
+	private static final int CHUNK_SIZE = 8;
+	private static final int SCENE_CHUNKS = EXTENDED_SCENE_SIZE / CHUNK_SIZE;
+	private static final long MAX_SIZE_BYTES = 32L << 20;
+	private static final float[] UP_NORMAL = { 0, -1, 0 };
+
+	@Inject
+	private HdPlugin plugin;
+
+	// one entry per chunk position, ordered from least to most recently used
+	private final LinkedHashMap<Long, Chunk> chunks = new LinkedHashMap<>(256, .75f, true);
+	private long sizeBytes;
+	// incremented whenever the cache is cleared, so chunks recorded by scene loads in progress at the time are dropped
+	private int epoch;
+
+	/**
+	 * The terrain uploaded for the tiles of a chunk, which is either being recorded while uploading the scene, or
+	 * replayed from the cache instead of uploading the tiles again.
+	 */
+	public static class Chunk {
+		private final long position;
+		private final long fingerprint;
+		private final int epoch;
+		private boolean cached;
+
+		// for each tile paint and tile model, in upload order: the vertex, UV and underwater terrain counts returned
+		// by the upload, followed by the number of vertex ints, normal floats and UV floats it staged
+		private int[] uploads = new int[64];
+		private int[] vertices = new int[256];
+		private float[] normals = new float[256];
+		private float[] uvs = new float[256];
+		private int uploadsLength;
+		private int verticesLength;
+		private int normalsLength;
+		private int uvsLength;
+
+		// read positions while replaying
+		private int uploadsPosition;
+		private int verticesPosition;
+		private int normalsPosition;
+		private int uvsPosition;
+		private final int[] replayedLengths = new int[3];
+
+		private Chunk(long position, long fingerprint, int epoch) {
+			this.position = position;
+			this.fingerprint = fingerprint;
+			this.epoch = epoch;
+		}
+
+		/**
+		 * @return whether the chunk's terrain is replayed from the cache instead of being uploaded
+		 */
+		public boolean isCached() {
+			return cached;
+		}
+
+		/**
+		 * Stages the next tile paint or tile model of a cached chunk, exactly as uploading it would.
+		 *
+		 * @return the vertex, UV and underwater terrain counts returned when uploading it, in an array which is reused
+		 * by the next call
+		 */
+		public int[] replay(SceneContext sceneContext) {
+			assert cached && uploadsPosition < uploadsLength : "chunk replayed past its recorded uploads";
+			int[] upload = uploads;
+			int i = uploadsPosition;
+			uploadsPosition += 6;
+
+			int vertexInts = upload[i + 3];
+			int normalFloats = upload[i + 4];
+			int uvFloats = upload[i + 5];
+			sceneContext.stagingBufferVertices.ensureCapacity(vertexInts).getBuffer()
+				.put(vertices, verticesPosition, vertexInts);
+			sceneContext.stagingBufferNormals.ensureCapacity(normalFloats);
+			sceneContext.stagingBufferNormals.getBuffer().put(normals, normalsPosition, normalFloats);
+			sceneContext.stagingBufferUvs.ensureCapacity(uvFloats);
+			sceneContext.stagingBufferUvs.getBuffer().put(uvs, uvsPosition, uvFloats);
+			verticesPosition += vertexInts;
+			normalsPosition += normalFloats;
+			uvsPosition += uvFloats;
+
+			replayedLengths[0] = upload[i];
+			replayedLengths[1] = upload[i + 1];
+			replayedLengths[2] = upload[i + 2];
+			return replayedLengths;
+		}
+
+		/**
+		 * Records a tile paint or tile model which has just been uploaded.
+		 *
+		 * @param vertexStart position of the vertex staging buffer before uploading
+		 * @param normalStart position of the normal staging buffer before uploading
+		 * @param uvStart     position of the UV staging buffer before uploading
+		 * @param lengths     returned by the upload
+		 */
+		public void record(SceneContext sceneContext, int vertexStart, int normalStart, int uvStart, int[] lengths) {
+			IntBuffer vertexBuffer = sceneContext.stagingBufferVertices.getBuffer();
+			FloatBuffer normalBuffer = sceneContext.stagingBufferNormals.getBuffer();
+			FloatBuffer uvBuffer = sceneContext.stagingBufferUvs.getBuffer();
+			int vertexInts = vertexBuffer.position() - vertexStart;
+			int normalFloats = normalBuffer.position() - normalStart;
+			int uvFloats = uvBuffer.position() - uvStart;
+
+			if (uploadsLength + 6 > uploads.length)
+				uploads = Arrays.copyOf(uploads, uploads.length * 2);
+			uploads[uploadsLength++] = lengths[0];
+			uploads[uploadsLength++] = lengths[1];
+			uploads[uploadsLength++] = lengths[2];
+			uploads[uploadsLength++] = vertexInts;
+			uploads[uploadsLength++] = normalFloats;
+			uploads[uploadsLength++] = uvFloats;
+
+			if (verticesLength + vertexInts > vertices.length)
+				vertices = Arrays.copyOf(vertices, Math.max(vertices.length * 2, verticesLength + vertexInts));
+			for (int i = 0; i < vertexInts; i++)
+				vertices[verticesLength++] = vertexBuffer.get(vertexStart + i);
+
+			if (normalsLength + normalFloats > normals.length)
+				normals = Arrays.copyOf(normals, Math.max(normals.length * 2, normalsLength + normalFloats));
+			for (int i = 0; i < normalFloats; i++)
+				normals[normalsLength++] = normalBuffer.get(normalStart + i);
+
+			if (uvsLength + uvFloats > uvs.length)
+				uvs = Arrays.copyOf(uvs, Math.max(uvs.length * 2, uvsLength + uvFloats));
+			for (int i = 0; i < uvFloats; i++)
+				uvs[uvsLength++] = uvBuffer.get(uvStart + i);
+		}
+
+		private void trim() {
+			uploads = Arrays.copyOf(uploads, uploadsLength);
+			vertices = Arrays.copyOf(vertices, verticesLength);
+			normals = Arrays.copyOf(normals, normalsLength);
+			uvs = Arrays.copyOf(uvs, uvsLength);
+		}
+
+		private long sizeBytes() {
+			// arrays, along with a rough estimate of object and map entry overhead
+			return (uploads.length + vertices.length + normals.length + uvs.length) * 4L + 160;
+		}
+	}
+
+	/**
+	 * Looks up the terrain of each chunk in the scene, which must be called before uploading the scene's tiles.
+	 *
+	 * @return the chunks of the scene indexed by {@link #chunkIndex}, or null if the cache is disabled
+	 */
+	@Nullable
+	public synchronized Chunk[] begin(SceneContext sceneContext) {
+		if (plugin.useLowMemoryMode)
+			return null;
+
+		final Scene scene = sceneContext.scene;
+		final int baseX = scene.getBaseX();
+		final int baseY = scene.getBaseY();
+		long settings = mix(0, plugin.configGroundBlending ? 1 : 0);
+		settings = mix(settings, plugin.configGroundTextures ? 1 : 0);
+		settings = mix(settings, plugin.configWinterTheme ? 1 : 0);
+		// underwater tile paint is skipped throughout scenes based in the God Wars Dungeon
+		settings = mix(settings, baseX >= 2816 && baseX <= 2970 && baseY <= 5375 && baseY >= 5220 ? 1 : 0);
+
+		Chunk[] sceneChunks = new Chunk[SCENE_CHUNKS * SCENE_CHUNKS];
+		int cachedCount = 0;
+		for (int chunkX = 0; chunkX < SCENE_CHUNKS; chunkX++) {
+			for (int chunkY = 0; chunkY < SCENE_CHUNKS; chunkY++) {
+				int chunkExX = chunkX * CHUNK_SIZE;
+				int chunkExY = chunkY * CHUNK_SIZE;
+				long position = (long) (baseX + chunkExX - SCENE_OFFSET) << 32 | (baseY + chunkExY - SCENE_OFFSET) & 0xFFFFFFFFL;
+				long fingerprint = fingerprint(sceneContext, settings, chunkExX, chunkExY);
+
+				Chunk chunk = chunks.get(position);
+				if (chunk != null && chunk.fingerprint == fingerprint) {
+					chunk.cached = true;
+					chunk.uploadsPosition = 0;
+					chunk.verticesPosition = 0;
+					chunk.normalsPosition = 0;
+					chunk.uvsPosition = 0;
+					cachedCount++;
+				} else {
+					chunk = new Chunk(position, fingerprint, epoch);
+				}
+				sceneChunks[chunkX * SCENE_CHUNKS + chunkY] = chunk;
+			}
+		}
+
+		log.debug("Reusing cached terrain for {} of {} chunks", cachedCount, sceneChunks.length);
+		return sceneChunks;
+	}
+
+	/**
+	 * Caches the terrain recorded for each chunk of the scene which wasn't already cached, evicting the least recently
+	 * used chunks if the cache grows too large. Chunks recorded before the cache was last cleared are dropped.
+	 *
+	 * @param sceneChunks returned by {@link #begin}, once the scene has been uploaded
+	 */
+	public synchronized void finish(@Nullable Chunk[] sceneChunks) {
+		if (sceneChunks == null)
+			return;
+
+		int staleCount = 0;
+		for (Chunk chunk : sceneChunks) {
+			if (chunk.cached)
+				continue;
+			if (chunk.epoch != epoch) {
+				staleCount++;
+				continue;
+			}
+
+			chunk.trim();
+			chunk.cached = true;
+			Chunk previous = chunks.put(chunk.position, chunk);
+			if (previous != null)
+				sizeBytes -= previous.sizeBytes();
+			sizeBytes += chunk.sizeBytes();
+		}
+
+		int evictedCount = 0;
+		Iterator<Map.Entry<Long, Chunk>> iterator = chunks.entrySet().iterator();
+		while (sizeBytes > MAX_SIZE_BYTES && iterator.hasNext()) {
+			sizeBytes -= iterator.next().getValue().sizeBytes();
+			iterator.remove();
+			evictedCount++;
+		}
+
+		log.debug(
+			"Terrain cache: {} chunks, size: {} / {} MB, evicted: {}, stale: {}",
+			chunks.size(),
+			String.format("%.2f", sizeBytes / 1e6),
+			String.format("%.2f", MAX_SIZE_BYTES / 1e6),
+			evictedCount,
+			staleCount
+		);
+	}
+
+	/**
+	 * Discards all cached terrain, which must be done whenever uploaded terrain may have changed for reasons not
+	 * covered by each chunk's fingerprint, such as material indices changing when textures are reloaded.
+	 */
+	public synchronized void clear() {
+		chunks.clear();
+		sizeBytes = 0;
+		epoch++;
+	}
+
+	/**
+	 * @return the index of the chunk containing the tile in the array returned by {@link #begin}
+	 */
+	public static int chunkIndex(int tileExX, int tileExY) {
+		return tileExX / CHUNK_SIZE * SCENE_CHUNKS + tileExY / CHUNK_SIZE;
+	}
+
+	/**
+	 * Hashes everything the terrain upload of the chunk's tiles reads, which changes whenever the uploaded terrain
+	 * would. Tiles are visited in the same order as they're uploaded, including bridges before the tiles below them.
+	 */
+	private static long fingerprint(SceneContext sceneContext, long settings, int chunkExX, int chunkExY) {
+		final Scene scene = sceneContext.scene;
+		final Tile[][][] tiles = scene.getExtendedTiles();
+		long hash = settings;
+		for (int z = 0; z < MAX_Z; z++) {
+			for (int x = chunkExX; x < chunkExX + CHUNK_SIZE; x++) {
+				for (int y = chunkExY; y < chunkExY + CHUNK_SIZE; y++) {
+					Tile tile = tiles[z][x][y];
+					if (tile == null) {
+						hash = mix(hash, 0);
+						continue;
+					}
+
+					Tile bridge = tile.getBridge();
+					if (bridge != null)
+						hash = hashTile(mix(hash, 2), sceneContext, bridge);
+					hash = hashTile(mix(hash, 1), sceneContext, tile);
+				}
+			}
+		}
+		return finish(hash);
+	}
+
+	private static long hashTile(long hash, SceneContext sceneContext, Tile tile) {
+		final TileVertexCursor vertices = sceneContext.tileVertexCursor;
+		final TerrainMaterials materials = sceneContext.terrainMaterials;
+		final Point tilePoint = tile.getSceneLocation();
+		final int tileExX = tilePoint.getX() + SCENE_OFFSET;
+		final int tileExY = tilePoint.getY() + SCENE_OFFSET;
+		final int tileZ = tile.getRenderLevel();
+		final int tileLocalX = tilePoint.getX() * LOCAL_TILE_SIZE;
+		final int tileLocalY = tilePoint.getY() * LOCAL_TILE_SIZE;
+
+		hash = mix(hash, tileZ);
+		hash = mix(hash, (sceneContext.skipTile[tileZ][tileExX][tileExY] ? 1 : 0) |
+			(sceneContext.tileIsWater[tileZ][tileExX][tileExY] ? 2 : 0));
+		hash = mix(hash, materials.getOverlay(tile).ordinal());
+		hash = mix(hash, materials.getUnderlay(tile).ordinal());
+		hash = mix(hash, materials.getWaterType(tile).ordinal());
+
+		SceneTilePaint paint = tile.getSceneTilePaint();
+		if (paint == null) {
+			hash = mix(hash, 0);
+		} else {
+			hash = mix(hash, paint.getSwColor());
+			hash = mix(hash, paint.getSeColor());
+			hash = mix(hash, paint.getNeColor());
+			hash = mix(hash, paint.getNwColor());
+			hash = mix(hash, paint.getTexture());
+			hash = hashVertices(hash, sceneContext, vertices.tile(sceneContext.scene, tile), tileLocalX, tileLocalY);
+		}
+
+		SceneTileModel model = tile.getSceneTileModel();
+		if (model == null) {
+			hash = mix(hash, 0);
+		} else {
+			final int[] colorsA = model.getTriangleColorA();
+			final int[] colorsB = model.getTriangleColorB();
+			final int[] colorsC = model.getTriangleColorC();
+			final int[] textures = model.getTriangleTextureId();
+			final int faceCount = model.getFaceX().length;
+			hash = mix(hash, model.getShape());
+			hash = mix(hash, faceCount);
+			for (int face = 0; face < faceCount; face++) {
+				hash = mix(hash, colorsA[face]);
+				hash = mix(hash, colorsB[face]);
+				hash = mix(hash, colorsC[face]);
+				hash = mix(hash, textures == null ? -2 : textures[face]);
+				hash = hashVertices(hash, sceneContext, vertices.face(tile, face), tileLocalX, tileLocalY);
+			}
+		}
+
+		return hash;
+	}
+
+	private static long hashVertices(long hash, SceneContext sceneContext, TileVertexCursor vertices, int tileLocalX, int tileLocalY) {
+		final TerrainVertexData vertexData = sceneContext.vertexData;
+		for (int i = 0; i < vertices.count(); i++) {
+			hash = mix(hash, vertices.x(i) - tileLocalX);
+			hash = mix(hash, vertices.y(i) - tileLocalY);
+			hash = mix(hash, vertices.height(i));
+
+			int vertex = vertexData.indexOf(vertices.key(i));
+			Material texture = vertexData.getTexture(vertex, null);
+			hash = mix(hash, vertexData.getFlags(vertex));
+			hash = mix(hash, vertexData.getColor(vertex, 0));
+			hash = mix(hash, texture == null ? -1 : texture.ordinal());
+			hash = mix(hash, vertexData.getUnderwaterDepth(vertex));
+
+			float[] normal = vertices.normal(i, sceneContext.terrainNormals, UP_NORMAL);
+			hash = mix(hash, Float.floatToRawIntBits(normal[0]));
+			hash = mix(hash, Float.floatToRawIntBits(normal[1]));
+			hash = mix(hash, Float.floatToRawIntBits(normal[2]));
+		}
+		return hash;
+	}
+
+	private static long mix(long hash, int value) {
+		return Long.rotateLeft(hash ^ value * 0x9E3779B97F4A7C15L, 29) * 0xBF58476D1CE4E5B9L;
+	}
+
+	private static long finish(long hash) {
+		hash ^= hash >>> 31;
+		hash *= 0x94D049BB133111EBL;
+		return hash ^ hash >>> 29;
+	}
+}
@@ -0,0 +1,82 @@
+package rs117.hd.scene;
+
+import java.util.Arrays;
+import net.runelite.api.*;
+import rs117.hd.data.WaterType;
+import rs117.hd.data.materials.GroundMaterial;
+import rs117.hd.data.materials.Overlay;
+import rs117.hd.data.materials.Underlay;
+
+import static net.runelite.api.Constants.*;
+import static rs117.hd.scene.SceneUploader.SCENE_OFFSET;
+
+/**
+ * The {@link Overlay} and {@link Underlay} matching each tile of a scene, along with the {@link GroundMaterial} and
+ * {@link WaterType} of its tile paint, resolved once while generating scene data.
+ * <p>
+ * Matching overlays and underlays depends only on a tile's render level and position, so they're stored by ordinal
+ * in flat arrays indexed by those, and shared by bridges and the tiles below them when they're on the same level.
+ */
+public class TerrainMaterials {
+	private static final Overlay[] OVERLAYS = Overlay.values();
+	private static final Underlay[] UNDERLAYS = Underlay.values();
+	private static final GroundMaterial[] GROUND_MATERIALS = GroundMaterial.values();
+	private static final WaterType[] WATER_TYPES = WaterType.values();
+
+	// ordinals at (renderLevel * EXTENDED_SCENE_SIZE + tileExX) * EXTENDED_SCENE_SIZE + tileExY
+	private final short[] overlays = new short[MAX_Z * EXTENDED_SCENE_SIZE * EXTENDED_SCENE_SIZE];
+	private final short[] underlays = new short[overlays.length];
+	private final short[] groundMaterials = new short[overlays.length];
+	private final byte[] waterTypes = new byte[overlays.length];
+
+	public TerrainMaterials() {
+		// positions without tiles are never looked up, but should still be valid
+		Arrays.fill(overlays, (short) Overlay.NONE.ordinal());
+		Arrays.fill(underlays, (short) Underlay.NONE.ordinal());
+		Arrays.fill(groundMaterials, (short) GroundMaterial.NONE.ordinal());
+		Arrays.fill(waterTypes, (byte) WaterType.NONE.ordinal());
+	}
+
+	/**
+	 * Stores the materials resolved for the tile, which may be done from multiple threads for different positions.
+	 *
+	 * @param tile      to store materials for
+	 * @param waterType of the tile's paint, with seasonal changes applied
+	 */
+	public void set(Tile tile, Overlay overlay, Underlay underlay, WaterType waterType) {
+		int i = index(tile);
+		overlays[i] = (short) overlay.ordinal();
+		underlays[i] = (short) underlay.ordinal();
+		groundMaterials[i] = (short) (overlay != Overlay.NONE ? overlay.groundMaterial : underlay.groundMaterial).ordinal();
+		waterTypes[i] = (byte) waterType.ordinal();
+	}
+
+	public Overlay getOverlay(Tile tile) {
+		return OVERLAYS[overlays[index(tile)]];
+	}
+
+	public Underlay getUnderlay(Tile tile) {
+		return UNDERLAYS[underlays[index(tile)]];
+	}
+
+	/**
+	 * @return the ground material of the tile's paint, from its overlay if it has one, or otherwise its underlay
+	 */
+	public GroundMaterial getGroundMaterial(Tile tile) {
+		return GROUND_MATERIALS[groundMaterials[index(tile)]];
+	}
+
+	/**
+	 * @return the water type of the tile's paint, with seasonal changes applied
+	 */
+	public WaterType getWaterType(Tile tile) {
+		return WATER_TYPES[waterTypes[index(tile)]];
+	}
+
+	private static int index(Tile tile) {
+		Point tilePoint = tile.getSceneLocation();
+		int tileExX = tilePoint.getX() + SCENE_OFFSET;
+		int tileExY = tilePoint.getY() + SCENE_OFFSET;
+		return (tile.getRenderLevel() * EXTENDED_SCENE_SIZE + tileExX) * EXTENDED_SCENE_SIZE + tileExY;
+	}
+}
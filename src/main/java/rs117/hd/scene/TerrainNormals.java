@@ -0,0 +1,111 @@
+package rs117.hd.scene;
+
+import static net.runelite.api.Constants.*;
+import static net.runelite.api.Perspective.LOCAL_TILE_SIZE;
+
+/**
+ * Smooth normals of a scene's terrain, where the normal of each vertex is the sum of the normals of all faces sharing it.
+ * <p>
+ * Normals of vertices on the tile grid are stored in a dense array per plane, indexed by the vertex' position on the
+ * grid, so normals of Tile Paint tiles can be accumulated straight from the height field. Only vertices in the middle
+ * of Tile Model tiles are stored by their index in {@link TerrainVertexData}.
+ */
+public class TerrainNormals {
+	private static final int GRID_SIZE = EXTENDED_SCENE_SIZE + 1;
+
+	// XYZ normals of vertices on the tile grid, at (exX * GRID_SIZE + exY) * 3
+	private final float[][] gridNormals = new float[MAX_Z][GRID_SIZE * GRID_SIZE * 3];
+	private final boolean[][] hasGridNormal = new boolean[MAX_Z][GRID_SIZE * GRID_SIZE];
+
+	// XYZ normals of other vertices, at their index in the vertex data * 3
+	private final TerrainVertexData vertexData;
+	private final float[] vertexNormals;
+	private final boolean[] hasVertexNormal;
+
+	public TerrainNormals(TerrainVertexData vertexData) {
+		this.vertexData = vertexData;
+		vertexNormals = new float[(vertexData.size() + 1) * 3];
+		hasVertexNormal = new boolean[vertexData.size() + 1];
+	}
+
+	/**
+	 * Adds the normal of a face to a vertex on the tile grid.
+	 *
+	 * @param plane the render level of the vertex
+	 * @param exX   extended scene X coordinate of the vertex
+	 * @param exY   extended scene Y coordinate of the vertex
+	 */
+	public void addGridNormal(int plane, int exX, int exY, float x, float y, float z) {
+		int i = exX * GRID_SIZE + exY;
+		hasGridNormal[plane][i] = true;
+		float[] normals = gridNormals[plane];
+		normals[i * 3] += x;
+		normals[i * 3 + 1] += y;
+		normals[i * 3 + 2] += z;
+	}
+
+	/**
+	 * Adds the normal of a face to any vertex which has been indexed.
+	 *
+	 * @param vertexKey of the vertex, from {@link ProceduralGenerator#vertexKey}
+	 */
+	public void addNormal(int vertexKey, float x, float y, float z) {
+		int gridIndex = gridIndex(vertexKey);
+		if (gridIndex != -1) {
+			addGridNormal(vertexKey >>> 30, gridIndex / GRID_SIZE, gridIndex % GRID_SIZE, x, y, z);
+			return;
+		}
+
+		int vertex = vertexData.indexOf(vertexKey);
+		if (vertex == 0)
+			return;
+		hasVertexNormal[vertex] = true;
+		vertexNormals[vertex * 3] += x;
+		vertexNormals[vertex * 3 + 1] += y;
+		vertexNormals[vertex * 3 + 2] += z;
+	}
+
+	/**
+	 * Copies the normal of a vertex to {@code out}.
+	 *
+	 * @param vertexKey     of the vertex, from {@link ProceduralGenerator#vertexKey}
+	 * @param out           array to copy the normal to
+	 * @param defaultNormal to return if no faces share the vertex
+	 * @return {@code out}, or the default normal
+	 */
+	public float[] getNormal(int vertexKey, float[] out, float[] defaultNormal) {
+		float[] normals;
+		int i;
+		int gridIndex = gridIndex(vertexKey);
+		if (gridIndex != -1) {
+			int plane = vertexKey >>> 30;
+			if (!hasGridNormal[plane][gridIndex])
+				return defaultNormal;
+			normals = gridNormals[plane];
+			i = gridIndex;
+		} else {
+			int vertex = vertexData.indexOf(vertexKey);
+			if (!hasVertexNormal[vertex])
+				return defaultNormal;
+			normals = vertexNormals;
+			i = vertex;
+		}
+
+		out[0] = normals[i * 3];
+		out[1] = normals[i * 3 + 1];
+		out[2] = normals[i * 3 + 2];
+		return out;
+	}
+
+	/**
+	 * @return the index of the vertex on the tile grid, or -1 if it doesn't lie on a tile corner
+	 */
+	private static int gridIndex(int vertexKey) {
+		// undo the offset applied in vertexKey, leaving extended scene-local coordinates
+		int x = (vertexKey >> 15 & 0x7FFF) - 1;
+		int y = (vertexKey & 0x7FFF) - 1;
+		if (x % LOCAL_TILE_SIZE != 0 || y % LOCAL_TILE_SIZE != 0)
+			return -1;
+		return x / LOCAL_TILE_SIZE * GRID_SIZE + y / LOCAL_TILE_SIZE;
+	}
+}
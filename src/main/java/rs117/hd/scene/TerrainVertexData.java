@@ -0,0 +1,154 @@
+package rs117.hd.scene;
+
+import rs117.hd.data.materials.Material;
+import rs117.hd.utils.HashUtils;
+
+/**
+ * Terrain data for each tile vertex in a scene, stored in dense primitive arrays instead of boxed maps.
+ * <p>
+ * Vertices are identified by keys from {@link ProceduralGenerator#vertexKey}, which are assigned consecutive indices
+ * through an open-addressing hash table while indexing the scene's vertices. All data is then looked up by index.
+ * Index zero is reserved for vertices which weren't indexed, and always holds default values.
+ */
+public class TerrainVertexData {
+	public static final int IS_WATER = 1;
+	public static final int IS_LAND = 1 << 1;
+	public static final int IS_OVERLAY = 1 << 2;
+	public static final int IS_UNDERLAY = 1 << 3;
+	// used for overriding potentially low quality vertex colors
+	public static final int HIGH_PRIORITY_COLOR = 1 << 4;
+	private static final int HAS_COLOR = 1 << 5;
+
+	private static final int MIN_TABLE_SIZE = 1 << 12;
+
+	// open-addressing hash table from vertex keys to indices, where an index of zero marks an empty slot
+	private int[] keys = new int[MIN_TABLE_SIZE];
+	private int[] indices = new int[MIN_TABLE_SIZE];
+	private int shift = HashUtils.slotShift(MIN_TABLE_SIZE);
+	private int count = 1;
+
+	private byte[] flags;
+	private int[] colors;
+	private Material[] textures;
+	private int[] underwaterDepths;
+
+	/**
+	 * Adds a vertex to the index, unless it has already been added. Vertices can only be added until
+	 * {@link #allocate} is called.
+	 *
+	 * @param key of the vertex, from {@link ProceduralGenerator#vertexKey}
+	 * @return the index of the vertex
+	 */
+	public int add(int key) {
+		assert flags == null : "vertices can't be added after allocating vertex data";
+		assert key != 0;
+		int slot = slot(key);
+		if (indices[slot] != 0)
+			return indices[slot];
+
+		keys[slot] = key;
+		indices[slot] = count;
+		if (++count * 2 > keys.length)
+			grow();
+		return count - 1;
+	}
+
+	/**
+	 * Allocates space for data of all vertices added so far.
+	 */
+	public void allocate() {
+		flags = new byte[count];
+		colors = new int[count];
+		textures = new Material[count];
+		underwaterDepths = new int[count];
+	}
+
+	/**
+	 * @return the number of indexed vertices, excluding the reserved index zero
+	 */
+	public int size() {
+		return count - 1;
+	}
+
+	/**
+	 * @param key of the vertex, from {@link ProceduralGenerator#vertexKey}
+	 * @return the index of the vertex, or zero if it hasn't been indexed
+	 */
+	public int indexOf(int key) {
+		return indices[slot(key)];
+	}
+
+	private int slot(int key) {
+		final int mask = keys.length - 1;
+		int slot = HashUtils.idealSlot(key, shift);
+		while (indices[slot] != 0 && keys[slot] != key)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	private void grow() {
+		int[] oldKeys = keys;
+		int[] oldIndices = indices;
+		keys = new int[oldKeys.length * 2];
+		indices = new int[oldKeys.length * 2];
+		shift = HashUtils.slotShift(keys.length);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldIndices[i] != 0) {
+				int slot = slot(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				indices[slot] = oldIndices[i];
+			}
+		}
+	}
+
+	public int getFlags(int vertex) {
+		return flags[vertex];
+	}
+
+	public boolean hasFlags(int vertex, int flags) {
+		return (this.flags[vertex] & flags) == flags;
+	}
+
+	public void setFlags(int vertex, int flags) {
+		if (vertex != 0)
+			this.flags[vertex] |= (byte) flags;
+	}
+
+	public boolean hasColor(int vertex) {
+		return hasFlags(vertex, HAS_COLOR);
+	}
+
+	public int getColor(int vertex, int defaultColor) {
+		return hasFlags(vertex, HAS_COLOR) ? colors[vertex] : defaultColor;
+	}
+
+	public void setColor(int vertex, int color) {
+		if (vertex == 0)
+			return;
+		flags[vertex] |= HAS_COLOR;
+		colors[vertex] = color;
+	}
+
+	public boolean hasTexture(int vertex) {
+		return textures[vertex] != null;
+	}
+
+	public Material getTexture(int vertex, Material defaultTexture) {
+		Material texture = textures[vertex];
+		return texture == null ? defaultTexture : texture;
+	}
+
+	public void setTexture(int vertex, Material texture) {
+		if (vertex != 0)
+			textures[vertex] = texture;
+	}
+
+	public int getUnderwaterDepth(int vertex) {
+		return underwaterDepths[vertex];
+	}
+
+	public void setUnderwaterDepth(int vertex, int depth) {
+		if (vertex != 0)
+			underwaterDepths[vertex] = depth;
+	}
+}
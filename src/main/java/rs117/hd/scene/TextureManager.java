@@ -31,6 +31,7 @@ import java.awt.image.DataBufferInt;
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
@@ -45,6 +46,7 @@ import rs117.hd.HdPlugin;
 import rs117.hd.HdPluginConfig;
 import rs117.hd.data.WaterType;
 import rs117.hd.data.materials.Material;
+import rs117.hd.model.ModelPusher;
 import rs117.hd.utils.Props;
 import rs117.hd.utils.ResourcePath;
 
@@ -76,6 +78,12 @@ public class TextureManager {
 	@Inject
 	private ClientThread clientThread;
 
+	@Inject
+	private ModelPusher modelPusher;
+
+	@Inject
+	private TerrainCache terrainCache;
+
 	private int textureArray;
 	private int textureSize;
 
@@ -136,6 +144,16 @@ public class TextureManager {
 		return materialOrdinalToMaterialUniformIndex[material.ordinal()];
 	}
 
+	/**
+	 * @return a hash of the material indices which get packed into model data, or zero if materials aren't loaded
+	 */
+	public long getMaterialIndexHash() {
+		if (textureArray == 0)
+			return 0;
+		return 31L * Arrays.hashCode(materialOrdinalToMaterialUniformIndex)
+			   + Arrays.hashCode(vanillaTextureIndexToMaterialUniformIndex);
+	}
+
 	public boolean vanillaTexturesAvailable() {
 		var textureProvider = client.getTextureProvider();
 		if (textureProvider == null)
@@ -305,6 +323,10 @@ public class TextureManager {
 		plugin.updateMaterialUniformBuffer(generateMaterialUniformBuffer());
 		plugin.updateWaterTypeUniformBuffer(generateWaterTypeUniformBuffer());
 
+		// Cached model data and terrain contain material indices, which may have changed
+		modelPusher.clearModelCache();
+		terrainCache.clear();
+
 		// Reset
 		pixelBuffer = null;
 		scaledImage = null;
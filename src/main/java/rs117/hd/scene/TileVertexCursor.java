@@ -0,0 +1,129 @@
+package rs117.hd.scene;
+
+import net.runelite.api.*;
+
+import static net.runelite.api.Perspective.LOCAL_TILE_SIZE;
+import static rs117.hd.scene.SceneUploader.SCENE_OFFSET;
+
+/**
+ * A reusable cursor over the vertices of either a Tile Paint tile, or a single face of a Tile Model tile.
+ * <p>
+ * Vertex positions and {@link ProceduralGenerator#vertexKey vertex keys} are read into primitive buffers owned by the
+ * cursor, so walking through the tiles of a scene doesn't allocate arrays for each tile or face. Cursors aren't
+ * thread-safe, so each thread or task walking through tiles needs its own.
+ */
+public class TileVertexCursor {
+	// tile paint has four vertices, and tile model faces have three
+	private static final int MAX_VERTICES = 4;
+
+	// scene-local X, Y and height of each vertex
+	private final int[] positions = new int[MAX_VERTICES * 3];
+	private final int[] keys = new int[MAX_VERTICES];
+	// normals read for each vertex, which are only valid until the cursor moves
+	private final float[][] normals = new float[MAX_VERTICES][3];
+	private int count;
+
+	/**
+	 * Moves the cursor to the corners of a Tile Paint tile, in SW, SE, NW, NE order.
+	 *
+	 * @param scene that the tile is from
+	 * @param tile  to read the vertices of
+	 * @return this cursor
+	 */
+	public TileVertexCursor tile(Scene scene, Tile tile) {
+		Point tilePoint = tile.getSceneLocation();
+		int tileX = tilePoint.getX();
+		int tileY = tilePoint.getY();
+		int tileExX = tileX + SCENE_OFFSET;
+		int tileExY = tileY + SCENE_OFFSET;
+		int plane = tile.getRenderLevel();
+		int[][] tileHeights = scene.getTileHeights()[plane];
+
+		int x = tileX * LOCAL_TILE_SIZE;
+		int y = tileY * LOCAL_TILE_SIZE;
+		set(0, plane, x, y, tileHeights[tileExX][tileExY]);
+		set(1, plane, x + LOCAL_TILE_SIZE, y, tileHeights[tileExX + 1][tileExY]);
+		set(2, plane, x, y + LOCAL_TILE_SIZE, tileHeights[tileExX][tileExY + 1]);
+		set(3, plane, x + LOCAL_TILE_SIZE, y + LOCAL_TILE_SIZE, tileHeights[tileExX + 1][tileExY + 1]);
+		count = 4;
+		return this;
+	}
+
+	/**
+	 * Moves the cursor to the vertices of a Tile Model tile's face, in A, B, C order.
+	 *
+	 * @param tile to read the vertices of
+	 * @param face index of the face in the tile's model
+	 * @return this cursor
+	 */
+	public TileVertexCursor face(Tile tile, int face) {
+		SceneTileModel sceneTileModel = tile.getSceneTileModel();
+		int plane = tile.getRenderLevel();
+
+		final int[] vertexX = sceneTileModel.getVertexX();
+		final int[] vertexY = sceneTileModel.getVertexY();
+		final int[] vertexZ = sceneTileModel.getVertexZ();
+
+		// the model's Y axis points up, so its Z axis is the scene's Y axis
+		int a = sceneTileModel.getFaceX()[face];
+		int b = sceneTileModel.getFaceY()[face];
+		int c = sceneTileModel.getFaceZ()[face];
+		set(0, plane, vertexX[a], vertexZ[a], vertexY[a]);
+		set(1, plane, vertexX[b], vertexZ[b], vertexY[b]);
+		set(2, plane, vertexX[c], vertexZ[c], vertexY[c]);
+		count = 3;
+		return this;
+	}
+
+	private void set(int vertex, int plane, int x, int y, int height) {
+		positions[vertex * 3] = x;
+		positions[vertex * 3 + 1] = y;
+		positions[vertex * 3 + 2] = height;
+		keys[vertex] = ProceduralGenerator.vertexKey(plane, x, y);
+	}
+
+	/**
+	 * @return the number of vertices at the cursor's current position
+	 */
+	public int count() {
+		return count;
+	}
+
+	/**
+	 * @return the scene-local X coordinate of the vertex
+	 */
+	public int x(int vertex) {
+		return positions[vertex * 3];
+	}
+
+	/**
+	 * @return the scene-local Y coordinate of the vertex
+	 */
+	public int y(int vertex) {
+		return positions[vertex * 3 + 1];
+	}
+
+	public int height(int vertex) {
+		return positions[vertex * 3 + 2];
+	}
+
+	/**
+	 * @return the key of the vertex for use with {@link TerrainVertexData}
+	 */
+	public int key(int vertex) {
+		return keys[vertex];
+	}
+
+	/**
+	 * Reads the normal of the vertex into a buffer owned by the cursor, which stays valid until the normal of a vertex
+	 * at the same position in the cursor is read again.
+	 *
+	 * @param vertex         at the cursor's current position
+	 * @param terrainNormals to read the normal from
+	 * @param defaultNormal  to return if no faces share the vertex
+	 * @return the normal of the vertex, or the default normal
+	 */
+	public float[] normal(int vertex, TerrainNormals terrainNormals, float[] defaultNormal) {
+		return terrainNormals.getNormal(keys[vertex], normals[vertex], defaultNormal);
+	}
+}
@@ -0,0 +1,149 @@
+package rs117.hd.scene.lights;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Bins lights into a grid of columns around the camera's focal point, so each fragment only has to process the lights
+ * whose radius overlaps the column it lies in, instead of every visible light.
+ * <p>
+ * The grid is aligned to the scene, rather than the screen, since fragments already know their position in the scene,
+ * which spares the shader from having to account for stretched mode, DPI scaling and anti-aliasing when mapping its
+ * screen coordinates to a cell. Each cell holds a range of light indices, which are packed into a uniform buffer along
+ * with the indices themselves, laid out as follows:
+ * <pre>
+ * ivec4 lightClusterCells[GRID_SIZE * GRID_SIZE / 4];  // (start << 16) | count, by cellX * GRID_SIZE + cellY
+ * ivec4 lightClusterIndices[MAX_INDICES / 8];          // two 16-bit light indices per component, low bits first
+ * </pre>
+ */
+public class LightClusterGrid {
+	public static final int GRID_SIZE = 32;
+	public static final int CELL_COUNT = GRID_SIZE * GRID_SIZE;
+	public static final int MAX_INDICES = 6144;
+	// fits within the 16 KiB guaranteed to be available for each uniform block
+	public static final int UNIFORM_BUFFER_SIZE = CELL_COUNT * Integer.BYTES + MAX_INDICES * Short.BYTES;
+
+	private final int[] cellStart = new int[CELL_COUNT + 1];
+	private final short[] indices = new short[MAX_INDICES];
+
+	/**
+	 * Scene coordinates of the grid's south-west corner, and the width of each cell.
+	 */
+	public int originX, originY, cellSize = 1;
+
+	/**
+	 * The number of lights which were binned. When there's no room left for a light's indices, it and all lights after
+	 * it are left out, so lights should be ordered from most to least important.
+	 */
+	public int lightCount;
+
+	/**
+	 * Bins the lights into a grid centered on the specified point. This must only be done for lights which have had
+	 * their positions and sizes updated for the current frame.
+	 *
+	 * @param lights     to bin, ordered from most to least important
+	 * @param count      of lights in the array to bin
+	 * @param centerX    of the grid in scene coordinates
+	 * @param centerY    of the grid in scene coordinates
+	 * @param halfExtent distance from the grid's center to its edges, beyond which lights have no effect
+	 */
+	public void build(SceneLight[] lights, int count, int centerX, int centerY, int halfExtent) {
+		cellSize = Math.max(1, (halfExtent * 2 + GRID_SIZE - 1) / GRID_SIZE);
+		originX = centerX - cellSize * GRID_SIZE / 2;
+		originY = centerY - cellSize * GRID_SIZE / 2;
+
+		// count the cells each light overlaps, offset by one so the counts turn into start indices after summing
+		Arrays.fill(cellStart, 0);
+		int total = 0;
+		lightCount = 0;
+		for (; lightCount < count; lightCount++) {
+			SceneLight light = lights[lightCount];
+			int overlaps = forEachOverlappedCell(light, null, 0);
+			if (total + overlaps > MAX_INDICES)
+				break;
+			total += overlaps;
+			forEachOverlappedCell(light, cellStart, 0);
+		}
+
+		for (int cell = 1; cell <= CELL_COUNT; cell++)
+			cellStart[cell] += cellStart[cell - 1];
+
+		// fill in each cell's indices, using its start as a cursor, which ends up at the start of the next cell
+		for (int i = 0; i < lightCount; i++)
+			forEachOverlappedCell(lights[i], null, i + 1);
+
+		// shift the starts back into place
+		System.arraycopy(cellStart, 0, cellStart, 1, CELL_COUNT);
+		cellStart[0] = 0;
+	}
+
+	/**
+	 * Visits the cells overlapped by the light's radius. Without a count array or light index, it only counts them.
+	 * With a count array, the count of each cell after the overlapped one is incremented. With a light index, the
+	 * index minus one is written to the position given by the start of the cell, which is then incremented.
+	 *
+	 * @return the number of cells overlapped by the light
+	 */
+	private int forEachOverlappedCell(SceneLight light, int[] counts, int lightIndexPlusOne) {
+		int radius = Math.max(0, light.currentSize);
+		long radiusSquared = (long) radius * radius;
+		int x = light.x - originX;
+		int y = light.y - originY;
+		int minCellX = Math.max(0, Math.floorDiv(x - radius, cellSize));
+		int minCellY = Math.max(0, Math.floorDiv(y - radius, cellSize));
+		int maxCellX = Math.min(GRID_SIZE - 1, Math.floorDiv(x + radius, cellSize));
+		int maxCellY = Math.min(GRID_SIZE - 1, Math.floorDiv(y + radius, cellSize));
+
+		int overlaps = 0;
+		for (int cellX = minCellX; cellX <= maxCellX; cellX++) {
+			// distance from the light to the closest point of the cell along each axis
+			long dx = Math.max(0, Math.max(cellX * cellSize - x, x - (cellX + 1) * cellSize));
+			for (int cellY = minCellY; cellY <= maxCellY; cellY++) {
+				long dy = Math.max(0, Math.max(cellY * cellSize - y, y - (cellY + 1) * cellSize));
+				if (dx * dx + dy * dy > radiusSquared)
+					continue;
+
+				overlaps++;
+				int cell = cellX * GRID_SIZE + cellY;
+				if (counts != null)
+					counts[cell + 1]++;
+				if (lightIndexPlusOne != 0)
+					indices[cellStart[cell]++] = (short) (lightIndexPlusOne - 1);
+			}
+		}
+		return overlaps;
+	}
+
+	/**
+	 * @return the index of the first light index of the cell
+	 */
+	public int getCellStart(int cellX, int cellY) {
+		return cellStart[cellX * GRID_SIZE + cellY];
+	}
+
+	/**
+	 * @return the number of lights overlapping the cell
+	 */
+	public int getCellLightCount(int cellX, int cellY) {
+		int cell = cellX * GRID_SIZE + cellY;
+		return cellStart[cell + 1] - cellStart[cell];
+	}
+
+	/**
+	 * @return the index of the light in the array passed to {@link #build}
+	 */
+	public int getLightIndex(int index) {
+		return indices[index] & 0xFFFF;
+	}
+
+	/**
+	 * Writes the cells and light indices into the buffer, in the layout of the uniform block.
+	 */
+	public void write(ByteBuffer buffer) {
+		for (int cell = 0; cell < CELL_COUNT; cell++)
+			buffer.putInt(cellStart[cell] << 16 | (cellStart[cell + 1] - cellStart[cell]));
+		int indexCount = cellStart[CELL_COUNT];
+		for (int i = 0; i < indexCount; i += 2)
+			buffer.putInt((indices[i] & 0xFFFF) | (i + 1 < indexCount ? (indices[i + 1] & 0xFFFF) << 16 : 0));
+	}
+}
@@ -0,0 +1,44 @@
+package rs117.hd.scene.lights;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Light definitions by NPC, object, projectile or graphics object ID.
+ * <p>
+ * IDs are small and densely packed, so definitions are stored in an array indexed directly by ID, instead of a map
+ * from boxed IDs, which makes each lookup a bounds check and an array load.
+ */
+public class LightTable {
+	private static final int MIN_SIZE = 1 << 10;
+
+	@SuppressWarnings("unchecked")
+	private List<Light>[] lights = new List[MIN_SIZE];
+
+	public void put(int id, Light light) {
+		if (id < 0)
+			return;
+
+		if (id >= lights.length)
+			lights = Arrays.copyOf(lights, Math.max(id + 1, lights.length * 2));
+
+		if (lights[id] == null)
+			lights[id] = new ArrayList<>(1);
+		lights[id].add(light);
+	}
+
+	/**
+	 * @return the light definitions for the ID, in the order they were added, or an empty list if there are none
+	 */
+	public List<Light> get(int id) {
+		if (id < 0 || id >= lights.length || lights[id] == null)
+			return Collections.emptyList();
+		return lights[id];
+	}
+
+	public void clear() {
+		Arrays.fill(lights, null);
+	}
+}
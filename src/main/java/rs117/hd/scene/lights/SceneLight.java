@@ -16,6 +16,8 @@ public class SceneLight extends Light
 	public float[] currentColor;
 	public float currentAnimation = 0.5f;
 	public int currentFadeIn = 0;
+	// when the light was last animated, or zero if it hasn't been yet
+	public long lastUpdateTime = 0;
 	public boolean visible = true;
 
 	public WorldPoint worldPoint;
@@ -2,6 +2,7 @@ package rs117.hd.scene.model_overrides;
 
 import com.google.gson.annotations.JsonAdapter;
 import java.util.HashSet;
+import java.util.Objects;
 import java.util.Set;
 import lombok.NoArgsConstructor;
 import net.runelite.api.*;
@@ -48,6 +49,8 @@ public class ModelOverride
 	@JsonAdapter(AABB.JsonAdapter.class)
 	public AABB[] hideInAreas = {};
 
+	private transient int cacheHash;
+
 	public void gsonReallyShouldSupportThis() {
 		// Ensure there are no nulls in case of invalid configuration during development
 		if (baseMaterial == null)
@@ -70,6 +73,32 @@ public class ModelOverride
 			uvOrientationY = uvOrientation;
 		if (uvOrientationZ == 0)
 			uvOrientationZ = uvOrientation;
+
+		// Unlike the identity hash code, this stays the same between client restarts
+		cacheHash = Objects.hash(
+			baseMaterial.name(),
+			textureMaterial.name(),
+			uvType.name(),
+			uvScale,
+			uvOrientationX,
+			uvOrientationY,
+			uvOrientationZ,
+			retainVanillaUvs,
+			forceOverride,
+			flatNormals,
+			removeBakedLighting,
+			receiveShadows,
+			shadowOpacityThreshold,
+			tzHaarRecolorType.name(),
+			inheritTileColorType.name()
+		);
+	}
+
+	/**
+	 * @return a hash of all fields which affect pushed model data
+	 */
+	public int getCacheHash() {
+		return cacheHash;
 	}
 
     public void computeModelUvw(float[] out, int i, float x, float y, float z, int orientation) {
@@ -152,14 +152,6 @@ public class HDUtils {
 		return Math.min(Math.max(value, min), max);
 	}
 
-	public static int vertexHash(int[] vPos) {
-		// simple custom hashing function for vertex position data
-		StringBuilder s = new StringBuilder();
-		for (int part : vPos)
-			s.append(part).append(",");
-		return s.toString().hashCode();
-	}
-
 	public static float[] calculateSurfaceNormals(float[] a, float[] b, float[] c) {
 		subtract(b, a, b);
 		subtract(c, a, c);
@@ -168,7 +160,10 @@ public class HDUtils {
 	}
 
 	public static int[] colorIntToHSL(int colorInt) {
-		int[] outHSL = new int[3];
+		return colorIntToHSL(colorInt, new int[3]);
+	}
+
+	public static int[] colorIntToHSL(int colorInt, int[] outHSL) {
 		outHSL[0] = colorInt >> 10 & 0x3F;
 		outHSL[1] = colorInt >> 7 & 0x7;
 		outHSL[2] = colorInt & 0x7F;
@@ -0,0 +1,30 @@
+package rs117.hd.utils;
+
+/**
+ * Slot hashing shared by the open-addressing hash tables used while loading scenes and caching models, which all have
+ * a power-of-two capacity and use linear probing.
+ */
+public class HashUtils {
+	/**
+	 * @param capacity of the table, which must be a power of two
+	 * @return the shift to pass to {@link #idealSlot} for a table of the specified capacity
+	 */
+	public static int slotShift(int capacity) {
+		assert Integer.bitCount(capacity) == 1 : "capacity must be a power of two";
+		return Long.numberOfLeadingZeros(capacity) + 1;
+	}
+
+	/**
+	 * Maps a hash to the slot where probing for it should start, using Fibonacci hashing. The hash is multiplied by
+	 * 2^64 divided by the golden ratio, and the top bits of the product are used as the slot, so every bit of the hash
+	 * affects the slot. Masking off the lowest bits instead would ignore the upper bits, and map keys which only differ
+	 * in their lower bits, like those of neighbouring vertices, to neighbouring slots, forming long probe sequences.
+	 *
+	 * @param hash  to find the slot for
+	 * @param shift returned by {@link #slotShift} for the table's capacity
+	 * @return the slot to start probing from
+	 */
+	public static int idealSlot(long hash, int shift) {
+		return (int) ((hash * 0x9E3779B97F4A7C15L) >>> shift);
+	}
+}
@@ -61,6 +61,21 @@ public class Props
 		return value == null ? defaultValue : value;
 	}
 
+	public static int getIntOrDefault(String variableName, int defaultValue)
+	{
+		String value = get(variableName);
+		if (value == null)
+			return defaultValue;
+		try
+		{
+			return Integer.parseInt(value.trim());
+		}
+		catch (NumberFormatException ex)
+		{
+			return defaultValue;
+		}
+	}
+
 	public static ResourcePath getPathOrDefault(String variableName, Supplier<ResourcePath> fallback) {
 		String path = get(variableName);
 		if (path == null)
@@ -69,6 +69,22 @@ public class GpuIntBuffer
 		this.buffer.put(buffer);
 	}
 
+	/**
+	 * Advances the position of the buffer past {@code count} ints, which have been written to directly through
+	 * {@link #getAddress}.
+	 */
+	public void skip(int count) {
+		buffer.position(buffer.position() + count);
+	}
+
+	/**
+	 * @return the memory address of the specified position in the buffer
+	 */
+	public long getAddress(int position) {
+		assert position <= buffer.capacity();
+		return MemoryUtil.memAddress0(buffer) + position * 4L;
+	}
+
 	public int position()
 	{
 		return buffer.position();
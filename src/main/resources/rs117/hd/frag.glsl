@@ -66,6 +66,9 @@ uniform float saturation;
 uniform float contrast;
 
 uniform int pointLightsCount; // number of lights in current frame
+#if LIGHT_CLUSTERS
+uniform vec3 lightClusterGrid; // position of the light cluster grid's south-west corner, and 1 / cell size
+#endif
 
 flat in vec4 vColor[3];
 flat in vec3 vUv[3];
@@ -424,7 +427,21 @@ void main() {
         // point lights
         vec3 pointLightsOut = vec3(0);
         vec3 pointLightsSpecularOut = vec3(0);
+        #if LIGHT_CLUSTERS
+        // only process the lights reaching the grid cell containing the fragment
+        ivec2 lightCell = ivec2(floor((IN.position.xz - lightClusterGrid.xy) * lightClusterGrid.z));
+        int lightCellData = 0;
+        if (all(greaterThanEqual(lightCell, ivec2(0))) && all(lessThan(lightCell, ivec2(LIGHT_CLUSTER_GRID_SIZE)))) {
+            int cell = lightCell.x * LIGHT_CLUSTER_GRID_SIZE + lightCell.y;
+            lightCellData = lightClusterCells[cell >> 2][cell & 3];
+        }
+        int lightIndexStart = lightCellData >> 16;
+        int lightIndexEnd = lightIndexStart + (lightCellData & 0xFFFF);
+        for (int j = lightIndexStart; j < lightIndexEnd; j++) {
+            int i = (lightClusterIndices[j >> 3][(j >> 1) & 3] >> ((j & 1) * 16)) & 0xFFFF;
+        #else
         for (int i = 0; i < pointLightsCount; i++) {
+        #endif
             vec4 pos = PointLightArray[i].position;
             vec3 lightToFrag = pos.xyz - IN.position;
             float distanceSquared = dot(lightToFrag, lightToFrag);
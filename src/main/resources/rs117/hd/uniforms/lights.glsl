@@ -1,6 +1,9 @@
 #pragma once
 
 #include LIGHT_COUNT
+#include LIGHT_CLUSTERS
+#include LIGHT_CLUSTER_GRID_SIZE
+#include LIGHT_CLUSTER_MAX_INDICES
 
 struct PointLight
 {
@@ -13,4 +16,12 @@ layout(std140) uniform PointLightUniforms {
     PointLight PointLightArray[LIGHT_COUNT];
 };
 
+#if LIGHT_CLUSTERS
+// see LightClusterGrid for the layout
+layout(std140) uniform LightClusterUniforms {
+    ivec4 lightClusterCells[LIGHT_CLUSTER_GRID_SIZE * LIGHT_CLUSTER_GRID_SIZE / 4];
+    ivec4 lightClusterIndices[LIGHT_CLUSTER_MAX_INDICES / 8];
+};
+#endif
+
 #include LIGHT_GETTER
@@ -0,0 +1,37 @@
+package rs117.hd.test;
+
+import java.util.Random;
+import org.junit.Test;
+import rs117.hd.data.environments.Area;
+import rs117.hd.utils.AABB;
+
+import static org.junit.Assert.assertEquals;
+
+public class AreaIndexTest {
+	@Test
+	public void testMatchesAabbs() {
+		Random random = new Random(117);
+		Area[] areas = Area.values();
+		for (int i = 0; i < 5000; i++) {
+			int x, y;
+			if (i % 2 == 0) {
+				// points around the corners of AABBs, where an off-by-one would show
+				Area area = areas[random.nextInt(areas.length)];
+				AABB aabb = area.aabbs[random.nextInt(area.aabbs.length)];
+				x = (random.nextBoolean() ? aabb.minX : aabb.maxX) + random.nextInt(3) - 1;
+				y = (random.nextBoolean() ? aabb.minY : aabb.maxY) + random.nextInt(3) - 1;
+			} else {
+				x = random.nextInt(5500) - 200;
+				y = random.nextInt(13500);
+			}
+			int plane = random.nextInt(4);
+
+			for (Area area : areas) {
+				boolean expected = false;
+				for (AABB aabb : area.aabbs)
+					expected |= aabb.contains(x, y, plane);
+				assertEquals(area + " at " + x + ", " + y + ", " + plane, expected, area.containsPoint(x, y, plane));
+			}
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package rs117.hd.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lwjgl.system.MemoryUtil;
+import rs117.hd.model.ConcurrentModelCache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrentModelCacheTest {
+	private static final int THREADS = 8;
+	private static final int ITERATIONS = 100_000;
+	private static final int MAX_INTS = 4096;
+
+	private final AtomicBoolean terminated = new AtomicBoolean();
+	private ConcurrentModelCache cache;
+
+	@Before
+	public void setup() {
+		cache = new ConcurrentModelCache(4, 4, () -> terminated.set(true));
+	}
+
+	@After
+	public void teardown() {
+		cache.destroy();
+	}
+
+	private static int sizeOf(long hash) {
+		return 1 + (int) (hash % MAX_INTS);
+	}
+
+	private static int valueAt(long hash, int i) {
+		return (int) (hash * 31 + i);
+	}
+
+	@Test
+	public void testConcurrentAccess() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+		AtomicBoolean done = new AtomicBoolean();
+		try {
+			List<Future<Integer>> workers = new ArrayList<>();
+			for (int t = 0; t < THREADS; t++) {
+				final long seed = t;
+				workers.add(executor.submit((Callable<Integer>) () -> {
+					long buffer = MemoryUtil.nmemAllocChecked(MAX_INTS * 4L);
+					try {
+						Random random = new Random(seed);
+						int hits = 0;
+						for (int it = 0; it < ITERATIONS; it++) {
+							// Skew lookups towards lower hashes, so some entries get hit repeatedly by every thread
+							double d = random.nextDouble();
+							long hash = (long) (20_000 * d * d * d);
+							int ints = sizeOf(hash);
+
+							long bytes = cache.get(hash, buffer, MAX_INTS * 4L);
+							if (bytes != 0) {
+								hits++;
+								assertEquals(ints * 4L, bytes);
+								for (int i = 0; i < ints; i++)
+									assertEquals("corrupted entry " + hash, valueAt(hash, i), MemoryUtil.memGetInt(buffer + i * 4L));
+							} else {
+								for (int i = 0; i < ints; i++)
+									MemoryUtil.memPutInt(buffer + i * 4L, valueAt(hash, i));
+								assertTrue(cache.put(hash, buffer, ints * 4L));
+							}
+						}
+						return hits;
+					} finally {
+						MemoryUtil.nmemFree(buffer);
+					}
+				}));
+			}
+
+			// Meanwhile, periodically check occupancy and clear the cache from a different thread
+			Future<?> maintenance = executor.submit(() -> {
+				int ticks = 0;
+				while (!done.get()) {
+					cache.checkOccupancy();
+					if (++ticks % 1000 == 0)
+						cache.clear();
+					Thread.yield();
+				}
+			});
+
+			int hits = 0;
+			for (Future<Integer> worker : workers)
+				hits += worker.get(5, TimeUnit.MINUTES);
+			done.set(true);
+			maintenance.get(1, TimeUnit.MINUTES);
+
+			assertFalse("cache was terminated", terminated.get());
+			assertTrue("expected some cache hits", hits > 0);
+		} finally {
+			done.set(true);
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testUsageAfterDestruction() {
+		long buffer = MemoryUtil.nmemAllocChecked(16);
+		try {
+			MemoryUtil.memPutLong(buffer, 1234);
+			assertTrue(cache.put(1, buffer, 8));
+			assertEquals(8, cache.get(1, buffer + 8, 8));
+			assertEquals(1234, MemoryUtil.memGetLong(buffer + 8));
+
+			cache.destroy();
+			assertFalse(cache.put(2, buffer, 8));
+			assertEquals(0, cache.get(1, buffer, 16));
+		} finally {
+			MemoryUtil.nmemFree(buffer);
+		}
+	}
+}
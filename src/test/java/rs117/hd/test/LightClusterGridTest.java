@@ -0,0 +1,124 @@
+package rs117.hd.test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import org.junit.Test;
+import rs117.hd.scene.lights.Light;
+import rs117.hd.scene.lights.LightClusterGrid;
+import rs117.hd.scene.lights.SceneLight;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static rs117.hd.scene.lights.LightClusterGrid.GRID_SIZE;
+
+public class LightClusterGridTest {
+	@Test
+	public void testCellsContainEveryLightReachingThem() {
+		Random random = new Random(117);
+		SceneLight[] lights = new SceneLight[300];
+		for (int i = 0; i < lights.length; i++)
+			lights[i] = createLight(random.nextInt(12000) - 1000, random.nextInt(12000) - 1000, random.nextInt(1200));
+
+		LightClusterGrid grid = new LightClusterGrid();
+		grid.build(lights, lights.length, 5000, 5000, 5000);
+		assertEquals(lights.length, grid.lightCount);
+
+		for (int sample = 0; sample < 10000; sample++) {
+			int x = grid.originX + random.nextInt(GRID_SIZE * grid.cellSize);
+			int y = grid.originY + random.nextInt(GRID_SIZE * grid.cellSize);
+			int cellX = (x - grid.originX) / grid.cellSize;
+			int cellY = (y - grid.originY) / grid.cellSize;
+
+			boolean[] inCell = new boolean[lights.length];
+			int start = grid.getCellStart(cellX, cellY);
+			for (int i = start; i < start + grid.getCellLightCount(cellX, cellY); i++) {
+				int light = grid.getLightIndex(i);
+				assertTrue("light binned into the same cell twice", !inCell[light]);
+				inCell[light] = true;
+			}
+
+			for (int i = 0; i < lights.length; i++) {
+				long dx = lights[i].x - x;
+				long dy = lights[i].y - y;
+				long radius = lights[i].currentSize;
+				if (dx * dx + dy * dy <= radius * radius)
+					assertTrue("missing light " + i + " in cell " + cellX + ", " + cellY, inCell[i]);
+			}
+		}
+	}
+
+	@Test
+	public void testLightsOutsideTheGridOnlyReachCellsWithinTheirRadius() {
+		SceneLight[] lights = {
+			createLight(-500, 0, 499),
+			createLight(-500, 0, 501),
+			createLight(0, 0, 0)
+		};
+
+		LightClusterGrid grid = new LightClusterGrid();
+		grid.build(lights, lights.length, GRID_SIZE * 64, GRID_SIZE * 64, GRID_SIZE * 64);
+		assertEquals(0, grid.originX);
+		assertEquals(0, grid.originY);
+		assertEquals(2, grid.getCellLightCount(0, 0));
+		assertEquals(0, countCellLight(grid, 0, 0, 0));
+		assertEquals(1, countCellLight(grid, 0, 0, 1));
+		assertEquals(1, countCellLight(grid, 0, 0, 2));
+	}
+
+	@Test
+	public void testLeastImportantLightsAreDroppedWhenFull() {
+		// each light covers every cell, so only as many lights as there are indices per cell fit
+		int lightsPerGrid = LightClusterGrid.MAX_INDICES / LightClusterGrid.CELL_COUNT;
+		SceneLight[] lights = new SceneLight[lightsPerGrid + 3];
+		for (int i = 0; i < lights.length; i++)
+			lights[i] = createLight(0, 0, 100000);
+
+		LightClusterGrid grid = new LightClusterGrid();
+		grid.build(lights, lights.length, 0, 0, 1000);
+		assertEquals(lightsPerGrid, grid.lightCount);
+		for (int i = 0; i < lightsPerGrid; i++)
+			assertEquals(1, countCellLight(grid, GRID_SIZE - 1, GRID_SIZE - 1, i));
+	}
+
+	@Test
+	public void testUniformBufferLayout() {
+		SceneLight[] lights = {
+			createLight(0, 0, 10),
+			createLight(5, 5, 10),
+			createLight(10, 10, 10)
+		};
+
+		LightClusterGrid grid = new LightClusterGrid();
+		grid.build(lights, lights.length, GRID_SIZE * 64, GRID_SIZE * 64, GRID_SIZE * 64);
+		ByteBuffer buffer = ByteBuffer
+			.allocate(LightClusterGrid.UNIFORM_BUFFER_SIZE)
+			.order(ByteOrder.nativeOrder());
+		grid.write(buffer);
+
+		// all lights are in the first cell, so it starts at zero, and the second starts after its three lights
+		assertEquals(3, buffer.getInt(0));
+		assertEquals(3 << 16, buffer.getInt(Integer.BYTES));
+		int indices = LightClusterGrid.CELL_COUNT * Integer.BYTES;
+		assertEquals(1 << 16, buffer.getInt(indices));
+		assertEquals(2, buffer.getInt(indices + Integer.BYTES));
+		assertEquals(indices + 2 * Integer.BYTES, buffer.position());
+	}
+
+	private static int countCellLight(LightClusterGrid grid, int cellX, int cellY, int light) {
+		int count = 0;
+		int start = grid.getCellStart(cellX, cellY);
+		for (int i = start; i < start + grid.getCellLightCount(cellX, cellY); i++)
+			if (grid.getLightIndex(i) == light)
+				count++;
+		return count;
+	}
+
+	private static SceneLight createLight(int x, int y, int radius) {
+		SceneLight light = new SceneLight(new Light());
+		light.x = x;
+		light.y = y;
+		light.currentSize = radius;
+		return light;
+	}
+}
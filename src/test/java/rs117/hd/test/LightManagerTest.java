@@ -0,0 +1,163 @@
+package rs117.hd.test;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import net.runelite.api.*;
+import net.runelite.client.config.ConfigManager;
+import net.runelite.client.eventbus.EventBus;
+import net.runelite.client.plugins.PluginManager;
+import net.runelite.client.plugins.entityhider.EntityHiderPlugin;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import rs117.hd.HdPlugin;
+import rs117.hd.HdPluginConfig;
+import rs117.hd.scene.LightManager;
+import rs117.hd.scene.RegionPrefetcher;
+import rs117.hd.scene.SceneContext;
+import rs117.hd.scene.lights.Light;
+import rs117.hd.scene.lights.SceneLight;
+
+import static net.runelite.api.Constants.*;
+import static net.runelite.api.Perspective.LOCAL_TILE_SIZE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static rs117.hd.scene.SceneUploader.SCENE_OFFSET;
+
+public class LightManagerTest {
+	// far enough above the scene, and with a wide enough field of view, for every light to be on screen
+	private static final int CAMERA_HEIGHT = 1_000_000;
+	private static final int CLIP_BOUND = 1_000_000;
+	// the camera's pitch when looking straight down
+	private static final int PITCH_DOWN = 512;
+
+	private final Client client = mock(Client.class);
+	private final HdPlugin plugin = mock(HdPlugin.class);
+	private LightManager lightManager;
+	private SceneContext sceneContext;
+
+	@Before
+	public void setup() {
+		when(client.get3dZoom()).thenReturn(1);
+		when(client.getRasterizer3D_clipMidX2()).thenReturn(CLIP_BOUND);
+		when(client.getRasterizer3D_clipMidY2()).thenReturn(CLIP_BOUND);
+		when(client.getRasterizer3D_clipNegativeMidX()).thenReturn(-CLIP_BOUND);
+		when(client.getRasterizer3D_clipNegativeMidY()).thenReturn(-CLIP_BOUND);
+
+		// bound to providers, so the mocks' fields aren't injected
+		Injector injector = Guice.createInjector(binder -> {
+			binder.bind(Client.class).toProvider(() -> client);
+			binder.bind(HdPlugin.class).toProvider(() -> plugin);
+			binder.bind(EventBus.class).toProvider(() -> mock(EventBus.class));
+			binder.bind(PluginManager.class).toProvider(() -> mock(PluginManager.class));
+			binder.bind(ConfigManager.class).toProvider(() -> mock(ConfigManager.class));
+			binder.bind(HdPluginConfig.class).toProvider(() -> mock(HdPluginConfig.class));
+			binder.bind(EntityHiderPlugin.class).toProvider(() -> mock(EntityHiderPlugin.class));
+			binder.bind(RegionPrefetcher.class).toProvider(() -> mock(RegionPrefetcher.class));
+		});
+		lightManager = injector.getInstance(LightManager.class);
+		sceneContext = new SceneContext(mock(Scene.class), 0, false, null);
+		sceneContext.cameraOrientation[1] = PITCH_DOWN;
+	}
+
+	@After
+	public void teardown() {
+		sceneContext.destroy();
+	}
+
+	@Test
+	public void testSelectionMatchesSortingEveryLight() {
+		Random random = new Random(117);
+		for (int trial = 0; trial < 500; trial++) {
+			int maxLights = random.nextInt(60);
+			int drawDistance = 10 + random.nextInt(EXTENDED_SCENE_SIZE);
+			int plane = random.nextInt(MAX_Z);
+			when(plugin.getDrawDistance()).thenReturn(drawDistance);
+			when(client.getPlane()).thenReturn(plane);
+
+			// the focal point may lie anywhere in the extended scene
+			int focalX = random.nextInt(EXTENDED_SCENE_SIZE * LOCAL_TILE_SIZE) - SCENE_OFFSET * LOCAL_TILE_SIZE;
+			int focalY = random.nextInt(EXTENDED_SCENE_SIZE * LOCAL_TILE_SIZE) - SCENE_OFFSET * LOCAL_TILE_SIZE;
+			sceneContext.cameraFocalPoint[0] = focalX;
+			sceneContext.cameraFocalPoint[1] = focalY;
+			sceneContext.cameraPosition[0] = focalX;
+			sceneContext.cameraPosition[1] = -CAMERA_HEIGHT;
+			sceneContext.cameraPosition[2] = focalY;
+
+			sceneContext.lights.clear();
+			createLights(random, random.nextInt(600), focalX, focalY);
+
+			List<SceneLight> expected = sortAndFilter(sceneContext.lights, maxLights, drawDistance, plane);
+			lightManager.selectVisibleLights(sceneContext, maxLights);
+
+			assertEquals("light count in trial " + trial, expected.size(), sceneContext.visibleLightCount);
+			for (int i = 0; i < expected.size(); i++)
+				assertSame("light " + i + " in trial " + trial, expected.get(i), sceneContext.visibleLights[i]);
+		}
+	}
+
+	/**
+	 * The selection as it was before lights were bucketed into a grid, which sorted every light by distance.
+	 */
+	private static List<SceneLight> sortAndFilter(List<SceneLight> lights, int maxLights, int drawDistance, int plane) {
+		List<SceneLight> sorted = new ArrayList<>(lights);
+		sorted.sort(Comparator.comparingInt(light -> light.distanceSquared));
+
+		int maxDistanceSquared = drawDistance * LOCAL_TILE_SIZE;
+		maxDistanceSquared *= maxDistanceSquared;
+
+		List<SceneLight> visibleLights = new ArrayList<>();
+		for (SceneLight light : sorted) {
+			if (visibleLights.size() >= maxLights || light.distanceSquared > maxDistanceSquared)
+				break;
+
+			if (!light.visible)
+				continue;
+
+			if (!light.visibleFromOtherPlanes) {
+				if (light.plane < plane && light.belowFloor)
+					continue;
+				if (light.plane > plane && light.aboveFloor)
+					continue;
+			}
+
+			visibleLights.add(light);
+		}
+		return visibleLights;
+	}
+
+	/**
+	 * Scatters lights in and around the extended scene, with distinct distances so the selection is unambiguous.
+	 */
+	private void createLights(Random random, int count, int focalX, int focalY) {
+		int sceneSize = EXTENDED_SCENE_SIZE * LOCAL_TILE_SIZE;
+		int margin = 16 * LOCAL_TILE_SIZE;
+		HashSet<Integer> distances = new HashSet<>();
+		while (sceneContext.lights.size() < count) {
+			SceneLight light = new SceneLight(new Light());
+			light.x = random.nextInt(sceneSize + margin * 2) - margin - SCENE_OFFSET * LOCAL_TILE_SIZE;
+			light.y = random.nextInt(sceneSize + margin * 2) - margin - SCENE_OFFSET * LOCAL_TILE_SIZE;
+			light.z = -random.nextInt(1500);
+			light.currentSize = 100 + random.nextInt(1000);
+			light.plane = random.nextInt(MAX_Z);
+			light.visible = random.nextInt(10) != 0;
+			light.visibleFromOtherPlanes = random.nextInt(4) == 0;
+			light.belowFloor = random.nextBoolean();
+			light.aboveFloor = random.nextBoolean();
+
+			// calculated the same way as in LightManager.update
+			int distX = focalX - light.x;
+			int distY = focalY - light.y;
+			light.distanceSquared = distX * distX + distY * distY + light.z * light.z;
+			if (distances.add(light.distanceSquared))
+				sceneContext.lights.add(light);
+		}
+	}
+}
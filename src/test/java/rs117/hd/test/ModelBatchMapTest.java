@@ -0,0 +1,47 @@
+package rs117.hd.test;
+
+import java.util.HashMap;
+import java.util.Random;
+import org.junit.Test;
+import rs117.hd.model.ModelBatchMap;
+
+import static org.junit.Assert.assertEquals;
+
+public class ModelBatchMapTest {
+	@Test
+	public void testMatchesHashMapAcrossFrames() {
+		Random random = new Random(117);
+		ModelBatchMap map = new ModelBatchMap();
+		HashMap<Long, int[]> expected = new HashMap<>();
+
+		for (int frame = 0; frame < 20; frame++) {
+			int hits = 0;
+			// enough models to make the table grow during the first frame
+			for (int i = 0; i < 3000; i++) {
+				// few distinct hashes, sharing their lower bits, so entries collide and get looked up repeatedly
+				long hash = (long) random.nextInt(2000) << 32;
+				int faceCount = random.nextInt(3);
+				int[] offsets = expected.get(hash);
+				int slot = map.find(hash, faceCount);
+				if (offsets != null && offsets[0] == faceCount) {
+					hits++;
+					assertEquals(offsets[1], map.getVertexOffset(slot));
+					assertEquals(offsets[2], map.getUvOffset(slot));
+					assertEquals(faceCount, map.getFaceCount(slot));
+				} else {
+					assertEquals(-1, slot);
+					offsets = new int[] { faceCount, random.nextInt(), random.nextInt() };
+					expected.put(hash, offsets);
+					map.put(hash, offsets[0], offsets[1], offsets[2]);
+				}
+			}
+
+			assertEquals(hits, map.getHits());
+			assertEquals(expected.size(), map.size());
+			map.nextFrame();
+			expected.clear();
+			assertEquals(0, map.size());
+			assertEquals(0, map.getHits());
+		}
+	}
+}
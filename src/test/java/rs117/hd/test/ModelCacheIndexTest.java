@@ -0,0 +1,112 @@
+package rs117.hd.test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+import org.lwjgl.system.MemoryUtil;
+import rs117.hd.model.ModelCacheIndex;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class ModelCacheIndexTest {
+	@Test
+	public void testMatchesHashMapWhileGrowing() {
+		Random random = new Random(117);
+		ModelCacheIndex index = new ModelCacheIndex(16);
+		try {
+			HashMap<Long, long[]> expected = new HashMap<>();
+			for (int i = 0; i < 200_000; i++) {
+				// few distinct hashes at first, so the small table wraps around and entries are often shifted back on
+				// removal, then increasingly many, so the table has to grow
+				long hash = randomHash(random, 16 << Math.min(i / 20_000, 9));
+				applyRandomOperation(random, index, expected, hash);
+				assertEquals(expected.size(), index.size());
+				if (i % 1000 == 0)
+					assertContains(index, expected);
+			}
+			assertContains(index, expected);
+		} finally {
+			index.destroy();
+		}
+	}
+
+	@Test
+	public void testMatchesHashMapInExternalMemory() {
+		Random random = new Random(117);
+		int capacity = 64;
+		long table = MemoryUtil.nmemCallocChecked(1, ModelCacheIndex.byteSize(capacity));
+		try {
+			ModelCacheIndex index = new ModelCacheIndex(table, capacity);
+			HashMap<Long, long[]> expected = new HashMap<>();
+			for (int i = 0; i < 100_000; i++) {
+				long hash = randomHash(random, 64);
+				// an external index can't grow, so it refuses any put while full
+				if (index.isFull()) {
+					assertThrows(IllegalStateException.class, () -> index.put(hash, 1, 1));
+					assertEquals(expected.size(), index.size());
+				}
+				applyRandomOperation(random, index, expected, hash);
+				assertEquals(expected.size(), index.size());
+				assertContains(index, expected);
+			}
+
+			// the entries are read back from memory when wrapping it again, like when reopening a memory-mapped file
+			ModelCacheIndex reopened = new ModelCacheIndex(table, capacity);
+			assertEquals(expected.size(), reopened.size());
+			assertContains(reopened, expected);
+		} finally {
+			MemoryUtil.nmemFree(table);
+		}
+	}
+
+	/**
+	 * Hashes spread across all bits, drawn from a limited number of distinct hashes.
+	 */
+	private static long randomHash(Random random, int distinctHashes) {
+		return new Random(random.nextInt(distinctHashes)).nextLong();
+	}
+
+	private static void applyRandomOperation(Random random, ModelCacheIndex index, HashMap<Long, long[]> expected, long hash) {
+		long[] entry = expected.get(hash);
+		switch (index.isFull() ? 1 + random.nextInt(2) : random.nextInt(3)) {
+			case 0:
+				// addresses are never zero
+				entry = new long[] { random.nextLong() | 1, random.nextInt(1 << 20) };
+				int slot = index.put(hash, entry[0], entry[1]);
+				expected.put(hash, entry);
+				assertEquals(entry[0], index.getAddress(slot));
+				assertEquals(entry[1], index.getByteCapacity(slot));
+				break;
+			case 1:
+				// only entries which still point to the specified address are removed
+				boolean matchingAddress = entry != null && random.nextInt(4) != 0;
+				long address = matchingAddress ? entry[0] : random.nextLong() | 1;
+				assertEquals(matchingAddress, index.remove(hash, address));
+				if (matchingAddress)
+					expected.remove(hash);
+				break;
+			default:
+				slot = index.find(hash);
+				if (entry == null) {
+					assertEquals(-1, slot);
+				} else {
+					assertTrue(slot != -1);
+					assertEquals(entry[0], index.getAddress(slot));
+				}
+				break;
+		}
+	}
+
+	private static void assertContains(ModelCacheIndex index, HashMap<Long, long[]> expected) {
+		for (Map.Entry<Long, long[]> entry : expected.entrySet()) {
+			int slot = index.find(entry.getKey());
+			assertFalse("missing " + entry.getKey(), slot == -1);
+			assertEquals(entry.getValue()[0], index.getAddress(slot));
+			assertEquals(entry.getValue()[1], index.getByteCapacity(slot));
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package rs117.hd.test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lwjgl.system.MemoryUtil;
+import rs117.hd.model.ModelCache;
+import rs117.hd.utils.Props;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+import static rs117.hd.utils.HDUtils.KiB;
+
+public class ModelCacheTest {
+	// a single allocation of one mebibyte, which is filled exactly by the old entries
+	private static final int CACHE_SIZE_MIB = 1;
+	private static final int OLD_ENTRIES = 16;
+	private static final long OLD_ENTRY_BYTES = 64 * KiB;
+	// new entries are twice as large, so referenced old entries have to be moved down into the space freed before them
+	private static final long NEW_ENTRY_BYTES = 128 * KiB;
+
+	private final AtomicBoolean terminated = new AtomicBoolean();
+	private ModelCache cache;
+	private long buffer;
+
+	@Before
+	public void setup() {
+		assumeFalse("second-chance eviction is disabled", Props.has("rlhd.model-cache-fifo"));
+		cache = new ModelCache(CACHE_SIZE_MIB, () -> terminated.set(true));
+		buffer = MemoryUtil.nmemAllocChecked(NEW_ENTRY_BYTES);
+	}
+
+	@After
+	public void teardown() {
+		if (cache != null)
+			cache.destroy();
+		if (buffer != 0)
+			MemoryUtil.nmemFree(buffer);
+	}
+
+	@Test
+	public void testReferencedEntriesSurviveSweep() {
+		fillWithOldEntries();
+
+		// reference every other entry, so evicting and keeping entries alternates throughout the sweep
+		for (int hash = 1; hash < OLD_ENTRIES; hash += 2)
+			assertNotEquals(0, cache.get(hash));
+
+		// half of the cache's worth of new entries, which is exactly the space taken up by unreferenced entries
+		for (int i = 0; i < OLD_ENTRIES / 4; i++)
+			put(OLD_ENTRIES + i, NEW_ENTRY_BYTES);
+
+		for (int hash = 0; hash < OLD_ENTRIES; hash++) {
+			if (hash % 2 == 0) {
+				assertEquals("unreferenced entry " + hash + " should be evicted first", 0, cache.get(hash));
+			} else {
+				assertContents(hash, OLD_ENTRY_BYTES);
+			}
+		}
+		for (int i = 0; i < OLD_ENTRIES / 4; i++)
+			assertContents(OLD_ENTRIES + i, NEW_ENTRY_BYTES);
+		assertFalse("cache was terminated", terminated.get());
+	}
+
+	@Test
+	public void testSecondChanceIsOnlyGivenOnce() {
+		fillWithOldEntries();
+		for (int hash = 0; hash < OLD_ENTRIES; hash++)
+			assertNotEquals(0, cache.get(hash));
+
+		// the first sweep only clears reference bits, so the old entries are evicted once the sweep wraps around
+		for (int i = 0; i < OLD_ENTRIES / 2; i++)
+			put(OLD_ENTRIES + i, NEW_ENTRY_BYTES);
+
+		for (int hash = 0; hash < OLD_ENTRIES; hash++)
+			assertEquals("entry " + hash + " should be evicted", 0, cache.get(hash));
+		for (int i = 0; i < OLD_ENTRIES / 2; i++)
+			assertContents(OLD_ENTRIES + i, NEW_ENTRY_BYTES);
+		assertFalse("cache was terminated", terminated.get());
+	}
+
+	/**
+	 * Fills the cache without looking up any entries, since lookups set their reference bits.
+	 */
+	private void fillWithOldEntries() {
+		for (int hash = 0; hash < OLD_ENTRIES; hash++)
+			put(hash, OLD_ENTRY_BYTES);
+	}
+
+	private void put(long hash, long bytes) {
+		for (long i = 0; i < bytes; i += 8)
+			MemoryUtil.memPutLong(buffer + i, hash * 31 + i);
+		assertTrue(cache.put(hash, buffer, bytes));
+	}
+
+	private void assertContents(long hash, long bytes) {
+		assertEquals("entry " + hash + " should be cached", bytes, cache.get(hash, buffer, NEW_ENTRY_BYTES));
+		for (long i = 0; i < bytes; i += 8)
+			assertEquals("corrupted entry " + hash, hash * 31 + i, MemoryUtil.memGetLong(buffer + i));
+	}
+}
@@ -1,25 +1,18 @@
 package rs117.hd.test;
 
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Random;
-import junit.framework.TestCase;
+import org.junit.Test;
 import rs117.hd.model.ModelHasher;
 
-public class ModelHasherTest extends TestCase {
-    private final ArrayList<int[]> intArrays;
-    private final Random random;
-    private final int testDataCount;
-    private final int testIterations;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
-    private long accumulatedHash = 0;
-
-    public ModelHasherTest() {
-        this.intArrays = new ArrayList<>();
-        this.random = new Random(1337);
-        this.testDataCount = 1000;
-        this.testIterations = 10000000;
-    }
+public class ModelHasherTest {
+	private final Random random = new Random(1337);
 
     private int[] generateRandomIntArray(int size) {
         int[] a = new int[size];
@@ -31,88 +24,78 @@ public class ModelHasherTest extends TestCase {
         return a;
     }
 
-	private long runStandardHasher() {
-		long start = System.nanoTime();
-		for (int i = 0; i < this.testIterations; i++) {
-			accumulatedHash *= 31;
-			accumulatedHash += Arrays.hashCode(intArrays.get(this.random.nextInt(this.testDataCount)));
-		}
-		return System.nanoTime() - start;
+	@Test
+	public void testReferenceVectors() {
+		// The byte hash is plain xxHash64 with a seed of zero, covering each tail step and the striped loop
+		assertEquals(0xEF46DB3751D8E999L, ModelHasher.fastByteHash(new byte[0]));
+		assertEquals(0x44BC2CF5AD770999L, ModelHasher.fastByteHash(ascii("abc")));
+		assertEquals(0xDE0327B0D25D92CCL, ModelHasher.fastByteHash(ascii("abcd")));
+		assertEquals(0x07E3670C0C8DC7EBL, ModelHasher.fastByteHash(ascii("abcde")));
+		assertEquals(0xFA8AFD82C423144DL, ModelHasher.fastByteHash(ascii("abcdef")));
+		assertEquals(0x1860940E2902822DL, ModelHasher.fastByteHash(ascii("abcdefg")));
+		assertEquals(0x3AD351775B4634B7L, ModelHasher.fastByteHash(ascii("abcdefgh")));
+		assertEquals(0x4B09B7D3A233D4B3L, ModelHasher.fastByteHash(ascii("abcdefghijkl")));
+		assertEquals(0x2E1218A2B1375068L, ModelHasher.fastByteHash(ascii("abcdefghijklmno")));
+		assertEquals(0xBF2CD639B4143B80L, ModelHasher.fastByteHash(ascii("abcdefghijklmnopqrstuvwxyz012345")));
+		assertEquals(0xCC3FA2AAC605CA56L, ModelHasher.fastByteHash(ascii("abcdefghijklmnopqrstuvwxyz0123456789ABCDEFGHI")));
 	}
 
-	private long runFastIntHasher() {
-		long start = System.nanoTime();
-		for (int i = 0; i < this.testIterations; i++) {
-			accumulatedHash *= 31;
-			accumulatedHash += ModelHasher.fastHash(intArrays.get(this.random.nextInt(this.testDataCount)), -1);
+	@Test
+	public void testWiderArraysHashLikeTheirBytes() {
+		// Int and short arrays are hashed as if they were little-endian byte arrays
+		for (int length = 0; length <= 40; length++) {
+			int[] ints = generateRandomIntArray(length);
+			ByteBuffer intBytes = ByteBuffer.allocate(length * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			intBytes.asIntBuffer().put(ints);
+			assertEquals(ModelHasher.fastByteHash(intBytes.array()), ModelHasher.fastHash(ints));
+
+			short[] shorts = new short[length];
+			for (int i = 0; i < length; i++)
+				shorts[i] = (short) random.nextInt();
+			ByteBuffer shortBytes = ByteBuffer.allocate(length * Short.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			shortBytes.asShortBuffer().put(shorts);
+			assertEquals(ModelHasher.fastByteHash(shortBytes.array()), ModelHasher.fastShortHash(shorts));
 		}
-		return System.nanoTime() - start;
 	}
 
-	private long runFastHasher() {
-		long start = System.nanoTime();
-		for (int i = 0; i < this.testIterations; i++) {
-			accumulatedHash *= 31;
-			accumulatedHash += ModelHasher.fastHash(intArrays.get(this.random.nextInt(this.testDataCount)), -1);
-		}
-		return System.nanoTime() - start;
+	private static byte[] ascii(String string) {
+		return string.getBytes(StandardCharsets.US_ASCII);
 	}
 
-	private double percentageDifference(long original, long changed) {
-		long diff = original - changed;
-		double delta = (double) diff / original;
-		return delta * 100;
+	@Test
+	public void testLength() {
+		int[] a = generateRandomIntArray(1000);
+		assertEquals(ModelHasher.fastHash(a), ModelHasher.fastHash(a, a.length));
+		assertEquals(ModelHasher.fastHash(Arrays.copyOf(a, 999)), ModelHasher.fastHash(a, 999));
+		assertFalse(ModelHasher.fastHash(a, 999) == ModelHasher.fastHash(a));
+		assertFalse(ModelHasher.fastHash(new int[0]) == ModelHasher.fastHash(new int[1]));
+		assertEquals(0, ModelHasher.fastHash(null));
 	}
 
-	public void testHashPerformance() {
-		System.out.printf("Java version: %s\n\n", System.getProperty("java.version"));
-		System.out.printf("Comparing hash performance of with %,d test items and %,d iterations\n\n", testDataCount, testIterations);
-
-		// small arrays (size=512)
-		for (int i = 0; i < testDataCount; i++) {
-			// generate random test data
-			intArrays.add(generateRandomIntArray(512));
-		}
-
-		long standardBatchResult = runStandardHasher();
-		System.out.printf("Standard hasher small data set:  \t%,.3f seconds\n", (double) standardBatchResult / 1e9);
-		long fastIntBatchResult = runFastHasher();
-		System.out.printf("Fast int hasher small data set:  \t%,.3f seconds\n", (double) fastIntBatchResult / 1e9);
-		System.out.printf("Improvement =\t%.2f%%\n\n", percentageDifference(standardBatchResult, fastIntBatchResult));
-		long fastBatchResult = runFastHasher();
-		System.out.printf("Fast hasher small data set:      \t%,.3f seconds\n", (double) fastBatchResult / 1e9);
-		System.out.printf("Improvement =\t%.2f%%\n\n", percentageDifference(standardBatchResult, fastBatchResult));
-
-		// medium arrays (size=2048)
-		intArrays.clear();
-		for (int i = 0; i < testDataCount; i++) {
-			intArrays.add(generateRandomIntArray(2048));
-		}
-
-		standardBatchResult = runStandardHasher();
-		System.out.printf("Standard hasher medium data set:  \t%,.3f seconds\n", (double) standardBatchResult / 1e9);
-		fastIntBatchResult = runFastHasher();
-		System.out.printf("Fast int hasher medium data set:  \t%,.3f seconds\n", (double) fastIntBatchResult / 1e9);
-		System.out.printf("Improvement =\t%.2f%%\n\n", percentageDifference(standardBatchResult, fastIntBatchResult));
-		fastBatchResult = runFastHasher();
-		System.out.printf("Fast hasher medium data set:      \t%,.3f seconds\n", (double) fastBatchResult / 1e9);
-		System.out.printf("Improvement =\t%.2f%%\n\n", percentageDifference(standardBatchResult, fastBatchResult));
-
-		// large arrays (size=6144)
-		intArrays.clear();
-		for (int i = 0; i < testDataCount; i++) {
-			intArrays.add(generateRandomIntArray(6144));
+	@Test
+	public void testSensitivity() {
+		// Every element of every lane and tail should affect the hash
+		for (int length = 1; length <= 40; length++) {
+			int[] ints = generateRandomIntArray(length);
+			short[] shorts = new short[length];
+			byte[] bytes = new byte[length];
+			long intHash = ModelHasher.fastHash(ints);
+			long shortHash = ModelHasher.fastShortHash(shorts);
+			long byteHash = ModelHasher.fastByteHash(bytes);
+			for (int i = 0; i < length; i++) {
+				ints[i]++;
+				shorts[i]++;
+				bytes[i]++;
+				assertFalse(intHash == ModelHasher.fastHash(ints));
+				assertFalse(shortHash == ModelHasher.fastShortHash(shorts));
+				assertFalse(byteHash == ModelHasher.fastByteHash(bytes));
+				ints[i]--;
+				shorts[i]--;
+				bytes[i]--;
+			}
 		}
 
-		standardBatchResult = runStandardHasher();
-		System.out.printf("Standard hasher large data set:  \t%,.3f seconds\n", (double) standardBatchResult / 1e9);
-		fastIntBatchResult = runFastHasher();
-		System.out.printf("Fast int hasher large data set:  \t%,.3f seconds\n", (double) fastIntBatchResult / 1e9);
-		System.out.printf("Improvement =\t%.2f%%\n\n", percentageDifference(standardBatchResult, fastIntBatchResult));
-		fastBatchResult = runFastHasher();
-		System.out.printf("Fast hasher large data set:      \t%,.3f seconds\n", (double) fastBatchResult / 1e9);
-		System.out.printf("Improvement =\t%.2f%%\n\n", percentageDifference(standardBatchResult, fastBatchResult));
-
-		System.out.println("Hash: " + accumulatedHash);
+		// Trivially collides with a polynomial hash using a multiplier of 31
+		assertFalse(ModelHasher.fastHash(new int[] { 1, 0 }) == ModelHasher.fastHash(new int[] { 0, 31 }));
 	}
 }
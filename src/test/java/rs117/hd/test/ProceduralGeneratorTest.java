@@ -0,0 +1,247 @@
+package rs117.hd.test;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import net.runelite.api.*;
+import net.runelite.api.coords.*;
+import org.junit.After;
+import org.junit.Test;
+import rs117.hd.HdPlugin;
+import rs117.hd.scene.ProceduralGenerator;
+import rs117.hd.scene.SceneContext;
+import rs117.hd.scene.TerrainVertexData;
+import rs117.hd.scene.TileVertexCursor;
+
+import static net.runelite.api.Constants.*;
+import static net.runelite.api.Perspective.LOCAL_TILE_SIZE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Mockito.mock;
+import static rs117.hd.scene.SceneUploader.SCENE_OFFSET;
+import static rs117.hd.test.utils.Fakes.createFake;
+
+public class ProceduralGeneratorTest {
+	// an overlay which is water everywhere, which the game stores as the unsigned equivalent of -128
+	private static final short WATER_OVERLAY_ID = 128;
+	private static final float[] NO_NORMAL = { 0, 0, 0 };
+
+	private final ForkJoinPool pool = new ForkJoinPool(4);
+	private final List<SceneContext> sceneContexts = new ArrayList<>();
+
+	@After
+	public void teardown() {
+		pool.shutdownNow();
+		for (SceneContext sceneContext : sceneContexts)
+			sceneContext.destroy();
+	}
+
+	@Test
+	public void testGeneratingInParallelMatchesSerial() {
+		// bound to a provider, so the mock's fields aren't injected
+		HdPlugin plugin = mock(HdPlugin.class);
+		Injector injector = Guice.createInjector(binder -> binder.bind(HdPlugin.class).toProvider(() -> plugin));
+		ProceduralGenerator generator = injector.getInstance(ProceduralGenerator.class);
+
+		Random random = new Random(117);
+		Scene scene = createScene(random, true);
+		// scatter lakes of varying size across block boundaries, so underwater terrain is sunk across blocks
+		short[][] overlayIds = scene.getOverlayIds()[0];
+		for (int lake = 0; lake < 40; lake++) {
+			int centerX = random.nextInt(EXTENDED_SCENE_SIZE);
+			int centerY = random.nextInt(EXTENDED_SCENE_SIZE);
+			int radius = 1 + random.nextInt(12);
+			for (int x = Math.max(0, centerX - radius); x < Math.min(EXTENDED_SCENE_SIZE, centerX + radius); x++)
+				for (int y = Math.max(0, centerY - radius); y < Math.min(EXTENDED_SCENE_SIZE, centerY + radius); y++)
+					if ((x - centerX) * (x - centerX) + (y - centerY) * (y - centerY) < radius * radius)
+						overlayIds[x][y] = WATER_OVERLAY_ID;
+		}
+
+		SceneContext serial = createSceneContext(scene);
+		generator.generateSceneData(serial, null);
+		SceneContext parallel = createSceneContext(scene);
+		generator.generateSceneData(parallel, pool);
+
+		TerrainVertexData expected = serial.vertexData;
+		TerrainVertexData actual = parallel.vertexData;
+		assertEquals(expected.size(), actual.size());
+		int waterVertices = 0;
+		for (int vertex = 1; vertex <= expected.size(); vertex++) {
+			String message = "vertex " + vertex;
+			assertEquals(message, expected.getFlags(vertex), actual.getFlags(vertex));
+			assertEquals(message, expected.hasColor(vertex), actual.hasColor(vertex));
+			assertEquals(message, expected.getColor(vertex, -1), actual.getColor(vertex, -1));
+			assertSame(message, expected.getTexture(vertex, null), actual.getTexture(vertex, null));
+			assertEquals(message, expected.getUnderwaterDepth(vertex), actual.getUnderwaterDepth(vertex));
+			if (expected.hasFlags(vertex, TerrainVertexData.IS_WATER))
+				waterVertices++;
+		}
+		assertTrue("expected some water", waterVertices > 0);
+
+		assertTrue(Arrays.deepEquals(serial.tileIsWater, parallel.tileIsWater));
+		assertTrue(Arrays.deepEquals(serial.skipTile, parallel.skipTile));
+		assertTrue(Arrays.deepEquals(serial.underwaterDepthLevels, parallel.underwaterDepthLevels));
+
+		TileVertexCursor vertices = new TileVertexCursor();
+		for (Tile[] column : scene.getExtendedTiles()[0]) {
+			for (Tile tile : column) {
+				String message = "tile at " + tile.getSceneLocation();
+				assertSame(message, serial.terrainMaterials.getOverlay(tile), parallel.terrainMaterials.getOverlay(tile));
+				assertSame(message, serial.terrainMaterials.getUnderlay(tile), parallel.terrainMaterials.getUnderlay(tile));
+				assertSame(message, serial.terrainMaterials.getWaterType(tile), parallel.terrainMaterials.getWaterType(tile));
+
+				vertices.tile(scene, tile);
+				assertNormalsEqual(message, serial, parallel, vertices);
+				SceneTileModel model = tile.getSceneTileModel();
+				if (model != null) {
+					for (int face = 0; face < model.getFaceX().length; face++) {
+						vertices.face(tile, face);
+						assertNormalsEqual(message, serial, parallel, vertices);
+					}
+				}
+			}
+		}
+	}
+
+	private static void assertNormalsEqual(String message, SceneContext expected, SceneContext actual, TileVertexCursor vertices) {
+		for (int vertex = 0; vertex < vertices.count(); vertex++) {
+			// the cursor reuses the same array for both normals
+			float[] expectedNormal = vertices.normal(vertex, expected.terrainNormals, NO_NORMAL).clone();
+			assertArrayEquals(message, expectedNormal, vertices.normal(vertex, actual.terrainNormals, NO_NORMAL), 0);
+		}
+	}
+
+	@Test
+	public void testGeneratingTerrainDataAllocatesLittlePerTile() {
+		assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		assumeTrue(threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled());
+
+		// bound to a provider, so the mock's fields aren't injected
+		HdPlugin plugin = mock(HdPlugin.class);
+		Injector injector = Guice.createInjector(binder -> binder.bind(HdPlugin.class).toProvider(() -> plugin));
+		ProceduralGenerator generator = injector.getInstance(ProceduralGenerator.class);
+		Scene scene = createScene(new Random(117), true);
+		Scene emptyScene = createScene(new Random(117), false);
+
+		// warm up, so class loading and the like isn't measured
+		generator.generateSceneData(createSceneContext(scene), null);
+		generator.generateSceneData(createSceneContext(emptyScene), null);
+
+		// arrays covering the whole scene are allocated regardless of how many tiles there are
+		long allocated = measureAllocatedBytes(threadBean, generator, scene);
+		long allocatedForEmptyScene = measureAllocatedBytes(threadBean, generator, emptyScene);
+
+		// what remains is mostly the vertex index, which grows with the number of vertices, and world coordinates
+		// looked up for each tile, whereas allocating vertex data arrays for each tile would take over 500 bytes
+		double bytesPerTile = (double) (allocated - allocatedForEmptyScene) / (EXTENDED_SCENE_SIZE * EXTENDED_SCENE_SIZE);
+		assertTrue("allocated " + bytesPerTile + " bytes per tile", bytesPerTile < 300);
+	}
+
+	private long measureAllocatedBytes(
+		com.sun.management.ThreadMXBean threadBean,
+		ProceduralGenerator generator,
+		Scene scene
+	) {
+		SceneContext sceneContext = createSceneContext(scene);
+		long threadId = Thread.currentThread().getId();
+		long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+		generator.generateSceneData(sceneContext, null);
+		return threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+	}
+
+	private SceneContext createSceneContext(Scene scene) {
+		SceneContext sceneContext = new SceneContext(scene, 0, false, null);
+		sceneContexts.add(sceneContext);
+		return sceneContext;
+	}
+
+	/**
+	 * Optionally covers the bottom plane of the extended scene with tiles, every other one of which has a tile model
+	 * split into two faces, like around shorelines and paths.
+	 */
+	private static Scene createScene(Random random, boolean withTiles) {
+		int size = EXTENDED_SCENE_SIZE + 1;
+		int[][][] tileHeights = new int[MAX_Z][size][size];
+		for (int x = 0; x < size; x++)
+			for (int y = 0; y < size; y++)
+				tileHeights[0][x][y] = -random.nextInt(256);
+
+		Tile[][][] tiles = new Tile[MAX_Z][EXTENDED_SCENE_SIZE][EXTENDED_SCENE_SIZE];
+		for (int x = 0; withTiles && x < EXTENDED_SCENE_SIZE; x++) {
+			for (int y = 0; y < EXTENDED_SCENE_SIZE; y++) {
+				int tileX = x - SCENE_OFFSET;
+				int tileY = y - SCENE_OFFSET;
+				tiles[0][x][y] = (x + y) % 2 == 0 ?
+					createTile(tileX, tileY, null, createTileModel(random, tileX, tileY, tileHeights)) :
+					createTile(tileX, tileY, createTilePaint(random), null);
+			}
+		}
+
+		Map<String, Object> properties = new HashMap<>();
+		properties.put("ExtendedTiles", tiles);
+		properties.put("TileHeights", tileHeights);
+		properties.put("OverlayIds", new short[MAX_Z][EXTENDED_SCENE_SIZE][EXTENDED_SCENE_SIZE]);
+		properties.put("UnderlayIds", new short[MAX_Z][EXTENDED_SCENE_SIZE][EXTENDED_SCENE_SIZE]);
+		properties.put("BaseX", 3200);
+		properties.put("BaseY", 3200);
+		return createFake(Scene.class, properties);
+	}
+
+	private static Tile createTile(int tileX, int tileY, SceneTilePaint paint, SceneTileModel model) {
+		Map<String, Object> properties = new HashMap<>();
+		properties.put("SceneLocation", new Point(tileX, tileY));
+		properties.put("LocalLocation", LocalPoint.fromScene(tileX, tileY));
+		properties.put("SceneTilePaint", paint);
+		properties.put("SceneTileModel", model);
+		return createFake(Tile.class, properties);
+	}
+
+	private static SceneTilePaint createTilePaint(Random random) {
+		Map<String, Object> properties = new HashMap<>();
+		properties.put("SwColor", random.nextInt(0xFFFF));
+		properties.put("SeColor", random.nextInt(0xFFFF));
+		properties.put("NwColor", random.nextInt(0xFFFF));
+		properties.put("NeColor", random.nextInt(0xFFFF));
+		properties.put("Texture", -1);
+		return createFake(SceneTilePaint.class, properties);
+	}
+
+	/**
+	 * Creates a tile model split diagonally into two faces, the first of which is an overlay.
+	 */
+	private static SceneTileModel createTileModel(Random random, int tileX, int tileY, int[][][] tileHeights) {
+		int x = tileX * LOCAL_TILE_SIZE;
+		int y = tileY * LOCAL_TILE_SIZE;
+		int exX = tileX + SCENE_OFFSET;
+		int exY = tileY + SCENE_OFFSET;
+		Map<String, Object> properties = new HashMap<>();
+		// SW, SE, NE, NW
+		properties.put("VertexX", new int[] { x, x + LOCAL_TILE_SIZE, x + LOCAL_TILE_SIZE, x });
+		properties.put("VertexY", new int[] {
+			tileHeights[0][exX][exY],
+			tileHeights[0][exX + 1][exY],
+			tileHeights[0][exX + 1][exY + 1],
+			tileHeights[0][exX][exY + 1]
+		});
+		properties.put("VertexZ", new int[] { y, y, y + LOCAL_TILE_SIZE, y + LOCAL_TILE_SIZE });
+		properties.put("FaceX", new int[] { 0, 2 });
+		properties.put("FaceY", new int[] { 1, 3 });
+		properties.put("FaceZ", new int[] { 2, 0 });
+		properties.put("TriangleColorA", new int[] { random.nextInt(0xFFFF), random.nextInt(0xFFFF) });
+		properties.put("TriangleColorB", new int[] { random.nextInt(0xFFFF), random.nextInt(0xFFFF) });
+		properties.put("TriangleColorC", new int[] { random.nextInt(0xFFFF), random.nextInt(0xFFFF) });
+		properties.put("Shape", 11);
+		return createFake(SceneTileModel.class, properties);
+	}
+}
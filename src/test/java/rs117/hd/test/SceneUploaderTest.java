@@ -0,0 +1,254 @@
+package rs117.hd.test;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.name.Names;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import net.runelite.api.*;
+import net.runelite.client.callback.ClientThread;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lwjgl.system.MemoryUtil;
+import rs117.hd.HdPlugin;
+import rs117.hd.HdPluginConfig;
+import rs117.hd.data.materials.Material;
+import rs117.hd.model.ModelHasher;
+import rs117.hd.overlays.FrameTimer;
+import rs117.hd.scene.ModelOverrideManager;
+import rs117.hd.scene.ProceduralGenerator;
+import rs117.hd.scene.SceneContext;
+import rs117.hd.scene.SceneUploader;
+import rs117.hd.scene.TerrainCache;
+import rs117.hd.scene.TextureManager;
+import rs117.hd.scene.model_overrides.ModelOverride;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static rs117.hd.test.utils.Fakes.createFake;
+
+public class SceneUploaderTest {
+	private static final int MODEL_COUNT = 3000;
+
+	private final ForkJoinPool pool = new ForkJoinPool(4);
+	private final List<SceneContext> sceneContexts = new ArrayList<>();
+	private SceneUploader sceneUploader;
+
+	@Before
+	public void setup() {
+		HdPlugin plugin = mock(HdPlugin.class);
+		TextureManager textureManager = mock(TextureManager.class);
+		when(textureManager.getMaterialIndex(any(), anyInt()))
+			.thenAnswer(invocation -> ((Material) invocation.getArgument(0)).ordinal());
+		ModelOverrideManager modelOverrideManager = mock(ModelOverrideManager.class);
+		when(modelOverrideManager.getOverride(anyLong())).thenReturn(ModelOverride.NONE);
+
+		Injector injector = Guice.createInjector(binder -> {
+			binder.bindConstant().annotatedWith(Names.named("developerMode")).to(false);
+			binder.bind(Client.class).toInstance(mock(Client.class));
+			binder.bind(ClientThread.class).toInstance(mock(ClientThread.class));
+			binder.bind(HdPlugin.class).toInstance(plugin);
+			binder.bind(HdPluginConfig.class).toInstance(mock(HdPluginConfig.class));
+			binder.bind(TextureManager.class).toInstance(textureManager);
+			binder.bind(ModelHasher.class).toInstance(mock(ModelHasher.class));
+			binder.bind(ModelOverrideManager.class).toInstance(modelOverrideManager);
+			binder.bind(FrameTimer.class).toInstance(mock(FrameTimer.class));
+			binder.bind(ProceduralGenerator.class).toInstance(mock(ProceduralGenerator.class));
+			binder.bind(TerrainCache.class).toInstance(mock(TerrainCache.class));
+		});
+		sceneUploader = injector.getInstance(SceneUploader.class);
+	}
+
+	@After
+	public void teardown() {
+		pool.shutdownNow();
+		for (SceneContext sceneContext : sceneContexts)
+			sceneContext.destroy();
+	}
+
+	@Test
+	public void testParallelUploadMatchesSerialUpload() {
+		Random random = new Random(117);
+		Scene scene = mock(Scene.class);
+		List<Model> models = createScene(random, scene);
+
+		SceneContext serial = new SceneContext(scene, 0, false, null);
+		sceneContexts.add(serial);
+		sceneUploader.upload(serial, null);
+		int[][] serialOffsets = getBufferOffsets(models);
+
+		SceneContext parallel = new SceneContext(scene, 0, false, null);
+		sceneContexts.add(parallel);
+		sceneUploader.upload(parallel, pool);
+		int[][] parallelOffsets = getBufferOffsets(models);
+
+		assertEquals(serial.uniqueModels, parallel.uniqueModels);
+		for (int i = 0; i < models.size(); i++) {
+			assertEquals("vertex offset of model " + i, serialOffsets[i][0], parallelOffsets[i][0]);
+			assertEquals("UV offset of model " + i, serialOffsets[i][1], parallelOffsets[i][1]);
+		}
+
+		assertEquals(serial.stagingBufferVertices.position(), parallel.stagingBufferVertices.position());
+		assertEquals(serial.stagingBufferNormals.position(), parallel.stagingBufferNormals.position());
+		assertEquals(serial.stagingBufferUvs.position(), parallel.stagingBufferUvs.position());
+		assertMemoryEquals(
+			"vertices",
+			serial.stagingBufferVertices.getAddress(0),
+			parallel.stagingBufferVertices.getAddress(0),
+			serial.stagingBufferVertices.position()
+		);
+		assertMemoryEquals(
+			"normals",
+			serial.stagingBufferNormals.getAddress(0),
+			parallel.stagingBufferNormals.getAddress(0),
+			serial.stagingBufferNormals.position()
+		);
+		assertMemoryEquals(
+			"UVs",
+			serial.stagingBufferUvs.getAddress(0),
+			parallel.stagingBufferUvs.getAddress(0),
+			serial.stagingBufferUvs.position()
+		);
+	}
+
+	private static void assertMemoryEquals(String name, long expected, long actual, int ints) {
+		for (int i = 0; i < ints; i++) {
+			int e = MemoryUtil.memGetInt(expected + i * 4L);
+			int a = MemoryUtil.memGetInt(actual + i * 4L);
+			if (e != a)
+				assertEquals(name + " differ at index " + i, e, a);
+		}
+	}
+
+	private static int[][] getBufferOffsets(List<Model> models) {
+		int[][] offsets = new int[models.size()][];
+		for (int i = 0; i < offsets.length; i++)
+			offsets[i] = new int[] { models.get(i).getBufferOffset(), models.get(i).getUvBufferOffset() };
+		return offsets;
+	}
+
+	/**
+	 * Scatters game objects across the scene, some of which share models, and some of which sit on bridges.
+	 */
+	private static List<Model> createScene(Random random, Scene scene) {
+		Tile[][][] tiles = new Tile[Constants.MAX_Z][Constants.EXTENDED_SCENE_SIZE][Constants.EXTENDED_SCENE_SIZE];
+		Map<Tile, GameObject[]> gameObjects = new HashMap<>();
+		List<Model> models = new ArrayList<>();
+
+		for (int i = 0; i < MODEL_COUNT; i++) {
+			Model model = i > 0 && random.nextInt(5) == 0 ?
+				models.get(random.nextInt(models.size())) :
+				createModel(random);
+			models.add(model);
+
+			int z = random.nextInt(Constants.MAX_Z);
+			int x = random.nextInt(Constants.EXTENDED_SCENE_SIZE);
+			int y = random.nextInt(Constants.EXTENDED_SCENE_SIZE);
+			Tile tile = tiles[z][x][y];
+			if (tile == null) {
+				tile = tiles[z][x][y] = createTile(gameObjects, z);
+				if (random.nextInt(10) == 0) {
+					Tile bridge = createTile(gameObjects, z);
+					when(tile.getBridge()).thenReturn(bridge);
+				}
+			}
+			if (tile.getBridge() != null && random.nextBoolean())
+				tile = tile.getBridge();
+
+			GameObject gameObject = mock(GameObject.class);
+			when(gameObject.getRenderable()).thenReturn(model);
+			when(gameObject.getHash()).thenReturn(random.nextLong());
+			when(gameObject.getConfig()).thenReturn(random.nextInt(4) << 6);
+
+			GameObject[] objects = gameObjects.get(tile);
+			for (int j = 0; j < objects.length; j++) {
+				if (objects[j] == null) {
+					objects[j] = gameObject;
+					break;
+				}
+			}
+		}
+
+		when(scene.getExtendedTiles()).thenReturn(tiles);
+		return models;
+	}
+
+	private static Tile createTile(Map<Tile, GameObject[]> gameObjects, int plane) {
+		Tile tile = mock(Tile.class);
+		GameObject[] objects = new GameObject[5];
+		gameObjects.put(tile, objects);
+		when(tile.getGameObjects()).thenReturn(objects);
+		when(tile.getRenderLevel()).thenReturn(plane);
+		return tile;
+	}
+
+	private static Model createModel(Random random) {
+		int faceCount = 1 + random.nextInt(random.nextInt(20) == 0 ? 8000 : 800);
+		int vertexCount = 3 + random.nextInt(faceCount);
+
+		Map<String, Object> properties = new HashMap<>();
+		properties.put("FaceCount", faceCount);
+		properties.put("VerticesCount", vertexCount);
+		properties.put("VerticesX", randomInts(random, vertexCount, -512, 512));
+		properties.put("VerticesY", randomInts(random, vertexCount, -1024, 0));
+		properties.put("VerticesZ", randomInts(random, vertexCount, -512, 512));
+		properties.put("FaceIndices1", randomInts(random, faceCount, 0, vertexCount));
+		properties.put("FaceIndices2", randomInts(random, faceCount, 0, vertexCount));
+		properties.put("FaceIndices3", randomInts(random, faceCount, 0, vertexCount));
+
+		int[] colors1 = randomInts(random, faceCount, 0, 0xFFFF);
+		int[] colors3 = randomInts(random, faceCount, 0, 0xFFFF);
+		for (int i = 0; i < faceCount; i++) {
+			int r = random.nextInt(20);
+			if (r == 0)
+				colors3[i] = -1;
+			else if (r == 1)
+				colors3[i] = -2;
+		}
+		properties.put("FaceColors1", colors1);
+		properties.put("FaceColors2", randomInts(random, faceCount, 0, 0xFFFF));
+		properties.put("FaceColors3", colors3);
+
+		if (random.nextBoolean()) {
+			properties.put("VertexNormalsX", randomInts(random, vertexCount, -256, 256));
+			properties.put("VertexNormalsY", randomInts(random, vertexCount, -256, 256));
+			properties.put("VertexNormalsZ", randomInts(random, vertexCount, -256, 256));
+		}
+
+		if (random.nextInt(3) == 0) {
+			short[] textures = new short[faceCount];
+			for (int i = 0; i < faceCount; i++)
+				textures[i] = (short) (random.nextInt(4) == 0 ? random.nextInt(100) : -1);
+			properties.put("FaceTextures", textures);
+		}
+
+		if (random.nextInt(3) == 0) {
+			byte[] transparencies = new byte[faceCount];
+			random.nextBytes(transparencies);
+			properties.put("FaceTransparencies", transparencies);
+		}
+
+		byte[] priorities = new byte[faceCount];
+		for (int i = 0; i < faceCount; i++)
+			priorities[i] = (byte) random.nextInt(12);
+		properties.put("FaceRenderPriorities", priorities);
+
+		return createFake(Model.class, properties);
+	}
+
+	private static int[] randomInts(Random random, int count, int min, int max) {
+		int[] ints = new int[count];
+		for (int i = 0; i < count; i++)
+			ints[i] = min + random.nextInt(max - min);
+		return ints;
+	}
+}
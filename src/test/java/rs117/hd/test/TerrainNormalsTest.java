@@ -0,0 +1,272 @@
+package rs117.hd.test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import net.runelite.api.*;
+import org.junit.After;
+import org.junit.Test;
+import rs117.hd.scene.ProceduralGenerator;
+import rs117.hd.scene.SceneContext;
+import rs117.hd.scene.TerrainVertexData;
+import rs117.hd.scene.TileVertexCursor;
+import rs117.hd.utils.HDUtils;
+
+import static net.runelite.api.Perspective.LOCAL_TILE_SIZE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static rs117.hd.scene.SceneUploader.SCENE_OFFSET;
+
+public class TerrainNormalsTest {
+	private static final float[] NO_NORMAL = { 0, 0, 0 };
+	private static final int MIN = 30;
+	private static final int MAX = 90;
+
+	private final ForkJoinPool pool = new ForkJoinPool(4);
+	private final List<SceneContext> sceneContexts = new ArrayList<>();
+
+	@After
+	public void teardown() {
+		pool.shutdownNow();
+		for (SceneContext sceneContext : sceneContexts)
+			sceneContext.destroy();
+	}
+
+	@Test
+	public void testMatchesFaceNormals() {
+		Random random = new Random(117);
+		Scene scene = createScene(random);
+		Map<Integer, float[]> expected = calculateFaceNormals(scene, createSceneContext(scene).vertexData);
+
+		for (ForkJoinPool pool : new ForkJoinPool[] { null, this.pool }) {
+			SceneContext sceneContext = createSceneContext(scene);
+			ProceduralGenerator.calculateTerrainNormals(sceneContext, pool);
+
+			TileVertexCursor vertices = new TileVertexCursor();
+			forEachTile(scene, tile -> {
+				vertices.tile(scene, tile);
+				assertNormals(sceneContext, vertices, expected);
+
+				SceneTileModel model = tile.getSceneTileModel();
+				if (model != null) {
+					for (int face = 0; face < model.getFaceX().length; face++) {
+						vertices.face(tile, face);
+						assertNormals(sceneContext, vertices, expected);
+					}
+				}
+			});
+		}
+	}
+
+	private static void assertNormals(SceneContext sceneContext, TileVertexCursor vertices, Map<Integer, float[]> expected) {
+		for (int vertex = 0; vertex < vertices.count(); vertex++) {
+			float[] expectedNormal = expected.get(vertices.key(vertex));
+			float[] normal = vertices.normal(vertex, sceneContext.terrainNormals, NO_NORMAL);
+			if (expectedNormal == null) {
+				assertSame(NO_NORMAL, normal);
+			} else {
+				assertArrayEquals(
+					"normal of vertex at " + vertices.x(vertex) + ", " + vertices.y(vertex),
+					expectedNormal,
+					normal,
+					1e-3f
+				);
+			}
+		}
+	}
+
+	/**
+	 * Sums the normals of every face sharing each vertex, the way normals were calculated before
+	 * using the height field.
+	 */
+	private static Map<Integer, float[]> calculateFaceNormals(Scene scene, TerrainVertexData vertexData) {
+		Map<Integer, float[]> normals = new HashMap<>();
+		TileVertexCursor vertices = new TileVertexCursor();
+		Tile[][][] tiles = scene.getExtendedTiles();
+		for (int z = 0; z < Constants.MAX_Z; z++) {
+			for (int x = MIN; x < MAX; x++) {
+				for (int y = MIN; y < MAX; y++) {
+					Tile tile = tiles[z][x][y];
+					if (tile == null)
+						continue;
+					if (tile.getBridge() != null)
+						addFaceNormals(scene, vertexData, normals, vertices, tile.getBridge(), false);
+					addFaceNormals(scene, vertexData, normals, vertices, tile, tile.getBridge() != null);
+				}
+			}
+		}
+		return normals;
+	}
+
+	private static void addFaceNormals(
+		Scene scene,
+		TerrainVertexData vertexData,
+		Map<Integer, float[]> normals,
+		TileVertexCursor vertices,
+		Tile tile,
+		boolean isBridge
+	) {
+		SceneTileModel model = tile.getSceneTileModel();
+		if (model != null) {
+			for (int face = 0; face < model.getFaceX().length; face++) {
+				vertices.face(tile, face);
+				addFaceNormal(vertexData, normals, vertices, new int[] { 0, 2, 1 }, isBridge);
+			}
+		} else {
+			vertices.tile(scene, tile);
+			addFaceNormal(vertexData, normals, vertices, new int[] { 3, 1, 2 }, isBridge);
+			addFaceNormal(vertexData, normals, vertices, new int[] { 0, 2, 1 }, isBridge);
+		}
+	}
+
+	private static void addFaceNormal(
+		TerrainVertexData vertexData,
+		Map<Integer, float[]> normals,
+		TileVertexCursor vertices,
+		int[] face,
+		boolean isBridge
+	) {
+		float[][] positions = new float[3][];
+		for (int i = 0; i < 3; i++) {
+			int vertex = face[i];
+			int height = vertices.height(vertex);
+			if (!isBridge)
+				height += vertexData.getUnderwaterDepth(vertexData.indexOf(vertices.key(vertex)));
+			positions[i] = new float[] { vertices.x(vertex), vertices.y(vertex), height };
+		}
+
+		float[] faceNormal = HDUtils.calculateSurfaceNormals(positions[0], positions[1], positions[2]);
+		for (int vertex : face) {
+			float[] normal = normals.computeIfAbsent(vertices.key(vertex), k -> new float[3]);
+			for (int i = 0; i < 3; i++)
+				normal[i] += faceNormal[i];
+		}
+	}
+
+	private SceneContext createSceneContext(Scene scene) {
+		SceneContext sceneContext = new SceneContext(scene, 0, false, null);
+		sceneContexts.add(sceneContext);
+
+		TerrainVertexData vertexData = new TerrainVertexData();
+		TileVertexCursor vertices = new TileVertexCursor();
+		forEachTile(scene, tile -> {
+			vertices.tile(scene, tile);
+			for (int vertex = 0; vertex < vertices.count(); vertex++)
+				vertexData.add(vertices.key(vertex));
+
+			SceneTileModel model = tile.getSceneTileModel();
+			if (model != null) {
+				for (int face = 0; face < model.getFaceX().length; face++) {
+					vertices.face(tile, face);
+					for (int vertex = 0; vertex < vertices.count(); vertex++)
+						vertexData.add(vertices.key(vertex));
+				}
+			}
+		});
+		vertexData.allocate();
+
+		// sink some of the terrain, the same way each time
+		Random depths = new Random(117);
+		for (int vertex = 1; vertex <= vertexData.size(); vertex++)
+			if (depths.nextInt(3) == 0)
+				vertexData.setUnderwaterDepth(vertex, depths.nextInt(1000));
+
+		sceneContext.vertexData = vertexData;
+		return sceneContext;
+	}
+
+	private static void forEachTile(Scene scene, Consumer<Tile> consumer) {
+		Tile[][][] tiles = scene.getExtendedTiles();
+		for (Tile[][] plane : tiles) {
+			for (Tile[] column : plane) {
+				for (Tile tile : column) {
+					if (tile == null)
+						continue;
+					if (tile.getBridge() != null)
+						consumer.accept(tile.getBridge());
+					consumer.accept(tile);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates two planes of hilly terrain, where some tiles have tile models, and some have bridges above them.
+	 */
+	private static Scene createScene(Random random) {
+		int size = Constants.EXTENDED_SCENE_SIZE;
+		int[][][] tileHeights = new int[Constants.MAX_Z][size + 1][size + 1];
+		for (int z = 0; z < 2; z++)
+			for (int x = 0; x <= size; x++)
+				for (int y = 0; y <= size; y++)
+					tileHeights[z][x][y] = -z * 240 - (int) (300 * Math.sin(x / 7.) * Math.cos(y / 5.)) - random.nextInt(40);
+
+		Tile[][][] tiles = new Tile[Constants.MAX_Z][size][size];
+		for (int z = 0; z < 2; z++) {
+			for (int x = MIN; x < MAX; x++) {
+				for (int y = MIN; y < MAX; y++) {
+					if (random.nextInt(10) == 0)
+						continue;
+					Tile tile = tiles[z][x][y] = createTile(random, tileHeights, x, y, z);
+					if (z == 0 && random.nextInt(10) == 0) {
+						Tile bridge = createTile(random, tileHeights, x, y, z);
+						when(tile.getBridge()).thenReturn(bridge);
+					}
+				}
+			}
+		}
+
+		Scene scene = mock(Scene.class);
+		when(scene.getTileHeights()).thenReturn(tileHeights);
+		when(scene.getExtendedTiles()).thenReturn(tiles);
+		return scene;
+	}
+
+	private static Tile createTile(Random random, int[][][] tileHeights, int exX, int exY, int plane) {
+		Tile tile = mock(Tile.class);
+		when(tile.getSceneLocation()).thenReturn(new Point(exX - SCENE_OFFSET, exY - SCENE_OFFSET));
+		when(tile.getRenderLevel()).thenReturn(plane);
+		if (random.nextInt(4) == 0) {
+			SceneTileModel model = createTileModel(random, tileHeights[plane], exX, exY);
+			when(tile.getSceneTileModel()).thenReturn(model);
+		}
+		return tile;
+	}
+
+	/**
+	 * Creates a tile model made up of four faces around a vertex in the middle of the tile, which can be off-center.
+	 */
+	private static SceneTileModel createTileModel(Random random, int[][] tileHeights, int exX, int exY) {
+		int x = (exX - SCENE_OFFSET) * LOCAL_TILE_SIZE;
+		int y = (exY - SCENE_OFFSET) * LOCAL_TILE_SIZE;
+		int centerX = x + 16 + random.nextInt(96);
+		int centerY = y + 16 + random.nextInt(96);
+		int centerHeight = (tileHeights[exX][exY] + tileHeights[exX + 1][exY + 1]) / 2 - random.nextInt(64);
+
+		// SW, SE, NE, NW, center
+		int[] vertexX = { x, x + LOCAL_TILE_SIZE, x + LOCAL_TILE_SIZE, x, centerX };
+		int[] vertexZ = { y, y, y + LOCAL_TILE_SIZE, y + LOCAL_TILE_SIZE, centerY };
+		int[] vertexY = {
+			tileHeights[exX][exY],
+			tileHeights[exX + 1][exY],
+			tileHeights[exX + 1][exY + 1],
+			tileHeights[exX][exY + 1],
+			centerHeight
+		};
+
+		SceneTileModel model = mock(SceneTileModel.class);
+		when(model.getVertexX()).thenReturn(vertexX);
+		when(model.getVertexY()).thenReturn(vertexY);
+		when(model.getVertexZ()).thenReturn(vertexZ);
+		when(model.getFaceX()).thenReturn(new int[] { 4, 4, 4, 4 });
+		when(model.getFaceY()).thenReturn(new int[] { 0, 1, 2, 3 });
+		when(model.getFaceZ()).thenReturn(new int[] { 1, 2, 3, 0 });
+		return model;
+	}
+}
@@ -0,0 +1,163 @@
+package rs117.hd.test;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import net.runelite.api.*;
+import org.junit.Test;
+import rs117.hd.scene.ProceduralGenerator;
+import rs117.hd.scene.TerrainVertexData;
+import rs117.hd.scene.TileVertexCursor;
+
+import static net.runelite.api.Perspective.LOCAL_TILE_SIZE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+import static rs117.hd.scene.SceneUploader.SCENE_OFFSET;
+import static rs117.hd.test.utils.Fakes.createFake;
+
+public class TileVertexCursorTest {
+	private static final int PLANE = 1;
+	private static final int SIZE = 64;
+
+	@Test
+	public void testTileVertices() {
+		Scene scene = createScene();
+		TileVertexCursor vertices = new TileVertexCursor().tile(scene, createTile(10, 20, null));
+
+		assertEquals(4, vertices.count());
+		int[][] expected = {
+			{ 10 * LOCAL_TILE_SIZE, 20 * LOCAL_TILE_SIZE, height(10, 20) },
+			{ 11 * LOCAL_TILE_SIZE, 20 * LOCAL_TILE_SIZE, height(11, 20) },
+			{ 10 * LOCAL_TILE_SIZE, 21 * LOCAL_TILE_SIZE, height(10, 21) },
+			{ 11 * LOCAL_TILE_SIZE, 21 * LOCAL_TILE_SIZE, height(11, 21) }
+		};
+		for (int vertex = 0; vertex < expected.length; vertex++)
+			assertVertex(vertices, vertex, expected[vertex]);
+	}
+
+	@Test
+	public void testFaceVertices() {
+		SceneTileModel model = createTileModel(10, 20);
+		TileVertexCursor vertices = new TileVertexCursor().face(createTile(10, 20, model), 1);
+
+		// the second face is made up of the NE, NW and SW corners, with heights along the model's Y axis
+		assertEquals(3, vertices.count());
+		assertVertex(vertices, 0, new int[] { 11 * LOCAL_TILE_SIZE, 21 * LOCAL_TILE_SIZE, -3 });
+		assertVertex(vertices, 1, new int[] { 10 * LOCAL_TILE_SIZE, 21 * LOCAL_TILE_SIZE, -2 });
+		assertVertex(vertices, 2, new int[] { 10 * LOCAL_TILE_SIZE, 20 * LOCAL_TILE_SIZE, 0 });
+	}
+
+	@Test
+	public void testWalkingTilesDoesNotAllocate() {
+		assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		assumeTrue(threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled());
+
+		// every other tile has a tile model, like around shorelines and paths
+		Scene scene = createScene();
+		Tile[] tiles = new Tile[SIZE * SIZE];
+		for (int x = 0; x < SIZE; x++)
+			for (int y = 0; y < SIZE; y++)
+				tiles[x * SIZE + y] = createTile(x, y, (x + y) % 2 == 0 ? createTileModel(x, y) : null);
+
+		TerrainVertexData vertexData = new TerrainVertexData();
+		TileVertexCursor vertices = new TileVertexCursor();
+		for (Tile tile : tiles) {
+			vertices.tile(scene, tile);
+			for (int vertex = 0; vertex < vertices.count(); vertex++)
+				vertexData.add(vertices.key(vertex));
+		}
+		vertexData.allocate();
+
+		// warm up, so class loading and the like isn't measured
+		walk(scene, tiles, vertexData, vertices);
+
+		long threadId = Thread.currentThread().getId();
+		int iterations = 20;
+		long checksum = 0;
+		long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < iterations; i++)
+			checksum += walk(scene, tiles, vertexData, vertices);
+		long allocated = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+		assertEquals(iterations * walk(scene, tiles, vertexData, vertices), checksum);
+		double bytesPerTile = (double) allocated / (iterations * tiles.length);
+		assertTrue("allocated " + bytesPerTile + " bytes per tile", bytesPerTile < 1);
+	}
+
+	/**
+	 * Reads the vertices of each tile and face, and looks up their indices, like the procedural generator does.
+	 */
+	private static long walk(Scene scene, Tile[] tiles, TerrainVertexData vertexData, TileVertexCursor vertices) {
+		long checksum = 0;
+		for (Tile tile : tiles) {
+			vertices.tile(scene, tile);
+			for (int vertex = 0; vertex < vertices.count(); vertex++)
+				checksum += vertexData.indexOf(vertices.key(vertex)) + vertices.height(vertex);
+
+			SceneTileModel model = tile.getSceneTileModel();
+			if (model == null)
+				continue;
+
+			for (int face = 0; face < model.getFaceX().length; face++) {
+				vertices.face(tile, face);
+				for (int vertex = 0; vertex < vertices.count(); vertex++)
+					checksum += vertexData.indexOf(vertices.key(vertex)) + vertices.x(vertex) + vertices.y(vertex);
+			}
+		}
+		return checksum;
+	}
+
+	private static void assertVertex(TileVertexCursor vertices, int vertex, int[] expected) {
+		assertEquals("X of vertex " + vertex, expected[0], vertices.x(vertex));
+		assertEquals("Y of vertex " + vertex, expected[1], vertices.y(vertex));
+		assertEquals("height of vertex " + vertex, expected[2], vertices.height(vertex));
+		assertEquals(
+			"key of vertex " + vertex,
+			ProceduralGenerator.vertexKey(PLANE, expected[0], expected[1]),
+			vertices.key(vertex)
+		);
+	}
+
+	private static int height(int tileX, int tileY) {
+		return -(tileX * 7 + tileY * 3);
+	}
+
+	private static Scene createScene() {
+		int size = Constants.EXTENDED_SCENE_SIZE + 1;
+		int[][][] tileHeights = new int[Constants.MAX_Z][size][size];
+		for (int x = 0; x < SIZE + 1; x++)
+			for (int y = 0; y < SIZE + 1; y++)
+				tileHeights[PLANE][x + SCENE_OFFSET][y + SCENE_OFFSET] = height(x, y);
+
+		Map<String, Object> properties = new HashMap<>();
+		properties.put("TileHeights", tileHeights);
+		return createFake(Scene.class, properties);
+	}
+
+	private static Tile createTile(int tileX, int tileY, SceneTileModel model) {
+		Map<String, Object> properties = new HashMap<>();
+		properties.put("SceneLocation", new Point(tileX, tileY));
+		properties.put("RenderLevel", PLANE);
+		properties.put("SceneTileModel", model);
+		return createFake(Tile.class, properties);
+	}
+
+	/**
+	 * Creates a tile model split diagonally into two faces, with the NW corner raised.
+	 */
+	private static SceneTileModel createTileModel(int tileX, int tileY) {
+		int x = tileX * LOCAL_TILE_SIZE;
+		int y = tileY * LOCAL_TILE_SIZE;
+		Map<String, Object> properties = new HashMap<>();
+		// SW, SE, NE, NW
+		properties.put("VertexX", new int[] { x, x + LOCAL_TILE_SIZE, x + LOCAL_TILE_SIZE, x });
+		properties.put("VertexY", new int[] { 0, -1, -3, -2 });
+		properties.put("VertexZ", new int[] { y, y, y + LOCAL_TILE_SIZE, y + LOCAL_TILE_SIZE });
+		properties.put("FaceX", new int[] { 0, 2 });
+		properties.put("FaceY", new int[] { 1, 3 });
+		properties.put("FaceZ", new int[] { 2, 0 });
+		return createFake(SceneTileModel.class, properties);
+	}
+}
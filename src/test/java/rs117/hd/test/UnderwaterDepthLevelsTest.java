@@ -0,0 +1,159 @@
+package rs117.hd.test;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import rs117.hd.scene.ProceduralGenerator;
+
+import static net.runelite.api.Constants.EXTENDED_SCENE_SIZE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class UnderwaterDepthLevelsTest {
+	private static final int SIZE = EXTENDED_SCENE_SIZE + 1;
+	private static final int MAX_LEVEL = ProceduralGenerator.DEPTH_LEVEL_SLOPE.length;
+
+	@Test
+	public void testOpenWater() {
+		int[][] levels = calculate(createWater());
+
+		assertEquals(0, levels[0][90]);
+		assertEquals(1, levels[1][90]);
+		assertEquals(2, levels[90][SIZE - 2]);
+		assertEquals(MAX_LEVEL, levels[90][90]);
+	}
+
+	@Test
+	public void testLake() {
+		int[][] water = createWater();
+		fillCircle(water, 90, 80, 50, false);
+		assertSameAsSweeps(water);
+	}
+
+	@Test
+	public void testOcean() {
+		Random random = new Random(117);
+		for (int i = 0; i < 20; i++) {
+			int[][] water = createWater();
+			for (int island = 0; island < 8; island++)
+				fillCircle(water, random.nextInt(SIZE), random.nextInt(SIZE), 2 + random.nextInt(12), true);
+			assertSameAsSweeps(water);
+		}
+	}
+
+	@Test
+	public void testCoastline() {
+		for (int side = 0; side < 4; side++) {
+			int[][] water = createWater();
+			for (int i = 0; i < SIZE; i++) {
+				int shore = 60 + (int) (10 * Math.sin(i / 9.));
+				for (int j = 0; j < shore; j++) {
+					switch (side) {
+						case 0: water[i][j] = 0; break;
+						case 1: water[i][SIZE - 1 - j] = 0; break;
+						case 2: water[j][i] = 0; break;
+						default: water[SIZE - 1 - j][i] = 0; break;
+					}
+				}
+			}
+			assertSameAsSweeps(water);
+		}
+	}
+
+	@Test
+	public void testRivers() {
+		int[][] water = new int[SIZE][SIZE];
+		for (int i = 0; i < SIZE; i++) {
+			water[i][40] = 1;
+			water[i][100 + (int) (8 * Math.sin(i / 5.))] = 1;
+			water[i][101 + (int) (8 * Math.sin(i / 5.))] = 1;
+			water[70][i] = 1;
+		}
+		assertSameAsSweeps(water);
+	}
+
+	@Test
+	public void testRandomShores() {
+		Random random = new Random(117);
+		for (int i = 0; i < 20; i++) {
+			int[][] water = createWater();
+			for (int[] column : water)
+				for (int y = 0; y < SIZE; y++)
+					if (random.nextInt(20 + i * 20) == 0)
+						column[y] = 0;
+			assertSameAsSweeps(water);
+		}
+	}
+
+	/**
+	 * Mimics the initial state of depth levels in a scene filled with water, where the east edge isn't water.
+	 */
+	private static int[][] createWater() {
+		int[][] water = new int[SIZE][SIZE];
+		for (int x = 0; x < EXTENDED_SCENE_SIZE; x++)
+			Arrays.fill(water[x], 1);
+		return water;
+	}
+
+	private static void fillCircle(int[][] levels, int centerX, int centerY, int radius, boolean land) {
+		for (int x = 0; x < SIZE; x++) {
+			for (int y = 0; y < SIZE; y++) {
+				int dx = x - centerX;
+				int dy = y - centerY;
+				boolean inside = dx * dx + dy * dy <= radius * radius;
+				if (inside == land)
+					levels[x][y] = 0;
+			}
+		}
+	}
+
+	private static int[][] calculate(int[][] levels) {
+		int[][] result = copy(levels);
+		ProceduralGenerator.calculateDepthLevels(result);
+		return result;
+	}
+
+	private static void assertSameAsSweeps(int[][] levels) {
+		int[][] expected = copy(levels);
+		sweepDepthLevels(expected);
+		int[][] actual = calculate(levels);
+		for (int x = 0; x < SIZE; x++)
+			assertArrayEquals("depth levels differ at x = " + x, expected[x], actual[x]);
+	}
+
+	private static int[][] copy(int[][] levels) {
+		int[][] copy = new int[levels.length][];
+		for (int x = 0; x < levels.length; x++)
+			copy[x] = levels[x].clone();
+		return copy;
+	}
+
+	/**
+	 * The algorithm previously used to calculate depth levels, which sweeps the whole grid once per level.
+	 */
+	private static void sweepDepthLevels(int[][] levels) {
+		for (int level = 0; level < MAX_LEVEL - 1; level++) {
+			for (int x = 0; x < levels.length; x++) {
+				for (int y = 0; y < levels[x].length; y++) {
+					if (levels[x][y] == 0)
+						continue;
+					if (x == 0 || y == 0 || x == EXTENDED_SCENE_SIZE || y == EXTENDED_SCENE_SIZE) {
+						levels[x][y] = 0;
+						continue;
+					}
+
+					int tileHeight = levels[x][y];
+					if (levels[x - 1][y] < tileHeight)
+						continue;
+					if (x < levels.length - 1 && levels[x + 1][y] < tileHeight)
+						continue;
+					if (levels[x][y - 1] < tileHeight)
+						continue;
+					if (y < levels.length - 1 && levels[x][y + 1] < tileHeight)
+						continue;
+					levels[x][y]++;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package rs117.hd.test.utils;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class Fakes {
+	// the property each getter or setter accesses, cached so calling them doesn't allocate
+	private static final Map<Method, String> PROPERTY_NAMES = new ConcurrentHashMap<>();
+	private static final Float ZERO_FLOAT = 0f;
+	private static final Double ZERO_DOUBLE = 0d;
+
+	/**
+	 * Creates an implementation of the interface whose getters return the specified properties, keyed by their name
+	 * without the get prefix, and whose setters update them. Other methods return null, or zero for primitives. Unlike
+	 * mocks, calling getters and setters doesn't allocate, as long as primitives are boxed up front.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T createFake(Class<T> type, Map<String, Object> properties) {
+		return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class[] { type }, (proxy, method, args) -> {
+			String name = method.getName();
+			if (name.equals("hashCode"))
+				return System.identityHashCode(proxy);
+			if (name.equals("equals"))
+				return proxy == args[0];
+			if (name.equals("toString"))
+				return type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+
+			String property = PROPERTY_NAMES.get(method);
+			if (property == null && (name.startsWith("get") || name.startsWith("set"))) {
+				property = name.substring(3);
+				PROPERTY_NAMES.put(method, property);
+			}
+
+			if (name.startsWith("set") && args != null && args.length == 1) {
+				properties.put(property, args[0]);
+				return null;
+			}
+
+			Object value = name.startsWith("get") ? properties.get(property) : null;
+			if (value != null)
+				return value;
+
+			Class<?> returnType = method.getReturnType();
+			if (returnType == boolean.class)
+				return false;
+			if (returnType == int.class)
+				return 0;
+			if (returnType == long.class)
+				return 0L;
+			if (returnType == short.class)
+				return (short) 0;
+			if (returnType == byte.class)
+				return (byte) 0;
+			if (returnType == float.class)
+				return ZERO_FLOAT;
+			if (returnType == double.class)
+				return ZERO_DOUBLE;
+			return null;
+		});
+	}
+}